@@ -1,5 +1,6 @@
 package com.bnbillains.controllers;
 
+import com.bnbillains.dto.PaginaVista;
 import com.bnbillains.entities.Comodidad;
 import com.bnbillains.services.ComodidadService;
 import org.slf4j.Logger;
@@ -16,7 +17,6 @@ import jakarta.validation.Valid;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 
-import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
@@ -57,34 +57,17 @@ public class ComodidadController {
         logger.info("WEB: Listando comodidades... Pag: {}, Search: {}, Sort: {}", page, search, sort);
 
         Sort sortObj = getSort(sort);
-        List<Comodidad> resultados;
 
-        // Lógica de obtención de datos (Filtrados u ordenados)
-        if (search != null && !search.isBlank()) {
-            resultados = comodidadService.buscarPorFragmentoOrdenado(search, sortObj);
-        } else {
-            resultados = comodidadService.obtenerTodasOrdenadas(sortObj);
-        }
-
-        // Lógica de Paginación Manual en memoria
-        int pageSize = 5; // Elementos por página
-        int totalItems = resultados.size();
-        int totalPages = (int) Math.ceil((double) totalItems / pageSize);
-
-        if (page > totalPages && totalPages > 0) page = totalPages;
-        if (page < 1) page = 1;
-
-        int start = (page - 1) * pageSize;
-        int end = Math.min(start + pageSize, totalItems);
-
-        List<Comodidad> listaPaginada = (start > end || totalItems == 0) ?
-                Collections.emptyList() : resultados.subList(start, end);
+        // Lógica de obtención de datos (Filtrados u ordenados), paginada en la BD
+        PaginaVista<Comodidad> pagina = PaginaVista.cargar(page, 5, sortObj, pageable -> {
+            if (search != null && !search.isBlank()) {
+                return comodidadService.buscarPorFragmentoOrdenado(search, pageable);
+            }
+            return comodidadService.obtenerTodasOrdenadas(pageable);
+        });
 
         // Pasar atributos a la vista
-        model.addAttribute("comodidades", listaPaginada);
-        model.addAttribute("totalPages", totalPages);
-        model.addAttribute("currentPage", page);
-        model.addAttribute("totalItems", totalItems);
+        pagina.exponer(model, "comodidades");
         model.addAttribute("search", search);
         model.addAttribute("sort", sort);
 
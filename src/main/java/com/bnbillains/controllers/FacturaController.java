@@ -1,21 +1,34 @@
 package com.bnbillains.controllers;
 
+import com.bnbillains.dto.FacturaImpresion;
+import com.bnbillains.dto.IngresosPeriodo;
+import com.bnbillains.dto.PaginaCursor;
 import com.bnbillains.entities.Factura;
-import com.bnbillains.repositories.ReservaRepository;
+import com.bnbillains.services.ExportacionService;
 import com.bnbillains.services.FacturaService;
+import com.bnbillains.services.ImpresionFacturasService;
+import com.bnbillains.services.IngresosDiariosService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.domain.Sort;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 import jakarta.validation.Valid;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
-import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
 
 /**
@@ -28,11 +41,16 @@ public class FacturaController {
     private static final Logger logger = LoggerFactory.getLogger(FacturaController.class);
 
     private final FacturaService facturaService;
-    private final ReservaRepository reservaRepository;
+    private final IngresosDiariosService ingresosService;
+    private final ExportacionService exportacionService;
+    private final ImpresionFacturasService impresionService;
 
-    public FacturaController(FacturaService facturaService, ReservaRepository reservaRepository) {
+    public FacturaController(FacturaService facturaService, IngresosDiariosService ingresosService,
+                             ExportacionService exportacionService, ImpresionFacturasService impresionService) {
         this.facturaService = facturaService;
-        this.reservaRepository = reservaRepository;
+        this.ingresosService = ingresosService;
+        this.exportacionService = exportacionService;
+        this.impresionService = impresionService;
     }
 
     // --- LISTAR ---
@@ -40,9 +58,11 @@ public class FacturaController {
     /**
      * Muestra el listado de facturas con filtros avanzados.
      * Soporta filtrado por rango de precios y método de pago simultáneamente.
+     * Pagina por cursor (keyset): "siguiente" y "anterior" llevan un token con la última fila vista.
      */
     @GetMapping("/facturas")
     public String listar(@RequestParam(defaultValue = "1") int page,
+                         @RequestParam(required = false) String cursor,
                          @RequestParam(required = false) String metodoPago,
                          @RequestParam(required = false) Double minImporte,
                          @RequestParam(required = false) Double maxImporte,
@@ -50,32 +70,19 @@ public class FacturaController {
                          Model model) {
 
         Sort sortObj = getSort(sort);
-        List<Factura> resultados;
 
         // Lógica de filtrado en cascada (Prioridad: Rango > Método > Todo)
-        if (minImporte != null && maxImporte != null) {
-            resultados = facturaService.buscarPorRangoImporte(minImporte, maxImporte, sortObj);
-        } else if (metodoPago != null && !metodoPago.isBlank()) {
-            resultados = facturaService.buscarPorMetodoPago(metodoPago, sortObj);
-        } else {
-            resultados = facturaService.obtenerTodas(sortObj);
-        }
-
-        // Paginación Manual (Cálculo de sublistas para la vista)
-        int pageSize = 5;
-        int totalItems = resultados.size();
-        int totalPages = (int) Math.ceil((double) totalItems / pageSize);
-        if (page < 1) page = 1;
-        if (page > totalPages && totalPages > 0) page = totalPages;
-        int start = (page - 1) * pageSize;
-        int end = Math.min(start + pageSize, totalItems);
-        List<Factura> listaPaginada = (start > end || totalItems == 0) ? Collections.emptyList() : resultados.subList(start, end);
+        PaginaCursor<Factura> pagina = PaginaCursor.cargar(cursor, page, 5, sort, sortObj, (posicion, orden, tamano) -> {
+            if (minImporte != null && maxImporte != null) {
+                return facturaService.buscarPorRangoImporte(minImporte, maxImporte, posicion, orden, tamano);
+            } else if (metodoPago != null && !metodoPago.isBlank()) {
+                return facturaService.buscarPorMetodoPago(metodoPago, posicion, orden, tamano);
+            }
+            return facturaService.obtenerTodas(posicion, orden, tamano);
+        });
 
         // Pasar datos al HTML
-        model.addAttribute("facturas", listaPaginada);
-        model.addAttribute("totalPages", totalPages);
-        model.addAttribute("currentPage", page);
-        model.addAttribute("totalItems", totalItems);
+        pagina.exponer(model, "facturas");
         model.addAttribute("metodoPago", metodoPago);
         model.addAttribute("minImporte", minImporte);
         model.addAttribute("maxImporte", maxImporte);
@@ -93,7 +100,6 @@ public class FacturaController {
         f.setFechaEmision(LocalDate.now());
 
         model.addAttribute("factura", f);
-        model.addAttribute("allReservas", reservaRepository.findAll());
         return "forms-html/factura-form";
     }
 
@@ -109,7 +115,6 @@ public class FacturaController {
             }
 
             model.addAttribute("factura", f);
-            model.addAttribute("allReservas", reservaRepository.findAll());
             return "forms-html/factura-form";
         }
         return "redirect:/facturas";
@@ -124,7 +129,6 @@ public class FacturaController {
                           Model model) {
 
         if (bindingResult.hasErrors()) {
-            model.addAttribute("allReservas", reservaRepository.findAll());
             return "forms-html/factura-form";
         }
 
@@ -165,7 +169,6 @@ public class FacturaController {
 
             if (errorCritico) {
                 logger.warn("Errores de validación críticos detectados: {}", bindingResult.getAllErrors());
-                model.addAttribute("allReservas", reservaRepository.findAll());
 
                 // Restauramos datos visuales recuperando de la BD para no romper el formulario
                 if(factura.getId() != null) {
@@ -213,11 +216,90 @@ public class FacturaController {
         return facturaService.obtenerPorId(id)
                 .map(factura -> {
                     model.addAttribute("factura", factura);
+                    model.addAttribute("impresion", FacturaImpresion.de(factura));
                     return "entities-html/factura-detail";
                 })
                 .orElseGet(() -> "redirect:/facturas");
     }
 
+    // --- EXPORTACIÓN ---
+
+    /**
+     * Descarga de facturas (CSV o NDJSON) por rango de fecha de emisión y villano.
+     * Se escribe en la respuesta según se lee de la BD (ver {@link ExportacionService}).
+     */
+    @GetMapping("/facturas/export")
+    public ResponseEntity<StreamingResponseBody> exportar(
+            @RequestParam(required = false) String formato,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate desde,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate hasta,
+            @RequestParam(required = false) Long villanoId) {
+        ExportacionService.Filtro filtro = new ExportacionService.Filtro(desde, hasta, villanoId);
+        if (!filtro.rangoValido()) {
+            return ResponseEntity.badRequest().build();
+        }
+        ExportacionService.Formato f = ExportacionService.Formato.de(formato);
+        StreamingResponseBody cuerpo = salida -> exportacionService.exportarFacturas(filtro, f, salida);
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        ContentDisposition.attachment().filename(filtro.nombreFichero("facturas", f)).build().toString())
+                .contentType(MediaType.parseMediaType(f.getTipoContenido()))
+                .body(cuerpo);
+    }
+
+    /**
+     * Varias facturas en un solo documento imprimible (una por página), filtradas por fecha de emisión,
+     * método de pago y villano. Se envía según se van pintando (ver {@link ImpresionFacturasService}).
+     */
+    @GetMapping("/facturas/imprimir")
+    public ResponseEntity<StreamingResponseBody> imprimirLote(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate desde,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate hasta,
+            @RequestParam(required = false) String metodoPago,
+            @RequestParam(required = false) Long villanoId) {
+        ImpresionFacturasService.Filtro filtro = new ImpresionFacturasService.Filtro(desde, hasta, metodoPago, villanoId);
+        if (!filtro.rangoValido()) {
+            return ResponseEntity.badRequest().build();
+        }
+        // El cuerpo se escribe en otro hilo: el idioma se toma aquí, en el de la petición
+        Locale locale = LocaleContextHolder.getLocale();
+        StreamingResponseBody cuerpo = salida -> impresionService.imprimir(filtro, locale, salida);
+        return ResponseEntity.ok()
+                .contentType(new MediaType(MediaType.TEXT_HTML, StandardCharsets.UTF_8))
+                .body(cuerpo);
+    }
+
+    // --- ANALÍTICA ---
+
+    /**
+     * Ingresos (JSON) entre dos fechas de emisión, por día o por mes ({@code periodo=dia|mes}) y
+     * opcionalmente desglosados por guarida o método de pago ({@code desglose=guarida|metodo}).
+     * Se responde desde el agregado diario, no desde las facturas.
+     */
+    @GetMapping("/api/facturas/ingresos")
+    @ResponseBody
+    public ResponseEntity<List<IngresosPeriodo>> ingresosApi(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate desde,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate hasta,
+            @RequestParam(defaultValue = "dia") String periodo,
+            @RequestParam(required = false) String desglose) {
+        if (hasta.isBefore(desde)) {
+            return ResponseEntity.badRequest().build();
+        }
+        IngresosDiariosService.Periodo p = "mes".equals(periodo)
+                ? IngresosDiariosService.Periodo.MES : IngresosDiariosService.Periodo.DIA;
+        return ResponseEntity.ok(ingresosService.consultar(desde, hasta, p, getDesglose(desglose)));
+    }
+
+    private IngresosDiariosService.Desglose getDesglose(String desglose) {
+        if (desglose == null) return IngresosDiariosService.Desglose.TOTAL;
+        return switch (desglose) {
+            case "guarida" -> IngresosDiariosService.Desglose.GUARIDA;
+            case "metodo" -> IngresosDiariosService.Desglose.METODO;
+            default -> IngresosDiariosService.Desglose.TOTAL;
+        };
+    }
+
     private Sort getSort(String sort) {
         if (sort == null) return Sort.by("id").descending();
         return switch (sort) {
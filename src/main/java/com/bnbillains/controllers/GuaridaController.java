@@ -1,14 +1,25 @@
 package com.bnbillains.controllers;
 
+import com.bnbillains.dto.BusquedaGuaridasDTO;
+import com.bnbillains.dto.FiltroGuaridas;
+import com.bnbillains.dto.GuaridaDisponibleDTO;
+import com.bnbillains.dto.GuaridaResumen;
+import com.bnbillains.dto.PaginaVista;
 import com.bnbillains.entities.Guarida;
 import com.bnbillains.entities.SalaSecreta;
-import com.bnbillains.repositories.ComodidadRepository;
 import com.bnbillains.services.FileStorageService;
 import com.bnbillains.services.GuaridaService;
+import com.bnbillains.services.OpcionesService;
+import com.bnbillains.services.ValoracionGuaridaService;
+import com.bnbillains.services.VariantesImagenService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.validation.BindingResult;
@@ -17,6 +28,7 @@ import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 import jakarta.validation.Valid;
 
+import java.time.LocalDate;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
@@ -28,14 +40,20 @@ public class GuaridaController {
     private static final Logger logger = LoggerFactory.getLogger(GuaridaController.class);
 
     private final GuaridaService guaridaService;
-    private final ComodidadRepository comodidadRepository;
+    private final OpcionesService opcionesService;
+    private final ValoracionGuaridaService valoracionService;
+    private final VariantesImagenService variantesImagenService; // Copias reducidas de las fotos
 
     @Autowired
     private FileStorageService fileStorageService; // Servicio para guardar fotos en disco
 
-    public GuaridaController(GuaridaService guaridaService, ComodidadRepository comodidadRepository) {
+    public GuaridaController(GuaridaService guaridaService, OpcionesService opcionesService,
+                             ValoracionGuaridaService valoracionService,
+                             VariantesImagenService variantesImagenService) {
         this.guaridaService = guaridaService;
-        this.comodidadRepository = comodidadRepository;
+        this.opcionesService = opcionesService;
+        this.valoracionService = valoracionService;
+        this.variantesImagenService = variantesImagenService;
     }
 
     // ==========================================
@@ -47,50 +65,95 @@ public class GuaridaController {
                          @RequestParam(required = false) String search,
                          @RequestParam(required = false) Double minPrice,
                          @RequestParam(required = false) Double maxPrice,
+                         @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate fechaInicio,
+                         @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate fechaFin,
+                         @RequestParam(required = false) List<Long> comodidad,
+                         @RequestParam(required = false) String ubicacion,
+                         @RequestParam(required = false) Integer estrellas,
                          @RequestParam(required = false) String sort,
                          Model model) {
 
-        Sort sortObj = getSort(sort);
-        List<Guarida> todosLosResultados;
+        FiltroGuaridas filtro = FiltroGuaridas.de(search, minPrice, maxPrice, fechaInicio, fechaFin, comodidad, ubicacion, estrellas);
 
-        // Lógica de filtrado: Priorizamos rango de precio, luego nombre, luego todo
-        if (minPrice != null && maxPrice != null) {
-            todosLosResultados = guaridaService.buscarPorRangoPrecioOrdenado(minPrice, maxPrice, sortObj);
-        } else if (search != null && !search.isBlank()) {
-            todosLosResultados = guaridaService.buscarPorNombre(search);
-        } else {
-            todosLosResultados = guaridaService.obtenerTodosOrdenados(sortObj);
-        }
-
-        // Paginación Manual (Cálculo de índices para cortar la lista)
-        int pageSize = 6;
-        int totalItems = todosLosResultados.size();
-        int totalPages = (int) Math.ceil((double) totalItems / pageSize);
-        if (page > totalPages && totalPages > 0) page = totalPages;
-        if (page < 1) page = 1;
-
-        int start = (page - 1) * pageSize;
-        int end = Math.min(start + pageSize, totalItems);
-        List<Guarida> listaPaginada = (start > end || totalItems == 0) ?
-                Collections.emptyList() : todosLosResultados.subList(start, end);
+        // Todos los filtros se combinan (ver GuaridaService#buscar).
+        // La BD solo devuelve la página pedida (LIMIT/OFFSET) y el total (COUNT)
+        PaginaVista<GuaridaResumen> pagina = PaginaVista.cargar(page, 6, getSort(sort),
+                pageable -> guaridaService.buscar(filtro, sinOrdenPorDefecto(pageable, sort)));
 
         // Pasamos datos a la vista
-        model.addAttribute("guaridas", listaPaginada);
-        model.addAttribute("totalPages", totalPages);
-        model.addAttribute("currentPage", page);
-        model.addAttribute("totalItems", totalItems);
+        pagina.exponer(model, "guaridas");
+        model.addAttribute("facetas", guaridaService.facetas(filtro));
+        // Media y número de reseñas de cada tarjeta, en una sola consulta al agregado
+        model.addAttribute("valoraciones", valoracionService.deGuaridas(
+                pagina.contenido().stream().map(GuaridaResumen::getId).toList()));
         // Mantenemos filtros en pantalla
         model.addAttribute("search", search);
         model.addAttribute("sort", sort);
         model.addAttribute("minPrice", minPrice);
         model.addAttribute("maxPrice", maxPrice);
+        model.addAttribute("fechaInicio", fechaInicio);
+        model.addAttribute("fechaFin", fechaFin);
+        model.addAttribute("comodidad", filtro.comodidades());
+        model.addAttribute("ubicacion", ubicacion);
+        model.addAttribute("estrellas", estrellas);
 
         return "entities-html/guarida";
     }
 
+    /**
+     * API JSON: la misma búsqueda facetada que el catálogo, con las cuentas de cada faceta.
+     * Ej: /api/guaridas/buscar?comodidad=1&comodidad=4&estrellas=4&maxPrice=500
+     */
+    @GetMapping("/api/guaridas/buscar")
+    @ResponseBody
+    public ResponseEntity<BusquedaGuaridasDTO> buscarApi(
+            @RequestParam(defaultValue = "1") int page,
+            @RequestParam(defaultValue = "6") int size,
+            @RequestParam(required = false) String search,
+            @RequestParam(required = false) Double minPrice,
+            @RequestParam(required = false) Double maxPrice,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate fechaInicio,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate fechaFin,
+            @RequestParam(required = false) List<Long> comodidad,
+            @RequestParam(required = false) String ubicacion,
+            @RequestParam(required = false) Integer estrellas,
+            @RequestParam(required = false) String sort) {
+
+        FiltroGuaridas filtro = FiltroGuaridas.de(search, minPrice, maxPrice, fechaInicio, fechaFin, comodidad, ubicacion, estrellas);
+        PaginaVista<GuaridaResumen> pagina = PaginaVista.cargar(page, Math.clamp(size, 1, 100), getSort(sort),
+                pageable -> guaridaService.buscar(filtro, sinOrdenPorDefecto(pageable, sort)));
+
+        List<GuaridaDisponibleDTO> guaridas = pagina.contenido().stream().map(GuaridaDisponibleDTO::de).toList();
+        return ResponseEntity.ok(new BusquedaGuaridasDTO(guaridas, pagina.paginaActual(), pagina.totalPaginas(),
+                guaridaService.facetas(filtro)));
+    }
+
+    /**
+     * API JSON: guaridas libres entre dos fechas (ambas incluidas).
+     * Ej: /api/guaridas/disponibles?fechaInicio=2026-01-01&fechaFin=2026-01-07
+     */
+    @GetMapping("/api/guaridas/disponibles")
+    @ResponseBody
+    public ResponseEntity<List<GuaridaDisponibleDTO>> disponiblesApi(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate fechaInicio,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate fechaFin,
+            @RequestParam(required = false) String sort) {
+        if (fechaFin.isBefore(fechaInicio)) {
+            return ResponseEntity.badRequest().build();
+        }
+        // Misma búsqueda que el catálogo con solo el filtro de fechas (admite también el orden por valoración)
+        FiltroGuaridas filtro = FiltroGuaridas.de(null, null, null, fechaInicio, fechaFin, null, null, null);
+        List<GuaridaDisponibleDTO> libres = guaridaService.buscar(filtro, Pageable.unpaged(getSort(sort)))
+                .stream()
+                .map(GuaridaDisponibleDTO::de)
+                .toList();
+        return ResponseEntity.ok(libres);
+    }
+
     @GetMapping("/guaridas/{id}")
     public String detalle(@PathVariable Long id, Model model) {
-        Optional<Guarida> guarida = guaridaService.obtenerPorId(id);
+        // Sala, comodidades y reseñas (con autor) llegan ya cargadas: la vista no lanza más consultas
+        Optional<Guarida> guarida = guaridaService.obtenerDetalle(id);
 
         if (guarida.isEmpty()) {
             return "redirect:/guaridas";
@@ -102,6 +165,7 @@ public class GuaridaController {
         model.addAttribute("comodidades", g.getComodidades() != null ? g.getComodidades() : Collections.emptyList());
         model.addAttribute("resenas", g.getResenas() != null ? g.getResenas() : Collections.emptyList());
         model.addAttribute("salaSecreta", g.getSalaSecreta());
+        model.addAttribute("valoracion", valoracionService.deGuarida(id).orElse(null));
 
         return "entities-html/guarida-detail";
     }
@@ -120,7 +184,7 @@ public class GuaridaController {
         guarida.setSalaSecreta(new SalaSecreta());
 
         model.addAttribute("guarida", guarida);
-        model.addAttribute("allComodidades", comodidadRepository.findAll());
+        model.addAttribute("allComodidades", opcionesService.comodidades());
         return "forms-html/guarida-form";
     }
 
@@ -138,7 +202,7 @@ public class GuaridaController {
             }
 
             model.addAttribute("guarida", guarida);
-            model.addAttribute("allComodidades", comodidadRepository.findAll());
+            model.addAttribute("allComodidades", opcionesService.comodidades());
             return "forms-html/guarida-form";
         }
         return "redirect:/guaridas";
@@ -156,26 +220,36 @@ public class GuaridaController {
                           Model model) {
 
         if (bindingResult.hasErrors()) {
-            model.addAttribute("allComodidades", comodidadRepository.findAll());
+            model.addAttribute("allComodidades", opcionesService.comodidades());
             return "forms-html/guarida-form";
         }
 
         // Validación manual de nombre único
         if (guarida.getId() == null && guaridaService.existePorNombre(guarida.getNombre())) {
             model.addAttribute("errorMessage", "El nombre de la guarida ya existe.");
-            model.addAttribute("allComodidades", comodidadRepository.findAll());
+            model.addAttribute("allComodidades", opcionesService.comodidades());
             return "forms-html/guarida-form";
         }
 
         // Lógica de subida de imagen
         if (!imageFile.isEmpty()) {
-            String fileName = fileStorageService.saveFile(imageFile);
-            if (fileName != null) {
-                guarida.setImagen(fileName);
+            try {
+                String fileName = fileStorageService.saveFile(imageFile);
+                if (fileName != null) {
+                    guarida.setImagen(fileName);
+                }
+            } catch (IllegalArgumentException e) {
+                // Imagen demasiado grande o de un formato no admitido
+                model.addAttribute("errorMessage", e.getMessage());
+                model.addAttribute("allComodidades", opcionesService.comodidades());
+                return "forms-html/guarida-form";
             }
         }
 
+        // Las copias reducidas las apunta VariantesImagenService cuando existen, nunca el formulario
+        guarida.setImagenVariantes(null);
         guaridaService.guardar(guarida);
+        variantesImagenService.encargar(guarida.getImagen());
         redirectAttributes.addFlashAttribute("successMessage", "Guarida guardada con éxito.");
         return "redirect:/guaridas";
     }
@@ -188,7 +262,7 @@ public class GuaridaController {
                              Model model) {
 
         if (bindingResult.hasErrors()) {
-            model.addAttribute("allComodidades", comodidadRepository.findAll());
+            model.addAttribute("allComodidades", opcionesService.comodidades());
             return "forms-html/guarida-form";
         }
 
@@ -207,6 +281,7 @@ public class GuaridaController {
             }
 
             guaridaService.actualizar(guarida.getId(), guarida);
+            if (!imageFile.isEmpty()) variantesImagenService.encargar(guarida.getImagen());
             redirectAttributes.addFlashAttribute("successMessage", "Guarida actualizada correctamente.");
 
         } catch (Exception e) {
@@ -227,6 +302,11 @@ public class GuaridaController {
         return "redirect:/guaridas";
     }
 
+    // Sin orden elegido dejamos que el servicio decida (relevancia si hay texto, id si no)
+    private static Pageable sinOrdenPorDefecto(Pageable pageable, String sort) {
+        return sort == null ? PageRequest.of(pageable.getPageNumber(), pageable.getPageSize()) : pageable;
+    }
+
     private Sort getSort(String sort) {
         if (sort == null) return Sort.by("id").ascending();
         return switch (sort) {
@@ -234,6 +314,7 @@ public class GuaridaController {
             case "nameDesc" -> Sort.by("nombre").descending();
             case "priceAsc" -> Sort.by("precioNoche").ascending();
             case "priceDesc" -> Sort.by("precioNoche").descending();
+            case "ratingDesc" -> Sort.by(GuaridaService.ORDEN_VALORACION).descending();
             default -> Sort.by("id").ascending();
         };
     }
@@ -1,12 +1,22 @@
 package com.bnbillains.controllers;
 
+import com.bnbillains.services.PanelKpiService;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 @Controller
 public class HomeController {
+
+    private final PanelKpiService panelKpiService;
+
+    public HomeController(PanelKpiService panelKpiService) {
+        this.panelKpiService = panelKpiService;
+    }
+
     @GetMapping("/")
     public String home(Model model) {
+        // Foto ya calculada en segundo plano: la portada no consulta la BD
+        model.addAttribute("kpi", panelKpiService.actual());
         return "index";
     }
 }
@@ -0,0 +1,41 @@
+package com.bnbillains.controllers;
+
+import com.bnbillains.dto.Opcion;
+import com.bnbillains.services.OpcionesService;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+/**
+ * API JSON de autocompletado (typeahead) para los formularios.
+ * Para tablas grandes (villanos, reservas) el formulario pide las opciones de 20 en 20
+ * mientras se escribe, en vez de recibir la tabla entera en el {@code <select>}.
+ */
+@Controller
+public class OpcionesController {
+
+    private final OpcionesService opcionesService;
+
+    public OpcionesController(OpcionesService opcionesService) {
+        this.opcionesService = opcionesService;
+    }
+
+    /**
+     * Ej: /api/opciones/villanos?q=joker&page=0
+     * Tipos: villanos, guaridas, comodidades, reservas.
+     */
+    @GetMapping("/api/opciones/{tipo}")
+    @ResponseBody
+    public ResponseEntity<Opcion.Pagina> buscarApi(@PathVariable String tipo,
+                                                   @RequestParam(defaultValue = "") String q,
+                                                   @RequestParam(defaultValue = "0") int page) {
+        try {
+            return ResponseEntity.ok(opcionesService.buscar(tipo, q, page));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+}
@@ -1,8 +1,8 @@
 package com.bnbillains.controllers;
 
+import com.bnbillains.dto.PaginaVista;
 import com.bnbillains.entities.Resena;
-import com.bnbillains.repositories.GuaridaRepository;
-import com.bnbillains.repositories.VillanoRepository;
+import com.bnbillains.services.OpcionesService;
 import com.bnbillains.services.ResenaService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,8 +14,6 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 import jakarta.validation.Valid;
 
-import java.util.Collections;
-import java.util.List;
 import java.util.Optional;
 
 @Controller
@@ -24,15 +22,11 @@ public class ResenaController {
     private static final Logger logger = LoggerFactory.getLogger(ResenaController.class);
 
     private final ResenaService resenaService;
-    private final VillanoRepository villanoRepository; // Para el select
-    private final GuaridaRepository guaridaRepository; // Para el select
+    private final OpcionesService opcionesService; // Para los select
 
-    public ResenaController(ResenaService resenaService,
-                            VillanoRepository villanoRepository,
-                            GuaridaRepository guaridaRepository) {
+    public ResenaController(ResenaService resenaService, OpcionesService opcionesService) {
         this.resenaService = resenaService;
-        this.villanoRepository = villanoRepository;
-        this.guaridaRepository = guaridaRepository;
+        this.opcionesService = opcionesService;
     }
 
     /**
@@ -48,36 +42,23 @@ public class ResenaController {
         logger.info("WEB: Listando reseñas... Pag: {}, Search: {}, Sort: {}", page, search, sort);
 
         Sort sortObj = getSort(sort);
-        List<Resena> resultados;
-
-        // 1. Obtención de datos
-        if (puntuacion != null) {
-            resultados = resenaService.buscarPorPuntuacion(puntuacion, sortObj);
-        } else if (search != null && !search.isBlank()) {
-            resultados = resenaService.buscarPorComentario(search, sortObj);
-        } else {
-            resultados = resenaService.obtenerTodas(sortObj);
-        }
-
-        // 2. Paginación Manual
-        int pageSize = 5;
-        int totalItems = resultados.size();
-        int totalPages = (int) Math.ceil((double) totalItems / pageSize);
-
-        if (page > totalPages && totalPages > 0) page = totalPages;
-        if (page < 1) page = 1;
-
-        int start = (page - 1) * pageSize;
-        int end = Math.min(start + pageSize, totalItems);
 
-        List<Resena> listaPaginada = (start > end || totalItems == 0) ?
-                Collections.emptyList() : resultados.subList(start, end);
-
-        // 3. Pasar atributos
-        model.addAttribute("resenas", listaPaginada);
-        model.addAttribute("totalPages", totalPages);
-        model.addAttribute("currentPage", page);
-        model.addAttribute("totalItems", totalItems);
+        // 1. Obtención de datos (solo la página pedida)
+        PaginaVista<Resena> pagina = PaginaVista.cargar(page, 5, sortObj, pageable -> {
+            if (puntuacion != null) {
+                return resenaService.buscarPorPuntuacion(puntuacion, pageable);
+            } else if (search != null && !search.isBlank()) {
+                return resenaService.buscarPorComentario(search, pageable);
+            }
+            return resenaService.obtenerTodas(pageable);
+        });
+
+        // 2. Pasar atributos
+        pagina.exponer(model, "resenas");
+        if (puntuacion == null && search != null && !search.isBlank()) {
+            // Trozo de cada comentario con las palabras buscadas marcadas
+            model.addAttribute("fragmentos", resenaService.resaltar(pagina.contenido(), search));
+        }
         model.addAttribute("search", search);
         model.addAttribute("puntuacion", puntuacion);
         model.addAttribute("sort", sort);
@@ -88,9 +69,9 @@ public class ResenaController {
     @GetMapping("/resenas/new")
     public String formularioNuevo(Model model) {
         logger.info("WEB: Nueva reseña.");
-        model.addAttribute("resena", new Resena());
-        model.addAttribute("allVillanos", villanoRepository.findAll());
-        model.addAttribute("allGuaridas", guaridaRepository.findAll());
+        Resena resena = new Resena();
+        model.addAttribute("resena", resena);
+        cargarOpciones(model, resena);
         return "forms-html/resena-form";
     }
 
@@ -99,8 +80,7 @@ public class ResenaController {
         Optional<Resena> resena = resenaService.obtenerPorId(id);
         if (resena.isPresent()) {
             model.addAttribute("resena", resena.get());
-            model.addAttribute("allVillanos", villanoRepository.findAll());
-            model.addAttribute("allGuaridas", guaridaRepository.findAll());
+            cargarOpciones(model, resena.get());
             return "forms-html/resena-form";
         }
         return "redirect:/resenas";
@@ -113,8 +93,7 @@ public class ResenaController {
                           Model model) {
 
         if (bindingResult.hasErrors()) {
-            model.addAttribute("allVillanos", villanoRepository.findAll());
-            model.addAttribute("allGuaridas", guaridaRepository.findAll());
+            cargarOpciones(model, resena);
             return "forms-html/resena-form";
         }
 
@@ -131,8 +110,7 @@ public class ResenaController {
                              Model model) {
 
         if (bindingResult.hasErrors()) {
-            model.addAttribute("allVillanos", villanoRepository.findAll());
-            model.addAttribute("allGuaridas", guaridaRepository.findAll());
+            cargarOpciones(model, resena);
             return "forms-html/resena-form";
         }
 
@@ -153,6 +131,14 @@ public class ResenaController {
         return "redirect:/resenas";
     }
 
+    // Desplegables: primera página de villanos y guaridas (más los ya elegidos); el resto, con el buscador
+    private void cargarOpciones(Model model, Resena resena) {
+        model.addAttribute("opcionesVillanos",
+                opcionesService.villanos(resena.getVillano() != null ? resena.getVillano().getId() : null));
+        model.addAttribute("opcionesGuaridas",
+                opcionesService.guaridas(resena.getGuarida() != null ? resena.getGuarida().getId() : null));
+    }
+
     // Helper de ordenación
     private Sort getSort(String sort) {
         if (sort == null) return Sort.by("id").descending();
@@ -1,21 +1,31 @@
 package com.bnbillains.controllers;
 
+import com.bnbillains.dto.InformeOcupacion;
+import com.bnbillains.dto.PaginaCursor;
 import com.bnbillains.entities.Reserva;
-import com.bnbillains.repositories.GuaridaRepository;
-import com.bnbillains.repositories.VillanoRepository;
+import com.bnbillains.services.ExportacionService;
+import com.bnbillains.services.MotorReservasService;
+import com.bnbillains.services.OcupacionService;
+import com.bnbillains.services.OpcionesService;
 import com.bnbillains.services.ReservaService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.domain.Sort;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 import jakarta.validation.Valid;
 
-import java.util.Collections;
-import java.util.List;
+import java.time.LocalDate;
+import java.time.YearMonth;
 import java.util.Optional;
 
 /**
@@ -28,66 +38,56 @@ public class ReservaController {
     private static final Logger logger = LoggerFactory.getLogger(ReservaController.class);
 
     private final ReservaService reservaService;
-    private final VillanoRepository villanoRepository;
-    private final GuaridaRepository guaridaRepository;
+    private final MotorReservasService motorReservas;
+    private final OpcionesService opcionesService;
+    private final OcupacionService ocupacionService;
+    private final ExportacionService exportacionService;
 
     /**
      * Inyección de dependencias necesaria para la lógica de reservas
      * y para poblar los selectores de Villanos y Guaridas en los formularios.
      */
     public ReservaController(ReservaService reservaService,
-                             VillanoRepository villanoRepository,
-                             GuaridaRepository guaridaRepository) {
+                             MotorReservasService motorReservas,
+                             OpcionesService opcionesService,
+                             OcupacionService ocupacionService,
+                             ExportacionService exportacionService) {
         this.reservaService = reservaService;
-        this.villanoRepository = villanoRepository;
-        this.guaridaRepository = guaridaRepository;
+        this.motorReservas = motorReservas;
+        this.opcionesService = opcionesService;
+        this.ocupacionService = ocupacionService;
+        this.exportacionService = exportacionService;
     }
 
     /**
      * Listado de reservas con soporte para paginación, filtrado y ordenación.
      * Permite filtrar por Cliente (Villano) o por Estado de la reserva.
+     * La paginación es por cursor (keyset), así que las páginas profundas no se vuelven más lentas.
      */
     @GetMapping("/reservas")
     public String listar(@RequestParam(defaultValue = "1") int page,
+                         @RequestParam(required = false) String cursor,
                          @RequestParam(required = false) Long villanoId,
                          @RequestParam(required = false) Boolean estado,
                          @RequestParam(required = false) String sort,
                          Model model) {
 
         Sort sortObj = getSort(sort);
-        List<Reserva> resultados;
 
         // Selección de la estrategia de búsqueda según los filtros activos
-        if (villanoId != null) {
-            resultados = reservaService.buscarPorVillano(villanoId, sortObj);
-        } else if (estado != null) {
-            resultados = reservaService.buscarPorEstado(estado, sortObj);
-        } else {
-            resultados = reservaService.obtenerTodas(sortObj);
-        }
-
-        // Lógica de Paginación Manual (Slice de la lista completa)
-        int pageSize = 5;
-        int totalItems = resultados.size();
-        int totalPages = (int) Math.ceil((double) totalItems / pageSize);
-
-        // Ajuste de límites de página
-        if (page < 1) page = 1;
-        if (page > totalPages && totalPages > 0) page = totalPages;
-
-        int start = (page - 1) * pageSize;
-        int end = Math.min(start + pageSize, totalItems);
-
-        // Creación de la sublista para la vista actual
-        List<Reserva> listaPaginada = (start > end || totalItems == 0) ?
-                Collections.emptyList() : resultados.subList(start, end);
+        PaginaCursor<Reserva> pagina = PaginaCursor.cargar(cursor, page, 5, sort, sortObj, (posicion, orden, tamano) -> {
+            if (villanoId != null) {
+                return reservaService.buscarPorVillano(villanoId, posicion, orden, tamano);
+            } else if (estado != null) {
+                return reservaService.buscarPorEstado(estado, posicion, orden, tamano);
+            }
+            return reservaService.obtenerTodas(posicion, orden, tamano);
+        });
 
         // Paso de atributos a la vista (Thymeleaf)
-        model.addAttribute("reservas", listaPaginada);
-        model.addAttribute("totalPages", totalPages);
-        model.addAttribute("currentPage", page);
+        pagina.exponer(model, "reservas");
         // Necesario para mantener los filtros en los enlaces de paginación
-        model.addAttribute("allVillanos", villanoRepository.findAll());
+        model.addAttribute("opcionesVillanos", opcionesService.villanos(villanoId));
         model.addAttribute("villanoId", villanoId);
         model.addAttribute("estado", estado);
         model.addAttribute("sort", sort);
@@ -101,9 +101,9 @@ public class ReservaController {
      */
     @GetMapping("/reservas/new")
     public String formularioNuevo(Model model) {
-        model.addAttribute("reserva", new Reserva());
-        model.addAttribute("allVillanos", villanoRepository.findAll());
-        model.addAttribute("allGuaridas", guaridaRepository.findAll());
+        Reserva reserva = new Reserva();
+        model.addAttribute("reserva", reserva);
+        cargarOpciones(model, reserva);
         return "forms-html/reserva-form";
     }
 
@@ -115,8 +115,7 @@ public class ReservaController {
         Optional<Reserva> reserva = reservaService.obtenerPorId(id);
         if (reserva.isPresent()) {
             model.addAttribute("reserva", reserva.get());
-            model.addAttribute("allVillanos", villanoRepository.findAll());
-            model.addAttribute("allGuaridas", guaridaRepository.findAll());
+            cargarOpciones(model, reserva.get());
             return "forms-html/reserva-form";
         }
         return "redirect:/reservas";
@@ -135,20 +134,21 @@ public class ReservaController {
         // 1. Validación de campos básicos (Fechas nulas, objetos nulos, etc.)
         if (bindingResult.hasErrors()) {
             // Recargamos las listas para que el formulario se pinte correctamente al volver
-            model.addAttribute("allVillanos", villanoRepository.findAll());
-            model.addAttribute("allGuaridas", guaridaRepository.findAll());
+            cargarOpciones(model, reserva);
             return "forms-html/reserva-form";
         }
 
         try {
-            // 2. Intentamos guardar invocando la lógica de negocio
+            // 2. Intentamos guardar invocando la lógica de negocio a través del motor
+            // (serializa las reservas de la misma guarida para evitar el overbooking).
             // Esto puede lanzar excepciones si las fechas están ocupadas
-            reservaService.guardar(reserva);
+            motorReservas.reservar(reserva);
 
-            redirectAttributes.addFlashAttribute("successMessage", "Reserva confirmada y Factura generada.");
+            redirectAttributes.addFlashAttribute("successMessage", "Reserva confirmada. La factura se generará en unos segundos.");
         } catch (Exception e) {
-            // 3. Captura de errores de negocio (Ej: Conflicto de fechas)
-            e.printStackTrace();
+            // 3. Captura de errores de negocio (Ej: Conflicto de fechas); lo inesperado va con traza
+            if (e instanceof IllegalArgumentException) logger.warn("Reserva rechazada: {}", e.getMessage());
+            else logger.error("Error al guardar la reserva: ", e);
             // Mostramos el mensaje exacto del servicio ("La guarida está ocupada...")
             redirectAttributes.addFlashAttribute("errorMessage", "Error: " + e.getMessage());
             return "redirect:/reservas/new";
@@ -168,15 +168,14 @@ public class ReservaController {
 
         // 1. Validación de campos del formulario
         if (bindingResult.hasErrors()) {
-            model.addAttribute("allVillanos", villanoRepository.findAll());
-            model.addAttribute("allGuaridas", guaridaRepository.findAll());
+            cargarOpciones(model, reserva);
             return "forms-html/reserva-form";
         }
 
         try {
             // 2. Intentamos actualizar
-            reservaService.actualizar(reserva.getId(), reserva);
-            redirectAttributes.addFlashAttribute("successMessage", "Reserva y Factura actualizadas.");
+            motorReservas.modificar(reserva.getId(), reserva);
+            redirectAttributes.addFlashAttribute("successMessage", "Reserva actualizada. La factura se ajustará en unos segundos.");
         } catch (Exception e) {
             // 3. Captura de error si al cambiar fechas chocamos con otra reserva
             redirectAttributes.addFlashAttribute("errorMessage", "Error: " + e.getMessage());
@@ -191,7 +190,7 @@ public class ReservaController {
     @GetMapping("/reservas/delete/{id}")
     public String eliminar(@PathVariable Long id, RedirectAttributes redirectAttributes) {
         try {
-            reservaService.eliminar(id);
+            motorReservas.cancelar(id);
             redirectAttributes.addFlashAttribute("successMessage", "Reserva cancelada.");
         } catch (Exception e) {
             redirectAttributes.addFlashAttribute("errorMessage", "Error al eliminar.");
@@ -199,6 +198,58 @@ public class ReservaController {
         return "redirect:/reservas";
     }
 
+    /**
+     * Descarga de reservas (CSV o NDJSON) por rango de fecha de inicio y villano.
+     * Se escribe en la respuesta según se lee de la BD (ver {@link ExportacionService}).
+     */
+    @GetMapping("/reservas/export")
+    public ResponseEntity<StreamingResponseBody> exportar(
+            @RequestParam(required = false) String formato,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate desde,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate hasta,
+            @RequestParam(required = false) Long villanoId) {
+        ExportacionService.Filtro filtro = new ExportacionService.Filtro(desde, hasta, villanoId);
+        if (!filtro.rangoValido()) {
+            return ResponseEntity.badRequest().build();
+        }
+        ExportacionService.Formato f = ExportacionService.Formato.de(formato);
+        StreamingResponseBody cuerpo = salida -> exportacionService.exportarReservas(filtro, f, salida);
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        ContentDisposition.attachment().filename(filtro.nombreFichero("reservas", f)).build().toString())
+                .contentType(MediaType.parseMediaType(f.getTipoContenido()))
+                .body(cuerpo);
+    }
+
+    /**
+     * Ocupación (JSON) por guarida y mes y por ubicación y mes, entre {@code desde} y {@code hasta}
+     * en formato "2025-11". Por defecto, los últimos doce meses hasta el actual.
+     */
+    @GetMapping("/api/reservas/ocupacion")
+    @ResponseBody
+    public ResponseEntity<InformeOcupacion> ocupacionApi(
+            @RequestParam(required = false) @DateTimeFormat(pattern = "yyyy-MM") YearMonth desde,
+            @RequestParam(required = false) @DateTimeFormat(pattern = "yyyy-MM") YearMonth hasta) {
+        YearMonth fin = (hasta != null) ? hasta : YearMonth.now();
+        YearMonth inicio = (desde != null) ? desde : fin.minusMonths(11);
+        try {
+            return ResponseEntity.ok(ocupacionService.calcular(inicio, fin));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    /**
+     * Desplegables del formulario: primera página de villanos y guaridas (más los ya elegidos).
+     * El resto lo pide el buscador de cada desplegable a /api/opciones.
+     */
+    private void cargarOpciones(Model model, Reserva reserva) {
+        model.addAttribute("opcionesVillanos",
+                opcionesService.villanos(reserva.getVillano() != null ? reserva.getVillano().getId() : null));
+        model.addAttribute("opcionesGuaridas",
+                opcionesService.guaridas(reserva.getGuarida() != null ? reserva.getGuarida().getId() : null));
+    }
+
     /**
      * Helper para convertir los parámetros de ordenación de texto a objetos Sort.
      */
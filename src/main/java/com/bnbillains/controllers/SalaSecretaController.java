@@ -1,5 +1,6 @@
 package com.bnbillains.controllers;
 
+import com.bnbillains.dto.PaginaVista;
 import com.bnbillains.entities.SalaSecreta;
 import com.bnbillains.services.SalaSecretaService;
 import org.slf4j.Logger;
@@ -12,8 +13,6 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 import jakarta.validation.Valid;
 
-import java.util.Collections;
-import java.util.List;
 import java.util.Optional;
 
 @Controller
@@ -40,32 +39,16 @@ public class SalaSecretaController {
         logger.info("WEB: Listando salas secretas... Pag: {}, Search: {}, Sort: {}", page, search, sort);
 
         Sort sortObj = getSort(sort);
-        List<SalaSecreta> resultados;
 
-        if (search != null && !search.isBlank()) {
-            resultados = salaSecretaService.buscarFlexible(search, sortObj);
-        } else {
-            resultados = salaSecretaService.obtenerTodasOrdenadas(sortObj);
-        }
-
-        // Paginación Manual
-        int pageSize = 5;
-        int totalItems = resultados.size();
-        int totalPages = (int) Math.ceil((double) totalItems / pageSize);
-
-        if (page > totalPages && totalPages > 0) page = totalPages;
-        if (page < 1) page = 1;
-
-        int start = (page - 1) * pageSize;
-        int end = Math.min(start + pageSize, totalItems);
-
-        List<SalaSecreta> listaPaginada = (start > end || totalItems == 0) ?
-                Collections.emptyList() : resultados.subList(start, end);
+        // Búsqueda paginada en la BD
+        PaginaVista<SalaSecreta> pagina = PaginaVista.cargar(page, 5, sortObj, pageable -> {
+            if (search != null && !search.isBlank()) {
+                return salaSecretaService.buscarFlexible(search, pageable);
+            }
+            return salaSecretaService.obtenerTodasOrdenadas(pageable);
+        });
 
-        model.addAttribute("salas", listaPaginada);
-        model.addAttribute("totalPages", totalPages);
-        model.addAttribute("currentPage", page);
-        model.addAttribute("totalItems", totalItems);
+        pagina.exponer(model, "salas");
         model.addAttribute("search", search);
         model.addAttribute("sort", sort);
 
@@ -0,0 +1,172 @@
+package com.bnbillains.controllers;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestMapping;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Sirve las fotos subidas (/uploads/{nombre}) desde la carpeta UPLOAD_PATH.
+ * <p>
+ * Los nombres por contenido (SHA-256, ver {@code FileStorageService}) y sus copias reducidas nunca
+ * cambian de bytes: se marcan {@code immutable} con un año de caché y el navegador o el proxy no
+ * vuelven a preguntar. El resto (nombres antiguos) se revalida con ETag y responde 304 si no ha cambiado.
+ * Se atienden peticiones {@code Range} de un tramo y el cuerpo lo envía Tomcat con sendfile (el fichero
+ * pasa del disco al socket sin copiarse en la JVM); si el conector no lo admite, se copia con
+ * {@link FileChannel#transferTo}.
+ */
+@Controller
+public class UploadController {
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadController.class);
+
+    // "<sha256>.ext" o "<sha256>-w<ancho>.jpg"
+    private static final Pattern NOMBRE_POR_CONTENIDO = Pattern.compile("[0-9a-f]{64}(-w[0-9]+)?\\.[a-z0-9]+");
+
+    private static final String CACHE_INMUTABLE = "public, max-age=31536000, immutable";
+    private static final String CACHE_REVALIDAR = "public, no-cache";
+
+    // Atributos de petición con los que Tomcat (conector NIO) envía un fichero por sendfile
+    private static final String SENDFILE_SOPORTADO = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FICHERO = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_INICIO = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_FIN = "org.apache.tomcat.sendfile.end";
+
+    // Por debajo de esto sale más barato copiar que preparar el sendfile (mismo umbral que DefaultServlet)
+    private static final long MINIMO_SENDFILE = 48 * 1024;
+
+    private final Path carpeta;
+
+    public UploadController(@Value("${UPLOAD_PATH}") String uploadPath) {
+        this.carpeta = Paths.get(uploadPath).toAbsolutePath().normalize();
+        logger.info("Sirviendo /uploads/** desde la carpeta {}", carpeta);
+    }
+
+    @RequestMapping(value = "/uploads/{nombre:.+}", method = {RequestMethod.GET, RequestMethod.HEAD})
+    public void servir(@PathVariable String nombre, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        Path fichero = carpeta.resolve(nombre).normalize();
+        // Nada fuera de la carpeta ni ocultos (temporales de subida en ".tmp")
+        if (nombre.startsWith(".") || !fichero.getParent().equals(carpeta) || !Files.isRegularFile(fichero)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        BasicFileAttributes atributos = Files.readAttributes(fichero, BasicFileAttributes.class);
+        long longitud = atributos.size();
+        long modificado = atributos.lastModifiedTime().toMillis();
+        boolean porContenido = NOMBRE_POR_CONTENIDO.matcher(nombre).matches();
+        // Por contenido el propio nombre identifica los bytes; si no, tamaño + fecha de modificación
+        String etag = porContenido
+                ? "\"" + nombre.substring(0, nombre.lastIndexOf('.')) + "\""
+                : "\"" + Long.toHexString(longitud) + "-" + Long.toHexString(modificado) + "\"";
+
+        // Sin el charset que añade el filtro de codificación: esto son bytes de imagen
+        response.setCharacterEncoding(null);
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, porContenido ? CACHE_INMUTABLE : CACHE_REVALIDAR);
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, modificado);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+        if (coincideEtag(request.getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        response.setContentType(MediaTypeFactory.getMediaType(nombre)
+                .orElse(MediaType.APPLICATION_OCTET_STREAM).toString());
+
+        long inicio = 0;
+        long fin = longitud - 1;
+        String rango = request.getHeader(HttpHeaders.RANGE);
+        if (rango != null && longitud > 0 && rangoVigente(request.getHeader(HttpHeaders.IF_RANGE), etag)) {
+            List<HttpRange> tramos;
+            try {
+                tramos = HttpRange.parseRanges(rango);
+            } catch (IllegalArgumentException e) {
+                tramos = List.of();
+            }
+            // Varios tramos (multipart/byteranges) no compensan para imágenes: se envía el fichero entero
+            if (tramos.size() == 1) {
+                HttpRange tramo = tramos.get(0);
+                try {
+                    inicio = tramo.getRangeStart(longitud);
+                    fin = tramo.getRangeEnd(longitud);
+                } catch (IllegalArgumentException e) {
+                    inicio = longitud; // empieza después del final: no se puede servir
+                }
+                if (inicio >= longitud || inicio > fin) {
+                    // Sin sendError: la página de error no sabe pintarse con Content-Type de imagen
+                    response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + longitud);
+                    response.setContentLength(0);
+                    return;
+                }
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + inicio + "-" + fin + "/" + longitud);
+            }
+        }
+
+        long bytes = fin - inicio + 1;
+        response.setContentLengthLong(bytes);
+        if ("HEAD".equals(request.getMethod()) || bytes <= 0) return;
+
+        if (bytes >= MINIMO_SENDFILE && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SOPORTADO))) {
+            // Tomcat envía el tramo al terminar la petición, con FileChannel.transferTo hacia el socket
+            request.setAttribute(SENDFILE_FICHERO, fichero.toString());
+            request.setAttribute(SENDFILE_INICIO, inicio);
+            request.setAttribute(SENDFILE_FIN, fin + 1);
+            return;
+        }
+
+        try (FileChannel canal = FileChannel.open(fichero)) {
+            OutputStream salida = response.getOutputStream();
+            WritableByteChannel destino = Channels.newChannel(salida);
+            long posicion = inicio;
+            long limite = fin + 1;
+            while (posicion < limite) {
+                long enviados = canal.transferTo(posicion, limite - posicion, destino);
+                if (enviados <= 0) break;
+                posicion += enviados;
+            }
+        }
+    }
+
+    // If-None-Match: lista de ETags o "*" (comparación débil, como indica la RFC 9110)
+    private static boolean coincideEtag(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) return false;
+        for (String candidato : ifNoneMatch.split(",")) {
+            String c = candidato.trim();
+            if (c.startsWith("W/")) c = c.substring(2);
+            if (c.equals("*") || c.equals(etag)) return true;
+        }
+        return false;
+    }
+
+    // If-Range: el tramo solo vale si el fichero sigue siendo el mismo (si no, se envía entero)
+    private static boolean rangoVigente(String ifRange, String etag) {
+        return ifRange == null || ifRange.trim().equals(etag);
+    }
+}
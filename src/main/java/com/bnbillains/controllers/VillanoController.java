@@ -1,11 +1,14 @@
 package com.bnbillains.controllers;
 
+import com.bnbillains.dto.PaginaVista;
+import com.bnbillains.dto.SugerenciaVillano;
 import com.bnbillains.entities.Villano;
 import com.bnbillains.services.VillanoService;
 import com.bnbillains.services.FacturaService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.domain.Sort;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.validation.BindingResult;
@@ -41,40 +44,34 @@ public class VillanoController {
         logger.info("WEB: Listando villanos... Pag: {}, Search: {}, Sort: {}", page, search, sort);
 
         Sort sortObj = getSort(sort);
-        List<Villano> resultados;
 
-        // 1. Obtención de datos
-        if (search != null && !search.isBlank()) {
-            resultados = villanoService.buscarFlexible(search, sortObj);
-        } else {
-            resultados = villanoService.obtenerTodas(sortObj);
-        }
-
-        // 2. Paginación Manual
-        int pageSize = 5;
-        int totalItems = resultados.size();
-        int totalPages = (int) Math.ceil((double) totalItems / pageSize);
-
-        if (page > totalPages && totalPages > 0) page = totalPages;
-        if (page < 1) page = 1;
-
-        int start = (page - 1) * pageSize;
-        int end = Math.min(start + pageSize, totalItems);
-
-        List<Villano> listaPaginada = (start > end || totalItems == 0) ?
-                Collections.emptyList() : resultados.subList(start, end);
+        // 1. Obtención de datos (solo la página pedida)
+        PaginaVista<Villano> pagina = PaginaVista.cargar(page, 5, sortObj, pageable -> {
+            if (search != null && !search.isBlank()) {
+                return villanoService.buscarFlexible(search, pageable);
+            }
+            return villanoService.obtenerTodas(pageable);
+        });
 
-        // 3. Pasar atributos
-        model.addAttribute("villanos", listaPaginada);
-        model.addAttribute("totalPages", totalPages);
-        model.addAttribute("currentPage", page);
-        model.addAttribute("totalItems", totalItems);
+        // 2. Pasar atributos
+        pagina.exponer(model, "villanos");
         model.addAttribute("search", search);
         model.addAttribute("sort", sort);
 
         return "entities-html/villano"; // Ruta: templates/entities-html/villano.html
     }
 
+    /**
+     * API JSON para el autocompletado del buscador: los villanos más parecidos al texto (nombre o alias).
+     * Ej: /villanos/suggest?q=jok&k=10
+     */
+    @GetMapping("/villanos/suggest")
+    @ResponseBody
+    public ResponseEntity<List<SugerenciaVillano>> sugerir(@RequestParam(defaultValue = "") String q,
+                                                           @RequestParam(defaultValue = "10") int k) {
+        return ResponseEntity.ok(villanoService.sugerir(q, k));
+    }
+
     @GetMapping("/villanos/{id}")
     public String detalle(@PathVariable Long id, Model model) {
         logger.info("WEB: Mostrando detalle villano ID {}", id);
@@ -0,0 +1,15 @@
+package com.bnbillains.dto;
+
+import java.util.List;
+
+/**
+ * Respuesta JSON de la búsqueda facetada: una página de guaridas y las cuentas de cada faceta.
+ *
+ * @param guaridas Guaridas de la página pedida.
+ * @param pagina Página actual, empezando en 1.
+ * @param totalPaginas Total de páginas.
+ * @param facetas Cuentas por faceta (vacías si el índice aún no está listo).
+ */
+public record BusquedaGuaridasDTO(List<GuaridaDisponibleDTO> guaridas, int pagina, int totalPaginas,
+                                  FacetasGuaridas facetas) {
+}
@@ -0,0 +1,34 @@
+package com.bnbillains.dto;
+
+import java.util.List;
+
+/**
+ * Recuento de guaridas por cada valor de faceta para la búsqueda actual.
+ * <p>
+ * Cada cuenta dice cuántas guaridas quedarían al marcar ese valor sin tocar el resto de filtros:
+ * en las comodidades (que se suman con AND) es el resultado actual que además la tiene; en la
+ * ubicación y las estrellas (de las que solo se elige una) se ignora la elección actual de esa faceta.
+ *
+ * @param comodidades Comodidades presentes en el resultado, por nombre.
+ * @param ubicaciones Ubicaciones más frecuentes, de más a menos guaridas.
+ * @param estrellas Valoración media mínima, de 5 a 1.
+ * @param total Guaridas que cumplen todos los filtros.
+ */
+public record FacetasGuaridas(List<ValorFaceta> comodidades, List<ValorFaceta> ubicaciones,
+                              List<ValorFaceta> estrellas, int total) {
+
+    public static final FacetasGuaridas VACIAS = new FacetasGuaridas(List.of(), List.of(), List.of(), 0);
+
+    /**
+     * @param valor Lo que se envía en la URL (id, ubicación o número de estrellas).
+     * @param etiqueta Texto a mostrar.
+     * @param cuenta Guaridas con este valor.
+     * @param seleccionado Si ya forma parte del filtro.
+     */
+    public record ValorFaceta(String valor, String etiqueta, int cuenta, boolean seleccionado) {}
+
+    // False mientras el índice de facetas no está listo: la vista no pinta la sección
+    public boolean disponibles() {
+        return this != VACIAS;
+    }
+}
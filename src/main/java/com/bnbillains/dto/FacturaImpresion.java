@@ -0,0 +1,38 @@
+package com.bnbillains.dto;
+
+import com.bnbillains.entities.Factura;
+import com.bnbillains.entities.Reserva;
+
+import java.time.LocalDate;
+
+/**
+ * Datos planos de una factura impresa (plantilla {@code fragments/factura}).
+ * Sirve tanto para la factura suelta como para la impresión por lotes, que los lee por JDBC
+ * sin cargar la entidad ni sus relaciones.
+ */
+public record FacturaImpresion(Long id, LocalDate fechaEmision, Double importe, Double impuestosMalignos,
+                               String metodoPago, String villanoNombre, String villanoAlias, String villanoCarnet,
+                               String guaridaNombre, LocalDate fechaInicio, LocalDate fechaFin) {
+
+    public boolean isPendiente() {
+        return "Pendiente".equals(metodoPago);
+    }
+
+    public double getTotal() {
+        return (importe != null ? importe : 0) + (impuestosMalignos != null ? impuestosMalignos : 0);
+    }
+
+    public static FacturaImpresion de(Factura f) {
+        Reserva r = f.getReserva();
+        boolean conVillano = r != null && r.getVillano() != null;
+        boolean conGuarida = r != null && r.getGuarida() != null;
+        return new FacturaImpresion(f.getId(), f.getFechaEmision(), f.getImporte(), f.getImpuestosMalignos(),
+                f.getMetodoPago(),
+                conVillano ? r.getVillano().getNombre() : null,
+                conVillano ? r.getVillano().getAlias() : null,
+                conVillano ? r.getVillano().getCarnetDeVillano() : null,
+                conGuarida ? r.getGuarida().getNombre() : null,
+                r != null ? r.getFechaInicio() : null,
+                r != null ? r.getFechaFin() : null);
+    }
+}
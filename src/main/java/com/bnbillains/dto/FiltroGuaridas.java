@@ -0,0 +1,60 @@
+package com.bnbillains.dto;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Todos los filtros del catálogo de guaridas a la vez (se combinan con AND).
+ * Los campos vacíos o nulos no filtran.
+ *
+ * @param texto Búsqueda de texto (nombre, ubicación, descripción).
+ * @param precioMin Precio mínimo por noche.
+ * @param precioMax Precio máximo por noche.
+ * @param fechaInicio Libre desde (junto con fechaFin).
+ * @param fechaFin Libre hasta (incluida).
+ * @param comodidades Ids de comodidades que debe tener la guarida (todas).
+ * @param ubicacion Ubicación exacta, sin distinguir mayúsculas ni tildes.
+ * @param estrellas Valoración media mínima (1-5).
+ */
+public record FiltroGuaridas(String texto, Double precioMin, Double precioMax,
+                             LocalDate fechaInicio, LocalDate fechaFin,
+                             Set<Long> comodidades, String ubicacion, Integer estrellas) {
+
+    public FiltroGuaridas {
+        texto = (texto == null || texto.isBlank()) ? null : texto;
+        ubicacion = (ubicacion == null || ubicacion.isBlank()) ? null : ubicacion;
+        comodidades = comodidades == null ? Set.of() : Set.copyOf(comodidades);
+    }
+
+    /**
+     * Constructor para los parámetros de la URL: la lista de comodidades puede traer huecos vacíos.
+     */
+    public static FiltroGuaridas de(String texto, Double precioMin, Double precioMax,
+                                    LocalDate fechaInicio, LocalDate fechaFin,
+                                    Collection<Long> comodidades, String ubicacion, Integer estrellas) {
+        Set<Long> ids = comodidades == null ? Set.of()
+                : comodidades.stream().filter(Objects::nonNull).collect(Collectors.toSet());
+        return new FiltroGuaridas(texto, precioMin, precioMax, fechaInicio, fechaFin, ids, ubicacion, estrellas);
+    }
+
+    public boolean tieneTexto() {
+        return texto != null;
+    }
+
+    // Solo cuenta un rango de fechas completo y bien formado (como hacía el listado)
+    public boolean tieneFechas() {
+        return fechaInicio != null && fechaFin != null && !fechaFin.isBefore(fechaInicio);
+    }
+
+    public boolean tienePrecio() {
+        return precioMin != null || precioMax != null;
+    }
+
+    // False si no hay ningún filtro: el catálogo completo
+    public boolean tieneFiltros() {
+        return tieneTexto() || tieneFechas() || tienePrecio() || !comodidades.isEmpty() || ubicacion != null || estrellas != null;
+    }
+}
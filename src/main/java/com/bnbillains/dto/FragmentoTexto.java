@@ -0,0 +1,11 @@
+package com.bnbillains.dto;
+
+/**
+ * Trozo de un texto mostrado como resultado de búsqueda: la vista pinta resaltados los que
+ * coinciden con lo buscado (con th:text, así que el contenido siempre se escapa).
+ *
+ * @param texto Texto del trozo, tal cual aparece en el original.
+ * @param resaltado Si es una palabra que coincide con la búsqueda.
+ */
+public record FragmentoTexto(String texto, boolean resaltado) {
+}
@@ -0,0 +1,12 @@
+package com.bnbillains.dto;
+
+/**
+ * Respuesta JSON de la búsqueda de disponibilidad.
+ * Solo datos planos: serializar la entidad Guarida arrastraría reseñas, reservas, etc.
+ */
+public record GuaridaDisponibleDTO(Long id, String nombre, String ubicacion, Double precioNoche, String pathImagen) {
+
+    public static GuaridaDisponibleDTO de(GuaridaResumen g) {
+        return new GuaridaDisponibleDTO(g.getId(), g.getNombre(), g.getUbicacion(), g.getPrecioNoche(), g.getPathImagen());
+    }
+}
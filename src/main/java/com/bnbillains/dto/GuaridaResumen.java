@@ -0,0 +1,45 @@
+package com.bnbillains.dto;
+
+import com.bnbillains.entities.Guarida;
+
+/**
+ * Proyección de Guarida para el catálogo: solo las columnas que pinta cada tarjeta.
+ * <p>
+ * Spring Data genera un SELECT de estas columnas, así que el listado no carga la
+ * sala secreta (relación 1:1 EAGER, que con la entidad completa costaba una consulta por fila)
+ * ni ninguna de las colecciones.
+ */
+public interface GuaridaResumen {
+
+    Long getId();
+    String getNombre();
+    String getDescripcion();
+    String getUbicacion();
+    Double getPrecioNoche();
+    String getImagen();
+    String getImagenVariantes();
+
+    /**
+     * Igual que {@code Guarida#getPathImagen()}: ruta de la foto o la imagen por defecto.
+     */
+    default String getPathImagen() {
+        if (getImagen() == null || getImagen().trim().isEmpty()) {
+            return "/images/guarida-default.jpg";
+        }
+        return "/uploads/" + getImagen();
+    }
+
+    /**
+     * Igual que {@code Guarida#getSrcsetImagen()}.
+     */
+    default String getSrcsetImagen() {
+        return Guarida.srcset(getImagen(), getImagenVariantes());
+    }
+
+    /**
+     * Igual que {@code Guarida#getPathImagenTarjeta()}.
+     */
+    default String getPathImagenTarjeta() {
+        return Guarida.pathTarjeta(getImagen(), getImagenVariantes(), getPathImagen());
+    }
+}
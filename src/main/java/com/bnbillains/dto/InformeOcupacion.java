@@ -0,0 +1,9 @@
+package com.bnbillains.dto;
+
+import java.util.List;
+
+/**
+ * Respuesta JSON del informe de ocupación entre dos meses (ambos incluidos).
+ */
+public record InformeOcupacion(String desde, String hasta, List<OcupacionMes> porGuarida, List<OcupacionMes> porUbicacion) {
+}
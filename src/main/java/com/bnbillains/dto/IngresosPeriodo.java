@@ -0,0 +1,9 @@
+package com.bnbillains.dto;
+
+/**
+ * Un tramo de la consulta de ingresos: lo facturado en un día ("2025-11-03") o en un mes ("2025-11"),
+ * opcionalmente desglosado por guarida o por método de pago (el campo que no se desglosa va a null).
+ */
+public record IngresosPeriodo(String periodo, Long guaridaId, String guaridaNombre, String metodoPago,
+                              double importe, double impuestos, long facturas) {
+}
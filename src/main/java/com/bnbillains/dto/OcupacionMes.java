@@ -0,0 +1,10 @@
+package com.bnbillains.dto;
+
+/**
+ * Ocupación de un mes ("2025-11"): noches reservadas sobre noches disponibles.
+ * En las filas por ubicación, guaridaId y nombre van a null y las noches disponibles
+ * suman las de todas las guaridas de esa ubicación.
+ */
+public record OcupacionMes(String mes, Long guaridaId, String nombre, String ubicacion,
+                           int noches, int nochesDisponibles, double porcentaje) {
+}
@@ -0,0 +1,28 @@
+package com.bnbillains.dto;
+
+import java.util.List;
+
+/**
+ * Opción compacta para los desplegables de los formularios: solo (id, etiqueta).
+ * Se construye directamente en la consulta JPQL, sin hidratar la entidad ni sus relaciones.
+ *
+ * @param id Valor del {@code <option>}.
+ * @param etiqueta Texto principal (alias del villano, nombre de la guarida...).
+ * @param detalle Texto secundario opcional (nombre real, precio por noche...).
+ * @param alerta Marca especial para la vista (ej: comodidad con autodestrucción).
+ */
+public record Opcion(Long id, String etiqueta, String detalle, boolean alerta) {
+
+    public Opcion(Long id, String etiqueta, String detalle) {
+        this(id, etiqueta, detalle, false);
+    }
+
+    public Opcion(Long id, String etiqueta, Boolean alerta) {
+        this(id, etiqueta, null, Boolean.TRUE.equals(alerta));
+    }
+
+    /**
+     * Página de resultados del buscador (typeahead). Sin total: solo se sabe si hay más.
+     */
+    public record Pagina(List<Opcion> opciones, int pagina, boolean hayMas) {}
+}
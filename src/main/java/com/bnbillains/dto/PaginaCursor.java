@@ -0,0 +1,173 @@
+package com.bnbillains.dto;
+
+import org.springframework.data.domain.KeysetScrollPosition;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
+import org.springframework.ui.Model;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Paginación por cursor (keyset) para los listados grandes (facturas y reservas).
+ * <p>
+ * En lugar de OFFSET, cada página busca a partir de la tupla (clave de orden, id) de la última
+ * fila vista: {@code WHERE (fecha, id) < (:fecha, :id) ORDER BY fecha DESC, id DESC LIMIT n}.
+ * Con el índice adecuado, la página 5.000 cuesta lo mismo que la primera. A cambio no se puede
+ * saltar a una página arbitraria ni se calcula el total (el COUNT también recorre la tabla).
+ * <p>
+ * Los enlaces "anterior/siguiente" llevan la posición codificada como un token opaco (Base64 URL)
+ * que incluye la ordenación con la que se generó: si no cuadra o está corrupto, se vuelve a la primera página.
+ *
+ * @param contenido Elementos de la página actual, en el orden pedido.
+ * @param paginaActual Número de página, solo informativo (1..n).
+ * @param cursorAnterior Token para la página anterior (null si es la primera).
+ * @param cursorSiguiente Token para la página siguiente (null si es la última).
+ */
+public record PaginaCursor<T>(List<T> contenido, int paginaActual, String cursorAnterior, String cursorSiguiente) {
+
+    /**
+     * Consulta de repositorio que devuelve una ventana a partir de una posición.
+     */
+    @FunctionalInterface
+    public interface Consulta<T> {
+        Window<T> desplazar(ScrollPosition posicion, Sort sort, int tamano);
+    }
+
+    /**
+     * Carga la página que indica el cursor (o la primera si no hay cursor válido).
+     *
+     * @param cursor Token recibido en la URL (puede ser null).
+     * @param page Número de página que acompaña al cursor (solo para mostrarlo).
+     * @param tamano Elementos por página.
+     * @param claveOrden Parámetro 'sort' de la URL; el cursor solo vale para esa ordenación.
+     * @param sort Ordenación; se le añade el id como desempate si no lo lleva.
+     * @param consulta Método del servicio que hace la búsqueda por keyset.
+     */
+    public static <T> PaginaCursor<T> cargar(String cursor, int page, int tamano, String claveOrden,
+                                             Sort sort, Consulta<T> consulta) {
+        Sort orden = conDesempate(sort);
+        String clave = claveOrden != null ? claveOrden : "";
+        KeysetScrollPosition posicion = decodificar(cursor, clave, orden);
+
+        Window<T> ventana = posicion.isInitial() ? null : consulta.desplazar(posicion, orden, tamano);
+        if (ventana == null || ventana.isEmpty()) {
+            // Sin cursor, cursor inválido o las filas del cursor ya no existen: empezamos por el principio
+            posicion = ScrollPosition.keyset();
+            ventana = consulta.desplazar(posicion, orden, tamano);
+            page = 1;
+        }
+
+        boolean haciaAtras = posicion.scrollsBackward();
+        // En una ventana hacia atrás, hasNext() significa "hay más filas antes"
+        boolean hayAnterior = haciaAtras ? ventana.hasNext() : !posicion.isInitial();
+        boolean haySiguiente = haciaAtras || ventana.hasNext();
+        int pagina = hayAnterior ? Math.max(page, 2) : 1;
+
+        String anterior = null;
+        String siguiente = null;
+        if (!ventana.isEmpty()) {
+            if (hayAnterior) {
+                anterior = codificar(clave, ScrollPosition.backward(claves(ventana, 0)));
+            }
+            if (haySiguiente) {
+                siguiente = codificar(clave, ScrollPosition.forward(claves(ventana, ventana.size() - 1)));
+            }
+        }
+        return new PaginaCursor<>(ventana.getContent(), pagina, anterior, siguiente);
+    }
+
+    /**
+     * Pasa a la vista la lista y los datos de navegación (currentPage, prevCursor, nextCursor).
+     */
+    public void exponer(Model model, String nombreLista) {
+        model.addAttribute(nombreLista, contenido);
+        model.addAttribute("currentPage", paginaActual);
+        model.addAttribute("prevCursor", cursorAnterior);
+        model.addAttribute("nextCursor", cursorSiguiente);
+    }
+
+    // ==========================================
+    // INTERNO
+    // ==========================================
+
+    // El keyset necesita un orden total: sin el id, dos facturas del mismo día podrían saltarse o repetirse
+    private static Sort conDesempate(Sort sort) {
+        if (sort.getOrderFor("id") != null) return sort;
+        Sort.Direction direccion = sort.stream().reduce((a, b) -> b)
+                .map(Sort.Order::getDirection)
+                .orElse(Sort.Direction.ASC);
+        return sort.and(Sort.by(direccion, "id"));
+    }
+
+    private static Map<String, ?> claves(Window<?> ventana, int indice) {
+        return ((KeysetScrollPosition) ventana.positionAt(indice)).getKeys();
+    }
+
+    // Formato (antes de Base64): claveOrden | F o B | propiedad=Tvalor;propiedad=Tvalor
+    private static String codificar(String claveOrden, KeysetScrollPosition posicion) {
+        StringBuilder sb = new StringBuilder(claveOrden)
+                .append('|').append(posicion.scrollsBackward() ? 'B' : 'F').append('|');
+        posicion.getKeys().forEach((propiedad, valor) -> {
+            if (sb.charAt(sb.length() - 1) != '|') sb.append(';');
+            sb.append(propiedad).append('=').append(valorATexto(valor));
+        });
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static KeysetScrollPosition decodificar(String cursor, String claveOrden, Sort orden) {
+        if (cursor == null || cursor.isBlank()) return ScrollPosition.keyset();
+        try {
+            String texto = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            String[] partes = texto.split("\\|", -1);
+            if (partes.length != 3 || !partes[0].equals(claveOrden)) return ScrollPosition.keyset();
+
+            Map<String, Object> claves = new LinkedHashMap<>();
+            for (String par : partes[2].split(";")) {
+                int igual = par.indexOf('=');
+                claves.put(par.substring(0, igual), textoAValor(par.substring(igual + 1)));
+            }
+            // Solo aceptamos exactamente las propiedades de la ordenación actual
+            if (!claves.keySet().equals(propiedades(orden))) return ScrollPosition.keyset();
+
+            return "B".equals(partes[1]) ? ScrollPosition.backward(claves) : ScrollPosition.forward(claves);
+        } catch (RuntimeException e) {
+            return ScrollPosition.keyset();
+        }
+    }
+
+    private static Set<String> propiedades(Sort orden) {
+        Set<String> propiedades = new HashSet<>();
+        orden.forEach(o -> propiedades.add(o.getProperty()));
+        return propiedades;
+    }
+
+    // Tipos de las claves de ordenación que usamos: ids, fechas e importes
+    private static String valorATexto(Object valor) {
+        return switch (valor) {
+            case Long l -> "L" + l;
+            case Integer i -> "L" + i;
+            case LocalDate d -> "D" + d;
+            case Double n -> "N" + n;
+            default -> throw new IllegalArgumentException("Tipo de clave no soportado: " + valor.getClass());
+        };
+    }
+
+    private static Object textoAValor(String texto) {
+        String valor = texto.substring(1);
+        return switch (texto.charAt(0)) {
+            case 'L' -> Long.valueOf(valor);
+            case 'D' -> LocalDate.parse(valor);
+            case 'N' -> Double.valueOf(valor);
+            default -> throw new IllegalArgumentException("Cursor corrupto");
+        };
+    }
+}
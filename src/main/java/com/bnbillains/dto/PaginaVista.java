@@ -0,0 +1,55 @@
+package com.bnbillains.dto;
+
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.ui.Model;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Modelo de paginación compartido por todos los listados Thymeleaf.
+ * <p>
+ * Sustituye a la antigua "paginación manual" (cargar la tabla entera y hacer subList):
+ * ahora la base de datos solo devuelve una página (LIMIT/OFFSET) más un COUNT.
+ *
+ * @param contenido Elementos de la página actual.
+ * @param paginaActual Página actual, empezando en 1 (como en las URLs).
+ * @param totalPaginas Total de páginas (0 si no hay resultados).
+ * @param totalElementos Total de filas que cumplen el filtro.
+ */
+public record PaginaVista<T>(List<T> contenido, int paginaActual, int totalPaginas, long totalElementos) {
+
+    /**
+     * Ejecuta la consulta paginada. Si se pide una página que no existe, devuelve la última,
+     * igual que hacía la paginación manual.
+     *
+     * @param page Página pedida en la URL (1..n).
+     * @param tamano Elementos por página.
+     * @param sort Ordenación.
+     * @param consulta Método del servicio que recibe el Pageable.
+     */
+    public static <T> PaginaVista<T> cargar(int page, int tamano, Sort sort, Function<Pageable, Page<T>> consulta) {
+        int pagina = Math.max(page, 1);
+        Page<T> resultado = consulta.apply(PageRequest.of(pagina - 1, tamano, sort));
+
+        if (resultado.getTotalPages() > 0 && pagina > resultado.getTotalPages()) {
+            pagina = resultado.getTotalPages();
+            resultado = consulta.apply(PageRequest.of(pagina - 1, tamano, sort));
+        }
+        return new PaginaVista<>(resultado.getContent(), pagina, resultado.getTotalPages(), resultado.getTotalElements());
+    }
+
+    /**
+     * Pasa a la vista la lista con el nombre que espera la plantilla y los atributos de paginación
+     * de siempre (totalPages, currentPage, totalItems).
+     */
+    public void exponer(Model model, String nombreLista) {
+        model.addAttribute(nombreLista, contenido);
+        model.addAttribute("totalPages", totalPaginas);
+        model.addAttribute("currentPage", paginaActual);
+        model.addAttribute("totalItems", totalElementos);
+    }
+}
@@ -0,0 +1,24 @@
+package com.bnbillains.dto;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Foto inmutable de los indicadores de la portada. Se calcula en segundo plano
+ * y las vistas solo la leen.
+ *
+ * @param reservasActivas Reservas confirmadas que aún no han terminado.
+ * @param facturasPendientes Facturas con método de pago "Pendiente".
+ * @param ingresosMes Importe facturado en el mes en curso (sin impuestos).
+ * @param mejorValoradas Guaridas con mejor media de reseñas.
+ * @param calculadoEn Momento del cálculo.
+ */
+public record PanelKpi(long reservasActivas, long facturasPendientes, double ingresosMes,
+                       List<GuaridaDestacada> mejorValoradas, LocalDateTime calculadoEn) {
+
+    public PanelKpi {
+        mejorValoradas = List.copyOf(mejorValoradas);
+    }
+
+    public record GuaridaDestacada(Long id, String nombre, double media, long numResenas) {}
+}
@@ -0,0 +1,12 @@
+package com.bnbillains.dto;
+
+/**
+ * Sugerencia del autocompletado de villanos (ver IndiceVillanos).
+ *
+ * @param id Id del villano.
+ * @param alias Alias criminal (lo que se muestra primero).
+ * @param nombre Nombre real.
+ * @param puntuacion Parecido con el texto buscado; mayor es mejor (solo para ordenar).
+ */
+public record SugerenciaVillano(Long id, String alias, String nombre, double puntuacion) {
+}
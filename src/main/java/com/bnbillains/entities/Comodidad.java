@@ -6,6 +6,8 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.ToString;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.OnDelete;
 import org.hibernate.annotations.OnDeleteAction;
 
@@ -15,9 +17,14 @@ import java.util.List;
 /**
  * Entidad que representa una característica o servicio adicional (Amenity)
  * disponible en una o varias guaridas.
+ * <p>
+ * Es un dato de referencia que casi nunca cambia: se guarda en la cache de segundo nivel
+ * (región "bnbillains.comodidad", ver CacheReferencia).
  */
 @Entity
 @Table(name = "comodidad")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = RegionesCache.COMODIDAD)
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
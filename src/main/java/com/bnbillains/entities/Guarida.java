@@ -5,6 +5,8 @@ import jakarta.validation.constraints.DecimalMin;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.Size;
 import lombok.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -15,6 +17,11 @@ import java.util.List;
  */
 @Entity
 @Table(name = "guarida")
+// Plan de carga de la ficha de detalle (ver GuaridaRepository#findDetalleById)
+@NamedEntityGraph(name = "Guarida.detalle", attributeNodes = {
+        @NamedAttributeNode("salaSecreta"),
+        @NamedAttributeNode("comodidades")
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -62,6 +69,13 @@ public class Guarida {
     @Column(name = "imagen")
     private String imagen;
 
+    /**
+     * Anchos de las copias reducidas de la imagen, separados por comas (ej: "480,960,1920").
+     * Null mientras no se han generado; vacío si la imagen no admite copias (ver VariantesImagenService).
+     */
+    @Column(name = "imagen_variantes", length = 100)
+    private String imagenVariantes;
+
     /**
      * Relación 1:1 con la Sala Secreta.
      * CascadeType.ALL: El ciclo de vida de la sala depende de la guarida.
@@ -75,8 +89,10 @@ public class Guarida {
     /**
      * Relación N:M con Comodidades.
      * Gestionada mediante la tabla intermedia 'guarida_comodidades'.
+     * La cache de segundo nivel guarda los ids; las comodidades salen de su propia región.
      */
     @ManyToMany
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = RegionesCache.GUARIDA_COMODIDADES)
     @JoinTable(
             name = "guarida_comodidades",
             joinColumns = @JoinColumn(name = "guarida_id"),
@@ -127,4 +143,48 @@ public class Guarida {
         }
         return "/uploads/" + this.imagen;
     }
+
+    /**
+     * Valor del atributo 'srcset' con las copias reducidas de la imagen, o null si aún no hay.
+     */
+    public String getSrcsetImagen() {
+        return srcset(this.imagen, this.imagenVariantes);
+    }
+
+    /**
+     * Imagen para la tarjeta del catálogo: la copia más pequeña si existe, si no el original.
+     */
+    public String getPathImagenTarjeta() {
+        return pathTarjeta(this.imagen, this.imagenVariantes, getPathImagen());
+    }
+
+    // --- Nombres de las copias reducidas (compartidos con GuaridaResumen y VariantesImagenService) ---
+
+    /**
+     * Nombre de la copia de {@code imagen} con este ancho: "abc.png" -> "abc-w480.jpg".
+     * Las copias siempre son JPEG.
+     */
+    public static String nombreVariante(String imagen, int ancho) {
+        int punto = imagen.lastIndexOf('.');
+        String base = punto > 0 ? imagen.substring(0, punto) : imagen;
+        return base + "-w" + ancho + ".jpg";
+    }
+
+    public static String srcset(String imagen, String variantes) {
+        if (imagen == null || imagen.isBlank() || variantes == null || variantes.isBlank()) return null;
+        StringBuilder sb = new StringBuilder();
+        for (String ancho : variantes.split(",")) {
+            if (!sb.isEmpty()) sb.append(", ");
+            sb.append("/uploads/").append(nombreVariante(imagen, Integer.parseInt(ancho.trim())))
+                    .append(' ').append(ancho.trim()).append('w');
+        }
+        return sb.toString();
+    }
+
+    public static String pathTarjeta(String imagen, String variantes, String original) {
+        if (imagen == null || imagen.isBlank() || variantes == null || variantes.isBlank()) return original;
+        int coma = variantes.indexOf(',');
+        String menor = (coma < 0 ? variantes : variantes.substring(0, coma)).trim();
+        return "/uploads/" + nombreVariante(imagen, Integer.parseInt(menor));
+    }
 }
\ No newline at end of file
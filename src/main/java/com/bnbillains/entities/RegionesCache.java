@@ -0,0 +1,18 @@
+package com.bnbillains.entities;
+
+/**
+ * Nombres de las regiones de la cache de segundo nivel de Hibernate (ver {@code caffeine.conf}).
+ * <p>
+ * Viven junto a las entidades que las anotan; {@code CacheReferencia} las usa para desalojarlas
+ * y publicar sus métricas.
+ */
+public final class RegionesCache {
+
+    public static final String COMODIDAD = "bnbillains.comodidad";
+    public static final String SALA_SECRETA = "bnbillains.salaSecreta";
+    public static final String GUARIDA_COMODIDADES = "bnbillains.guarida.comodidades";
+    public static final String CONSULTAS_COMODIDAD = "bnbillains.consultas.comodidad";
+
+    private RegionesCache() {
+    }
+}
@@ -6,13 +6,18 @@ import jakarta.validation.constraints.Size;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 /**
  * Entidad que representa una habitación oculta o de seguridad vinculada a una Guarida.
  * Contiene información sensible sobre accesos y funcionalidades estratégicas.
+ * Se guarda en la cache de segundo nivel (región "bnbillains.salaSecreta").
  */
 @Entity
 @Table(name = "salaSecreta") // Define la tabla en base de datos
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = RegionesCache.SALA_SECRETA)
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
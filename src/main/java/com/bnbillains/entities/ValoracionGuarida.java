@@ -0,0 +1,80 @@
+package com.bnbillains.entities;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Immutable;
+
+/**
+ * Valoración agregada de una guarida (modelo de lectura): número de reseñas, suma de
+ * puntuaciones e histograma de estrellas.
+ * <p>
+ * Evita cargar {@code Guarida.resenas} entera (o un GROUP BY sobre 'resena') para pintar la media.
+ * Solo la escribe {@code ValoracionGuaridaService}, en la misma transacción que la reseña;
+ * para JPA es de solo lectura. Las guaridas sin reseñas no tienen fila.
+ */
+@Entity
+@Immutable
+@Table(name = "guarida_rating_stats")
+@Data
+@NoArgsConstructor
+public class ValoracionGuarida {
+
+    /**
+     * Misma clave que la guarida (se borra con ella en cascada).
+     */
+    @Id
+    @Column(name = "guarida_id")
+    private Long guaridaId;
+
+    @Column(name = "num_resenas", nullable = false)
+    private long numResenas;
+
+    @Column(name = "suma_puntuaciones", nullable = false)
+    private long sumaPuntuaciones;
+
+    /**
+     * Media guardada (suma / número) para poder ordenar el catálogo por ella.
+     */
+    @Column(name = "media", nullable = false)
+    private double media;
+
+    @Column(name = "estrellas_1", nullable = false)
+    private long estrellas1;
+
+    @Column(name = "estrellas_2", nullable = false)
+    private long estrellas2;
+
+    @Column(name = "estrellas_3", nullable = false)
+    private long estrellas3;
+
+    @Column(name = "estrellas_4", nullable = false)
+    private long estrellas4;
+
+    @Column(name = "estrellas_5", nullable = false)
+    private long estrellas5;
+
+    /**
+     * Reseñas con {@code n} estrellas (1-5).
+     */
+    public long getEstrellas(int n) {
+        return switch (n) {
+            case 1 -> estrellas1;
+            case 2 -> estrellas2;
+            case 3 -> estrellas3;
+            case 4 -> estrellas4;
+            case 5 -> estrellas5;
+            default -> 0;
+        };
+    }
+
+    /**
+     * Porcentaje de reseñas con {@code n} estrellas, para las barras del histograma.
+     */
+    public int getPorcentaje(int n) {
+        return numResenas == 0 ? 0 : (int) Math.round(100.0 * getEstrellas(n) / numResenas);
+    }
+}
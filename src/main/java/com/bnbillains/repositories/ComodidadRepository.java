@@ -1,8 +1,17 @@
 package com.bnbillains.repositories;
 
+import com.bnbillains.dto.Opcion;
 import com.bnbillains.entities.Comodidad;
-import org.springframework.data.domain.Sort;
+import com.bnbillains.entities.RegionesCache;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -11,17 +20,49 @@ import java.util.List;
 @Repository
 public interface ComodidadRepository extends JpaRepository<Comodidad, Long> {
 
+    // Las consultas marcadas con esta pista guardan sus resultados (los ids) en la cache de consultas.
+    // Hibernate las invalida solo en cuanto cambia cualquier fila de 'comodidad'.
+
+    // Catálogo completo (formularios de guaridas)
+    @Override
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"),
+            @QueryHint(name = HibernateHints.HINT_CACHE_REGION, value = RegionesCache.CONSULTAS_COMODIDAD)
+    })
+    List<Comodidad> findAll();
+
     // Búsqueda exacta por nombre
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"),
+            @QueryHint(name = HibernateHints.HINT_CACHE_REGION, value = RegionesCache.CONSULTAS_COMODIDAD)
+    })
     Comodidad findByNombre(String nombre);
 
     // Lo mismo pero da igual mayúsculas o minúsculas
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"),
+            @QueryHint(name = HibernateHints.HINT_CACHE_REGION, value = RegionesCache.CONSULTAS_COMODIDAD)
+    })
     Comodidad findByNombreIgnoreCase(String nombre);
 
     // Buscador simple: Encuentra si contiene el texto (para filtros)
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"),
+            @QueryHint(name = HibernateHints.HINT_CACHE_REGION, value = RegionesCache.CONSULTAS_COMODIDAD)
+    })
     List<Comodidad> findByNombreContainingIgnoreCase(String fragmento);
 
-    // El buscador principal: Filtra por texto y además ordena los resultados
-    List<Comodidad> findByNombreContainingIgnoreCase(String fragmento, Sort sort);
+    // El buscador principal: Filtra por texto, ordena y pagina en la propia BD
+    Page<Comodidad> findByNombreContainingIgnoreCase(String fragmento, Pageable pageable);
+
+    // --- OPCIONES PARA DESPLEGABLES (ver OpcionesService) ---
+
+    @Query("SELECT new com.bnbillains.dto.Opcion(c.id, c.nombre, c.autoDestruccion) FROM Comodidad c ORDER BY c.nombre")
+    List<Opcion> findOpciones();
+
+    @Query("SELECT new com.bnbillains.dto.Opcion(c.id, c.nombre, c.autoDestruccion) FROM Comodidad c " +
+            "WHERE LOWER(c.nombre) LIKE LOWER(CONCAT('%', :texto, '%')) ORDER BY c.nombre, c.id")
+    Slice<Opcion> buscarOpciones(@Param("texto") String texto, Pageable pageable);
 
     // Comprueba si existe el nombre (para validar duplicados antes de guardar)
     boolean existsByNombreIgnoreCase(String nombre);
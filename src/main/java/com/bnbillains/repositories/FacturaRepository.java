@@ -3,7 +3,12 @@ package com.bnbillains.repositories;
 import com.bnbillains.entities.Factura;
 import com.bnbillains.entities.Resena;
 import com.bnbillains.entities.Reserva;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.ScrollPosition;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
 import org.springframework.stereotype.Repository;
 import org.springframework.data.jpa.repository.JpaRepository;
 
@@ -15,12 +20,20 @@ import java.util.Optional;
 public interface FacturaRepository extends JpaRepository<Factura, Long> {
 
     // --- FILTROS DE BÚSQUEDA Y ORDENACIÓN ---
-    // Este método es el ejemplo perfecto de cómo buscamos y ordenamos a la vez.
-    // Recibe el texto a buscar (metodo) y el criterio de orden (sort).
-    List<Factura> findByMetodoPagoContainingIgnoreCase(String metodo, Sort sort);
+    // Este método es el ejemplo perfecto de cómo buscamos, ordenamos y paginamos a la vez.
+    // Recibe el texto a buscar (metodo) y la página pedida (que incluye el criterio de orden).
+    Page<Factura> findByMetodoPagoContainingIgnoreCase(String metodo, Pageable pageable);
 
-    // Filtra facturas cuyo importe esté dentro de un rango (Min y Max) y las ordena.
-    List<Factura> findByImporteBetween(Double min, Double max, Sort sort);
+    // Filtra facturas cuyo importe esté dentro de un rango (Min y Max), ordenadas y paginadas.
+    Page<Factura> findByImporteBetween(Double min, Double max, Pageable pageable);
+
+    // --- PAGINACIÓN POR CURSOR (KEYSET) ---
+    // Mismos filtros, pero buscando a partir de la última fila vista en vez de usar OFFSET.
+    Window<Factura> findAllBy(ScrollPosition posicion, Sort sort, Limit limite);
+
+    Window<Factura> findByMetodoPagoContainingIgnoreCase(String metodo, ScrollPosition posicion, Sort sort, Limit limite);
+
+    Window<Factura> findByImporteBetween(Double min, Double max, ScrollPosition posicion, Sort sort, Limit limite);
 
     // Recupera todas las facturas de un cliente específico buscando a través de la relación con Reserva.
     List<Factura> findByReserva_Villano_Id(Long villanoId);
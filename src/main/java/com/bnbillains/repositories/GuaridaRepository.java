@@ -1,11 +1,19 @@
 package com.bnbillains.repositories;
 
+import com.bnbillains.dto.GuaridaResumen;
+import com.bnbillains.dto.Opcion;
 import com.bnbillains.entities.Guarida;
 import com.bnbillains.entities.SalaSecreta;
-import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -18,19 +26,71 @@ public interface GuaridaRepository extends JpaRepository<Guarida, Long> {
     // Útil para operaciones de mantenimiento o borrado seguro.
     Optional<Guarida> findBySalaSecreta(SalaSecreta salaSecreta);
 
+    // --- FICHA DE DETALLE (número fijo de consultas, sin N+1) ---
+
+    // 1ª consulta: guarida + sala secreta + comodidades en un solo JOIN (grafo "Guarida.detalle")
+    @EntityGraph("Guarida.detalle")
+    Optional<Guarida> findDetalleById(Long id);
+
+    // 2ª consulta: reseñas con su autor. Va aparte porque traer dos listas (comodidades y reseñas)
+    // en el mismo JOIN multiplicaría las filas (Hibernate lo prohíbe: MultipleBagFetchException).
+    // Dentro de la misma transacción rellena la colección de la guarida ya cargada.
+    @Query("SELECT g FROM Guarida g LEFT JOIN FETCH g.resenas r LEFT JOIN FETCH r.villano WHERE g.id = :id")
+    Optional<Guarida> cargarResenasConAutor(@Param("id") Long id);
+
     // --- BÚSQUEDAS Y FILTROS ---
 
     // Busca guaridas por ubicación exacta (ej: "Volcán", "Isla Desierta")
     List<Guarida> findByUbicacion(String ubicacion);
 
-    // Buscador principal: Encuentra guaridas cuyo nombre contenga el texto (flexible)
-    List<Guarida> findByNombreContainingIgnoreCase(String nombre);
 
     // Filtra guaridas dentro de un presupuesto (Precio Mínimo y Máximo)
     List<Guarida> findByPrecioNocheBetween(Double min, Double max);
 
-    // Lo mismo que el anterior, pero permite ordenar los resultados (Baratos primero, etc.)
-    List<Guarida> findByPrecioNocheBetween(Double min, Double max, Sort sort);
+    // --- CATÁLOGO (proyección GuaridaResumen, paginada y ordenada en BD) ---
+
+    // Todas las guaridas
+    Page<GuaridaResumen> findResumenBy(Pageable pageable);
+
+    // Buscador de respaldo (LIKE sobre el nombre) mientras el índice de texto no está listo
+    Page<GuaridaResumen> findResumenByNombreContainingIgnoreCase(String nombre, Pageable pageable);
+
+    // Dentro de un presupuesto (Baratos primero, etc.)
+    Page<GuaridaResumen> findResumenByPrecioNocheBetween(Double min, Double max, Pageable pageable);
+
+    // Todas las guaridas salvo las indicadas (ej: las ocupadas en unas fechas)
+    Page<GuaridaResumen> findResumenByIdNotIn(Collection<Long> ids, Pageable pageable);
+
+    // Resultados del índice de texto: una página ordenada en BD, o las guaridas de una página ya ordenada por relevancia
+    Page<GuaridaResumen> findResumenByIdIn(Collection<Long> ids, Pageable pageable);
+
+    List<GuaridaResumen> findResumenByIdIn(Collection<Long> ids);
+
+    // Ordenadas por valoración media (y número de reseñas), leída del agregado 'guarida_rating_stats':
+    // sin GROUP BY sobre 'resena'. Las guaridas sin reseñas van al final.
+    String RESUMEN_POR_VALORACION = "SELECT g.id AS id, g.nombre AS nombre, g.descripcion AS descripcion, " +
+            "g.ubicacion AS ubicacion, g.precioNoche AS precioNoche, g.imagen AS imagen, " +
+            "g.imagenVariantes AS imagenVariantes " +
+            "FROM Guarida g LEFT JOIN ValoracionGuarida v ON v.guaridaId = g.id ";
+    String ORDEN_VALORACION = " ORDER BY COALESCE(v.media, 0) DESC, COALESCE(v.numResenas, 0) DESC, g.id";
+
+    @Query(value = RESUMEN_POR_VALORACION + ORDEN_VALORACION,
+            countQuery = "SELECT COUNT(g) FROM Guarida g")
+    Page<GuaridaResumen> findResumenOrdenadoPorValoracion(Pageable pageable);
+
+    @Query(value = RESUMEN_POR_VALORACION + "WHERE g.id IN :ids" + ORDEN_VALORACION,
+            countQuery = "SELECT COUNT(g) FROM Guarida g WHERE g.id IN :ids")
+    Page<GuaridaResumen> findResumenByIdInOrdenadoPorValoracion(@Param("ids") Collection<Long> ids, Pageable pageable);
+
+    // --- OPCIONES PARA DESPLEGABLES (ver OpcionesService) ---
+    // Solo (id, nombre, precio): sin cargar la sala secreta EAGER de cada guarida
+
+    @Query("SELECT new com.bnbillains.dto.Opcion(g.id, g.nombre, str(g.precioNoche)) FROM Guarida g WHERE g.id = :id")
+    Optional<Opcion> findOpcion(@Param("id") Long id);
+
+    @Query("SELECT new com.bnbillains.dto.Opcion(g.id, g.nombre, str(g.precioNoche)) FROM Guarida g " +
+            "WHERE LOWER(g.nombre) LIKE LOWER(CONCAT('%', :texto, '%')) ORDER BY g.nombre, g.id")
+    Slice<Opcion> buscarOpciones(@Param("texto") String texto, Pageable pageable);
 
     // --- VALIDACIONES ---
 
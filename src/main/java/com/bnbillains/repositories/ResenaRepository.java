@@ -3,11 +3,15 @@ package com.bnbillains.repositories;
 import com.bnbillains.entities.Resena;
 import com.bnbillains.entities.Villano;
 import com.bnbillains.entities.Guarida;
-import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface ResenaRepository extends JpaRepository<Resena, Long> {
@@ -15,11 +19,20 @@ public interface ResenaRepository extends JpaRepository<Resena, Long> {
     // --- BÚSQUEDAS ORDENADAS ---
 
     // Filtro exacto: Sirve para los botones de la web "Ver 5 Estrellas", "Ver 1 Estrella".
-    // Acepta ordenación (por fecha, por ejemplo).
-    List<Resena> findByPuntuacion(Long puntuacion, Sort sort);
+    // Acepta ordenación (por fecha, por ejemplo) y paginación.
+    Page<Resena> findByPuntuacion(Long puntuacion, Pageable pageable);
 
     // Buscador de texto: Busca palabras dentro del comentario.
     // "IgnoreCase" permite encontrar "Malo" aunque escriban "malo".
-    List<Resena> findByComentarioContainingIgnoreCase(String texto, Sort sort);
+    Page<Resena> findByComentarioContainingIgnoreCase(String texto, Pageable pageable);
+
+    // Guarida y puntuación de una reseña sin cargarla entera (para descontarla de la valoración al borrarla)
+    @Query("SELECT r.guarida.id AS guaridaId, r.puntuacion AS puntuacion FROM Resena r WHERE r.id = :id")
+    Optional<PuntuacionResena> findPuntuacionById(@Param("id") Long id);
+
+    interface PuntuacionResena {
+        Long getGuaridaId();
+        Long getPuntuacion();
+    }
 
 }
\ No newline at end of file
@@ -1,7 +1,14 @@
 package com.bnbillains.repositories;
 
+import com.bnbillains.dto.Opcion;
 import com.bnbillains.entities.Reserva;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
@@ -9,6 +16,7 @@ import org.springframework.stereotype.Repository;
 
 import java.time.LocalDate;
 import java.util.List;
+import java.util.Set;
 
 @Repository
 public interface ReservaRepository extends JpaRepository<Reserva, Long> {
@@ -17,10 +25,17 @@ public interface ReservaRepository extends JpaRepository<Reserva, Long> {
     List<Reserva> findByGuarida_Id(Long guaridaId, Sort sort);
 
     // Filtra las reservas según si están confirmadas (true) o pendientes (false)
-    List<Reserva> findByEstado(Boolean estado, Sort sort);
+    Page<Reserva> findByEstado(Boolean estado, Pageable pageable);
 
     // Busca el historial de reservas de un cliente (Villano)
-    List<Reserva> findByVillano_Id(Long villanoId, Sort sort);
+    Page<Reserva> findByVillano_Id(Long villanoId, Pageable pageable);
+
+    // Paginación por cursor (keyset): continúa desde la última fila vista, sin OFFSET
+    Window<Reserva> findAllBy(ScrollPosition posicion, Sort sort, Limit limite);
+
+    Window<Reserva> findByEstado(Boolean estado, ScrollPosition posicion, Sort sort, Limit limite);
+
+    Window<Reserva> findByVillano_Id(Long villanoId, ScrollPosition posicion, Sort sort, Limit limite);
 
     // Versión simple sin ordenar (útil para validaciones rápidas)
     List<Reserva> findByGuarida_Id(Long guaridaId);
@@ -47,4 +62,41 @@ public interface ReservaRepository extends JpaRepository<Reserva, Long> {
                                                     @Param("reservaId") Long reservaId,
                                                     @Param("fechaInicio") LocalDate fechaInicio,
                                                     @Param("fechaFin") LocalDate fechaFin);
+
+    // Guaridas con algún día ocupado en el rango (respaldo del mapa de disponibilidad en memoria)
+    @Query("SELECT DISTINCT r.guarida.id FROM Reserva r WHERE r.guarida IS NOT NULL " +
+            "AND (r.fechaInicio <= :fechaFin AND r.fechaFin >= :fechaInicio)")
+    Set<Long> findGuaridasOcupadas(@Param("fechaInicio") LocalDate fechaInicio,
+                                   @Param("fechaFin") LocalDate fechaFin);
+
+    // --- PROYECCIONES LIGERAS PARA LOS ÍNDICES EN MEMORIA ---
+
+    // Solo las 4 columnas necesarias para saber qué días están ocupados (sin hidratar entidades)
+    interface IntervaloReserva {
+        Long getId();
+        Long getGuaridaId();
+        LocalDate getFechaInicio();
+        LocalDate getFechaFin();
+    }
+
+    // Todas las reservas con guarida: se usa al arrancar para calentar el índice de disponibilidad
+    @Query("SELECT r.id AS id, r.guarida.id AS guaridaId, r.fechaInicio AS fechaInicio, r.fechaFin AS fechaFin " +
+            "FROM Reserva r WHERE r.guarida IS NOT NULL")
+    List<IntervaloReserva> findAllIntervalos();
+
+    // Las reservas de una sola guarida (recarga parcial tras una invalidación)
+    @Query("SELECT r.id AS id, r.guarida.id AS guaridaId, r.fechaInicio AS fechaInicio, r.fechaFin AS fechaFin " +
+            "FROM Reserva r WHERE r.guarida.id = :guaridaId")
+    List<IntervaloReserva> findIntervalosByGuaridaId(@Param("guaridaId") Long guaridaId);
+
+    // Buscador de reservas para formularios (ver OpcionesService): "#id guarida" + "villano, fechas".
+    // Se busca por nombre de guarida, alias del villano o número exacto de reserva; las más recientes primero.
+    @Query("SELECT new com.bnbillains.dto.Opcion(r.id, CONCAT('#', str(r.id), ' ', COALESCE(g.nombre, '-')), " +
+            "CONCAT(COALESCE(v.alias, '-'), ', ', str(r.fechaInicio), ' / ', str(r.fechaFin))) " +
+            "FROM Reserva r LEFT JOIN r.guarida g LEFT JOIN r.villano v " +
+            "WHERE :texto = '' OR str(r.id) = :texto " +
+            "OR LOWER(g.nombre) LIKE LOWER(CONCAT('%', :texto, '%')) " +
+            "OR LOWER(v.alias) LIKE LOWER(CONCAT('%', :texto, '%')) " +
+            "ORDER BY r.id DESC")
+    Slice<Opcion> buscarOpciones(@Param("texto") String texto, Pageable pageable);
 }
\ No newline at end of file
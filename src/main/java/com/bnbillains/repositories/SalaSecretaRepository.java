@@ -1,11 +1,11 @@
 package com.bnbillains.repositories;
 
 import com.bnbillains.entities.SalaSecreta;
-import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
-import java.util.List;
 import java.util.Optional;
 
 @Repository
@@ -19,9 +19,9 @@ public interface SalaSecretaRepository extends JpaRepository<SalaSecreta, Long>
 
     // --- MÉTODOS PARA EL BUSCADOR WEB ---
 
-    // Busca por la descripción de uso (ej: "Nuclear") y permite ordenar
-    List<SalaSecreta> findByFuncionPrincipalContainingIgnoreCase(String texto, Sort sort);
+    // Busca por la descripción de uso (ej: "Nuclear"), ordena y pagina
+    Page<SalaSecreta> findByFuncionPrincipalContainingIgnoreCase(String texto, Pageable pageable);
 
     // Busca por fragmento del código (ej: "123") ignorando mayúsculas
-    List<SalaSecreta> findByCodigoAccesoContainingIgnoreCase(String texto, Sort sort);
+    Page<SalaSecreta> findByCodigoAccesoContainingIgnoreCase(String texto, Pageable pageable);
 }
\ No newline at end of file
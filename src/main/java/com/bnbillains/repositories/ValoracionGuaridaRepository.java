@@ -0,0 +1,10 @@
+package com.bnbillains.repositories;
+
+import com.bnbillains.entities.ValoracionGuarida;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+// Solo lectura: las escrituras (incrementos atómicos) las hace ValoracionGuaridaService
+@Repository
+public interface ValoracionGuaridaRepository extends JpaRepository<ValoracionGuarida, Long> {
+}
@@ -1,11 +1,15 @@
 package com.bnbillains.repositories;
 
+import com.bnbillains.dto.Opcion;
 import com.bnbillains.entities.Villano;
-import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
-import java.util.List;
 import java.util.Optional;
 
 @Repository
@@ -22,5 +26,16 @@ public interface VillanoRepository extends JpaRepository<Villano, Long> {
     // --- BUSCADOR INTELIGENTE ---
     // Esta consulta es "Nombre O Alias". Permite que el usuario escriba algo
     // y el sistema busque en ambos campos a la vez.
-    List<Villano> findByNombreContainingIgnoreCaseOrAliasContainingIgnoreCase(String nombre, String alias, Sort sort);
+    Page<Villano> findByNombreContainingIgnoreCaseOrAliasContainingIgnoreCase(String nombre, String alias, Pageable pageable);
+
+    // --- OPCIONES PARA DESPLEGABLES (ver OpcionesService) ---
+    // Solo (id, etiqueta): se construye el DTO en la consulta, sin cargar entidades ni relaciones
+    // La ya elegida en un formulario, por si no está en la primera página del desplegable
+    @Query("SELECT new com.bnbillains.dto.Opcion(v.id, v.alias, v.nombre) FROM Villano v WHERE v.id = :id")
+    Optional<Opcion> findOpcion(@Param("id") Long id);
+
+    @Query("SELECT new com.bnbillains.dto.Opcion(v.id, v.alias, v.nombre) FROM Villano v " +
+            "WHERE LOWER(v.alias) LIKE LOWER(CONCAT('%', :texto, '%')) " +
+            "OR LOWER(v.nombre) LIKE LOWER(CONCAT('%', :texto, '%')) ORDER BY v.alias, v.id")
+    Slice<Opcion> buscarOpciones(@Param("texto") String texto, Pageable pageable);
 }
\ No newline at end of file
@@ -0,0 +1,125 @@
+package com.bnbillains.services;
+
+import com.bnbillains.entities.Comodidad;
+import com.bnbillains.entities.Guarida;
+import com.bnbillains.entities.RegionesCache;
+import com.bnbillains.entities.SalaSecreta;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.Cache;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Cache de segundo nivel de Hibernate para los datos de referencia (comodidades y salas secretas).
+ * <p>
+ * Las regiones se configuran en {@code caffeine.conf}. Hibernate ya invalida las entradas de las
+ * entidades que modifica él mismo, pero hay escrituras que no ve: el {@code ON DELETE CASCADE} de
+ * 'guarida_comodidades' al borrar una comodidad deja en la cache guaridas que apuntan a un id que
+ * ya no existe. Por eso los servicios de escritura desalojan aquí sus regiones, siempre después del commit.
+ * <p>
+ * También publica en Actuator los aciertos, fallos y escrituras de cada región
+ * ({@code /actuator/metrics/cache.segundo.nivel.aciertos?tag=region:...}).
+ */
+@Component
+public class CacheReferencia implements MeterBinder {
+
+    private static final Logger logger = LoggerFactory.getLogger(CacheReferencia.class);
+
+    private static final String ROL_GUARIDA_COMODIDADES = Guarida.class.getName() + ".comodidades";
+
+    private final Cache cache;
+    private final Statistics estadisticas;
+
+    public CacheReferencia(EntityManagerFactory entityManagerFactory) {
+        SessionFactory sessionFactory = entityManagerFactory.unwrap(SessionFactory.class);
+        this.cache = sessionFactory.getCache();
+        this.estadisticas = sessionFactory.getStatistics();
+    }
+
+    // ==========================================
+    // DESALOJO
+    // ==========================================
+
+    /**
+     * Vacía las comodidades, las listas de comodidades de cada guarida y los resultados
+     * cacheados de {@code ComodidadRepository}.
+     */
+    public void desalojarComodidades() {
+        despuesDelCommit(() -> {
+            cache.evictEntityData(Comodidad.class);
+            cache.evictCollectionData(ROL_GUARIDA_COMODIDADES);
+            cache.evictQueryRegion(RegionesCache.CONSULTAS_COMODIDAD);
+            logger.debug("Regiones de comodidades desalojadas.");
+        });
+    }
+
+    /**
+     * Vacía la región de salas secretas.
+     */
+    public void desalojarSalasSecretas() {
+        despuesDelCommit(() -> {
+            cache.evictEntityData(SalaSecreta.class);
+            logger.debug("Región de salas secretas desalojada.");
+        });
+    }
+
+    // Si hay transacción abierta, esperamos a que confirme: antes, otra petición podría volver a
+    // cargar en la cache los datos viejos que todavía ve la base de datos.
+    private void despuesDelCommit(Runnable desalojo) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    desalojo.run();
+                }
+            });
+        } else {
+            desalojo.run();
+        }
+    }
+
+    // ==========================================
+    // MÉTRICAS
+    // ==========================================
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (String region : new String[]{RegionesCache.COMODIDAD, RegionesCache.SALA_SECRETA, RegionesCache.GUARIDA_COMODIDADES}) {
+            registrar(registry, region, estadisticas::getDomainDataRegionStatistics);
+        }
+        registrar(registry, RegionesCache.CONSULTAS_COMODIDAD, estadisticas::getQueryRegionStatistics);
+    }
+
+    private void registrar(MeterRegistry registry, String region, Function<String, CacheRegionStatistics> origen) {
+        contador(registry, "cache.segundo.nivel.aciertos", "Lecturas servidas desde la cache",
+                region, origen, CacheRegionStatistics::getHitCount);
+        contador(registry, "cache.segundo.nivel.fallos", "Lecturas que tuvieron que ir a la base de datos",
+                region, origen, CacheRegionStatistics::getMissCount);
+        contador(registry, "cache.segundo.nivel.escrituras", "Entradas guardadas en la cache",
+                region, origen, CacheRegionStatistics::getPutCount);
+    }
+
+    private void contador(MeterRegistry registry, String nombre, String descripcion, String region,
+                          Function<String, CacheRegionStatistics> origen, ToLongFunction<CacheRegionStatistics> valor) {
+        FunctionCounter.builder(nombre, estadisticas, e -> {
+                    // La región no existe hasta que se usa por primera vez
+                    CacheRegionStatistics stats = origen.apply(region);
+                    return stats != null ? valor.applyAsLong(stats) : 0;
+                })
+                .description(descripcion)
+                .tag("region", region)
+                .register(registry);
+    }
+}
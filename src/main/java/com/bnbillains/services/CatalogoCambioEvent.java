@@ -0,0 +1,8 @@
+package com.bnbillains.services;
+
+/**
+ * Aviso de que ha cambiado una tabla que alimenta desplegables (alta, edición o borrado).
+ * Lo publican los servicios dueños de cada entidad y lo consume {@link OpcionesService}
+ * tras el commit para descartar su copia en memoria.
+ */
+public record CatalogoCambioEvent(OpcionesService.Catalogo catalogo) {}
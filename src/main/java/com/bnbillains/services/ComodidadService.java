@@ -2,7 +2,9 @@ package com.bnbillains.services;
 
 import com.bnbillains.entities.Comodidad;
 import com.bnbillains.repositories.ComodidadRepository;
-import org.springframework.data.domain.Sort; // IMPORTANTE
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
@@ -12,18 +14,25 @@ import java.util.Optional;
 public class ComodidadService {
 
     private final ComodidadRepository comodidadRepository;
+    private final ApplicationEventPublisher eventPublisher;
+    private final CacheReferencia cacheReferencia;
+    private final IndiceFacetas indiceFacetas;
 
-    public ComodidadService(ComodidadRepository comodidadRepository) {
+    public ComodidadService(ComodidadRepository comodidadRepository, ApplicationEventPublisher eventPublisher,
+                            CacheReferencia cacheReferencia, IndiceFacetas indiceFacetas) {
         this.comodidadRepository = comodidadRepository;
+        this.eventPublisher = eventPublisher;
+        this.cacheReferencia = cacheReferencia;
+        this.indiceFacetas = indiceFacetas;
     }
 
     public List<Comodidad> obtenerTodas() {
         return comodidadRepository.findAll();
     }
 
-    //listado general ordenado
-    public List<Comodidad> obtenerTodasOrdenadas(Sort sort) {
-        return comodidadRepository.findAll(sort);
+    //listado general ordenado y paginado
+    public Page<Comodidad> obtenerTodasOrdenadas(Pageable pageable) {
+        return comodidadRepository.findAll(pageable);
     }
 
     public Optional<Comodidad> obtenerPorId(Long id) {
@@ -32,7 +41,10 @@ public class ComodidadService {
 
 
     public Comodidad guardar(Comodidad comodidad) {
-        return comodidadRepository.save(comodidad);
+        Comodidad guardada = comodidadRepository.save(comodidad);
+        cacheReferencia.desalojarComodidades();
+        eventPublisher.publishEvent(new CatalogoCambioEvent(OpcionesService.Catalogo.COMODIDADES));
+        return guardada;
     }
 
     public Comodidad actualizar(Long id, Comodidad comodidad) {
@@ -40,13 +52,20 @@ public class ComodidadService {
                 .map(c -> {
                     c.setNombre(comodidad.getNombre());
                     c.setAutoDestruccion(comodidad.getAutoDestruccion());
-                    return comodidadRepository.save(c);
+                    Comodidad guardada = comodidadRepository.save(c);
+                    cacheReferencia.desalojarComodidades();
+                    eventPublisher.publishEvent(new CatalogoCambioEvent(OpcionesService.Catalogo.COMODIDADES));
+                    return guardada;
                 })
                 .orElseThrow(() -> new IllegalArgumentException("Comodidad no encontrada"));
     }
 
     public void eliminar(Long id) {
         comodidadRepository.deleteById(id);
+        // El ON DELETE CASCADE de 'guarida_comodidades' no pasa por Hibernate
+        cacheReferencia.desalojarComodidades();
+        indiceFacetas.quitarComodidad(id);
+        eventPublisher.publishEvent(new CatalogoCambioEvent(OpcionesService.Catalogo.COMODIDADES));
     }
 
     // busqueda
@@ -59,8 +78,8 @@ public class ComodidadService {
     }
 
     // busqueda con ordenacion
-    public List<Comodidad> buscarPorFragmentoOrdenado(String fragmento, Sort sort) {
-        return comodidadRepository.findByNombreContainingIgnoreCase(fragmento, sort);
+    public Page<Comodidad> buscarPorFragmentoOrdenado(String fragmento, Pageable pageable) {
+        return comodidadRepository.findByNombreContainingIgnoreCase(fragmento, pageable);
     }
 
     public boolean existePorNombre(String nombre) {
@@ -0,0 +1,282 @@
+package com.bnbillains.services;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Exportación de facturas y reservas a CSV o NDJSON (un objeto JSON por línea).
+ * <p>
+ * Las filas salen de la BD por un cursor de solo avance con {@code fetchSize}, como proyecciones
+ * planas (sin entidades ni su grafo de relaciones), y se escriben en la respuesta según llegan:
+ * la memoria no depende del número de filas y el primer byte sale en cuanto llega la primera.
+ */
+@Service
+public class ExportacionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExportacionService.class);
+
+    // Filas por viaje al servidor de BD
+    private static final int FILAS_POR_BLOQUE = 500;
+
+    // Cada cuántas filas se empuja lo escrito al cliente
+    private static final int FILAS_POR_ENVIO = 500;
+
+    private static final String SQL_FACTURAS =
+            "SELECT f.id, f.fecha_emision, f.importe, f.impuestos_malignos, f.metodo_pago, " +
+                    "r.id AS reserva_id, v.id AS villano_id, v.alias AS villano, g.id AS guarida_id, g.nombre AS guarida " +
+                    "FROM factura f " +
+                    "LEFT JOIN reserva r ON r.id = f.reserva_id " +
+                    "LEFT JOIN villano v ON v.id = r.villano_id " +
+                    "LEFT JOIN guarida g ON g.id = r.guarida_id";
+
+    private static final String SQL_RESERVAS =
+            "SELECT r.id, r.fecha_inicio, r.fecha_fin, r.coste_total, r.estado, " +
+                    "v.id AS villano_id, v.alias AS villano, g.id AS guarida_id, g.nombre AS guarida " +
+                    "FROM reserva r " +
+                    "LEFT JOIN villano v ON v.id = r.villano_id " +
+                    "LEFT JOIN guarida g ON g.id = r.guarida_id";
+
+    public enum Formato {
+        CSV("text/csv;charset=UTF-8", "csv"),
+        NDJSON("application/x-ndjson", "ndjson");
+
+        private final String tipoContenido;
+        private final String extension;
+
+        Formato(String tipoContenido, String extension) {
+            this.tipoContenido = tipoContenido;
+            this.extension = extension;
+        }
+
+        public String getTipoContenido() { return tipoContenido; }
+
+        // Parámetro "formato" de la URL: CSV salvo que se pida NDJSON
+        public static Formato de(String valor) {
+            return "ndjson".equalsIgnoreCase(valor) ? NDJSON : CSV;
+        }
+    }
+
+    /**
+     * Filtros comunes (todos opcionales): rango de fechas, ambas incluidas, y villano.
+     */
+    public record Filtro(LocalDate desde, LocalDate hasta, Long villanoId) {
+
+        public boolean rangoValido() {
+            return desde == null || hasta == null || !hasta.isBefore(desde);
+        }
+
+        // Ej: "facturas_2025-11-01_2025-11-30.csv"
+        public String nombreFichero(String base, Formato formato) {
+            return base + (desde != null ? "_" + desde : "") + (hasta != null ? "_" + hasta : "") + "." + formato.extension;
+        }
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+
+    public ExportacionService(JdbcTemplate jdbcTemplate, ObjectMapper objectMapper) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Facturas por fecha de emisión (usa el índice de la paginación por cursor).
+     */
+    public void exportarFacturas(Filtro filtro, Formato formato, OutputStream salida) {
+        exportar(SQL_FACTURAS, "f.fecha_emision", "r.villano_id", "f.fecha_emision, f.id", filtro, formato, salida);
+    }
+
+    /**
+     * Reservas por fecha de inicio.
+     */
+    public void exportarReservas(Filtro filtro, Formato formato, OutputStream salida) {
+        exportar(SQL_RESERVAS, "r.fecha_inicio", "r.villano_id", "r.fecha_inicio, r.id", filtro, formato, salida);
+    }
+
+    private void exportar(String select, String columnaFecha, String columnaVillano, String orden,
+                          Filtro filtro, Formato formato, OutputStream salida) {
+        StringBuilder sql = new StringBuilder(select).append(" WHERE 1 = 1");
+        List<Object> args = new ArrayList<>();
+        if (filtro.desde() != null) {
+            sql.append(" AND ").append(columnaFecha).append(" >= ?");
+            args.add(Date.valueOf(filtro.desde()));
+        }
+        if (filtro.hasta() != null) {
+            sql.append(" AND ").append(columnaFecha).append(" <= ?");
+            args.add(Date.valueOf(filtro.hasta()));
+        }
+        if (filtro.villanoId() != null) {
+            sql.append(" AND ").append(columnaVillano).append(" = ?");
+            args.add(filtro.villanoId());
+        }
+        sql.append(" ORDER BY ").append(orden);
+
+        Escritor escritor = (formato == Formato.NDJSON) ? new EscritorNdjson(salida) : new EscritorCsv(salida);
+        Long filas = jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(sql.toString(),
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(FILAS_POR_BLOQUE);
+            for (int i = 0; i < args.size(); i++) ps.setObject(i + 1, args.get(i));
+            return ps;
+        }, (ResultSetExtractor<Long>) rs -> {
+            long total = 0;
+            try {
+                // La cabecera sale aunque no haya filas
+                escritor.cabecera(rs.getMetaData());
+                escritor.enviar();
+                while (rs.next()) {
+                    escritor.fila(rs);
+                    if (++total % FILAS_POR_ENVIO == 0) escritor.enviar();
+                }
+                escritor.enviar();
+            } catch (IOException e) {
+                // El cliente ha cerrado la conexión: se corta la consulta
+                throw new UncheckedIOException(e);
+            }
+            return total;
+        });
+        logger.debug("Exportación {} terminada: {} filas.", formato, filas);
+    }
+
+    // ==========================================
+    // FORMATOS
+    // ==========================================
+
+    private interface Escritor {
+        void cabecera(ResultSetMetaData meta) throws SQLException, IOException;
+
+        void fila(ResultSet rs) throws SQLException, IOException;
+
+        void enviar() throws IOException;
+    }
+
+    /**
+     * CSV según RFC 4180 (separador coma, fin de línea CRLF), con BOM para que Excel respete los acentos.
+     */
+    private static final class EscritorCsv implements Escritor {
+        private final Writer out;
+        private int columnas;
+
+        EscritorCsv(OutputStream salida) {
+            this.out = new BufferedWriter(new OutputStreamWriter(salida, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void cabecera(ResultSetMetaData meta) throws SQLException, IOException {
+            columnas = meta.getColumnCount();
+            out.write('\uFEFF');
+            for (int i = 1; i <= columnas; i++) {
+                if (i > 1) out.write(',');
+                out.write(meta.getColumnLabel(i).toLowerCase());
+            }
+            out.write("\r\n");
+        }
+
+        @Override
+        public void fila(ResultSet rs) throws SQLException, IOException {
+            for (int i = 1; i <= columnas; i++) {
+                if (i > 1) out.write(',');
+                Object valor = rs.getObject(i);
+                if (valor == null) continue;
+                String texto = (valor instanceof BigDecimal bd) ? bd.toPlainString() : valor.toString();
+                escribirCampo(texto, valor instanceof String);
+            }
+            out.write("\r\n");
+        }
+
+        /**
+         * Un texto que empieza por '=', '+', '-', '@', tabulador o retorno de carro sería una fórmula al
+         * abrir el CSV en una hoja de cálculo: se escribe entre comillas y con una comilla simple delante.
+         * Los números no se tocan (un importe negativo sigue siendo un número).
+         */
+        private void escribirCampo(String texto, boolean esTexto) throws IOException {
+            boolean formula = esTexto && !texto.isEmpty() && "=+-@\t\r".indexOf(texto.charAt(0)) >= 0;
+            boolean comillas = formula || texto.indexOf(',') >= 0 || texto.indexOf('"') >= 0
+                    || texto.indexOf('\n') >= 0 || texto.indexOf('\r') >= 0;
+            if (!comillas) {
+                out.write(texto);
+                return;
+            }
+            out.write('"');
+            if (formula) out.write('\'');
+            out.write(texto.replace("\"", "\"\""));
+            out.write('"');
+        }
+
+        @Override
+        public void enviar() throws IOException {
+            out.flush();
+        }
+    }
+
+    /**
+     * NDJSON: un objeto por fila con los nombres de columna como claves y los tipos de la BD
+     * (números, booleanos, fechas ISO y null).
+     */
+    private final class EscritorNdjson implements Escritor {
+        private final OutputStream salida;
+        private JsonGenerator json;
+        private String[] nombres;
+
+        EscritorNdjson(OutputStream salida) {
+            this.salida = salida;
+        }
+
+        @Override
+        public void cabecera(ResultSetMetaData meta) throws SQLException, IOException {
+            nombres = new String[meta.getColumnCount()];
+            for (int i = 0; i < nombres.length; i++) nombres[i] = meta.getColumnLabel(i + 1).toLowerCase();
+            json = objectMapper.getFactory().createGenerator(salida);
+            // Sin el espacio que Jackson pone entre valores raíz: el separador es el salto de línea
+            json.setRootValueSeparator(null);
+        }
+
+        @Override
+        public void fila(ResultSet rs) throws SQLException, IOException {
+            json.writeStartObject();
+            for (int i = 0; i < nombres.length; i++) {
+                json.writeFieldName(nombres[i]);
+                Object valor = rs.getObject(i + 1);
+                switch (valor) {
+                    case null -> json.writeNull();
+                    case BigDecimal bd -> json.writeNumber(bd);
+                    case Long l -> json.writeNumber(l);
+                    case Integer n -> json.writeNumber(n);
+                    case Double d -> json.writeNumber(d);
+                    case Boolean b -> json.writeBoolean(b);
+                    case Date d -> json.writeString(d.toLocalDate().toString());
+                    default -> json.writeString(valor.toString());
+                }
+            }
+            json.writeEndObject();
+            json.writeRaw('\n');
+        }
+
+        @Override
+        public void enviar() throws IOException {
+            json.flush();
+        }
+    }
+}
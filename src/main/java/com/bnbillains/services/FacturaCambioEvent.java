@@ -0,0 +1,7 @@
+package com.bnbillains.services;
+
+/**
+ * Aviso de que se ha creado, modificado o borrado una factura fuera del flujo de reservas
+ * (las facturas automáticas viajan con {@link ReservaCambioEvent}). Se consume tras el commit.
+ */
+public record FacturaCambioEvent(Long facturaId) {}
@@ -2,8 +2,15 @@ package com.bnbillains.services;
 
 import com.bnbillains.entities.Factura;
 import com.bnbillains.repositories.FacturaRepository;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.ScrollPosition;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 import java.util.Optional;
@@ -12,14 +19,19 @@ import java.util.Optional;
 public class FacturaService {
 
     private final FacturaRepository facturaRepository;
+    private final IngresosDiariosService ingresosService;
+    private final ApplicationEventPublisher eventPublisher;
 
-    public FacturaService(FacturaRepository facturaRepository) {
+    public FacturaService(FacturaRepository facturaRepository, IngresosDiariosService ingresosService,
+                          ApplicationEventPublisher eventPublisher) {
         this.facturaRepository = facturaRepository;
+        this.ingresosService = ingresosService;
+        this.eventPublisher = eventPublisher;
     }
 
-    // Métodos de lectura básicos (pasan el Sort al repositorio)
-    public List<Factura> obtenerTodas(Sort sort) {
-        return facturaRepository.findAll(sort);
+    // Métodos de lectura básicos (pasan la página, con su Sort, al repositorio)
+    public Page<Factura> obtenerTodas(Pageable pageable) {
+        return facturaRepository.findAll(pageable);
     }
 
     public Optional<Factura> obtenerPorId(Long id) {
@@ -29,6 +41,8 @@ public class FacturaService {
     // --- LÓGICA DE ESCRITURA ---
 
     // Guarda una nueva factura aplicando reglas de negocio
+    // (la factura y los ingresos diarios se guardan juntos: todo o nada)
+    @Transactional
     public Factura guardar(Factura factura) {
         // Regla de oro: Una reserva solo puede tener UNA factura.
         // Si intentamos crear una nueva para una reserva que ya tiene, bloqueamos.
@@ -37,14 +51,27 @@ public class FacturaService {
                 throw new IllegalArgumentException("Esta reserva ya ha sido facturada. ¡No seas avaricioso!");
             }
         }
-        return facturaRepository.save(factura);
+        // Si llega con id es una sobrescritura: primero descontamos lo que había
+        if (factura.getId() != null) {
+            facturaRepository.findById(factura.getId())
+                    .map(IngresosDiariosService.Apunte::de)
+                    .ifPresent(ingresosService::restar);
+        }
+        Factura guardada = facturaRepository.save(factura);
+        ingresosService.sumar(IngresosDiariosService.Apunte.de(guardada));
+        eventPublisher.publishEvent(new FacturaCambioEvent(guardada.getId()));
+        return guardada;
     }
 
     // --- MÉTODO ACTUALIZAR BLINDADO ---
     // Este método es "defensivo": protege los datos sensibles de ser borrados por error
+    @Transactional
     public Factura actualizar(Long id, Factura facturaDatosNuevos) {
         return facturaRepository.findById(id)
                 .map(facturaExistente -> {
+                    // 0. Apunte de ingresos con los valores antiguos (método e importes pueden cambiar)
+                    ingresosService.restar(IngresosDiariosService.Apunte.de(facturaExistente));
+
                     // 1. Actualizamos lo que el usuario quiere cambiar (Método de Pago)
                     facturaExistente.setMetodoPago(facturaDatosNuevos.getMetodoPago());
 
@@ -60,25 +87,51 @@ public class FacturaService {
                     // Mantenemos la relación que ya existe en la base de datos.
                     // Si el formulario web enviase la reserva como null, aquí la perderíamos si no hiciéramos esto.
 
-                    return facturaRepository.save(facturaExistente);
+                    Factura guardada = facturaRepository.save(facturaExistente);
+                    ingresosService.sumar(IngresosDiariosService.Apunte.de(guardada));
+                    eventPublisher.publishEvent(new FacturaCambioEvent(guardada.getId()));
+                    return guardada;
                 })
                 .orElseThrow(() -> new IllegalArgumentException("Factura no encontrada"));
     }
 
+    @Transactional
     public void eliminar(Long id) {
-        facturaRepository.deleteById(id);
+        facturaRepository.findById(id).ifPresent(factura -> {
+            ingresosService.restar(IngresosDiariosService.Apunte.de(factura));
+            // La reserva la tiene en cascada: si no la soltamos, Hibernate la vuelve a guardar al hacer flush
+            if (factura.getReserva() != null) {
+                factura.getReserva().setFactura(null);
+            }
+            facturaRepository.delete(factura);
+            eventPublisher.publishEvent(new FacturaCambioEvent(id));
+        });
     }
 
     // --- BÚSQUEDA ---
 
     // Busca por método de pago (ej: "Bitcoin") y ordena
-    public List<Factura> buscarPorMetodoPago(String metodo, Sort sort) {
-        return facturaRepository.findByMetodoPagoContainingIgnoreCase(metodo, sort);
+    public Page<Factura> buscarPorMetodoPago(String metodo, Pageable pageable) {
+        return facturaRepository.findByMetodoPagoContainingIgnoreCase(metodo, pageable);
     }
 
     // Busca por rango de dinero y ordena
-    public List<Factura> buscarPorRangoImporte(Double min, Double max, Sort sort) {
-        return facturaRepository.findByImporteBetween(min, max, sort);
+    public Page<Factura> buscarPorRangoImporte(Double min, Double max, Pageable pageable) {
+        return facturaRepository.findByImporteBetween(min, max, pageable);
+    }
+
+    // --- PAGINACIÓN POR CURSOR ---
+    // Los mismos listados, pero continuando desde la última factura vista (sin OFFSET)
+    public Window<Factura> obtenerTodas(ScrollPosition posicion, Sort sort, int tamano) {
+        return facturaRepository.findAllBy(posicion, sort, Limit.of(tamano));
+    }
+
+    public Window<Factura> buscarPorMetodoPago(String metodo, ScrollPosition posicion, Sort sort, int tamano) {
+        return facturaRepository.findByMetodoPagoContainingIgnoreCase(metodo, posicion, sort, Limit.of(tamano));
+    }
+
+    public Window<Factura> buscarPorRangoImporte(Double min, Double max, ScrollPosition posicion, Sort sort, int tamano) {
+        return facturaRepository.findByImporteBetween(min, max, posicion, sort, Limit.of(tamano));
     }
 
     // Busca las facturas de un cliente concreto
@@ -0,0 +1,218 @@
+package com.bnbillains.services;
+
+import com.bnbillains.entities.Factura;
+import com.bnbillains.entities.Reserva;
+import com.bnbillains.repositories.FacturaRepository;
+import com.bnbillains.repositories.ReservaRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Facturación automática de reservas mediante una tabla outbox ('factura_outbox').
+ * <p>
+ * {@link ReservaService} solo inserta una fila con el id de la reserva, en su misma transacción: si la
+ * reserva se deshace, la petición de factura también, y la reserva no espera a la facturación.
+ * Un despachador en segundo plano vacía la tabla por lotes y, para cada reserva, deja su factura
+ * alineada con el coste actual (la crea si no existe o corrige el importe).
+ * <p>
+ * Cada lote se reclama con {@code SELECT ... FOR UPDATE SKIP LOCKED} dentro de su transacción: otro
+ * nodo que despache a la vez se salta esas filas y coge las siguientes, en lugar de facturar la misma
+ * reserva en paralelo. Cada factura se confirma en su propia transacción, así que un fallo no arrastra
+ * al resto del lote; si el nodo cae entre la factura y el borrado de la fila, la fila se repite y no
+ * tiene efecto (la sincronización es idempotente).
+ * Las filas que fallan se reintentan hasta {@code MAX_INTENTOS} y después se quedan para revisión.
+ */
+@Service
+public class FacturacionOutboxService {
+
+    private static final Logger logger = LoggerFactory.getLogger(FacturacionOutboxService.class);
+
+    private static final double IVA_MALIGNO = 0.21;
+    private static final String METODO_PENDIENTE = "Pendiente";
+
+    private static final int MAX_INTENTOS = 5;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    // Una transacción por factura, aparte de la del lote (que mantiene reclamadas sus filas)
+    private final TransactionTemplate transaccionFactura;
+    private final ReservaRepository reservaRepository;
+    private final FacturaRepository facturaRepository;
+    private final IngresosDiariosService ingresosService;
+    private final ApplicationEventPublisher eventPublisher;
+    private final int tamanoLote;
+
+    // Métricas de retraso: se actualizan en cada pasada del despachador
+    private final AtomicLong pendientes = new AtomicLong();
+    private final AtomicLong retrasoMs = new AtomicLong();
+    private final Timer lote;
+    private final Counter procesadas;
+    private final Counter fallidas;
+
+    public FacturacionOutboxService(JdbcTemplate jdbcTemplate,
+                                    TransactionTemplate transactionTemplate,
+                                    ReservaRepository reservaRepository,
+                                    FacturaRepository facturaRepository,
+                                    IngresosDiariosService ingresosService,
+                                    ApplicationEventPublisher eventPublisher,
+                                    MeterRegistry meterRegistry,
+                                    @Value("${bnbillains.outbox.tamano-lote:100}") int tamanoLote) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.transaccionFactura = new TransactionTemplate(transactionTemplate.getTransactionManager());
+        this.transaccionFactura.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.reservaRepository = reservaRepository;
+        this.facturaRepository = facturaRepository;
+        this.ingresosService = ingresosService;
+        this.eventPublisher = eventPublisher;
+        this.tamanoLote = Math.max(1, tamanoLote);
+
+        Gauge.builder("facturas.outbox.pendientes", pendientes, AtomicLong::get)
+                .description("Peticiones de factura sin procesar")
+                .register(meterRegistry);
+        Gauge.builder("facturas.outbox.retraso", retrasoMs, v -> v.get() / 1000.0)
+                .description("Antigüedad en segundos de la petición pendiente más vieja")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        this.lote = Timer.builder("facturas.outbox.lote")
+                .description("Tiempo de cada pasada del despachador")
+                .register(meterRegistry);
+        this.procesadas = Counter.builder("facturas.outbox.procesadas")
+                .description("Reservas facturadas (o ya al día) por el despachador")
+                .register(meterRegistry);
+        this.fallidas = Counter.builder("facturas.outbox.fallidas")
+                .description("Intentos de facturación fallidos")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Pide (re)facturar una reserva. Debe llamarse dentro de la transacción de la reserva.
+     */
+    public void encolar(Long reservaId) {
+        jdbcTemplate.update("INSERT INTO factura_outbox (reserva_id, creado_en, intentos) VALUES (?, ?, 0)",
+                reservaId, Timestamp.from(Instant.now()));
+    }
+
+    // ==========================================
+    // DESPACHADOR
+    // ==========================================
+
+    @Scheduled(fixedDelayString = "${bnbillains.outbox.intervalo-ms:1000}")
+    public void despachar() {
+        lote.record(() -> {
+            transactionTemplate.executeWithoutResult(estado -> {
+                // Las filas quedan bloqueadas hasta el final del lote; las que ya tiene otro nodo se saltan
+                List<Map<String, Object>> filas = jdbcTemplate.queryForList(
+                        "SELECT id, reserva_id FROM factura_outbox WHERE intentos < ? ORDER BY id LIMIT ? " +
+                                "FOR UPDATE SKIP LOCKED",
+                        MAX_INTENTOS, tamanoLote);
+
+                // Varias peticiones de la misma reserva en el lote se resuelven con una sola pasada
+                Map<Long, List<Long>> porReserva = new LinkedHashMap<>();
+                for (Map<String, Object> fila : filas) {
+                    long reservaId = ((Number) fila.get("reserva_id")).longValue();
+                    porReserva.computeIfAbsent(reservaId, k -> new ArrayList<>())
+                            .add(((Number) fila.get("id")).longValue());
+                }
+                porReserva.forEach(this::procesar);
+            });
+            actualizarRetraso();
+        });
+    }
+
+    // Dentro de la transacción del lote: la factura se confirma aparte y aquí solo se cierran sus filas
+    private void procesar(Long reservaId, List<Long> outboxIds) {
+        try {
+            transaccionFactura.executeWithoutResult(estado -> sincronizarFactura(reservaId));
+            for (Long id : outboxIds) {
+                jdbcTemplate.update("DELETE FROM factura_outbox WHERE id = ?", id);
+            }
+            procesadas.increment();
+        } catch (RuntimeException e) {
+            fallidas.increment();
+            logger.warn("No se pudo facturar la reserva {}: {}", reservaId, e.getMessage());
+            String error = String.valueOf(e.getMessage());
+            for (Long id : outboxIds) {
+                jdbcTemplate.update("UPDATE factura_outbox SET intentos = intentos + 1, ultimo_error = ? WHERE id = ?",
+                        error.length() > 500 ? error.substring(0, 500) : error, id);
+            }
+        }
+    }
+
+    /**
+     * Deja la factura de la reserva con su coste actual. Idempotente.
+     */
+    private void sincronizarFactura(Long reservaId) {
+        Optional<Reserva> reserva = reservaRepository.findById(reservaId);
+        if (reserva.isEmpty()) return; // Cancelada antes de facturar: no hay nada que hacer
+
+        Reserva r = reserva.get();
+        Double coste = r.getCosteTotal();
+        Optional<Factura> existente = facturaRepository.findByReserva_Id(reservaId);
+
+        if (existente.isEmpty()) {
+            Factura f = new Factura();
+            f.setFechaEmision(LocalDate.now());
+            f.setImporte(coste);
+            f.setImpuestosMalignos(coste * IVA_MALIGNO);
+            f.setMetodoPago(METODO_PENDIENTE);
+            f.setReserva(r);
+            Factura guardada = facturaRepository.save(f);
+            ingresosService.sumar(IngresosDiariosService.Apunte.de(guardada));
+            eventPublisher.publishEvent(new FacturaCambioEvent(guardada.getId()));
+            return;
+        }
+
+        Factura f = existente.get();
+        IngresosDiariosService.Apunte anterior = IngresosDiariosService.Apunte.de(f);
+        // Contada con otra guarida (el agregado no tiene su día con la de la reserva): se recalcula el día
+        if (!ingresosService.estaApuntado(anterior)) {
+            actualizarImporte(f, coste);
+            facturaRepository.flush();
+            ingresosService.recalcular(List.of(f.getFechaEmision()));
+            return;
+        }
+        if (coste.equals(f.getImporte())) return;
+        ingresosService.restar(anterior);
+        actualizarImporte(f, coste);
+        ingresosService.sumar(IngresosDiariosService.Apunte.de(f));
+    }
+
+    private void actualizarImporte(Factura f, Double coste) {
+        if (coste.equals(f.getImporte())) return;
+        f.setImporte(coste);
+        f.setImpuestosMalignos(coste * IVA_MALIGNO);
+        facturaRepository.save(f);
+        eventPublisher.publishEvent(new FacturaCambioEvent(f.getId()));
+    }
+
+    private void actualizarRetraso() {
+        jdbcTemplate.query("SELECT COUNT(*), MIN(creado_en) FROM factura_outbox WHERE intentos < ?", rs -> {
+            pendientes.set(rs.getLong(1));
+            Timestamp masVieja = rs.getTimestamp(2);
+            retrasoMs.set(masVieja == null ? 0 : Math.max(0, Duration.between(masVieja.toInstant(), Instant.now()).toMillis()));
+        }, MAX_INTENTOS);
+    }
+}
@@ -1,55 +1,274 @@
 package com.bnbillains.services;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.multipart.MultipartFile;
-import java.io.File;
+
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
+/**
+ * Guarda en disco las imágenes subidas (carpeta UPLOAD_PATH).
+ * <p>
+ * La subida nunca se carga entera en memoria: se copia por canales NIO, a bloques, a un fichero temporal
+ * dentro de la propia carpeta y, si pasa los controles, se mueve de forma atómica a su nombre final
+ * (nadie ve nunca una imagen a medio escribir). El tamaño se vigila mientras se copia y el tipo se
+ * decide por los primeros bytes del fichero, no por lo que diga el navegador.
+ * <p>
+ * Por defecto el nombre es el SHA-256 del contenido: la misma foto siempre tiene la misma URL (se puede
+ * cachear para siempre) y se guarda una sola vez aunque la usen varias guaridas. Por eso un fichero solo
+ * se retira cuando ya no lo referencia ninguna fila de 'guarida' (ver {@link LimpiezaUploadsService}).
+ */
 @Service
 public class FileStorageService {
 
     private static final Logger logger = LoggerFactory.getLogger(FileStorageService.class);
 
-    // Variable de entorno para la ruta de almacenamiento
-    @Value("${UPLOAD_PATH}")
-    private String uploadPath;
+    // Bytes por llamada a transferFrom
+    private static final long BLOQUE = 64 * 1024;
+
+    // Bytes necesarios para reconocer el formato (la cabecera más larga es la de WEBP)
+    private static final int CABECERA = 12;
+
+    // Subcarpetas ocultas de UPLOAD_PATH (no se sirven): subidas a medias y ficheros huérfanos
+    public static final String CARPETA_TEMPORAL = ".tmp";
+    public static final String CARPETA_CUARENTENA = ".cuarentena";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean porContenido;
+    private final Path carpeta;
+    private final Path temporales;
+    private final long tamanoMaximo;
+    private final List<String> tiposPermitidos;
+
+    // Métricas: bytes escritos (su ritmo es el caudal), bytes de subidas en curso y duración de cada subida
+    private final AtomicLong bytesEnVuelo = new AtomicLong();
+    private final Counter bytesGuardados;
+    private final Counter duplicadas;
+    private final DistributionSummary tamanos;
+    private final Timer duracion;
+    private final MeterRegistry meterRegistry;
+
+    public FileStorageService(JdbcTemplate jdbcTemplate,
+                              @Value("${UPLOAD_PATH}") String uploadPath,
+                              @Value("${bnbillains.uploads.por-contenido:true}") boolean porContenido,
+                              @Value("${bnbillains.uploads.tamano-maximo:5MB}") DataSize tamanoMaximo,
+                              @Value("${bnbillains.uploads.tipos-permitidos:image/jpeg,image/png,image/gif,image/webp}")
+                              List<String> tiposPermitidos,
+                              MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.porContenido = porContenido;
+        this.carpeta = Paths.get(uploadPath).toAbsolutePath().normalize();
+        this.temporales = carpeta.resolve(CARPETA_TEMPORAL);
+        this.tamanoMaximo = tamanoMaximo.toBytes();
+        this.tiposPermitidos = tiposPermitidos.stream().map(String::trim).map(String::toLowerCase).toList();
+        this.meterRegistry = meterRegistry;
+
+        Gauge.builder("uploads.bytes.en_vuelo", bytesEnVuelo, AtomicLong::get)
+                .description("Bytes de subidas que se están leyendo o copiando ahora mismo")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.bytesGuardados = Counter.builder("uploads.bytes")
+                .description("Bytes de imágenes guardados en disco")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.duplicadas = Counter.builder("uploads.duplicadas")
+                .description("Subidas de una imagen ya guardada (no se escriben)")
+                .register(meterRegistry);
+        this.tamanos = DistributionSummary.builder("uploads.tamano")
+                .description("Tamaño de las imágenes guardadas")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.duracion = Timer.builder("uploads.duracion")
+                .description("Tiempo de copia de cada subida")
+                .register(meterRegistry);
+    }
 
     /**
      * Guarda un archivo en el sistema de archivos y devuelve el nombre del archivo guardado.
+     * Con direccionamiento por contenido el nombre es el SHA-256 de los bytes: subir otra vez la misma
+     * foto devuelve el mismo nombre sin escribir nada en disco.
      *
      * @param file El archivo a guardar.
-     * @return El nombre del archivo guardado o null si ocurre un error.
+     * @return El nombre del archivo guardado o null si ocurre un error de disco.
+     * @throws IllegalArgumentException si el archivo supera el tamaño máximo o no es una imagen admitida.
      */
     public String saveFile(MultipartFile file) {
-        try {
-            // Generar un nombre único para el archivo
-            String fileExtension = getFileExtension(file.getOriginalFilename());
-            String uniqueFileName = UUID.randomUUID().toString() + "." + fileExtension;
-
-            // Ruta completa del archivo
-            Path filePath = Paths.get(uploadPath + File.separator + uniqueFileName);
-
-            // Crear los directorios si no existen
-            Files.createDirectories(filePath.getParent());
+        // El tamaño declarado ya permite rechazar sin leer nada
+        if (file.getSize() > tamanoMaximo) {
+            throw demasiadoGrande();
+        }
 
-            // Guardar el archivo en la ruta
-            Files.write(filePath, file.getBytes());
-            logger.info("Archivo {} guardado con éxito.", uniqueFileName);
+        long inicio = System.nanoTime();
+        try {
+            if (!porContenido) {
+                return copiar(file, extension -> UUID.randomUUID() + "." + extension);
+            }
 
-            return uniqueFileName; // Devolver el nombre del archivo para guardarlo en la base de datos
+            // 1ª pasada, solo lectura (el multipart ya está en disco): tipo, tamaño y SHA-256
+            Huella huella = calcularHuella(file);
+            String nombre = huella.sha256() + "." + huella.extension();
+            Path existente = carpeta.resolve(nombre);
+            Path enCuarentena = carpeta.resolve(CARPETA_CUARENTENA).resolve(nombre);
+            if (Files.exists(enCuarentena) && !Files.exists(existente)) {
+                // Estaba a punto de borrarse por huérfana (ver LimpiezaUploadsService): vuelve a su sitio
+                mover(enCuarentena, existente);
+            }
+            if (Files.exists(existente)) {
+                // Se renueva la fecha: la limpieza no toca ficheros recientes mientras se guarda la guarida
+                Files.setLastModifiedTime(existente, FileTime.fromMillis(System.currentTimeMillis()));
+                duplicadas.increment();
+                logger.info("Archivo {} ya existente: no se vuelve a escribir.", nombre);
+                return nombre;
+            }
+            // 2ª pasada: copia al temporal y publicación con el nombre ya calculado
+            return copiar(file, extension -> nombre);
         } catch (IOException e) {
             logger.error("Error al guardar el archivo: {}", e.getMessage());
             return null;
+        } finally {
+            duracion.record(System.nanoTime() - inicio, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Guaridas que apuntan a esta imagen ('guarida.imagen'). Con nombres por contenido una misma
+     * imagen puede estar en varias: solo se puede borrar cuando no queda ninguna.
+     */
+    public long referencias(String fileName) {
+        Long n = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM guarida WHERE imagen = ?", Long.class, fileName);
+        return n != null ? n : 0;
+    }
+
+    /**
+     * Copia la subida a un temporal comprobando tipo y tamaño y la publica con el nombre que
+     * devuelva {@code nombrar} a partir de la extensión detectada.
+     */
+    private String copiar(MultipartFile file, Function<String, String> nombrar) throws IOException {
+        Path temporal = null;
+        long copiados = 0;
+        try {
+            Files.createDirectories(temporales);
+            // createTempFile dejaría permisos 600; la imagen final debe poder leerla quien sirva la carpeta
+            temporal = Files.createFile(temporales.resolve("subida-" + UUID.randomUUID() + ".part"));
+
+            String extension;
+            try (InputStream in = file.getInputStream();
+                 ReadableByteChannel origen = Channels.newChannel(in);
+                 FileChannel destino = FileChannel.open(temporal, StandardOpenOption.WRITE)) {
+
+                // 1. Cabecera: decide el tipo antes de copiar el resto
+                ByteBuffer cabecera = leerCabecera(origen);
+                extension = extensionAdmitida(cabecera);
+                copiados = destino.write(cabecera);
+                bytesEnVuelo.addAndGet(copiados);
+
+                // 2. Resto del fichero, a bloques, cortando en cuanto pasa del máximo
+                long leidos;
+                while ((leidos = destino.transferFrom(origen, copiados, BLOQUE)) > 0) {
+                    copiados += leidos;
+                    bytesEnVuelo.addAndGet(leidos);
+                    if (copiados > tamanoMaximo) {
+                        throw demasiadoGrande();
+                    }
+                }
+                destino.force(false);
+            }
+
+            // 3. Publicación atómica con su nombre definitivo
+            String nombre = nombrar.apply(extension);
+            mover(temporal, carpeta.resolve(nombre));
+            temporal = null;
+
+            bytesGuardados.increment(copiados);
+            tamanos.record(copiados);
+            logger.info("Archivo {} guardado con éxito ({} bytes).", nombre, copiados);
+            return nombre; // Devolver el nombre del archivo para guardarlo en la base de datos
+        } finally {
+            bytesEnVuelo.addAndGet(-copiados);
+            if (temporal != null) borrarTemporal(temporal);
+        }
+    }
+
+    private record Huella(String sha256, String extension) {}
+
+    /**
+     * Lee la subida entera sin escribirla: valida tipo y tamaño y calcula su SHA-256.
+     */
+    private Huella calcularHuella(MultipartFile file) throws IOException {
+        MessageDigest sha256 = nuevoSha256();
+        long leidos = 0;
+        try (InputStream in = file.getInputStream();
+             ReadableByteChannel origen = Channels.newChannel(in)) {
+            ByteBuffer cabecera = leerCabecera(origen);
+            String extension = extensionAdmitida(cabecera);
+            leidos = cabecera.remaining();
+            bytesEnVuelo.addAndGet(leidos);
+            sha256.update(cabecera);
+
+            ByteBuffer bloque = ByteBuffer.allocate((int) BLOQUE);
+            int n;
+            while ((n = origen.read(bloque)) >= 0) {
+                leidos += n;
+                bytesEnVuelo.addAndGet(n);
+                if (leidos > tamanoMaximo) {
+                    throw demasiadoGrande();
+                }
+                sha256.update(bloque.flip());
+                bloque.clear();
+            }
+            return new Huella(HexFormat.of().formatHex(sha256.digest()), extension);
+        } finally {
+            bytesEnVuelo.addAndGet(-leidos);
+        }
+    }
+
+    private static MessageDigest nuevoSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("La JVM no ofrece SHA-256", e); // obligatorio en toda JVM
         }
     }
 
+    // Extensión según el tipo real del fichero, o IllegalArgumentException si no es una imagen admitida
+    private String extensionAdmitida(ByteBuffer cabecera) {
+        String tipo = detectarTipo(cabecera);
+        if (tipo == null || !tiposPermitidos.contains(tipo)) {
+            rechazar("tipo");
+            throw new IllegalArgumentException("Formato de imagen no admitido. Se aceptan: " + String.join(", ", tiposPermitidos) + ".");
+        }
+        return tipo.substring(tipo.indexOf('/') + 1).replace("jpeg", "jpg");
+    }
+
     /**
      * Elimina un archivo del sistema de archivos.
      *
@@ -57,7 +276,11 @@ public class FileStorageService {
      */
     public void deleteFile(String fileName) {
         try {
-            Path filePath = Paths.get(uploadPath, fileName);
+            Path filePath = carpeta.resolve(fileName).normalize();
+            if (!filePath.startsWith(carpeta)) {
+                logger.warn("Se ignora el borrado de {}: está fuera de la carpeta de subidas.", fileName);
+                return;
+            }
             Files.deleteIfExists(filePath);
             logger.info("Archivo {} eliminado con éxito.", fileName);
         } catch (IOException e) {
@@ -65,17 +288,61 @@ public class FileStorageService {
         }
     }
 
+    private static ByteBuffer leerCabecera(ReadableByteChannel origen) throws IOException {
+        ByteBuffer cabecera = ByteBuffer.allocate(CABECERA);
+        while (cabecera.hasRemaining()) {
+            if (origen.read(cabecera) < 0) break; // fichero más corto que la cabecera
+        }
+        return cabecera.flip();
+    }
+
     /**
-     * Obtiene la extensión del archivo.
-     *
-     * @param fileName El nombre del archivo.
-     * @return La extensión del archivo o una cadena vacía si no tiene extensión.
+     * Tipo MIME según la firma de los primeros bytes, o null si no es un formato conocido.
      */
-    private String getFileExtension(String fileName) {
-        if (fileName != null && fileName.contains(".")) {
-            return fileName.substring(fileName.lastIndexOf(".") + 1);
-        } else {
-            return ""; // Sin extensión
+    private static String detectarTipo(ByteBuffer b) {
+        int n = b.remaining();
+        if (n >= 3 && (b.get(0) & 0xFF) == 0xFF && (b.get(1) & 0xFF) == 0xD8 && (b.get(2) & 0xFF) == 0xFF) {
+            return "image/jpeg";
+        }
+        if (n >= 8 && (b.get(0) & 0xFF) == 0x89 && b.get(1) == 'P' && b.get(2) == 'N' && b.get(3) == 'G'
+                && b.get(4) == '\r' && b.get(5) == '\n' && (b.get(6) & 0xFF) == 0x1A && b.get(7) == '\n') {
+            return "image/png";
+        }
+        if (n >= 6 && b.get(0) == 'G' && b.get(1) == 'I' && b.get(2) == 'F' && b.get(3) == '8'
+                && (b.get(4) == '7' || b.get(4) == '9') && b.get(5) == 'a') {
+            return "image/gif";
+        }
+        if (n >= 12 && b.get(0) == 'R' && b.get(1) == 'I' && b.get(2) == 'F' && b.get(3) == 'F'
+                && b.get(8) == 'W' && b.get(9) == 'E' && b.get(10) == 'B' && b.get(11) == 'P') {
+            return "image/webp";
+        }
+        return null;
+    }
+
+    // El temporal está en la misma carpeta (mismo sistema de ficheros): el movimiento es un rename
+    static void mover(Path origen, Path destino) throws IOException {
+        try {
+            Files.move(origen, destino, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(origen, destino);
+        }
+    }
+
+    private IllegalArgumentException demasiadoGrande() {
+        rechazar("tamano");
+        return new IllegalArgumentException("La imagen supera el tamaño máximo de "
+                + DataSize.ofBytes(tamanoMaximo).toKilobytes() + " KB.");
+    }
+
+    private void rechazar(String motivo) {
+        meterRegistry.counter("uploads.rechazadas", "motivo", motivo).increment();
+    }
+
+    private static void borrarTemporal(Path temporal) {
+        try {
+            Files.deleteIfExists(temporal);
+        } catch (IOException e) {
+            logger.warn("No se pudo borrar el temporal {}: {}", temporal, e.getMessage());
         }
     }
-}
\ No newline at end of file
+}
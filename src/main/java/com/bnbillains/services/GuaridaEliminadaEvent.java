@@ -0,0 +1,8 @@
+package com.bnbillains.services;
+
+/**
+ * Aviso de que se ha borrado una guarida. Lo publica {@link GuaridaService} y lo consumen
+ * {@link IndiceTextoGuaridas} e {@link IndiceFacetas} tras el commit: si el borrado se deshace,
+ * la guarida sigue apareciendo en las búsquedas.
+ */
+public record GuaridaEliminadaEvent(Long guaridaId) {}
@@ -1,28 +1,80 @@
 package com.bnbillains.services;
 
+import com.bnbillains.dto.FacetasGuaridas;
+import com.bnbillains.dto.FiltroGuaridas;
+import com.bnbillains.dto.GuaridaResumen;
+import com.bnbillains.dto.Opcion;
 import com.bnbillains.entities.Guarida;
 import com.bnbillains.repositories.GuaridaRepository;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Service
 public class GuaridaService {
 
+    /**
+     * Propiedad de ordenación "por valoración media" (ver {@link #buscar}).
+     */
+    public static final String ORDEN_VALORACION = "valoracion";
+
     private final GuaridaRepository guaridaRepository;
+    private final MapaDisponibilidad mapaDisponibilidad;
+    private final IndiceTextoGuaridas indiceTexto;
+    private final IndiceFacetas indiceFacetas;
+    private final OpcionesService opcionesService;
+    private final IngresosDiariosService ingresosService;
+    private final ApplicationEventPublisher eventPublisher;
 
-    public GuaridaService(GuaridaRepository guaridaRepository) {
+    public GuaridaService(GuaridaRepository guaridaRepository,
+                          MapaDisponibilidad mapaDisponibilidad,
+                          IndiceTextoGuaridas indiceTexto,
+                          IndiceFacetas indiceFacetas,
+                          OpcionesService opcionesService,
+                          IngresosDiariosService ingresosService,
+                          ApplicationEventPublisher eventPublisher) {
         this.guaridaRepository = guaridaRepository;
+        this.mapaDisponibilidad = mapaDisponibilidad;
+        this.indiceTexto = indiceTexto;
+        this.indiceFacetas = indiceFacetas;
+        this.opcionesService = opcionesService;
+        this.ingresosService = ingresosService;
+        this.eventPublisher = eventPublisher;
     }
 
     // Métodos estándar de lectura
     public List<Guarida> obtenerTodas() { return guaridaRepository.findAll(); }
     public Optional<Guarida> obtenerPorId(Long id) { return guaridaRepository.findById(id); }
 
+    // Ficha completa (sala, comodidades, reseñas y sus autores) en dos consultas, haya las reseñas que haya
+    @Transactional(readOnly = true)
+    public Optional<Guarida> obtenerDetalle(Long id) {
+        Optional<Guarida> guarida = guaridaRepository.findDetalleById(id);
+        guarida.ifPresent(g -> guaridaRepository.cargarResenasConAutor(id));
+        return guarida;
+    }
+
     public Guarida guardar(Guarida guarida) {
-        return guaridaRepository.save(guarida);
+        Guarida guardada = guaridaRepository.save(guarida);
+        indiceTexto.indexar(guardada);
+        indiceFacetas.indexar(guardada);
+        eventPublisher.publishEvent(new CatalogoCambioEvent(OpcionesService.Catalogo.GUARIDAS));
+        return guardada;
     }
 
     public Guarida actualizar(Long id, Guarida guarida) {
@@ -32,28 +84,158 @@ public class GuaridaService {
                     g.setDescripcion(guarida.getDescripcion());
                     g.setUbicacion(guarida.getUbicacion());
                     g.setPrecioNoche(guarida.getPrecioNoche());
+                    // Foto nueva: sus copias reducidas están por generar (ver VariantesImagenService)
+                    // y la anterior puede quedarse sin uso
+                    String imagenAnterior = g.getImagen();
+                    boolean fotoNueva = !Objects.equals(imagenAnterior, guarida.getImagen());
+                    if (fotoNueva) g.setImagenVariantes(null);
                     g.setImagen(guarida.getImagen());
                     // Actualizamos también las relaciones complejas
                     g.setComodidades(guarida.getComodidades());
                     g.setSalaSecreta(guarida.getSalaSecreta());
-                    return guaridaRepository.save(g);
+                    Guarida guardada = guaridaRepository.save(g);
+                    indiceTexto.indexar(guardada);
+                    indiceFacetas.indexar(guardada);
+                    eventPublisher.publishEvent(new CatalogoCambioEvent(OpcionesService.Catalogo.GUARIDAS));
+                    // Ya guardada: si nadie más usaba la foto anterior, se puede borrar
+                    if (fotoNueva) eventPublisher.publishEvent(new ImagenLiberadaEvent(imagenAnterior));
+                    return guardada;
                 })
                 .orElseThrow(() -> new IllegalArgumentException("Guarida no encontrada"));
     }
 
+    @Transactional
     public void eliminar(Long id) {
+        List<LocalDate> diasFacturados = ingresosService.diasFacturadosDeGuarida(id);
+        String imagen = guaridaRepository.findById(id).map(Guarida::getImagen).orElse(null);
         guaridaRepository.deleteById(id);
+        guaridaRepository.flush();
+        // Sus facturas se han ido en cascada con las reservas: se recalculan esos días de ingresos
+        ingresosService.recalcular(diasFacturados);
+        // Los índices de búsqueda la olvidan después del commit
+        eventPublisher.publishEvent(new GuaridaEliminadaEvent(id));
+        // Sus reservas se han borrado en cascada: los índices deben olvidarlas
+        eventPublisher.publishEvent(ReservaCambioEvent.invalidacion(id));
+        eventPublisher.publishEvent(new CatalogoCambioEvent(OpcionesService.Catalogo.GUARIDAS));
+        eventPublisher.publishEvent(new ImagenLiberadaEvent(imagen));
     }
 
     // --- BÚSQUEDAS FILTRADAS ---
 
     // Búsqueda por precio con ordenación (ej: "Las más baratas primero")
-    public List<Guarida> buscarPorRangoPrecioOrdenado(Double min, Double max, Sort sort) {
-        return guaridaRepository.findByPrecioNocheBetween(min, max, sort);
+    public Page<GuaridaResumen> buscarPorRangoPrecioOrdenado(Double min, Double max, Pageable pageable) {
+        return guaridaRepository.findResumenByPrecioNocheBetween(min, max, pageable);
+    }
+
+    // Guaridas libres en TODO el rango de fechas (ambos días incluidos)
+    public Page<GuaridaResumen> buscarDisponibles(LocalDate fechaInicio, LocalDate fechaFin, Pageable pageable) {
+        if (fechaFin.isBefore(fechaInicio)) {
+            throw new IllegalArgumentException("La fecha de fin debe ser posterior al inicio.");
+        }
+        Set<Long> ocupadas = mapaDisponibilidad.guaridasOcupadas(fechaInicio, fechaFin);
+        return ocupadas.isEmpty()
+                ? guaridaRepository.findResumenBy(pageable)
+                : guaridaRepository.findResumenByIdNotIn(ocupadas, pageable);
+    }
+
+    /**
+     * Búsqueda de texto en nombre, ubicación y descripción (ver {@link IndiceTextoGuaridas}).
+     * Si el Pageable no trae orden, los resultados salen por relevancia.
+     */
+    public Page<GuaridaResumen> buscarPorTexto(String texto, Pageable pageable) {
+        if (!indiceTexto.estaListo()) {
+            return guaridaRepository.findResumenByNombreContainingIgnoreCase(texto, pageable);
+        }
+        List<Long> ids = indiceTexto.buscar(texto);
+        if (ids.isEmpty()) return Page.empty(pageable);
+        if (pageable.isUnpaged() || pageable.getSort().isSorted()) {
+            return guaridaRepository.findResumenByIdIn(ids, pageable);
+        }
+        return paginaEnOrden(ids, pageable);
+    }
+
+    // --- BÚSQUEDA FACETADA ---
+
+    /**
+     * Catálogo con todos los filtros a la vez (texto, precio, fechas, comodidades, ubicación y valoración),
+     * resueltos con los mapas de bits de {@link IndiceFacetas}. Con texto y sin orden explícito, por relevancia.
+     * Mientras algún índice no está listo se usa un único filtro en BD, como antes.
+     */
+    public Page<GuaridaResumen> buscar(FiltroGuaridas filtro, Pageable pageable) {
+        // "valoracion" no es un campo de Guarida: ese orden lo pone la consulta que cruza con el agregado
+        boolean porValoracion = pageable.getSort().getOrderFor(ORDEN_VALORACION) != null;
+        if (porValoracion) {
+            pageable = pageable.isPaged() ? PageRequest.of(pageable.getPageNumber(), pageable.getPageSize()) : Pageable.unpaged();
+        }
+        boolean porRelevancia = !porValoracion && filtro.tieneTexto() && pageable.isPaged() && pageable.getSort().isUnsorted();
+        if (!porRelevancia && !porValoracion && pageable.isPaged() && pageable.getSort().isUnsorted()) {
+            pageable = PageRequest.of(pageable.getPageNumber(), pageable.getPageSize(), Sort.by("id"));
+        }
+
+        if (!indicesListos(filtro)) {
+            if (porValoracion && !filtro.tieneFiltros()) return guaridaRepository.findResumenOrdenadoPorValoracion(pageable);
+            // Con filtros y sin índices, el orden por valoración se pierde (solo pasa mientras arrancan)
+            return buscarSinIndices(filtro, porValoracion && pageable.isPaged()
+                    ? PageRequest.of(pageable.getPageNumber(), pageable.getPageSize(), Sort.by("id")) : pageable);
+        }
+
+        List<Long> ids = indiceFacetas.filtrar(filtro, candidatas(filtro), ocupadas(filtro));
+        if (ids.isEmpty()) return Page.empty(pageable);
+        if (porRelevancia) return paginaEnOrden(ids, pageable);
+        // Sin filtros que descarten nada no hace falta mandar todos los ids a la BD
+        boolean todas = ids.size() == indiceFacetas.total();
+        if (porValoracion) {
+            return todas ? guaridaRepository.findResumenOrdenadoPorValoracion(pageable)
+                    : guaridaRepository.findResumenByIdInOrdenadoPorValoracion(ids, pageable);
+        }
+        return todas ? guaridaRepository.findResumenBy(pageable) : guaridaRepository.findResumenByIdIn(ids, pageable);
+    }
+
+    /**
+     * Cuántas guaridas hay con cada comodidad, ubicación y valoración dentro de la búsqueda actual.
+     */
+    public FacetasGuaridas facetas(FiltroGuaridas filtro) {
+        if (!indicesListos(filtro)) return FacetasGuaridas.VACIAS;
+        Map<Long, String> nombres = new LinkedHashMap<>();
+        for (Opcion o : opcionesService.comodidades()) nombres.put(o.id(), o.etiqueta());
+        return indiceFacetas.contar(filtro, candidatas(filtro), ocupadas(filtro), nombres);
+    }
+
+    private boolean indicesListos(FiltroGuaridas filtro) {
+        return indiceFacetas.estaListo() && (!filtro.tieneTexto() || indiceTexto.estaListo());
+    }
+
+    private List<Long> candidatas(FiltroGuaridas filtro) {
+        return filtro.tieneTexto() ? indiceTexto.buscar(filtro.texto()) : null;
+    }
+
+    private Set<Long> ocupadas(FiltroGuaridas filtro) {
+        return filtro.tieneFechas() ? mapaDisponibilidad.guaridasOcupadas(filtro.fechaInicio(), filtro.fechaFin()) : null;
+    }
+
+    // Sin índices: un solo filtro, por prioridad (fechas, precio, texto)
+    private Page<GuaridaResumen> buscarSinIndices(FiltroGuaridas filtro, Pageable pageable) {
+        if (filtro.tieneFechas()) {
+            return buscarDisponibles(filtro.fechaInicio(), filtro.fechaFin(), pageable);
+        } else if (filtro.precioMin() != null && filtro.precioMax() != null) {
+            return buscarPorRangoPrecioOrdenado(filtro.precioMin(), filtro.precioMax(), pageable);
+        } else if (filtro.tieneTexto()) {
+            return buscarPorTexto(filtro.texto(), pageable);
+        }
+        return obtenerTodosOrdenados(pageable);
     }
 
-    public List<Guarida> buscarPorNombre(String nombre) {
-        return guaridaRepository.findByNombreContainingIgnoreCase(nombre);
+    // Recortamos la página de una lista ya ordenada (por relevancia) y solo cargamos esas filas
+    private Page<GuaridaResumen> paginaEnOrden(List<Long> ids, Pageable pageable) {
+        int desde = (int) Math.min(pageable.getOffset(), ids.size());
+        List<Long> idsPagina = ids.subList(desde, Math.min(desde + pageable.getPageSize(), ids.size()));
+        Map<Long, GuaridaResumen> porId = guaridaRepository.findResumenByIdIn(idsPagina).stream()
+                .collect(Collectors.toMap(GuaridaResumen::getId, Function.identity()));
+        List<GuaridaResumen> contenido = idsPagina.stream()
+                .map(porId::get)
+                .filter(Objects::nonNull)
+                .toList();
+        return new PageImpl<>(contenido, pageable, ids.size());
     }
 
     // Validación de unicidad de nombre comercial
@@ -61,8 +243,8 @@ public class GuaridaService {
         return guaridaRepository.existsByNombre(nombre);
     }
 
-    // Método puente para obtener listado ordenado desde el controlador
-    public List<Guarida> obtenerTodosOrdenados(Sort sort) {
-        return guaridaRepository.findAll(sort);
+    // Método puente para obtener una página ordenada desde el controlador
+    public Page<GuaridaResumen> obtenerTodosOrdenados(Pageable pageable) {
+        return guaridaRepository.findResumenBy(pageable);
     }
 }
\ No newline at end of file
@@ -0,0 +1,8 @@
+package com.bnbillains.services;
+
+/**
+ * Aviso de que una guarida ha dejado de usar una imagen (foto cambiada o guarida borrada).
+ * Se consume tras el commit: si ya no la usa nadie, {@link LimpiezaUploadsService} la pasa a cuarentena
+ * junto con sus copias reducidas.
+ */
+public record ImagenLiberadaEvent(String imagen) {}
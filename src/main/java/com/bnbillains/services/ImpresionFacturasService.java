@@ -0,0 +1,216 @@
+package com.bnbillains.services;
+
+import com.bnbillains.dto.FacturaImpresion;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.MessageSource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.stereotype.Service;
+import org.springframework.web.util.HtmlUtils;
+import org.thymeleaf.ITemplateEngine;
+import org.thymeleaf.context.Context;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Impresión de muchas facturas en un solo documento HTML (una por página al imprimir).
+ * <p>
+ * Las facturas llegan de la BD por un cursor de solo avance como {@link FacturaImpresion} y cada una
+ * se pinta con el fragmento {@code fragments/factura :: cuerpo}, el mismo de la factura suelta. Thymeleaf
+ * guarda la plantilla ya analizada en su caché, así que solo se procesa el fragmento por factura.
+ * <p>
+ * El pintado se reparte en un pool de tamaño fijo con cola acotada; el hilo de la petición lee, encarga y
+ * escribe los resultados en orden. Como mucho hay {@code ventana} facturas pintadas esperando a salir,
+ * por lo que la memoria no depende del tamaño del lote. Si el pool está lleno, el propio hilo de la
+ * petición pinta la factura (se frena la lectura en vez de encolar sin límite).
+ */
+@Service
+public class ImpresionFacturasService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImpresionFacturasService.class);
+
+    private static final int FILAS_POR_BLOQUE = 200;
+
+    private static final String SQL_FACTURAS =
+            "SELECT f.id, f.fecha_emision, f.importe, f.impuestos_malignos, f.metodo_pago, " +
+                    "v.nombre, v.alias, v.carne_villano, g.nombre, r.fecha_inicio, r.fecha_fin " +
+                    "FROM factura f " +
+                    "LEFT JOIN reserva r ON r.id = f.reserva_id " +
+                    "LEFT JOIN villano v ON v.id = r.villano_id " +
+                    "LEFT JOIN guarida g ON g.id = r.guarida_id";
+
+    /**
+     * Filtros del lote (todos opcionales): fechas de emisión, ambas incluidas, método de pago
+     * (contiene, sin distinguir mayúsculas, como el listado) y villano.
+     */
+    public record Filtro(LocalDate desde, LocalDate hasta, String metodoPago, Long villanoId) {
+
+        public boolean rangoValido() {
+            return desde == null || hasta == null || !hasta.isBefore(desde);
+        }
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ITemplateEngine templateEngine;
+    private final MessageSource messageSource;
+    private final ThreadPoolExecutor pintores;
+    private final int ventana;
+
+    public ImpresionFacturasService(JdbcTemplate jdbcTemplate,
+                                    ITemplateEngine templateEngine,
+                                    MessageSource messageSource,
+                                    @Value("${bnbillains.impresion.hilos:0}") int hilos) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.templateEngine = templateEngine;
+        this.messageSource = messageSource;
+
+        int n = hilos > 0 ? hilos : Runtime.getRuntime().availableProcessors();
+        this.ventana = n * 4;
+        this.pintores = new ThreadPoolExecutor(n, n, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(n * 4),
+                Thread.ofPlatform().name("impresion-facturas-", 0).daemon().factory(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        this.pintores.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void detener() {
+        pintores.shutdownNow();
+    }
+
+    /**
+     * Escribe en {@code salida} el documento con las facturas del filtro, por fecha de emisión.
+     */
+    public void imprimir(Filtro filtro, Locale locale, OutputStream salida) {
+        StringBuilder sql = new StringBuilder(SQL_FACTURAS).append(" WHERE 1 = 1");
+        List<Object> args = new ArrayList<>();
+        if (filtro.desde() != null) {
+            sql.append(" AND f.fecha_emision >= ?");
+            args.add(Date.valueOf(filtro.desde()));
+        }
+        if (filtro.hasta() != null) {
+            sql.append(" AND f.fecha_emision <= ?");
+            args.add(Date.valueOf(filtro.hasta()));
+        }
+        if (filtro.metodoPago() != null && !filtro.metodoPago().isBlank()) {
+            sql.append(" AND LOWER(f.metodo_pago) LIKE ?");
+            args.add("%" + filtro.metodoPago().trim().toLowerCase() + "%");
+        }
+        if (filtro.villanoId() != null) {
+            sql.append(" AND r.villano_id = ?");
+            args.add(filtro.villanoId());
+        }
+        sql.append(" ORDER BY f.fecha_emision, f.id");
+
+        Writer out = new BufferedWriter(new OutputStreamWriter(salida, StandardCharsets.UTF_8));
+        long inicio = System.nanoTime();
+        Long total = jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(sql.toString(),
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(FILAS_POR_BLOQUE);
+            for (int i = 0; i < args.size(); i++) ps.setObject(i + 1, args.get(i));
+            return ps;
+        }, (ResultSetExtractor<Long>) rs -> {
+            ArrayDeque<Future<String>> enCurso = new ArrayDeque<>(ventana);
+            long n = 0;
+            try {
+                abrirDocumento(out, locale);
+                while (rs.next()) {
+                    FacturaImpresion factura = leer(rs);
+                    enCurso.addLast(pintores.submit(() -> pintar(factura, locale)));
+                    n++;
+                    // La más antigua sale en cuanto la ventana se llena: el orden se conserva
+                    if (enCurso.size() >= ventana) escribir(out, enCurso.removeFirst());
+                }
+                while (!enCurso.isEmpty()) escribir(out, enCurso.removeFirst());
+                if (n == 0) {
+                    out.write("<p class=\"no-print\" style=\"color: #fff; text-align: center;\">");
+                    out.write(HtmlUtils.htmlEscape(messageSource.getMessage("msg.factura.batchEmpty", null, locale)));
+                    out.write("</p>\n");
+                }
+                cerrarDocumento(out);
+            } catch (IOException e) {
+                // El cliente ha cerrado la conexión: se corta la consulta
+                throw new UncheckedIOException(e);
+            } finally {
+                // Si se corta a medias, lo que quede encargado ya no hace falta
+                enCurso.forEach(f -> f.cancel(true));
+            }
+            return n;
+        });
+        logger.debug("Lote de {} facturas impreso en {} ms.", total, (System.nanoTime() - inicio) / 1_000_000);
+    }
+
+    private String pintar(FacturaImpresion factura, Locale locale) {
+        Context contexto = new Context(locale, Map.of("impresion", factura));
+        return templateEngine.process("fragments/factura", Set.of("cuerpo"), contexto);
+    }
+
+    private static void escribir(Writer out, Future<String> factura) throws IOException {
+        String html;
+        try {
+            html = factura.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Impresión de facturas interrumpida", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("No se pudo pintar una factura del lote", e.getCause());
+        }
+        out.write("<div class=\"invoice-box\">\n");
+        out.write(html);
+        out.write("\n</div>\n");
+        out.flush();
+    }
+
+    private void abrirDocumento(Writer out, Locale locale) throws IOException {
+        String titulo = HtmlUtils.htmlEscape(messageSource.getMessage("msg.factura.batchTitle", null, locale));
+        out.write("<!DOCTYPE html>\n<html lang=\"" + locale.getLanguage() + "\">\n<head>\n<meta charset=\"UTF-8\">\n");
+        out.write("<title>" + titulo + "</title>\n");
+        out.write(templateEngine.process("fragments/factura", Set.of("estilos"), new Context(locale)));
+        out.write("\n</head>\n<body style=\"background-color: #555;\">\n");
+        out.flush();
+    }
+
+    private static void cerrarDocumento(Writer out) throws IOException {
+        out.write("</body>\n</html>\n");
+        out.flush();
+    }
+
+    private static FacturaImpresion leer(ResultSet rs) throws SQLException {
+        return new FacturaImpresion(rs.getLong(1), fecha(rs, 2),
+                rs.getObject(3) != null ? rs.getDouble(3) : null,
+                rs.getObject(4) != null ? rs.getDouble(4) : null,
+                rs.getString(5), rs.getString(6), rs.getString(7), rs.getString(8), rs.getString(9),
+                fecha(rs, 10), fecha(rs, 11));
+    }
+
+    private static LocalDate fecha(ResultSet rs, int columna) throws SQLException {
+        Date d = rs.getDate(columna);
+        return d != null ? d.toLocalDate() : null;
+    }
+}
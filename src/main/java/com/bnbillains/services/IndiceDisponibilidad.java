@@ -0,0 +1,259 @@
+package com.bnbillains.services;
+
+import com.bnbillains.repositories.ReservaRepository;
+import com.bnbillains.repositories.ReservaRepository.IntervaloReserva;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Índice de disponibilidad en memoria: un calendario ordenado por fecha de inicio
+ * para cada guarida, que permite detectar solapes sin ir a la base de datos.
+ * <p>
+ * Se calienta desde la tabla 'reserva' al arrancar y se mantiene sincronizado con
+ * los {@link ReservaCambioEvent} que publica {@link ReservaService} tras cada commit.
+ * Mientras está frío (arranque, recarga tras una invalidación global o fallo al cargar)
+ * las consultas devuelven vacío y el servicio usa la consulta JPQL de siempre.
+ */
+@Component
+public class IndiceDisponibilidad {
+
+    private static final Logger logger = LoggerFactory.getLogger(IndiceDisponibilidad.class);
+
+    private final ReservaRepository reservaRepository;
+
+    // guaridaId -> calendario de esa guarida
+    private volatile Map<Long, Calendario> calendarios = new ConcurrentHashMap<>();
+    // reservaId -> guaridaId (para poder borrar o mover una reserva sabiendo solo su id)
+    private volatile Map<Long, Long> guaridaPorReserva = new ConcurrentHashMap<>();
+
+    private volatile boolean caliente = false;
+
+    // Protege las transiciones de estado; mientras se calienta, los eventos se encolan aquí
+    private final Object cerrojo = new Object();
+    private List<ReservaCambioEvent> pendientes;
+    private boolean repetirCarga = false;
+
+    // Métricas básicas para comparar con la ruta JPQL
+    private final AtomicLong consultasEnMemoria = new AtomicLong();
+    private final AtomicLong consultasFrias = new AtomicLong();
+
+    public IndiceDisponibilidad(ReservaRepository reservaRepository) {
+        this.reservaRepository = reservaRepository;
+    }
+
+    // ==========================================
+    // CONSULTAS
+    // ==========================================
+
+    /**
+     * Comprueba si existe alguna reserva de la guarida que choque con el rango dado.
+     * Misma semántica que {@link ReservaRepository#encontrarConflictos}: ambos extremos inclusivos.
+     *
+     * @param excluirReservaId Reserva a ignorar (la que se está editando) o null.
+     * @return Vacío si el índice está frío y hay que preguntar a la base de datos.
+     */
+    public Optional<Boolean> hayConflicto(Long guaridaId, LocalDate fechaInicio, LocalDate fechaFin, Long excluirReservaId) {
+        if (!caliente || guaridaId == null) {
+            consultasFrias.incrementAndGet();
+            return Optional.empty();
+        }
+        consultasEnMemoria.incrementAndGet();
+        Calendario calendario = calendarios.get(guaridaId);
+        return Optional.of(calendario != null && calendario.solapa(fechaInicio, fechaFin, excluirReservaId));
+    }
+
+    /**
+     * Copia de los tramos ocupados de una guarida (vacío si no tiene reservas o el índice está frío).
+     */
+    public List<Tramo> tramos(Long guaridaId) {
+        Calendario calendario = calendarios.get(guaridaId);
+        return calendario == null ? List.of() : calendario.copia();
+    }
+
+    public boolean estaCaliente() { return caliente; }
+    public long getConsultasEnMemoria() { return consultasEnMemoria.get(); }
+    public long getConsultasFrias() { return consultasFrias.get(); }
+
+    // ==========================================
+    // CARGA Y SINCRONIZACIÓN
+    // ==========================================
+
+    /**
+     * Carga completa desde la base de datos. Las escrituras que llegan mientras tanto
+     * se encolan y se reaplican después (las operaciones son idempotentes por id).
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void calentar() {
+        synchronized (cerrojo) {
+            if (pendientes != null) {
+                // Ya hay una carga en curso: puede haber leído datos viejos, que repita al acabar
+                repetirCarga = true;
+                return;
+            }
+            caliente = false;
+            pendientes = new ArrayList<>();
+        }
+
+        boolean repetir;
+        do {
+            repetir = false;
+            Map<Long, Calendario> nuevosCalendarios = new ConcurrentHashMap<>();
+            Map<Long, Long> nuevoMapa = new ConcurrentHashMap<>();
+            try {
+                List<IntervaloReserva> intervalos = reservaRepository.findAllIntervalos();
+                for (IntervaloReserva i : intervalos) {
+                    nuevosCalendarios.computeIfAbsent(i.getGuaridaId(), k -> new Calendario())
+                            .poner(new Tramo(i.getId(), i.getFechaInicio(), i.getFechaFin()));
+                    nuevoMapa.put(i.getId(), i.getGuaridaId());
+                }
+                logger.info("Índice de disponibilidad caliente: {} reservas en {} guaridas.",
+                        intervalos.size(), nuevosCalendarios.size());
+            } catch (RuntimeException e) {
+                // Nos quedamos fríos: el servicio seguirá usando la consulta JPQL
+                logger.error("No se pudo calentar el índice de disponibilidad", e);
+                synchronized (cerrojo) {
+                    pendientes = null;
+                    repetirCarga = false;
+                }
+                return;
+            }
+
+            synchronized (cerrojo) {
+                if (repetirCarga) {
+                    repetirCarga = false;
+                    repetir = true;
+                    continue;
+                }
+                calendarios = nuevosCalendarios;
+                guaridaPorReserva = nuevoMapa;
+                List<ReservaCambioEvent> aReaplicar = pendientes;
+                pendientes = null;
+                aReaplicar.forEach(this::aplicar);
+                caliente = true;
+            }
+        } while (repetir);
+    }
+
+    /**
+     * Se ejecuta tras el commit de la transacción que modificó la reserva
+     * (o inmediatamente si no había transacción activa).
+     */
+    @Order(1)
+    @TransactionalEventListener(fallbackExecution = true)
+    public void alCambiarReserva(ReservaCambioEvent evento) {
+        // Invalidación global (borrado en cascada de un villano): recarga completa
+        if (evento.tipo() == ReservaCambioEvent.Tipo.INVALIDACION && evento.guaridaId() == null) {
+            calentar();
+            return;
+        }
+        synchronized (cerrojo) {
+            if (pendientes != null) {
+                pendientes.add(evento);
+                return;
+            }
+            aplicar(evento);
+        }
+    }
+
+    // Llamar siempre con el cerrojo cogido
+    private void aplicar(ReservaCambioEvent evento) {
+        switch (evento.tipo()) {
+            case CREADA, ACTUALIZADA -> {
+                quitar(evento.reservaId());
+                calendarios.computeIfAbsent(evento.guaridaId(), k -> new Calendario())
+                        .poner(new Tramo(evento.reservaId(), evento.fechaInicio(), evento.fechaFin()));
+                guaridaPorReserva.put(evento.reservaId(), evento.guaridaId());
+            }
+            case ELIMINADA -> quitar(evento.reservaId());
+            case INVALIDACION -> recargarGuarida(evento.guaridaId());
+        }
+    }
+
+    private void quitar(Long reservaId) {
+        Long guaridaId = guaridaPorReserva.remove(reservaId);
+        if (guaridaId == null) return;
+        Calendario calendario = calendarios.get(guaridaId);
+        if (calendario != null) calendario.quitar(reservaId);
+    }
+
+    // Recarga parcial: por ejemplo, tras borrar una guarida con todas sus reservas en cascada
+    private void recargarGuarida(Long guaridaId) {
+        Calendario anterior = calendarios.remove(guaridaId);
+        if (anterior != null) {
+            anterior.copia().forEach(t -> guaridaPorReserva.remove(t.reservaId()));
+        }
+        Calendario nuevo = new Calendario();
+        for (IntervaloReserva i : reservaRepository.findIntervalosByGuaridaId(guaridaId)) {
+            nuevo.poner(new Tramo(i.getId(), i.getFechaInicio(), i.getFechaFin()));
+            guaridaPorReserva.put(i.getId(), guaridaId);
+        }
+        if (!nuevo.estaVacio()) calendarios.put(guaridaId, nuevo);
+    }
+
+    // ==========================================
+    // ESTRUCTURAS INTERNAS
+    // ==========================================
+
+    /**
+     * Intervalo ocupado por una reserva (ambos extremos inclusivos).
+     */
+    public record Tramo(Long reservaId, LocalDate fechaInicio, LocalDate fechaFin) {}
+
+    /**
+     * Calendario de una guarida: tramos ordenados por fecha de inicio.
+     * Para buscar solapes basta mirar los tramos que empiezan entre
+     * (inicio - duración máxima) y fin, así que la búsqueda es O(log n + k).
+     */
+    private static final class Calendario {
+
+        private static final Comparator<Tramo> ORDEN =
+                Comparator.comparing(Tramo::fechaInicio).thenComparing(Tramo::reservaId);
+
+        private final NavigableSet<Tramo> tramos = new TreeSet<>(ORDEN);
+        private final Map<Long, Tramo> porReserva = new ConcurrentHashMap<>();
+        // Cota superior de la duración de cualquier tramo (no se reduce al borrar; sigue siendo correcta)
+        private long maxDias = 0;
+
+        synchronized void poner(Tramo tramo) {
+            tramos.add(tramo);
+            porReserva.put(tramo.reservaId(), tramo);
+            maxDias = Math.max(maxDias, ChronoUnit.DAYS.between(tramo.fechaInicio(), tramo.fechaFin()));
+        }
+
+        synchronized void quitar(Long reservaId) {
+            Tramo tramo = porReserva.remove(reservaId);
+            if (tramo != null) tramos.remove(tramo);
+        }
+
+        synchronized boolean solapa(LocalDate inicio, LocalDate fin, Long excluirReservaId) {
+            Tramo desde = new Tramo(Long.MIN_VALUE, inicio.minusDays(maxDias), null);
+            Tramo hasta = new Tramo(Long.MAX_VALUE, fin, null);
+            for (Tramo t : tramos.subSet(desde, true, hasta, true)) {
+                if (t.reservaId().equals(excluirReservaId)) continue;
+                if (!t.fechaInicio().isAfter(fin) && !t.fechaFin().isBefore(inicio)) return true;
+            }
+            return false;
+        }
+
+        synchronized List<Tramo> copia() { return new ArrayList<>(tramos); }
+
+        synchronized boolean estaVacio() { return tramos.isEmpty(); }
+    }
+}
@@ -0,0 +1,501 @@
+package com.bnbillains.services;
+
+import com.bnbillains.dto.FacetasGuaridas;
+import com.bnbillains.dto.FacetasGuaridas.ValorFaceta;
+import com.bnbillains.dto.FiltroGuaridas;
+import com.bnbillains.entities.Comodidad;
+import com.bnbillains.entities.Guarida;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Facetas del catálogo de guaridas como mapas de bits: uno por comodidad, por ubicación y por
+ * tramo de valoración media, con un bit por guarida.
+ * <p>
+ * Cualquier combinación de filtros es un AND de unas pocas palabras de 64 bits, y la cuenta de
+ * cada valor de faceta es un {@link Long#bitCount} sobre ese AND, así que la página puede mostrar
+ * cuántas guaridas quedarían al marcar cada opción sin lanzar una consulta por opción.
+ * El precio no tiene mapa propio: se guarda por guarida y se filtra recorriendo los bits vivos.
+ * <p>
+ * Se construye al arrancar. {@link GuaridaService} lo mantiene al guardar guaridas (los borrados
+ * llegan tras el commit con {@link GuaridaEliminadaEvent}); la valoración se lee de
+ * 'guarida_rating_stats' (ver {@link ValoracionGuaridaService}) con cada {@link ValoracionCambioEvent}.
+ */
+@Component
+public class IndiceFacetas {
+
+    private static final Logger logger = LoggerFactory.getLogger(IndiceFacetas.class);
+
+    // Ubicaciones que se listan como faceta (las más frecuentes)
+    private static final int MAX_UBICACIONES = 12;
+    private static final int SIN_RESENAS = 0;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ReentrantReadWriteLock cerrojo = new ReentrantReadWriteLock();
+    private volatile boolean listo;
+
+    // Cada guarida ocupa un hueco (su bit); los huecos de las borradas se reutilizan
+    private final Map<Long, Integer> huecoPorId = new HashMap<>();
+    private final ArrayDeque<Integer> libres = new ArrayDeque<>();
+    private int huecos;
+    private long[] ids = new long[0];
+    private double[] precios = new double[0];
+    private String[] ubicacionDe = new String[0];
+    private int[] numResenas = new int[0];
+    private long[] sumaPuntuaciones = new long[0];
+
+    // Mapas de bits: todos con el mismo número de palabras
+    private int palabras;
+    private long[] vivas = new long[0];
+    private final Map<Long, long[]> porComodidad = new HashMap<>();
+    private final Map<String, Ubicacion> porUbicacion = new HashMap<>();
+    // [0] sin reseñas, [n] media en [n, n+1)
+    private final long[][] porEstrellas = new long[6][0];
+
+    public IndiceFacetas(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * False si el índice aún no se ha construido (o falló): hay que filtrar en BD.
+     */
+    public boolean estaListo() {
+        return listo;
+    }
+
+    // ==========================================
+    // CONSULTAS
+    // ==========================================
+
+    /**
+     * Ids de las guaridas que cumplen todos los filtros de facetas y precio.
+     *
+     * @param candidatas Si no es null, solo estas guaridas y en este orden (ej: resultados del buscador de texto).
+     * @param excluidas Guaridas a descartar (ej: ocupadas en las fechas pedidas); puede ser null.
+     */
+    public List<Long> filtrar(FiltroGuaridas filtro, List<Long> candidatas, Collection<Long> excluidas) {
+        cerrojo.readLock().lock();
+        try {
+            return ids(calcular(filtro, candidatas, excluidas).resultado, candidatas);
+        } finally {
+            cerrojo.readLock().unlock();
+        }
+    }
+
+    /**
+     * Cuentas de cada valor de faceta para los filtros dados (ver {@link FacetasGuaridas}).
+     *
+     * @param nombresComodidad Nombre de cada comodidad, en el orden en que se deben listar.
+     */
+    public FacetasGuaridas contar(FiltroGuaridas filtro, List<Long> candidatas, Collection<Long> excluidas,
+                                  Map<Long, String> nombresComodidad) {
+        cerrojo.readLock().lock();
+        try {
+            Mascaras m = calcular(filtro, candidatas, excluidas);
+
+            List<ValorFaceta> comodidades = new ArrayList<>();
+            nombresComodidad.forEach((id, nombre) -> {
+                long[] bits = porComodidad.get(id);
+                int cuenta = bits == null ? 0 : contarAnd(m.resultado, bits);
+                boolean seleccionada = filtro.comodidades().contains(id);
+                if (cuenta > 0 || seleccionada) {
+                    comodidades.add(new ValorFaceta(String.valueOf(id), nombre, cuenta, seleccionada));
+                }
+            });
+
+            // Ubicación: se ignora la elegida para poder cambiarla
+            long[] paraUbicacion = and(m.conComodidades, m.estrellas);
+            String clave = filtro.ubicacion() == null ? null : Tokenizador.normalizar(filtro.ubicacion().trim());
+            List<ValorFaceta> ubicaciones = new ArrayList<>();
+            porUbicacion.forEach((k, u) -> {
+                int cuenta = contarAnd(paraUbicacion, u.bits);
+                boolean seleccionada = k.equals(clave);
+                if (cuenta > 0 || seleccionada) ubicaciones.add(new ValorFaceta(u.etiqueta, u.etiqueta, cuenta, seleccionada));
+            });
+            ubicaciones.sort(Comparator.comparingInt(ValorFaceta::cuenta).reversed().thenComparing(ValorFaceta::etiqueta));
+            List<ValorFaceta> masFrecuentes = new ArrayList<>(ubicaciones.subList(0, Math.min(MAX_UBICACIONES, ubicaciones.size())));
+            ubicaciones.stream().skip(MAX_UBICACIONES).filter(ValorFaceta::seleccionado).forEach(masFrecuentes::add);
+
+            // Estrellas: "n o más" es la unión de los tramos n..5, que se va acumulando de 5 hacia abajo
+            long[] paraEstrellas = and(m.conComodidades, m.ubicacion);
+            List<ValorFaceta> estrellas = new ArrayList<>();
+            long[] acumulado = new long[palabras];
+            for (int n = 5; n >= 1; n--) {
+                or(acumulado, porEstrellas[n]);
+                int cuenta = contarAnd(paraEstrellas, acumulado);
+                boolean seleccionada = filtro.estrellas() != null && filtro.estrellas() == n;
+                estrellas.add(new ValorFaceta(String.valueOf(n), String.valueOf(n), cuenta, seleccionada));
+            }
+
+            return new FacetasGuaridas(comodidades, masFrecuentes, estrellas, cardinalidad(m.resultado));
+        } finally {
+            cerrojo.readLock().unlock();
+        }
+    }
+
+    /**
+     * Número de guaridas indexadas. Si un filtro devuelve todas, no hace falta pasar sus ids a la BD.
+     */
+    public int total() {
+        cerrojo.readLock().lock();
+        try {
+            return huecoPorId.size();
+        } finally {
+            cerrojo.readLock().unlock();
+        }
+    }
+
+    private Mascaras calcular(FiltroGuaridas filtro, List<Long> candidatas, Collection<Long> excluidas) {
+        long[] base = vivas.clone();
+        if (candidatas != null) {
+            long[] permitidas = new long[palabras];
+            for (Long id : candidatas) {
+                Integer hueco = huecoPorId.get(id);
+                if (hueco != null) encender(permitidas, hueco);
+            }
+            andEn(base, permitidas);
+        }
+        if (excluidas != null) {
+            for (Long id : excluidas) {
+                Integer hueco = huecoPorId.get(id);
+                if (hueco != null) apagar(base, hueco);
+            }
+        }
+        if (filtro.tienePrecio()) {
+            double min = filtro.precioMin() != null ? filtro.precioMin() : Double.NEGATIVE_INFINITY;
+            double max = filtro.precioMax() != null ? filtro.precioMax() : Double.POSITIVE_INFINITY;
+            for (int h = siguiente(base, 0); h >= 0; h = siguiente(base, h + 1)) {
+                if (precios[h] < min || precios[h] > max) apagar(base, h);
+            }
+        }
+
+        long[] conComodidades = base;
+        for (Long id : filtro.comodidades()) {
+            conComodidades = and(conComodidades, porComodidad.getOrDefault(id, new long[palabras]));
+        }
+        long[] ubicacion = null;
+        if (filtro.ubicacion() != null) {
+            Ubicacion u = porUbicacion.get(Tokenizador.normalizar(filtro.ubicacion().trim()));
+            ubicacion = u != null ? u.bits : new long[palabras];
+        }
+        long[] estrellas = null;
+        if (filtro.estrellas() != null) {
+            estrellas = new long[palabras];
+            for (int n = Math.max(1, filtro.estrellas()); n <= 5; n++) or(estrellas, porEstrellas[n]);
+        }
+        return new Mascaras(conComodidades, ubicacion, estrellas, and(and(conComodidades, ubicacion), estrellas));
+    }
+
+    private List<Long> ids(long[] bits, List<Long> candidatas) {
+        List<Long> resultado = new ArrayList<>();
+        if (candidatas != null) {
+            // Respetamos el orden de entrada (relevancia)
+            for (Long id : candidatas) {
+                Integer hueco = huecoPorId.get(id);
+                if (hueco != null && encendido(bits, hueco)) resultado.add(id);
+            }
+        } else {
+            for (int h = siguiente(bits, 0); h >= 0; h = siguiente(bits, h + 1)) resultado.add(ids[h]);
+        }
+        return resultado;
+    }
+
+    // ==========================================
+    // CONSTRUCCIÓN Y MANTENIMIENTO
+    // ==========================================
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void construir() {
+        cerrojo.writeLock().lock();
+        try {
+            listo = false;
+            huecoPorId.clear();
+            libres.clear();
+            porComodidad.clear();
+            porUbicacion.clear();
+            huecos = 0;
+            palabras = 0;
+            ids = new long[0];
+            precios = new double[0];
+            ubicacionDe = new String[0];
+            numResenas = new int[0];
+            sumaPuntuaciones = new long[0];
+            vivas = new long[0];
+            for (int n = 0; n < porEstrellas.length; n++) porEstrellas[n] = new long[0];
+
+            jdbcTemplate.query("SELECT id, ubicacion, precio_noche FROM guarida", rs -> {
+                int h = reservarHueco(rs.getLong(1));
+                colocar(h, rs.getString(2), rs.getDouble(3));
+            });
+            jdbcTemplate.query("SELECT guarida_id, comodidades_id FROM guarida_comodidades", rs -> {
+                Integer h = huecoPorId.get(rs.getLong(1));
+                if (h != null) encender(porComodidad.computeIfAbsent(rs.getLong(2), k -> new long[palabras]), h);
+            });
+            cargarValoraciones();
+            listo = true;
+            logger.info("Índice de facetas construido: {} guaridas, {} comodidades, {} ubicaciones.",
+                    huecoPorId.size(), porComodidad.size(), porUbicacion.size());
+        } catch (RuntimeException e) {
+            logger.error("No se pudo construir el índice de facetas", e);
+        } finally {
+            cerrojo.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Alta o edición de una guarida: precio, ubicación y comodidades. Su valoración se conserva.
+     */
+    public void indexar(Guarida guarida) {
+        if (guarida == null || guarida.getId() == null) return;
+        cerrojo.writeLock().lock();
+        try {
+            Integer existente = huecoPorId.get(guarida.getId());
+            int h;
+            if (existente != null) {
+                h = existente;
+                quitarDeFacetas(h);
+            } else {
+                h = reservarHueco(guarida.getId());
+                numResenas[h] = 0;
+                sumaPuntuaciones[h] = 0;
+            }
+            colocar(h, guarida.getUbicacion(), guarida.getPrecioNoche() != null ? guarida.getPrecioNoche() : 0);
+            if (guarida.getComodidades() != null) {
+                for (Comodidad c : guarida.getComodidades()) {
+                    if (c != null && c.getId() != null) {
+                        encender(porComodidad.computeIfAbsent(c.getId(), k -> new long[palabras]), h);
+                    }
+                }
+            }
+            encender(porEstrellas[tramo(h)], h);
+        } finally {
+            cerrojo.writeLock().unlock();
+        }
+    }
+
+    public void quitar(Long guaridaId) {
+        cerrojo.writeLock().lock();
+        try {
+            Integer h = huecoPorId.remove(guaridaId);
+            if (h == null) return;
+            quitarDeFacetas(h);
+            apagar(vivas, h);
+            libres.push(h);
+        } finally {
+            cerrojo.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Tras el commit del borrado de una guarida (o inmediatamente si no había transacción activa).
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void alEliminarGuarida(GuaridaEliminadaEvent evento) {
+        quitar(evento.guaridaId());
+    }
+
+    /**
+     * Tras el commit de una reseña, relee la valoración agregada de su guarida (o de todas si el evento no dice cuál).
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void alCambiarValoracion(ValoracionCambioEvent evento) {
+        if (!listo) return;
+        if (evento.guaridaId() == null) {
+            recalcularValoraciones();
+            return;
+        }
+        List<long[]> filas = jdbcTemplate.query(
+                "SELECT num_resenas, suma_puntuaciones FROM guarida_rating_stats WHERE guarida_id = ?",
+                (rs, n) -> new long[]{rs.getLong(1), rs.getLong(2)}, evento.guaridaId());
+        long[] fila = filas.isEmpty() ? new long[2] : filas.get(0);
+        cerrojo.writeLock().lock();
+        try {
+            Integer h = huecoPorId.get(evento.guaridaId());
+            if (h == null) return;
+            apagar(porEstrellas[tramo(h)], h);
+            numResenas[h] = (int) fila[0];
+            sumaPuntuaciones[h] = fila[1];
+            encender(porEstrellas[tramo(h)], h);
+        } finally {
+            cerrojo.writeLock().unlock();
+        }
+    }
+
+    private void recalcularValoraciones() {
+        cerrojo.writeLock().lock();
+        try {
+            for (int n = 0; n < porEstrellas.length; n++) porEstrellas[n] = new long[palabras];
+            Arrays.fill(numResenas, 0);
+            Arrays.fill(sumaPuntuaciones, 0);
+            cargarValoraciones();
+        } finally {
+            cerrojo.writeLock().unlock();
+        }
+    }
+
+    /**
+     * El ON DELETE CASCADE de 'guarida_comodidades' no pasa por Hibernate: la comodidad borrada desaparece de todas.
+     */
+    public void quitarComodidad(Long comodidadId) {
+        cerrojo.writeLock().lock();
+        try {
+            porComodidad.remove(comodidadId);
+        } finally {
+            cerrojo.writeLock().unlock();
+        }
+    }
+
+    // Con el cerrojo de escritura tomado: todas empiezan sin reseñas y las que tienen fila pasan a su tramo
+    private void cargarValoraciones() {
+        for (int h = siguiente(vivas, 0); h >= 0; h = siguiente(vivas, h + 1)) encender(porEstrellas[SIN_RESENAS], h);
+        jdbcTemplate.query("SELECT guarida_id, num_resenas, suma_puntuaciones FROM guarida_rating_stats", rs -> {
+            Integer h = huecoPorId.get(rs.getLong(1));
+            if (h == null) return;
+            apagar(porEstrellas[SIN_RESENAS], h);
+            numResenas[h] = rs.getInt(2);
+            sumaPuntuaciones[h] = rs.getLong(3);
+            encender(porEstrellas[tramo(h)], h);
+        });
+    }
+
+    private int reservarHueco(long id) {
+        Integer h = libres.poll();
+        if (h == null) {
+            h = huecos++;
+            if (h >= ids.length) crecer(Math.max(64, ids.length * 2));
+        }
+        huecoPorId.put(id, h);
+        ids[h] = id;
+        encender(vivas, h);
+        return h;
+    }
+
+    private void colocar(int h, String ubicacion, double precio) {
+        precios[h] = precio;
+        String etiqueta = ubicacion == null ? "" : ubicacion.trim();
+        String clave = Tokenizador.normalizar(etiqueta);
+        ubicacionDe[h] = clave;
+        if (!clave.isEmpty()) {
+            encender(porUbicacion.computeIfAbsent(clave, k -> new Ubicacion(etiqueta, new long[palabras])).bits, h);
+        }
+    }
+
+    private void quitarDeFacetas(int h) {
+        for (long[] bits : porComodidad.values()) apagar(bits, h);
+        Ubicacion u = porUbicacion.get(ubicacionDe[h]);
+        if (u != null) {
+            apagar(u.bits, h);
+            if (cardinalidad(u.bits) == 0) porUbicacion.remove(ubicacionDe[h]);
+        }
+        apagar(porEstrellas[tramo(h)], h);
+    }
+
+    // Tramo de valoración: 0 sin reseñas; si no, la parte entera de la media (1-5)
+    private int tramo(int h) {
+        if (numResenas[h] == 0) return SIN_RESENAS;
+        return Math.clamp(sumaPuntuaciones[h] / numResenas[h], 1, 5);
+    }
+
+    // Todos los mapas de bits crecen a la vez para que los AND sean palabra a palabra
+    private void crecer(int capacidad) {
+        ids = Arrays.copyOf(ids, capacidad);
+        precios = Arrays.copyOf(precios, capacidad);
+        ubicacionDe = Arrays.copyOf(ubicacionDe, capacidad);
+        numResenas = Arrays.copyOf(numResenas, capacidad);
+        sumaPuntuaciones = Arrays.copyOf(sumaPuntuaciones, capacidad);
+
+        palabras = (capacidad + 63) / 64;
+        vivas = Arrays.copyOf(vivas, palabras);
+        porComodidad.replaceAll((k, bits) -> Arrays.copyOf(bits, palabras));
+        porUbicacion.values().forEach(u -> u.bits = Arrays.copyOf(u.bits, palabras));
+        for (int n = 0; n < porEstrellas.length; n++) porEstrellas[n] = Arrays.copyOf(porEstrellas[n], palabras);
+    }
+
+    // ==========================================
+    // OPERACIONES DE BITS
+    // ==========================================
+
+    private static void encender(long[] bits, int h) {
+        bits[h >>> 6] |= 1L << h;
+    }
+
+    private static void apagar(long[] bits, int h) {
+        bits[h >>> 6] &= ~(1L << h);
+    }
+
+    private static boolean encendido(long[] bits, int h) {
+        return (bits[h >>> 6] & (1L << h)) != 0;
+    }
+
+    // Primer bit encendido desde h (incluido), o -1
+    private static int siguiente(long[] bits, int h) {
+        int p = h >>> 6;
+        if (p >= bits.length) return -1;
+        long palabra = bits[p] & (-1L << h);
+        while (true) {
+            if (palabra != 0) return (p << 6) + Long.numberOfTrailingZeros(palabra);
+            if (++p == bits.length) return -1;
+            palabra = bits[p];
+        }
+    }
+
+    // AND en un array nuevo; null hace de "todo encendido"
+    private static long[] and(long[] a, long[] b) {
+        if (b == null) return a;
+        if (a == null) return b;
+        long[] r = a.clone();
+        andEn(r, b);
+        return r;
+    }
+
+    private static void andEn(long[] destino, long[] b) {
+        for (int i = 0; i < destino.length; i++) destino[i] &= b[i];
+    }
+
+    private static void or(long[] destino, long[] b) {
+        for (int i = 0; i < destino.length; i++) destino[i] |= b[i];
+    }
+
+    private static int contarAnd(long[] a, long[] b) {
+        int cuenta = 0;
+        for (int i = 0; i < a.length; i++) cuenta += Long.bitCount(a[i] & b[i]);
+        return cuenta;
+    }
+
+    private static int cardinalidad(long[] bits) {
+        int cuenta = 0;
+        for (long palabra : bits) cuenta += Long.bitCount(palabra);
+        return cuenta;
+    }
+
+    /**
+     * Pasos intermedios del filtro: hacen falta para las cuentas, que ignoran la faceta que se está contando.
+     * {@code ubicacion} y {@code estrellas} son null si ese filtro no se usa.
+     */
+    private record Mascaras(long[] conComodidades, long[] ubicacion, long[] estrellas, long[] resultado) {}
+
+    private static final class Ubicacion {
+        final String etiqueta;
+        long[] bits;
+
+        Ubicacion(String etiqueta, long[] bits) {
+            this.etiqueta = etiqueta;
+            this.bits = bits;
+        }
+    }
+}
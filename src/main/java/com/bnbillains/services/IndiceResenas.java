@@ -0,0 +1,550 @@
+package com.bnbillains.services;
+
+import com.bnbillains.dto.FragmentoTexto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Índice invertido en memoria sobre {@code Resena.comentario}, para que la búsqueda en las
+ * reseñas no sea un {@code LIKE '%x%'} que recorre la tabla entera.
+ * <p>
+ * Solo guarda, por término, la lista ordenada de reseñas que lo contienen y cuántas veces: el
+ * texto se queda en la BD, así que aguanta millones de reseñas. Las búsquedas con varias palabras
+ * exigen todas (AND), empezando por la más rara; las palabras de tres letras o más también
+ * encuentran términos que empiezan por ellas ("malv" encuentra "malvado"). El orden es por BM25.
+ * <p>
+ * Se construye en segundo plano al arrancar (mientras tanto se usa la consulta a BD) y se
+ * mantiene con los {@link ResenaCambioEvent} que publica {@link ResenaService}, tras cada commit.
+ */
+@Component
+public class IndiceResenas {
+
+    private static final Logger logger = LoggerFactory.getLogger(IndiceResenas.class);
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final int MIN_PREFIJO = 3;
+    private static final double PESO_PREFIJO = 0.7;
+    // Como mucho, cuántos términos distintos se aceptan para una palabra usada como prefijo
+    private static final int MAX_VARIANTES = 64;
+    // Longitud aproximada del trozo de comentario que se muestra en los resultados
+    private static final int TAMANO_FRAGMENTO = 180;
+
+    /**
+     * Una página de resultados por relevancia y el total de reseñas que casan con la búsqueda.
+     */
+    public record Resultado(List<Long> ids, int total) {
+        static final Resultado VACIO = new Resultado(List.of(), 0);
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ReentrantReadWriteLock cerrojo = new ReentrantReadWriteLock();
+
+    private Estado estado = new Estado();
+    private volatile boolean listo;
+    // Escrituras que llegan mientras se construye el índice: se repiten sobre el nuevo al terminar
+    private Map<Long, Optional<String>> pendientes;
+
+    public IndiceResenas(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public boolean estaListo() {
+        return listo;
+    }
+
+    // ==========================================
+    // BÚSQUEDA
+    // ==========================================
+
+    /**
+     * Ids de las reseñas en las posiciones [desde, desde + cuantos) por relevancia.
+     */
+    public Resultado buscar(String texto, int desde, int cuantos) {
+        Set<String> palabras = new LinkedHashSet<>(Tokenizador.tokens(texto));
+        if (palabras.isEmpty()) return Resultado.VACIO;
+
+        cerrojo.readLock().lock();
+        try {
+            Estado e = estado;
+            int vivas = e.huecos - e.numMuertos;
+            if (vivas == 0) return Resultado.VACIO;
+            double longitudMedia = Math.max(1.0, (double) e.longitudTotal / vivas);
+
+            List<Termino> terminos = new ArrayList<>();
+            for (String palabra : palabras) {
+                Termino termino = e.resolver(palabra, vivas);
+                if (termino.frecuenciaDocumental == 0) return Resultado.VACIO;
+                terminos.add(termino);
+            }
+            terminos.sort(Comparator.comparingInt(t -> t.frecuenciaDocumental));
+
+            // Candidatas: las de la palabra más rara. Las demás solo se consultan para ellas.
+            Candidatas c = terminos.get(0).todas(e.longitudes, longitudMedia);
+            for (int t = 1; t < terminos.size() && c.n > 0; t++) {
+                c.exigir(terminos.get(t), e.longitudes, longitudMedia);
+            }
+            c.quitarMuertas(e.muertos);
+
+            int[] orden = c.mejores(desde + cuantos);
+            List<Long> ids = new ArrayList<>(cuantos);
+            for (int i = desde; i < orden.length; i++) {
+                ids.add(e.ids[c.huecos[orden[i]]]);
+            }
+            return new Resultado(ids, c.n);
+        } finally {
+            cerrojo.readLock().unlock();
+        }
+    }
+
+    /**
+     * Trozo del comentario alrededor de la zona con más coincidencias, con esas palabras marcadas.
+     */
+    public static List<FragmentoTexto> resaltar(String comentario, String busqueda) {
+        if (comentario == null || comentario.isEmpty()) return List.of();
+        Set<String> terminos = new LinkedHashSet<>(Tokenizador.tokens(busqueda));
+
+        // Palabras del texto original que coinciden: [inicio, fin)
+        List<int[]> coincidencias = new ArrayList<>();
+        int inicio = -1;
+        for (int i = 0; i <= comentario.length(); i++) {
+            boolean letra = i < comentario.length() && Character.isLetterOrDigit(comentario.charAt(i));
+            if (letra && inicio < 0) {
+                inicio = i;
+            } else if (!letra && inicio >= 0) {
+                if (coincide(Tokenizador.normalizar(comentario.substring(inicio, i)), terminos)) {
+                    coincidencias.add(new int[]{inicio, i});
+                }
+                inicio = -1;
+            }
+        }
+
+        // Ventana de TAMANO_FRAGMENTO caracteres que empieza poco antes de la coincidencia con más vecinas
+        int desde = 0;
+        if (comentario.length() > TAMANO_FRAGMENTO && !coincidencias.isEmpty()) {
+            int mejor = 0;
+            int mejorCuenta = 0;
+            for (int i = 0; i < coincidencias.size(); i++) {
+                int fin = coincidencias.get(i)[0] + TAMANO_FRAGMENTO;
+                int cuenta = 0;
+                for (int j = i; j < coincidencias.size() && coincidencias.get(j)[1] <= fin; j++) cuenta++;
+                if (cuenta > mejorCuenta) {
+                    mejor = i;
+                    mejorCuenta = cuenta;
+                }
+            }
+            desde = inicioDePalabra(comentario, Math.max(0, coincidencias.get(mejor)[0] - 30));
+        }
+        int hasta = Math.min(comentario.length(), desde + TAMANO_FRAGMENTO);
+        if (hasta < comentario.length()) hasta = finDePalabra(comentario, hasta);
+
+        List<FragmentoTexto> fragmentos = new ArrayList<>();
+        if (desde > 0) fragmentos.add(new FragmentoTexto("… ", false));
+        int cursor = desde;
+        for (int[] c : coincidencias) {
+            if (c[0] < desde || c[1] > hasta) continue;
+            if (c[0] > cursor) fragmentos.add(new FragmentoTexto(comentario.substring(cursor, c[0]), false));
+            fragmentos.add(new FragmentoTexto(comentario.substring(c[0], c[1]), true));
+            cursor = c[1];
+        }
+        if (cursor < hasta) fragmentos.add(new FragmentoTexto(comentario.substring(cursor, hasta), false));
+        if (hasta < comentario.length()) fragmentos.add(new FragmentoTexto(" …", false));
+        return fragmentos;
+    }
+
+    private static boolean coincide(String palabra, Set<String> terminos) {
+        for (String t : terminos) {
+            if (palabra.equals(t) || (t.length() >= MIN_PREFIJO && palabra.startsWith(t))) return true;
+        }
+        return false;
+    }
+
+    private static int inicioDePalabra(String texto, int i) {
+        while (i > 0 && Character.isLetterOrDigit(texto.charAt(i - 1))) i--;
+        return i;
+    }
+
+    private static int finDePalabra(String texto, int i) {
+        while (i < texto.length() && Character.isLetterOrDigit(texto.charAt(i))) i++;
+        return i;
+    }
+
+    // ==========================================
+    // CONSTRUCCIÓN Y MANTENIMIENTO
+    // ==========================================
+
+    // Con millones de reseñas la carga tarda: no retrasamos el arranque y, mientras, se busca en la BD
+    @EventListener(ApplicationReadyEvent.class)
+    public void alArrancar() {
+        Thread.ofVirtual().name("indice-resenas").start(this::construir);
+    }
+
+    public void construir() {
+        cerrojo.writeLock().lock();
+        try {
+            pendientes = new LinkedHashMap<>();
+        } finally {
+            cerrojo.writeLock().unlock();
+        }
+
+        Estado nuevo = new Estado();
+        try {
+            // fetchSize: el driver va trayendo filas por bloques en lugar de cargar todo el resultado
+            jdbcTemplate.query(con -> {
+                PreparedStatement ps = con.prepareStatement("SELECT id, comentario FROM resena ORDER BY id");
+                ps.setFetchSize(1000);
+                return ps;
+            }, rs -> {
+                nuevo.anadir(rs.getLong(1), rs.getString(2));
+            });
+        } catch (RuntimeException e) {
+            cerrojo.writeLock().lock();
+            try {
+                pendientes = null;
+                listo = false;
+            } finally {
+                cerrojo.writeLock().unlock();
+            }
+            logger.error("No se pudo construir el índice de reseñas", e);
+            return;
+        }
+
+        cerrojo.writeLock().lock();
+        try {
+            pendientes.forEach((id, comentario) -> {
+                nuevo.quitar(id);
+                comentario.ifPresent(texto -> nuevo.anadir(id, texto));
+            });
+            pendientes = null;
+            estado = nuevo;
+            listo = true;
+            logger.info("Índice de reseñas construido: {} reseñas, {} términos.", nuevo.huecos, nuevo.terminos.size());
+        } finally {
+            cerrojo.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Se ejecuta tras el commit de la transacción que modificó la reseña
+     * (o inmediatamente si no había transacción activa); si se deshace, el índice no se toca.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void alCambiarResena(ResenaCambioEvent evento) {
+        if (evento.eliminada()) {
+            quitar(evento.resenaId());
+        } else {
+            indexar(evento.resenaId(), evento.comentario());
+        }
+    }
+
+    /**
+     * Indexa (o reindexa) el comentario de una reseña ya guardada.
+     */
+    public void indexar(Long id, String comentario) {
+        cerrojo.writeLock().lock();
+        try {
+            if (pendientes != null) pendientes.put(id, Optional.of(comentario != null ? comentario : ""));
+            estado.quitar(id);
+            estado.anadir(id, comentario);
+            if (estado.numMuertos > 10_000 && estado.numMuertos > estado.huecos / 4) estado.compactar();
+        } finally {
+            cerrojo.writeLock().unlock();
+        }
+    }
+
+    public void quitar(Long id) {
+        cerrojo.writeLock().lock();
+        try {
+            if (pendientes != null) pendientes.put(id, Optional.empty());
+            estado.quitar(id);
+        } finally {
+            cerrojo.writeLock().unlock();
+        }
+    }
+
+    // ==========================================
+    // ESTRUCTURAS
+    // ==========================================
+
+    /**
+     * Reseñas indexadas. Cada una ocupa un hueco; las listas de cada término guardan huecos en
+     * orden creciente (los nuevos siempre son los mayores). Al editar o borrar, el hueco viejo
+     * se marca como muerto hasta la siguiente compactación.
+     */
+    private static final class Estado {
+
+        long[] ids = new long[1024];
+        int[] longitudes = new int[1024];
+        int huecos;
+        final BitSet muertos = new BitSet();
+        int numMuertos;
+        long longitudTotal;
+        final Map<Long, Integer> huecoPorId = new HashMap<>();
+        final TreeMap<String, Postings> terminos = new TreeMap<>();
+
+        void anadir(long id, String comentario) {
+            if (huecos == ids.length) {
+                ids = Arrays.copyOf(ids, huecos * 2);
+                longitudes = Arrays.copyOf(longitudes, huecos * 2);
+            }
+            List<String> tokens = Tokenizador.tokens(comentario);
+            Map<String, Integer> frecuencias = new HashMap<>();
+            for (String token : tokens) frecuencias.merge(token, 1, Integer::sum);
+
+            int hueco = huecos++;
+            ids[hueco] = id;
+            longitudes[hueco] = tokens.size();
+            longitudTotal += tokens.size();
+            huecoPorId.put(id, hueco);
+            frecuencias.forEach((termino, tf) ->
+                    terminos.computeIfAbsent(termino, t -> new Postings()).anadir(hueco, tf));
+        }
+
+        void quitar(long id) {
+            Integer hueco = huecoPorId.remove(id);
+            if (hueco == null) return;
+            muertos.set(hueco);
+            numMuertos++;
+            longitudTotal -= longitudes[hueco];
+        }
+
+        // Renumera los huecos vivos (manteniendo el orden) y limpia las listas; no necesita el texto
+        void compactar() {
+            int[] nuevoHueco = new int[huecos];
+            int vivos = 0;
+            for (int h = 0; h < huecos; h++) {
+                if (muertos.get(h)) {
+                    nuevoHueco[h] = -1;
+                } else {
+                    nuevoHueco[h] = vivos;
+                    ids[vivos] = ids[h];
+                    longitudes[vivos] = longitudes[h];
+                    huecoPorId.put(ids[vivos], vivos);
+                    vivos++;
+                }
+            }
+            terminos.values().removeIf(p -> p.renumerar(nuevoHueco) == 0);
+            huecos = vivos;
+            muertos.clear();
+            numMuertos = 0;
+        }
+
+        Termino resolver(String palabra, int vivas) {
+            NavigableMap<String, Postings> coincidencias = palabra.length() >= MIN_PREFIJO
+                    ? terminos.subMap(palabra, true, palabra + Character.MAX_VALUE, false)
+                    : terminos.subMap(palabra, true, palabra, true);
+            Termino termino = new Termino();
+            for (Map.Entry<String, Postings> e : coincidencias.entrySet()) {
+                if (termino.variantes.size() == MAX_VARIANTES) break;
+                int df = Math.min(e.getValue().tamano, vivas);
+                double idf = Math.log(1 + (vivas - df + 0.5) / (df + 0.5));
+                double peso = e.getKey().equals(palabra) ? 1.0 : PESO_PREFIJO;
+                termino.variantes.add(e.getValue());
+                termino.idf.add(peso * idf);
+                termino.frecuenciaDocumental += e.getValue().tamano;
+            }
+            return termino;
+        }
+    }
+
+    /**
+     * Reseñas que contienen un término: huecos crecientes y frecuencia del término en cada una.
+     */
+    private static final class Postings {
+
+        int[] huecos = new int[2];
+        short[] frecuencias = new short[2];
+        int tamano;
+
+        void anadir(int hueco, int tf) {
+            if (tamano == huecos.length) {
+                huecos = Arrays.copyOf(huecos, tamano * 2);
+                frecuencias = Arrays.copyOf(frecuencias, tamano * 2);
+            }
+            huecos[tamano] = hueco;
+            frecuencias[tamano] = (short) Math.min(tf, Short.MAX_VALUE);
+            tamano++;
+        }
+
+        int renumerar(int[] nuevoHueco) {
+            int n = 0;
+            for (int i = 0; i < tamano; i++) {
+                int h = nuevoHueco[huecos[i]];
+                if (h < 0) continue;
+                huecos[n] = h;
+                frecuencias[n] = frecuencias[i];
+                n++;
+            }
+            tamano = n;
+            return n;
+        }
+    }
+
+    /**
+     * Una palabra de la búsqueda: los términos del índice que casan con ella y su idf (ya ponderado).
+     */
+    private static final class Termino {
+
+        final List<Postings> variantes = new ArrayList<>();
+        final List<Double> idf = new ArrayList<>();
+        int frecuenciaDocumental;
+
+        // BM25 de una aparición (tf veces en una reseña de esa longitud)
+        static double bm25(double idf, int tf, int longitud, double longitudMedia) {
+            double normalizacion = K1 * (1 - B + B * longitud / longitudMedia);
+            return idf * tf * (K1 + 1) / (tf + normalizacion);
+        }
+
+        /**
+         * Todas las reseñas con alguna variante, ordenadas por hueco, con la mejor puntuación.
+         */
+        Candidatas todas(int[] longitudes, double longitudMedia) {
+            if (variantes.size() == 1) {
+                Postings p = variantes.get(0);
+                Candidatas c = new Candidatas(p.tamano);
+                for (int i = 0; i < p.tamano; i++) {
+                    c.huecos[i] = p.huecos[i];
+                    c.puntos[i] = bm25(idf.get(0), p.frecuencias[i], longitudes[p.huecos[i]], longitudMedia);
+                }
+                c.n = p.tamano;
+                return c;
+            }
+            // Varias variantes: se empaquetan (hueco, puntos) en un long para ordenar por hueco
+            long[] pares = new long[frecuenciaDocumental];
+            int n = 0;
+            for (int v = 0; v < variantes.size(); v++) {
+                Postings p = variantes.get(v);
+                for (int i = 0; i < p.tamano; i++) {
+                    float puntos = (float) bm25(idf.get(v), p.frecuencias[i], longitudes[p.huecos[i]], longitudMedia);
+                    pares[n++] = ((long) p.huecos[i] << 32) | Float.floatToIntBits(puntos);
+                }
+            }
+            Arrays.sort(pares, 0, n);
+            Candidatas c = new Candidatas(n);
+            for (int i = 0; i < n; i++) {
+                int hueco = (int) (pares[i] >>> 32);
+                double puntos = Float.intBitsToFloat((int) pares[i]);
+                // A igual hueco, los puntos salen en orden creciente: nos quedamos con el último
+                if (c.n > 0 && c.huecos[c.n - 1] == hueco) {
+                    c.puntos[c.n - 1] = puntos;
+                } else {
+                    c.huecos[c.n] = hueco;
+                    c.puntos[c.n] = puntos;
+                    c.n++;
+                }
+            }
+            return c;
+        }
+    }
+
+    /**
+     * Reseñas candidatas (huecos crecientes) y sus puntos acumulados.
+     */
+    private static final class Candidatas {
+
+        int[] huecos;
+        double[] puntos;
+        int n;
+
+        Candidatas(int capacidad) {
+            huecos = new int[capacidad];
+            puntos = new double[capacidad];
+        }
+
+        /**
+         * AND: se quedan solo las candidatas que contienen alguna variante del término, sumando sus puntos.
+         * Búsqueda galopante en cada lista, porque tanto las candidatas como las listas están ordenadas.
+         */
+        void exigir(Termino termino, int[] longitudes, double longitudMedia) {
+            double[] extra = new double[n];
+            for (int v = 0; v < termino.variantes.size(); v++) {
+                Postings p = termino.variantes.get(v);
+                double idf = termino.idf.get(v);
+                int desde = 0;
+                for (int c = 0; c < n && desde < p.tamano; c++) {
+                    int objetivo = huecos[c];
+                    int paso = 1;
+                    int hasta = desde;
+                    while (hasta < p.tamano && p.huecos[hasta] < objetivo) {
+                        desde = hasta + 1;
+                        hasta += paso;
+                        paso <<= 1;
+                    }
+                    int i = Arrays.binarySearch(p.huecos, desde, Math.min(hasta + 1, p.tamano), objetivo);
+                    if (i >= 0) {
+                        extra[c] = Math.max(extra[c], Termino.bm25(idf, p.frecuencias[i], longitudes[objetivo], longitudMedia));
+                        desde = i + 1;
+                    } else {
+                        desde = -i - 1;
+                    }
+                }
+            }
+            int m = 0;
+            for (int c = 0; c < n; c++) {
+                if (extra[c] > 0) {
+                    huecos[m] = huecos[c];
+                    puntos[m] = puntos[c] + extra[c];
+                    m++;
+                }
+            }
+            n = m;
+        }
+
+        void quitarMuertas(BitSet muertos) {
+            if (muertos.isEmpty()) return;
+            int m = 0;
+            for (int c = 0; c < n; c++) {
+                if (!muertos.get(huecos[c])) {
+                    huecos[m] = huecos[c];
+                    puntos[m] = puntos[c];
+                    m++;
+                }
+            }
+            n = m;
+        }
+
+        /**
+         * Índices de las 'cuantas' mejores candidatas, de más a menos puntos (a igualdad, la más reciente).
+         */
+        int[] mejores(int cuantas) {
+            int k = Math.min(cuantas, n);
+            Comparator<Integer> peor = (a, b) -> puntos[a] != puntos[b]
+                    ? Double.compare(puntos[a], puntos[b])
+                    : Integer.compare(huecos[a], huecos[b]);
+            PriorityQueue<Integer> monton = new PriorityQueue<>(Math.max(1, k), peor);
+            for (int c = 0; c < n; c++) {
+                if (monton.size() < k) {
+                    monton.add(c);
+                } else if (k > 0 && peor.compare(c, monton.peek()) > 0) {
+                    monton.poll();
+                    monton.add(c);
+                }
+            }
+            int[] orden = new int[monton.size()];
+            for (int i = orden.length - 1; i >= 0; i--) orden[i] = monton.poll();
+            return orden;
+        }
+    }
+}
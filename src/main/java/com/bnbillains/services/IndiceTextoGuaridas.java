@@ -0,0 +1,250 @@
+package com.bnbillains.services;
+
+import com.bnbillains.dto.GuaridaResumen;
+import com.bnbillains.entities.Guarida;
+import com.bnbillains.repositories.GuaridaRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Índice invertido en memoria para la búsqueda de texto del catálogo de guaridas.
+ * <p>
+ * Sustituye al {@code LIKE '%x%'} sobre el nombre (que no puede usar índices y no mira ni la
+ * descripción ni la ubicación). Cada término normalizado por {@link Tokenizador} apunta a las
+ * guaridas que lo contienen; los resultados se ordenan con BM25, dando más peso a las
+ * coincidencias en el nombre que en la ubicación, y a estas más que en la descripción.
+ * <p>
+ * Todas las palabras de la búsqueda deben aparecer (AND). Las de tres letras o más también
+ * encuentran términos que empiezan por ellas ("volcan" encuentra "volcanes"), con menos peso.
+ * <p>
+ * Se construye al arrancar y {@link GuaridaService} lo mantiene al guardar o actualizar; los borrados
+ * llegan tras el commit ({@link GuaridaEliminadaEvent}).
+ */
+@Component
+public class IndiceTextoGuaridas {
+
+    private static final Logger logger = LoggerFactory.getLogger(IndiceTextoGuaridas.class);
+
+    // Parámetros habituales de BM25
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private static final float PESO_NOMBRE = 3f;
+    private static final float PESO_UBICACION = 2f;
+    private static final float PESO_DESCRIPCION = 1f;
+
+    private static final int MIN_PREFIJO = 3;
+    private static final double PESO_PREFIJO = 0.7;
+
+    private final GuaridaRepository guaridaRepository;
+
+    // término -> (id de guarida -> frecuencia ponderada y longitud de la guarida). Ordenado para buscar por prefijo.
+    private final ConcurrentSkipListMap<String, Map<Long, Aparicion>> postings = new ConcurrentSkipListMap<>();
+    // id de guarida -> sus términos (para poder quitarla) y su longitud ponderada
+    private final Map<Long, Documento> documentos = new ConcurrentHashMap<>();
+    private volatile double longitudTotal;
+    private volatile boolean listo;
+
+    // Las escrituras se serializan; las búsquedas no esperan
+    private final Object cerrojo = new Object();
+
+    public IndiceTextoGuaridas(GuaridaRepository guaridaRepository) {
+        this.guaridaRepository = guaridaRepository;
+    }
+
+    // ==========================================
+    // BÚSQUEDA
+    // ==========================================
+
+    /**
+     * False si el índice aún no se ha construido (o falló): hay que usar la consulta a BD.
+     */
+    public boolean estaListo() {
+        return listo;
+    }
+
+    /**
+     * Ids de las guaridas que contienen todas las palabras del texto, de más a menos relevante.
+     * Si el texto no tiene ninguna palabra significativa, la lista está vacía.
+     */
+    public List<Long> buscar(String texto) {
+        int total = documentos.size();
+        if (total == 0) return List.of();
+        double longitudMedia = Math.max(1.0, longitudTotal / total);
+
+        List<Termino> terminos = new ArrayList<>();
+        for (String palabra : new LinkedHashSet<>(Tokenizador.tokens(texto))) {
+            Termino termino = resolver(palabra, total);
+            if (termino.frecuenciaDocumental() == 0) return List.of(); // AND: una palabra sin resultados vacía la búsqueda
+            terminos.add(termino);
+        }
+        if (terminos.isEmpty()) return List.of();
+
+        // Empezamos por la palabra más rara: las demás solo se consultan para sus candidatas
+        terminos.sort(Comparator.comparingInt(Termino::frecuenciaDocumental));
+        Map<Long, Double> puntuaciones = new HashMap<>();
+        for (Variante v : terminos.get(0).variantes()) {
+            v.guaridas().forEach((id, aparicion) ->
+                    puntuaciones.merge(id, v.puntuar(aparicion, longitudMedia), Math::max));
+        }
+        for (int t = 1; t < terminos.size() && !puntuaciones.isEmpty(); t++) {
+            Termino termino = terminos.get(t);
+            puntuaciones.entrySet().removeIf(e -> {
+                double puntos = termino.puntuar(e.getKey(), longitudMedia);
+                if (puntos == 0) return true;
+                e.setValue(e.getValue() + puntos);
+                return false;
+            });
+        }
+
+        List<Map.Entry<Long, Double>> ordenadas = new ArrayList<>(puntuaciones.entrySet());
+        ordenadas.sort(Map.Entry.<Long, Double>comparingByValue(Comparator.reverseOrder())
+                .thenComparing(Map.Entry.comparingByKey()));
+        List<Long> ids = new ArrayList<>(ordenadas.size());
+        for (Map.Entry<Long, Double> e : ordenadas) ids.add(e.getKey());
+        return ids;
+    }
+
+    // Términos del índice que casan con una palabra de la búsqueda: ella misma y, si es larga, los que empiezan por ella
+    private Termino resolver(String palabra, int total) {
+        NavigableMap<String, Map<Long, Aparicion>> coincidencias = palabra.length() >= MIN_PREFIJO
+                ? postings.subMap(palabra, true, palabra + Character.MAX_VALUE, false)
+                : postings.subMap(palabra, true, palabra, true);
+
+        List<Variante> variantes = new ArrayList<>();
+        int frecuenciaDocumental = 0;
+        for (Map.Entry<String, Map<Long, Aparicion>> e : coincidencias.entrySet()) {
+            int df = e.getValue().size();
+            double idf = Math.log(1 + (total - df + 0.5) / (df + 0.5));
+            double peso = e.getKey().equals(palabra) ? 1.0 : PESO_PREFIJO;
+            variantes.add(new Variante(e.getValue(), peso * idf));
+            frecuenciaDocumental += df;
+        }
+        return new Termino(variantes, frecuenciaDocumental);
+    }
+
+    private record Termino(List<Variante> variantes, int frecuenciaDocumental) {
+
+        // Mejor puntuación de la guarida entre las variantes (0 si no contiene ninguna)
+        double puntuar(Long id, double longitudMedia) {
+            double mejor = 0;
+            for (Variante v : variantes) {
+                Aparicion aparicion = v.guaridas().get(id);
+                if (aparicion != null) mejor = Math.max(mejor, v.puntuar(aparicion, longitudMedia));
+            }
+            return mejor;
+        }
+    }
+
+    private record Variante(Map<Long, Aparicion> guaridas, double idf) {
+
+        // BM25 con la frecuencia ya ponderada por campo
+        double puntuar(Aparicion a, double longitudMedia) {
+            double normalizacion = K1 * (1 - B + B * a.longitudDocumento() / longitudMedia);
+            return idf * a.frecuencia() * (K1 + 1) / (a.frecuencia() + normalizacion);
+        }
+    }
+
+    // ==========================================
+    // CONSTRUCCIÓN Y MANTENIMIENTO
+    // ==========================================
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void construir() {
+        synchronized (cerrojo) {
+            postings.clear();
+            documentos.clear();
+            longitudTotal = 0;
+            try {
+                for (GuaridaResumen g : guaridaRepository.findResumenBy(Pageable.unpaged()).getContent()) {
+                    anadir(g.getId(), g.getNombre(), g.getDescripcion(), g.getUbicacion());
+                }
+                listo = true;
+                logger.info("Índice de texto de guaridas construido: {} guaridas, {} términos.",
+                        documentos.size(), postings.size());
+            } catch (RuntimeException e) {
+                listo = false;
+                logger.error("No se pudo construir el índice de texto de guaridas", e);
+            }
+        }
+    }
+
+    /**
+     * Indexa (o reindexa) una guarida ya guardada.
+     */
+    public void indexar(Guarida guarida) {
+        synchronized (cerrojo) {
+            quitarSinCerrojo(guarida.getId());
+            anadir(guarida.getId(), guarida.getNombre(), guarida.getDescripcion(), guarida.getUbicacion());
+        }
+    }
+
+    public void quitar(Long id) {
+        synchronized (cerrojo) {
+            quitarSinCerrojo(id);
+        }
+    }
+
+    /**
+     * Tras el commit del borrado de una guarida (o inmediatamente si no había transacción activa).
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void alEliminarGuarida(GuaridaEliminadaEvent evento) {
+        quitar(evento.guaridaId());
+    }
+
+    private void anadir(Long id, String nombre, String descripcion, String ubicacion) {
+        Map<String, Float> frecuencias = new HashMap<>();
+        sumar(frecuencias, nombre, PESO_NOMBRE);
+        sumar(frecuencias, ubicacion, PESO_UBICACION);
+        sumar(frecuencias, descripcion, PESO_DESCRIPCION);
+
+        float longitud = 0;
+        for (float frecuencia : frecuencias.values()) longitud += frecuencia;
+        for (Map.Entry<String, Float> e : frecuencias.entrySet()) {
+            postings.computeIfAbsent(e.getKey(), k -> new ConcurrentHashMap<>())
+                    .put(id, new Aparicion(e.getValue(), longitud));
+        }
+        documentos.put(id, new Documento(frecuencias.keySet().toArray(String[]::new), longitud));
+        longitudTotal += longitud;
+    }
+
+    private void quitarSinCerrojo(Long id) {
+        Documento anterior = documentos.remove(id);
+        if (anterior == null) return;
+        for (String termino : anterior.terminos()) {
+            Map<Long, Aparicion> guaridas = postings.get(termino);
+            if (guaridas == null) continue;
+            guaridas.remove(id);
+            if (guaridas.isEmpty()) postings.remove(termino);
+        }
+        longitudTotal -= anterior.longitud();
+    }
+
+    private static void sumar(Map<String, Float> frecuencias, String texto, float peso) {
+        for (String token : Tokenizador.tokens(texto)) {
+            frecuencias.merge(token, peso, Float::sum);
+        }
+    }
+
+    private record Documento(String[] terminos, float longitud) {
+    }
+
+    private record Aparicion(float frecuencia, float longitudDocumento) {
+    }
+}
@@ -0,0 +1,469 @@
+package com.bnbillains.services;
+
+import com.bnbillains.dto.SugerenciaVillano;
+import com.bnbillains.entities.Villano;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Índice en memoria para el autocompletado de villanos por nombre y alias.
+ * <p>
+ * Dos estructuras sobre los mismos villanos:
+ * <ul>
+ *     <li>Trigramas: cada palabra se rellena con espacios ("  joker ") y se parte en trozos de tres
+ *     letras. Dos textos se parecen tanto como trigramas comparten, así que también se encuentran
+ *     villanos con una letra cambiada ("jocker").</li>
+ *     <li>Trie de palabras: para lo que el usuario aún está escribiendo ("jok" encuentra "Joker"),
+ *     que por trigramas todavía se parece poco.</li>
+ * </ul>
+ * Cada villano ocupa un hueco en unos arrays paralelos y las listas de trigramas guardan huecos
+ * (enteros) ordenados. Una edición ocupa un hueco nuevo y marca el viejo como muerto; cuando hay
+ * demasiados muertos se compacta todo.
+ * <p>
+ * Se construye al arrancar con una sola consulta (id, nombre, alias) y {@link VillanoService}
+ * lo actualiza en cada escritura, así que nunca devuelve datos viejos.
+ */
+@Component
+public class IndiceVillanos {
+
+    private static final Logger logger = LoggerFactory.getLogger(IndiceVillanos.class);
+
+    // Proporción mínima de trigramas de la búsqueda que debe compartir un candidato
+    private static final double UMBRAL_COMPARTIDOS = 0.3;
+    // Tope de candidatos por trigramas: una búsqueda muy genérica no recorre el índice entero
+    private static final int MAX_CANDIDATOS = 2_000;
+    // Tope de villanos que aporta el trie para la palabra a medio escribir
+    private static final int MAX_HUECOS_PREFIJO = 200;
+    private static final double BONUS_PREFIJO = 0.5;
+    private static final double SIMILITUD_MINIMA = 0.1;
+    public static final int MAX_SUGERENCIAS = 20;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    // Lecturas en paralelo; las escrituras (pocas) esperan a que terminen
+    private final ReentrantReadWriteLock cerrojo = new ReentrantReadWriteLock();
+
+    private long[] ids = new long[1024];
+    private String[] nombres = new String[1024];
+    private String[] alias = new String[1024];
+    private int[] numTrigramas = new int[1024];
+    private int huecos;
+    private final BitSet muertos = new BitSet();
+    private int numMuertos;
+    private final Map<Long, Integer> huecoPorId = new HashMap<>();
+    private final Map<Long, ListaHuecos> trigramas = new HashMap<>();
+    private Nodo raiz = new Nodo();
+    private volatile boolean listo;
+
+    public IndiceVillanos(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public boolean estaListo() {
+        return listo;
+    }
+
+    // Huecos ocupados, vivos o muertos (baja a los vivos tras compactar)
+    int huecosOcupados() {
+        cerrojo.readLock().lock();
+        try {
+            return huecos;
+        } finally {
+            cerrojo.readLock().unlock();
+        }
+    }
+
+    // ==========================================
+    // SUGERENCIAS
+    // ==========================================
+
+    /**
+     * Los k villanos más parecidos al texto (por nombre o alias), de más a menos parecido.
+     */
+    public List<SugerenciaVillano> sugerir(String texto, int k) {
+        List<String> palabras = Tokenizador.tokens(texto);
+        if (palabras.isEmpty() || k <= 0) return List.of();
+        long[] consulta = trigramasDe(palabras);
+        String prefijo = palabras.get(palabras.size() - 1);
+
+        cerrojo.readLock().lock();
+        try {
+            // Listas de la búsqueda, de la más corta a la más larga
+            ListaHuecos[] listas = new ListaHuecos[consulta.length];
+            for (int i = 0; i < consulta.length; i++) {
+                listas[i] = trigramas.getOrDefault(consulta[i], ListaHuecos.VACIA);
+            }
+            Arrays.sort(listas, Comparator.comparingInt(ListaHuecos::tamano));
+
+            // Filtro por prefijo: quien comparta al menos 'minimo' trigramas aparece en alguna de las
+            // (n - minimo + 1) listas más cortas, así que solo esas se recorren enteras.
+            int minimo = Math.max(1, (int) Math.ceil(consulta.length * UMBRAL_COMPARTIDOS));
+            int recorridas = incluibles(listas, consulta.length - minimo + 1);
+            int[] candidatos = unir(listas, recorridas);
+            int[] cuentas = contar(candidatos);
+            int distintos = compactarRepetidos(candidatos);
+            // El resto de listas solo se consultan para los candidatos (ambos están ordenados)
+            for (int i = recorridas; i < listas.length; i++) {
+                listas[i].contarEn(candidatos, distintos, cuentas);
+            }
+
+            PriorityQueue<Puntuado> mejores = new PriorityQueue<>(Comparator.comparingDouble(Puntuado::puntuacion));
+            int[] porPrefijo = raiz.huecosConPrefijo(prefijo, MAX_HUECOS_PREFIJO, muertos);
+            Arrays.sort(porPrefijo);
+            for (int c = 0; c < distintos; c++) {
+                int hueco = candidatos[c];
+                boolean prefijoOk = Arrays.binarySearch(porPrefijo, hueco) >= 0;
+                if (cuentas[c] < minimo && !prefijoOk) continue;
+                considerar(mejores, k, hueco, cuentas[c], consulta.length, prefijoOk);
+            }
+            // Villanos que solo llegan por el trie: contamos sus trigramas en todas las listas
+            int[] soloPrefijo = new int[porPrefijo.length];
+            int extra = 0;
+            for (int hueco : porPrefijo) {
+                if (Arrays.binarySearch(candidatos, 0, distintos, hueco) < 0) soloPrefijo[extra++] = hueco;
+            }
+            int[] cuentasExtra = new int[extra];
+            for (ListaHuecos lista : listas) {
+                lista.contarEn(soloPrefijo, extra, cuentasExtra);
+            }
+            for (int i = 0; i < extra; i++) {
+                considerar(mejores, k, soloPrefijo[i], cuentasExtra[i], consulta.length, true);
+            }
+
+            List<SugerenciaVillano> resultado = new ArrayList<>(mejores.size());
+            while (!mejores.isEmpty()) {
+                Puntuado p = mejores.poll();
+                resultado.add(new SugerenciaVillano(ids[p.hueco()], alias[p.hueco()], nombres[p.hueco()], p.puntuacion()));
+            }
+            return resultado.reversed();
+        } finally {
+            cerrojo.readLock().unlock();
+        }
+    }
+
+    // Similitud de Jaccard entre trigramas (compartidos / unión) más el bonus si una palabra empieza por lo tecleado
+    private void considerar(PriorityQueue<Puntuado> mejores, int k, int hueco, int compartidos,
+                            int totalConsulta, boolean prefijoOk) {
+        if (muertos.get(hueco)) return;
+        double similitud = (double) compartidos / (totalConsulta + numTrigramas[hueco] - compartidos);
+        if (similitud < SIMILITUD_MINIMA && !prefijoOk) return;
+        double puntuacion = similitud + (prefijoOk ? BONUS_PREFIJO : 0);
+        if (mejores.size() < k) {
+            mejores.add(new Puntuado(hueco, puntuacion));
+        } else if (puntuacion > mejores.peek().puntuacion()) {
+            mejores.poll();
+            mejores.add(new Puntuado(hueco, puntuacion));
+        }
+    }
+
+    // Cuántas de las listas más cortas caben enteras en el tope de candidatos (al menos una que no esté vacía)
+    private static int incluibles(ListaHuecos[] listas, int maximo) {
+        int total = 0;
+        for (int i = 0; i < maximo; i++) {
+            if (total + listas[i].tamano() > MAX_CANDIDATOS) return total == 0 ? i + 1 : i;
+            total += listas[i].tamano();
+        }
+        return maximo;
+    }
+
+    // Unión (con repeticiones) de las primeras listas, ordenada. De una lista enorme solo se toma el principio.
+    private static int[] unir(ListaHuecos[] listas, int cuantas) {
+        int total = 0;
+        for (int i = 0; i < cuantas; i++) total += listas[i].tamano();
+        int[] union = new int[Math.min(total, MAX_CANDIDATOS)];
+        int n = 0;
+        for (int i = 0; i < cuantas; i++) {
+            int copiar = Math.min(listas[i].tamano(), union.length - n);
+            System.arraycopy(listas[i].huecos, 0, union, n, copiar);
+            n += copiar;
+        }
+        Arrays.sort(union);
+        return union;
+    }
+
+    // Sobre un array ordenado: cuántas veces aparece cada valor (en la posición de su primera aparición tras compactar)
+    private static int[] contar(int[] ordenado) {
+        int[] cuentas = new int[ordenado.length];
+        int d = -1;
+        for (int i = 0; i < ordenado.length; i++) {
+            if (i == 0 || ordenado[i] != ordenado[i - 1]) d++;
+            cuentas[d]++;
+        }
+        return cuentas;
+    }
+
+    private static int compactarRepetidos(int[] ordenado) {
+        int d = 0;
+        for (int i = 0; i < ordenado.length; i++) {
+            if (i == 0 || ordenado[i] != ordenado[i - 1]) ordenado[d++] = ordenado[i];
+        }
+        return d;
+    }
+
+    // ==========================================
+    // CONSTRUCCIÓN Y MANTENIMIENTO
+    // ==========================================
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void construir() {
+        cerrojo.writeLock().lock();
+        try {
+            vaciar();
+            jdbcTemplate.query("SELECT id, nombre, alias FROM villano ORDER BY id",
+                    rs -> { anadir(rs.getLong(1), rs.getString(2), rs.getString(3)); });
+            listo = true;
+            logger.info("Índice de villanos construido: {} villanos, {} trigramas.", huecos, trigramas.size());
+        } catch (RuntimeException e) {
+            listo = false;
+            logger.error("No se pudo construir el índice de villanos", e);
+        } finally {
+            cerrojo.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Indexa (o reindexa) un villano ya guardado.
+     */
+    public void indexar(Villano villano) {
+        cerrojo.writeLock().lock();
+        try {
+            matar(villano.getId());
+            anadir(villano.getId(), villano.getNombre(), villano.getAlias());
+            if (numMuertos > 1000 && numMuertos > huecos / 4) compactar();
+        } finally {
+            cerrojo.writeLock().unlock();
+        }
+    }
+
+    public void quitar(Long id) {
+        cerrojo.writeLock().lock();
+        try {
+            matar(id);
+        } finally {
+            cerrojo.writeLock().unlock();
+        }
+    }
+
+    private void anadir(long id, String nombre, String aliasVillano) {
+        if (huecos == ids.length) crecer();
+        int hueco = huecos++;
+        ids[hueco] = id;
+        nombres[hueco] = nombre;
+        alias[hueco] = aliasVillano;
+        huecoPorId.put(id, hueco);
+
+        List<String> palabras = new ArrayList<>(Tokenizador.tokens(nombre));
+        palabras.addAll(Tokenizador.tokens(aliasVillano));
+        long[] propios = trigramasDe(palabras);
+        numTrigramas[hueco] = propios.length;
+        // Los huecos nuevos siempre son los mayores: las listas quedan ordenadas sin esfuerzo
+        for (long trigrama : propios) {
+            trigramas.computeIfAbsent(trigrama, t -> new ListaHuecos()).anadir(hueco);
+        }
+        for (String palabra : new LinkedHashSet<>(palabras)) {
+            raiz.insertar(palabra, hueco);
+        }
+    }
+
+    private void matar(Long id) {
+        Integer hueco = huecoPorId.remove(id);
+        if (hueco == null) return;
+        muertos.set(hueco);
+        numMuertos++;
+        nombres[hueco] = null;
+        alias[hueco] = null;
+    }
+
+    // Reconstruye las estructuras solo con los huecos vivos (sin ir a la BD)
+    private void compactar() {
+        long[] viejosIds = ids;
+        String[] viejosNombres = nombres;
+        String[] viejosAlias = alias;
+        int viejos = huecos;
+        BitSet viejosMuertos = (BitSet) muertos.clone();
+        vaciar();
+        for (int h = 0; h < viejos; h++) {
+            if (!viejosMuertos.get(h)) anadir(viejosIds[h], viejosNombres[h], viejosAlias[h]);
+        }
+        logger.info("Índice de villanos compactado: {} villanos.", huecos);
+    }
+
+    private void vaciar() {
+        ids = new long[1024];
+        nombres = new String[1024];
+        alias = new String[1024];
+        numTrigramas = new int[1024];
+        huecos = 0;
+        muertos.clear();
+        numMuertos = 0;
+        huecoPorId.clear();
+        trigramas.clear();
+        raiz = new Nodo();
+    }
+
+    private void crecer() {
+        int capacidad = ids.length * 2;
+        ids = Arrays.copyOf(ids, capacidad);
+        nombres = Arrays.copyOf(nombres, capacidad);
+        alias = Arrays.copyOf(alias, capacidad);
+        numTrigramas = Arrays.copyOf(numTrigramas, capacidad);
+    }
+
+    // Trigramas distintos de las palabras, rellenadas como "  palabra " y codificados en un long
+    private static long[] trigramasDe(List<String> palabras) {
+        int total = 0;
+        for (String p : palabras) total += p.length() + 1;
+        long[] trigramas = new long[total];
+        int n = 0;
+        for (String palabra : palabras) {
+            String relleno = "  " + palabra + " ";
+            for (int i = 0; i + 3 <= relleno.length(); i++) {
+                trigramas[n++] = ((long) relleno.charAt(i) << 32) | ((long) relleno.charAt(i + 1) << 16) | relleno.charAt(i + 2);
+            }
+        }
+        Arrays.sort(trigramas, 0, n);
+        int d = 0;
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || trigramas[i] != trigramas[i - 1]) trigramas[d++] = trigramas[i];
+        }
+        return Arrays.copyOf(trigramas, d);
+    }
+
+    // ==========================================
+    // ESTRUCTURAS
+    // ==========================================
+
+    private record Puntuado(int hueco, double puntuacion) {
+    }
+
+    /**
+     * Lista creciente de huecos, siempre ordenada (solo se añaden huecos nuevos, que son los mayores).
+     */
+    private static final class ListaHuecos {
+
+        static final ListaHuecos VACIA = new ListaHuecos();
+
+        private int[] huecos = new int[2];
+        private int tamano;
+
+        void anadir(int hueco) {
+            if (tamano == huecos.length) huecos = Arrays.copyOf(huecos, tamano * 2);
+            huecos[tamano++] = hueco;
+        }
+
+        int tamano() {
+            return tamano;
+        }
+
+        /**
+         * Suma 1 en 'cuentas' a cada candidato (ordenados) que está en la lista. Búsqueda galopante:
+         * como los dos arrays están ordenados, cada búsqueda empieza donde acabó la anterior.
+         */
+        void contarEn(int[] candidatos, int n, int[] cuentas) {
+            int desde = 0;
+            for (int c = 0; c < n && desde < tamano; c++) {
+                int objetivo = candidatos[c];
+                int paso = 1;
+                int hasta = desde;
+                while (hasta < tamano && huecos[hasta] < objetivo) {
+                    desde = hasta + 1;
+                    hasta += paso;
+                    paso <<= 1;
+                }
+                int i = Arrays.binarySearch(huecos, desde, Math.min(hasta + 1, tamano), objetivo);
+                if (i >= 0) {
+                    cuentas[c]++;
+                    desde = i + 1;
+                } else {
+                    desde = -i - 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Nodo del trie: hijos ordenados por letra y, si aquí termina alguna palabra, los huecos que la tienen.
+     */
+    private static final class Nodo {
+
+        private char[] letras = new char[0];
+        private Nodo[] hijos = new Nodo[0];
+        private ListaHuecos huecos;
+
+        void insertar(String palabra, int hueco) {
+            Nodo nodo = this;
+            for (int i = 0; i < palabra.length(); i++) {
+                nodo = nodo.hijoOCrear(palabra.charAt(i));
+            }
+            if (nodo.huecos == null) nodo.huecos = new ListaHuecos();
+            nodo.huecos.anadir(hueco);
+        }
+
+        /**
+         * Huecos vivos con alguna palabra que empieza por el prefijo, primero las palabras más cortas.
+         * Los muertos siguen en el trie hasta la compactación y no cuentan para el máximo: si no, las
+         * ediciones antiguas de un villano taparían su hueco actual, que es el más nuevo.
+         */
+        int[] huecosConPrefijo(String prefijo, int maximo, BitSet muertos) {
+            Nodo nodo = this;
+            for (int i = 0; i < prefijo.length() && nodo != null; i++) {
+                nodo = nodo.hijo(prefijo.charAt(i));
+            }
+            if (nodo == null) return new int[0];
+
+            Set<Integer> encontrados = new LinkedHashSet<>();
+            ArrayDeque<Nodo> pendientes = new ArrayDeque<>();
+            pendientes.add(nodo);
+            while (!pendientes.isEmpty() && encontrados.size() < maximo) {
+                Nodo actual = pendientes.poll();
+                if (actual.huecos != null) {
+                    for (int i = 0; i < actual.huecos.tamano() && encontrados.size() < maximo; i++) {
+                        int hueco = actual.huecos.huecos[i];
+                        if (!muertos.get(hueco)) encontrados.add(hueco);
+                    }
+                }
+                pendientes.addAll(Arrays.asList(actual.hijos));
+            }
+            return encontrados.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        private Nodo hijo(char letra) {
+            int i = Arrays.binarySearch(letras, letra);
+            return i >= 0 ? hijos[i] : null;
+        }
+
+        private Nodo hijoOCrear(char letra) {
+            int i = Arrays.binarySearch(letras, letra);
+            if (i >= 0) return hijos[i];
+            int pos = -i - 1;
+            char[] nuevasLetras = new char[letras.length + 1];
+            Nodo[] nuevosHijos = new Nodo[hijos.length + 1];
+            System.arraycopy(letras, 0, nuevasLetras, 0, pos);
+            System.arraycopy(hijos, 0, nuevosHijos, 0, pos);
+            nuevasLetras[pos] = letra;
+            nuevosHijos[pos] = new Nodo();
+            System.arraycopy(letras, pos, nuevasLetras, pos + 1, letras.length - pos);
+            System.arraycopy(hijos, pos, nuevosHijos, pos + 1, hijos.length - pos);
+            letras = nuevasLetras;
+            hijos = nuevosHijos;
+            return hijos[pos];
+        }
+    }
+}
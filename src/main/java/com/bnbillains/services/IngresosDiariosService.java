@@ -0,0 +1,204 @@
+package com.bnbillains.services;
+
+import com.bnbillains.dto.IngresosPeriodo;
+import com.bnbillains.entities.Factura;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Mantiene la tabla 'revenue_daily': lo facturado por día de emisión, guarida y método de pago.
+ * <p>
+ * Los servicios que escriben facturas llaman a {@link #sumar}/{@link #restar} dentro de su transacción
+ * (un upsert con incrementos, igual que {@link ValoracionGuaridaService}), así que finanzas consulta
+ * días y meses sin recorrer 'factura' ni cruzarla con 'reserva'. Lo que desaparece en cascada
+ * (guaridas o villanos borrados) se corrige recalculando los días afectados.
+ */
+@Service
+public class IngresosDiariosService {
+
+    private static final Logger logger = LoggerFactory.getLogger(IngresosDiariosService.class);
+
+    // Clave de las facturas sin reserva (la PK no admite nulos)
+    private static final long SIN_GUARIDA = 0L;
+
+    private static final String SUMAR =
+            "INSERT INTO revenue_daily (fecha, guarida_id, metodo_pago, importe, impuestos, num_facturas) " +
+                    "VALUES (?, ?, ?, ?, ?, ?) " +
+                    "ON DUPLICATE KEY UPDATE importe = importe + VALUES(importe), " +
+                    "impuestos = impuestos + VALUES(impuestos), num_facturas = num_facturas + VALUES(num_facturas)";
+
+    private static final String BORRAR_VACIA =
+            "DELETE FROM revenue_daily WHERE fecha = ? AND guarida_id = ? AND metodo_pago = ? AND num_facturas <= 0";
+
+    // Agregado desde cero a partir de 'factura' (solo para completar o recalcular, nunca en cada petición)
+    private static final String AGREGAR_DESDE_FACTURAS =
+            "INSERT INTO revenue_daily (fecha, guarida_id, metodo_pago, importe, impuestos, num_facturas) " +
+                    "SELECT f.fecha_emision, COALESCE(r.guarida_id, 0), COALESCE(f.metodo_pago, ''), " +
+                    "SUM(f.importe), SUM(COALESCE(f.impuestos_malignos, 0)), COUNT(*) " +
+                    "FROM factura f LEFT JOIN reserva r ON r.id = f.reserva_id ";
+
+    private static final String AGRUPAR_DESDE_FACTURAS =
+            " GROUP BY f.fecha_emision, COALESCE(r.guarida_id, 0), COALESCE(f.metodo_pago, '')";
+
+    /**
+     * Apunte de una factura en el agregado. Se toma ANTES de modificarla para poder restar
+     * los valores antiguos (la guarida o el importe pueden cambiar después).
+     */
+    public record Apunte(LocalDate fecha, long guaridaId, String metodoPago, double importe, double impuestos) {
+
+        public static Apunte de(Factura f) {
+            long guaridaId = (f.getReserva() != null && f.getReserva().getGuarida() != null)
+                    ? f.getReserva().getGuarida().getId() : SIN_GUARIDA;
+            return new Apunte(f.getFechaEmision(), guaridaId,
+                    f.getMetodoPago() != null ? f.getMetodoPago() : "",
+                    f.getImporte() != null ? f.getImporte() : 0.0,
+                    f.getImpuestosMalignos() != null ? f.getImpuestosMalignos() : 0.0);
+        }
+    }
+
+    public enum Periodo { DIA, MES }
+
+    public enum Desglose { TOTAL, GUARIDA, METODO }
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public IngresosDiariosService(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    // ==========================================
+    // ESCRITURA (dentro de la transacción de la factura)
+    // ==========================================
+
+    public void sumar(Apunte apunte) {
+        aplicar(apunte, 1);
+    }
+
+    public void restar(Apunte apunte) {
+        aplicar(apunte, -1);
+        // Un día que se queda sin facturas no debe aparecer como un tramo a cero
+        jdbcTemplate.update(BORRAR_VACIA, Date.valueOf(apunte.fecha()), apunte.guaridaId(), apunte.metodoPago());
+    }
+
+    /**
+     * Si el agregado tiene fila para el día, la guarida y el método del apunte. Si no la tiene, la factura
+     * está contada con otra guarida y un {@link #restar} descuadraría el día: hay que {@link #recalcular}.
+     */
+    public boolean estaApuntado(Apunte apunte) {
+        Integer filas = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM revenue_daily WHERE fecha = ? AND guarida_id = ? AND metodo_pago = ?",
+                Integer.class, Date.valueOf(apunte.fecha()), apunte.guaridaId(), apunte.metodoPago());
+        return filas != null && filas > 0;
+    }
+
+    private void aplicar(Apunte apunte, int signo) {
+        if (apunte == null || apunte.fecha() == null) return;
+        jdbcTemplate.update(SUMAR, Date.valueOf(apunte.fecha()), apunte.guaridaId(), apunte.metodoPago(),
+                signo * apunte.importe(), signo * apunte.impuestos(), signo);
+    }
+
+    /**
+     * Días con facturas de esta guarida: hay que recalcularlos después de borrarla (sus reservas y
+     * facturas se van en cascada).
+     */
+    public List<LocalDate> diasFacturadosDeGuarida(Long guaridaId) {
+        return jdbcTemplate.queryForList("SELECT DISTINCT f.fecha_emision FROM factura f " +
+                "JOIN reserva r ON r.id = f.reserva_id WHERE r.guarida_id = ?", LocalDate.class, guaridaId);
+    }
+
+    /**
+     * Igual que {@link #diasFacturadosDeGuarida}, para las reservas de un villano.
+     */
+    public List<LocalDate> diasFacturadosDeVillano(Long villanoId) {
+        return jdbcTemplate.queryForList("SELECT DISTINCT f.fecha_emision FROM factura f " +
+                "JOIN reserva r ON r.id = f.reserva_id WHERE r.villano_id = ?", LocalDate.class, villanoId);
+    }
+
+    /**
+     * Vuelve a calcular desde 'factura' estos días completos.
+     */
+    public void recalcular(Collection<LocalDate> dias) {
+        for (LocalDate dia : dias) {
+            jdbcTemplate.update("DELETE FROM revenue_daily WHERE fecha = ?", Date.valueOf(dia));
+            jdbcTemplate.update(AGREGAR_DESDE_FACTURAS + "WHERE f.fecha_emision = ?" + AGRUPAR_DESDE_FACTURAS, Date.valueOf(dia));
+        }
+    }
+
+    /**
+     * Reconstruye toda la tabla desde 'factura'.
+     */
+    @Transactional
+    public int reconstruir() {
+        jdbcTemplate.update("DELETE FROM revenue_daily");
+        return jdbcTemplate.update(AGREGAR_DESDE_FACTURAS + AGRUPAR_DESDE_FACTURAS);
+    }
+
+    /**
+     * Relleno al arrancar: si el número de facturas no cuadra con el agregado (facturas de data.sql,
+     * anteriores a esta tabla o cargadas a mano en la BD), se reconstruye entero.
+     */
+    @Order(1)
+    @EventListener(ApplicationReadyEvent.class)
+    public void completarHistorico() {
+        Long facturas = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM factura", Long.class);
+        Long agregadas = jdbcTemplate.queryForObject("SELECT COALESCE(SUM(num_facturas), 0) FROM revenue_daily", Long.class);
+        if (facturas != null && facturas.equals(agregadas)) {
+            logger.info("Ingresos diarios al día ({} facturas).", facturas);
+            return;
+        }
+        int filas = reconstruir();
+        logger.info("Ingresos diarios reconstruidos desde 'factura': {} filas para {} facturas.", filas, facturas);
+    }
+
+    // ==========================================
+    // CONSULTA
+    // ==========================================
+
+    /**
+     * Ingresos entre dos días (ambos incluidos) agrupados por día o por mes. Solo lee 'revenue_daily'
+     * por su clave (fecha primero): el coste depende de los días del rango y no del número de facturas.
+     */
+    public List<IngresosPeriodo> consultar(LocalDate desde, LocalDate hasta, Periodo periodo, Desglose desglose) {
+        String agruparPeriodo = (periodo == Periodo.MES) ? "YEAR(d.fecha), MONTH(d.fecha)" : "d.fecha";
+        String columnas = switch (desglose) {
+            case GUARIDA -> "d.guarida_id, MIN(g.nombre), NULL";
+            case METODO -> "NULL, NULL, d.metodo_pago";
+            case TOTAL -> "NULL, NULL, NULL";
+        };
+        String agruparDesglose = switch (desglose) {
+            case GUARIDA -> ", d.guarida_id";
+            case METODO -> ", d.metodo_pago";
+            case TOTAL -> "";
+        };
+        String sql = "SELECT MIN(d.fecha), " + columnas + ", SUM(d.importe), SUM(d.impuestos), SUM(d.num_facturas) " +
+                "FROM revenue_daily d LEFT JOIN guarida g ON g.id = d.guarida_id " +
+                "WHERE d.fecha BETWEEN ? AND ? " +
+                "GROUP BY " + agruparPeriodo + agruparDesglose + " " +
+                "ORDER BY " + agruparPeriodo + agruparDesglose;
+
+        return jdbcTemplate.query(sql, (rs, i) -> {
+            LocalDate fecha = rs.getDate(1).toLocalDate();
+            long guaridaId = rs.getLong(2);
+            return new IngresosPeriodo(
+                    periodo == Periodo.MES ? YearMonth.from(fecha).toString() : fecha.toString(),
+                    rs.wasNull() || guaridaId == SIN_GUARIDA ? null : guaridaId,
+                    rs.getString(3),
+                    rs.getString(4),
+                    rs.getDouble(5),
+                    rs.getDouble(6),
+                    rs.getLong(7));
+        }, Date.valueOf(desde), Date.valueOf(hasta));
+    }
+}
@@ -0,0 +1,260 @@
+package com.bnbillains.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Retira de UPLOAD_PATH las imágenes que ya no usa ninguna guarida.
+ * <p>
+ * Un fichero huérfano no se borra de inmediato: pasa a la subcarpeta de cuarentena y solo se elimina si
+ * sigue sin referencias pasados {@code cuarentena-dias}. Si mientras tanto alguien lo vuelve a usar (otra
+ * subida con el mismo contenido, una guarida restaurada en la BD), vuelve a su sitio.
+ * <p>
+ * Entran en cuarentena las fotos que suelta una guarida al cambiar de foto o borrarse (tras el commit) y,
+ * cada {@code barrido-minutos}, las que encuentre el barrido: recorre la carpeta con un
+ * {@link DirectoryStream} (sin listarla entera en memoria) y la compara con los nombres de 'guarida.imagen'.
+ * Las copias reducidas ("-w480.jpg"...) siguen a su original.
+ */
+@Service
+public class LimpiezaUploadsService {
+
+    private static final Logger logger = LoggerFactory.getLogger(LimpiezaUploadsService.class);
+
+    // Un fichero más reciente puede ser una subida cuya guarida aún no se ha guardado
+    private static final Duration MARGEN_SUBIDA = Duration.ofHours(1);
+
+    // Temporales de subidas o copias interrumpidas (caída del proceso a mitad de escritura)
+    private static final Duration MARGEN_TEMPORALES = Duration.ofDays(1);
+
+    // Copias reducidas: "<base>-w<ancho>.jpg" (ver Guarida.nombreVariante)
+    private static final Pattern VARIANTE = Pattern.compile("(.+)-w[0-9]+\\.jpg");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final FileStorageService fileStorageService;
+    private final Path carpeta;
+    private final Path cuarentena;
+    private final Path temporales;
+    private final Duration gracia;
+
+    private final Counter bytesRecuperados;
+    private final Counter enviadosACuarentena;
+    private final AtomicLong bytesEnCuarentena = new AtomicLong();
+
+    public LimpiezaUploadsService(JdbcTemplate jdbcTemplate,
+                                  FileStorageService fileStorageService,
+                                  MeterRegistry meterRegistry,
+                                  @Value("${UPLOAD_PATH}") String uploadPath,
+                                  @Value("${bnbillains.uploads.cuarentena-dias:7}") int diasCuarentena) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.fileStorageService = fileStorageService;
+        this.carpeta = Paths.get(uploadPath).toAbsolutePath().normalize();
+        this.cuarentena = carpeta.resolve(FileStorageService.CARPETA_CUARENTENA);
+        this.temporales = carpeta.resolve(FileStorageService.CARPETA_TEMPORAL);
+        this.gracia = Duration.ofDays(Math.max(0, diasCuarentena));
+
+        this.bytesRecuperados = Counter.builder("uploads.huerfanas.recuperados")
+                .description("Bytes liberados al borrar imágenes huérfanas tras la cuarentena")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.enviadosACuarentena = Counter.builder("uploads.huerfanas.cuarentena")
+                .description("Ficheros huérfanos enviados a cuarentena")
+                .register(meterRegistry);
+        Gauge.builder("uploads.huerfanas.cuarentena.bytes", bytesEnCuarentena, AtomicLong::get)
+                .description("Bytes en cuarentena al terminar el último barrido")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Una guarida ha dejado de usar esta imagen (cambio de foto o borrado). Tras el commit, si ya
+     * no la usa ninguna otra, el original y sus copias reducidas pasan a cuarentena.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void alLiberarImagen(ImagenLiberadaEvent evento) {
+        String imagen = evento.imagen();
+        if (imagen == null || imagen.isBlank() || fileStorageService.referencias(imagen) > 0) return;
+        try {
+            aCuarentena(carpeta.resolve(imagen).normalize());
+            // Filtro con la misma expresión que el barrido: el nombre no se interpreta como patrón glob
+            String base = base(imagen);
+            try (DirectoryStream<Path> copias = Files.newDirectoryStream(carpeta, copia -> {
+                Matcher variante = VARIANTE.matcher(copia.getFileName().toString());
+                return variante.matches() && variante.group(1).equals(base);
+            })) {
+                for (Path copia : copias) aCuarentena(copia);
+            }
+        } catch (IOException e) {
+            // El barrido periódico lo volverá a intentar
+            logger.warn("No se pudo retirar la imagen {}: {}", imagen, e.getMessage());
+        }
+    }
+
+    // ==========================================
+    // BARRIDO
+    // ==========================================
+
+    @Scheduled(fixedDelayString = "${bnbillains.uploads.barrido-minutos:60}",
+            initialDelayString = "${bnbillains.uploads.barrido-minutos:60}", timeUnit = TimeUnit.MINUTES)
+    public void barrer() {
+        if (!Files.isDirectory(carpeta)) return;
+        long inicio = System.nanoTime();
+        Set<String> referenciadas = cargarReferencias();
+        Resumen resumen = new Resumen();
+        try {
+            buscarHuerfanas(referenciadas, resumen);
+            revisarCuarentena(referenciadas, resumen);
+            limpiarTemporales(resumen);
+        } catch (IOException e) {
+            logger.error("Barrido de imágenes huérfanas interrumpido: {}", e.getMessage());
+        }
+        bytesEnCuarentena.set(resumen.bytesEnCuarentena);
+        logger.info("Barrido de uploads en {} ms: {} revisados, {} a cuarentena, {} restaurados, {} borrados ({} KB recuperados).",
+                (System.nanoTime() - inicio) / 1_000_000, resumen.revisados, resumen.aCuarentena,
+                resumen.restaurados, resumen.borrados, resumen.bytesBorrados / 1024);
+    }
+
+    /**
+     * Nombres base (sin extensión) de todas las imágenes en uso: bastan para reconocer tanto el
+     * original como sus copias. Es una fila por guarida, no por fichero.
+     */
+    private Set<String> cargarReferencias() {
+        Set<String> bases = new HashSet<>();
+        jdbcTemplate.query("SELECT DISTINCT imagen FROM guarida WHERE imagen IS NOT NULL AND imagen <> ''",
+                rs -> { bases.add(base(rs.getString(1))); });
+        return bases;
+    }
+
+    private void buscarHuerfanas(Set<String> referenciadas, Resumen resumen) throws IOException {
+        long limite = System.currentTimeMillis() - MARGEN_SUBIDA.toMillis();
+        try (DirectoryStream<Path> ficheros = Files.newDirectoryStream(carpeta)) {
+            for (Path fichero : ficheros) {
+                String nombre = fichero.getFileName().toString();
+                if (nombre.startsWith(".")) continue; // temporales, cuarentena y ocultos
+                BasicFileAttributes atributos = Files.readAttributes(fichero, BasicFileAttributes.class);
+                if (!atributos.isRegularFile()) continue;
+                resumen.revisados++;
+                if (enUso(nombre, referenciadas)) continue;
+                if (atributos.lastModifiedTime().toMillis() > limite) continue;
+                // La lista de referencias es de antes del recorrido: se confirma contra la BD
+                if (estaReferenciado(nombre)) continue;
+                aCuarentena(fichero);
+                resumen.aCuarentena++;
+            }
+        }
+    }
+
+    private void revisarCuarentena(Set<String> referenciadas, Resumen resumen) throws IOException {
+        if (!Files.isDirectory(cuarentena)) return;
+        long limite = System.currentTimeMillis() - gracia.toMillis();
+        try (DirectoryStream<Path> ficheros = Files.newDirectoryStream(cuarentena)) {
+            for (Path fichero : ficheros) {
+                String nombre = fichero.getFileName().toString();
+                BasicFileAttributes atributos = Files.readAttributes(fichero, BasicFileAttributes.class);
+                if (!atributos.isRegularFile()) continue;
+
+                if (enUso(nombre, referenciadas) || estaReferenciado(nombre)) {
+                    // Vuelve a usarse: se devuelve a su sitio (salvo que ya haya otro igual)
+                    Path destino = carpeta.resolve(nombre);
+                    if (Files.exists(destino)) Files.delete(fichero);
+                    else FileStorageService.mover(fichero, destino);
+                    resumen.restaurados++;
+                } else if (atributos.lastModifiedTime().toMillis() <= limite) {
+                    Files.delete(fichero);
+                    bytesRecuperados.increment(atributos.size());
+                    resumen.borrados++;
+                    resumen.bytesBorrados += atributos.size();
+                } else {
+                    resumen.bytesEnCuarentena += atributos.size();
+                }
+            }
+        }
+    }
+
+    private void limpiarTemporales(Resumen resumen) throws IOException {
+        if (!Files.isDirectory(temporales)) return;
+        long limite = System.currentTimeMillis() - MARGEN_TEMPORALES.toMillis();
+        try (DirectoryStream<Path> ficheros = Files.newDirectoryStream(temporales)) {
+            for (Path fichero : ficheros) {
+                BasicFileAttributes atributos = Files.readAttributes(fichero, BasicFileAttributes.class);
+                if (atributos.isRegularFile() && atributos.lastModifiedTime().toMillis() <= limite) {
+                    Files.delete(fichero);
+                    bytesRecuperados.increment(atributos.size());
+                    resumen.borrados++;
+                    resumen.bytesBorrados += atributos.size();
+                }
+            }
+        }
+    }
+
+    // ==========================================
+    // UTILIDADES
+    // ==========================================
+
+    /**
+     * Mueve el fichero a la cuarentena. La fecha de modificación pasa a ser la de entrada: de ella
+     * cuenta el periodo de gracia.
+     */
+    private void aCuarentena(Path fichero) throws IOException {
+        if (!fichero.startsWith(carpeta) || !Files.isRegularFile(fichero)) return;
+        Files.createDirectories(cuarentena);
+        Path destino = cuarentena.resolve(fichero.getFileName());
+        FileStorageService.mover(fichero, destino);
+        Files.setLastModifiedTime(destino, FileTime.fromMillis(System.currentTimeMillis()));
+        enviadosACuarentena.increment();
+        logger.info("Imagen {} en cuarentena (sin guaridas que la usen).", fichero.getFileName());
+    }
+
+    private boolean estaReferenciado(String nombre) {
+        if (fileStorageService.referencias(nombre) > 0) return true;
+        Matcher variante = VARIANTE.matcher(nombre);
+        if (!variante.matches()) return false;
+        // Copia reducida: vale si algún original con esa base sigue en uso (la extensión puede ser cualquiera)
+        Long n = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM guarida WHERE imagen LIKE ?", Long.class,
+                variante.group(1).replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + ".%");
+        return n != null && n > 0;
+    }
+
+    // En uso el propio fichero o, si tiene forma de copia reducida, su original
+    private static boolean enUso(String nombre, Set<String> referenciadas) {
+        if (referenciadas.contains(base(nombre))) return true;
+        Matcher variante = VARIANTE.matcher(nombre);
+        return variante.matches() && referenciadas.contains(variante.group(1));
+    }
+
+    private static String base(String imagen) {
+        int punto = imagen.lastIndexOf('.');
+        return punto > 0 ? imagen.substring(0, punto) : imagen;
+    }
+
+    private static final class Resumen {
+        int revisados;
+        int aCuarentena;
+        int restaurados;
+        int borrados;
+        long bytesBorrados;
+        long bytesEnCuarentena;
+    }
+}
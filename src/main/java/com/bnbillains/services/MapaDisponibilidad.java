@@ -0,0 +1,200 @@
+package com.bnbillains.services;
+
+import com.bnbillains.repositories.ReservaRepository;
+import com.bnbillains.repositories.ReservaRepository.IntervaloReserva;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.LocalDate;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Mapa de bits de ocupación por guarida para responder a "¿qué guaridas están libres entre estas fechas?".
+ * <p>
+ * Cada guarida con reservas tiene un {@code long[]} con un bit por día en un horizonte móvil de
+ * dos años a partir de hoy (12 longs por guarida). Saber si una guarida está ocupada en un rango
+ * es un OR de unas pocas palabras con máscara, así que recorrer todo el catálogo cuesta microsegundos
+ * en lugar de una consulta {@code encontrarConflictos} por guarida.
+ * <p>
+ * Se construye desde la tabla 'reserva' al arrancar, se actualiza con cada {@link ReservaCambioEvent}
+ * y se reconstruye solo cuando cambia el día. Los rangos fuera del horizonte (o con el mapa aún sin
+ * construir) se resuelven con una única consulta JPQL.
+ */
+@Component
+public class MapaDisponibilidad {
+
+    private static final Logger logger = LoggerFactory.getLogger(MapaDisponibilidad.class);
+
+    // Dos años (incluido un posible 29 de febrero), redondeado a palabras de 64 bits
+    static final int DIAS_HORIZONTE = 731;
+    private static final int PALABRAS = (DIAS_HORIZONTE + 63) / 64;
+
+    private final ReservaRepository reservaRepository;
+    private final IndiceDisponibilidad indiceDisponibilidad;
+
+    // Foto inmutable del día base + mapas por guarida (los arrays se sustituyen, nunca se modifican)
+    private volatile Mapa mapa;
+
+    private final Object cerrojo = new Object();
+
+    public MapaDisponibilidad(ReservaRepository reservaRepository, IndiceDisponibilidad indiceDisponibilidad) {
+        this.reservaRepository = reservaRepository;
+        this.indiceDisponibilidad = indiceDisponibilidad;
+    }
+
+    // ==========================================
+    // CONSULTAS
+    // ==========================================
+
+    /**
+     * Ids de las guaridas que tienen algún día ocupado entre las fechas (ambas inclusivas).
+     * Todas las demás guaridas están libres en ese rango.
+     */
+    public Set<Long> guaridasOcupadas(LocalDate fechaInicio, LocalDate fechaFin) {
+        Mapa actual = mapaDeHoy();
+        if (actual == null || !actual.cubre(fechaInicio, fechaFin)) {
+            return reservaRepository.findGuaridasOcupadas(fechaInicio, fechaFin);
+        }
+
+        int desde = actual.indice(fechaInicio);
+        int hasta = actual.indice(fechaFin);
+        Set<Long> ocupadas = new HashSet<>();
+        actual.bits.forEach((guaridaId, bits) -> {
+            if (algunBit(bits, desde, hasta)) ocupadas.add(guaridaId);
+        });
+        return ocupadas;
+    }
+
+    // ==========================================
+    // CONSTRUCCIÓN Y SINCRONIZACIÓN
+    // ==========================================
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void construir() {
+        synchronized (cerrojo) {
+            LocalDate base = LocalDate.now();
+            Map<Long, long[]> bits = new ConcurrentHashMap<>();
+            try {
+                List<IntervaloReserva> intervalos = reservaRepository.findAllIntervalos();
+                for (IntervaloReserva i : intervalos) {
+                    long[] palabras = bits.computeIfAbsent(i.getGuaridaId(), k -> new long[PALABRAS]);
+                    marcar(palabras, base, i.getFechaInicio(), i.getFechaFin());
+                }
+                mapa = new Mapa(base, bits);
+                logger.info("Mapa de disponibilidad construido: {} guaridas con reservas desde {}.", bits.size(), base);
+            } catch (RuntimeException e) {
+                mapa = null;
+                logger.error("No se pudo construir el mapa de disponibilidad", e);
+            }
+        }
+    }
+
+    /**
+     * Se ejecuta después de {@link IndiceDisponibilidad} (que tiene @Order(1)), así que
+     * para recalcular una guarida podemos usar sus tramos ya actualizados.
+     */
+    @Order(2)
+    @TransactionalEventListener(fallbackExecution = true)
+    public void alCambiarReserva(ReservaCambioEvent evento) {
+        synchronized (cerrojo) {
+            Mapa actual = mapa;
+            if (actual == null) return;
+
+            // Invalidación global o guarida desconocida: reconstrucción completa
+            if (evento.guaridaId() == null) {
+                construir();
+                return;
+            }
+
+            if (evento.tipo() == ReservaCambioEvent.Tipo.CREADA) {
+                // Alta: basta con encender los días nuevos
+                long[] copia = actual.bits.getOrDefault(evento.guaridaId(), new long[PALABRAS]).clone();
+                marcar(copia, actual.base, evento.fechaInicio(), evento.fechaFin());
+                actual.bits.put(evento.guaridaId(), copia);
+            } else {
+                // Edición, borrado o invalidación: no sabemos qué días quedaron libres, recalculamos la guarida
+                recalcularGuarida(actual, evento.guaridaId());
+                // Si la edición ha movido la reserva, la guarida de origen pierde esos días
+                if (evento.guaridaAnteriorId() != null) recalcularGuarida(actual, evento.guaridaAnteriorId());
+            }
+        }
+    }
+
+    private void recalcularGuarida(Mapa actual, Long guaridaId) {
+        long[] nuevo = new long[PALABRAS];
+        if (indiceDisponibilidad.estaCaliente()) {
+            indiceDisponibilidad.tramos(guaridaId)
+                    .forEach(t -> marcar(nuevo, actual.base, t.fechaInicio(), t.fechaFin()));
+        } else {
+            reservaRepository.findIntervalosByGuaridaId(guaridaId)
+                    .forEach(i -> marcar(nuevo, actual.base, i.getFechaInicio(), i.getFechaFin()));
+        }
+        actual.bits.put(guaridaId, nuevo);
+    }
+
+    // El horizonte es móvil: si ha cambiado el día, se reconstruye a partir de hoy
+    private Mapa mapaDeHoy() {
+        Mapa actual = mapa;
+        if (actual != null && !actual.base.equals(LocalDate.now())) {
+            synchronized (cerrojo) {
+                // Otro hilo puede haberlo reconstruido mientras esperábamos
+                if (mapa != null && !mapa.base.equals(LocalDate.now())) construir();
+                actual = mapa;
+            }
+        }
+        return actual;
+    }
+
+    // ==========================================
+    // OPERACIONES DE BITS
+    // ==========================================
+
+    private static void marcar(long[] palabras, LocalDate base, LocalDate inicio, LocalDate fin) {
+        long desde = Math.max(0, inicio.toEpochDay() - base.toEpochDay());
+        long hasta = Math.min(DIAS_HORIZONTE - 1, fin.toEpochDay() - base.toEpochDay());
+        for (long dia = desde; dia <= hasta; ) {
+            int palabra = (int) (dia >>> 6);
+            int bitInicio = (int) (dia & 63);
+            int bitFin = (int) Math.min(63, hasta - ((long) palabra << 6));
+            palabras[palabra] |= mascara(bitInicio, bitFin);
+            dia = ((long) palabra + 1) << 6;
+        }
+    }
+
+    private static boolean algunBit(long[] palabras, int desde, int hasta) {
+        int primera = desde >>> 6;
+        int ultima = hasta >>> 6;
+        for (int p = primera; p <= ultima; p++) {
+            int bitInicio = (p == primera) ? (desde & 63) : 0;
+            int bitFin = (p == ultima) ? (hasta & 63) : 63;
+            if ((palabras[p] & mascara(bitInicio, bitFin)) != 0) return true;
+        }
+        return false;
+    }
+
+    // Bits [desde, hasta] encendidos (ambos inclusivos, 0..63)
+    private static long mascara(int desde, int hasta) {
+        long hastaMask = (hasta == 63) ? -1L : (1L << (hasta + 1)) - 1;
+        return hastaMask & (-1L << desde);
+    }
+
+    private record Mapa(LocalDate base, Map<Long, long[]> bits) {
+
+        boolean cubre(LocalDate inicio, LocalDate fin) {
+            return !inicio.isBefore(base) && indice(fin) < DIAS_HORIZONTE;
+        }
+
+        int indice(LocalDate fecha) {
+            return (int) Math.min(Integer.MAX_VALUE, fecha.toEpochDay() - base.toEpochDay());
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.bnbillains.services;
+
+import com.bnbillains.entities.Reserva;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Motor de reservas: enruta cada escritura a un "carril" de un solo escritor según la guarida.
+ * <p>
+ * Cada carril es una cola atendida por un único hilo virtual, así que dos reservas de la
+ * misma guarida nunca hacen a la vez el "comprobar conflictos + insertar" de {@link ReservaService}
+ * (la transacción completa se ejecuta y confirma dentro del carril). Guaridas distintas caen,
+ * en general, en carriles distintos y avanzan en paralelo, sin ningún cerrojo global.
+ */
+@Service
+public class MotorReservasService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MotorReservasService.class);
+
+    private final ReservaService reservaService;
+    private final Carril[] carriles;
+    private final long timeoutSegundos;
+
+    public MotorReservasService(ReservaService reservaService,
+                                MeterRegistry meterRegistry,
+                                @Value("${bnbillains.reservas.carriles:32}") int numCarriles,
+                                @Value("${bnbillains.reservas.timeout-segundos:30}") long timeoutSegundos) {
+        this.reservaService = reservaService;
+        this.timeoutSegundos = timeoutSegundos;
+        this.carriles = new Carril[Math.max(1, numCarriles)];
+        for (int i = 0; i < carriles.length; i++) {
+            carriles[i] = new Carril(i, meterRegistry);
+        }
+        logger.info("Motor de reservas iniciado con {} carriles.", carriles.length);
+    }
+
+    // --- OPERACIONES ---
+
+    /**
+     * Crea una reserva en el carril de su guarida y espera al resultado.
+     */
+    public Reserva reservar(Reserva reserva) {
+        return ejecutar(idGuarida(reserva), () -> reservaService.guardar(reserva));
+    }
+
+    /**
+     * Modifica una reserva en el carril de la guarida DESTINO (la que hay que proteger de solapes).
+     */
+    public Reserva modificar(Long id, Reserva reserva) {
+        return ejecutar(idGuarida(reserva), () -> reservaService.actualizar(id, reserva));
+    }
+
+    public void cancelar(Long id) {
+        reservaService.obtenerPorId(id).ifPresentOrElse(
+                r -> ejecutar(idGuarida(r), () -> {
+                    reservaService.eliminar(id);
+                    return null;
+                }),
+                () -> reservaService.eliminar(id));
+    }
+
+    // --- MÉTRICAS ---
+
+    /**
+     * Reservas esperando (o ejecutándose) en el carril que atiende a esta guarida.
+     */
+    public int profundidadCola(Long guaridaId) {
+        return carrilDe(guaridaId).profundidad.get();
+    }
+
+    // --- INTERNO ---
+
+    private <T> T ejecutar(Long guaridaId, Supplier<T> operacion) {
+        // Sin guarida no hay nada que serializar: dejamos que el servicio valide y falle
+        if (guaridaId == null) {
+            return operacion.get();
+        }
+
+        Carril carril = carrilDe(guaridaId);
+        AtomicBoolean abandonada = new AtomicBoolean(false);
+        Future<T> futuro = carril.enviar(operacion, abandonada);
+        try {
+            return futuro.get(timeoutSegundos, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            // Propagamos tal cual los errores de negocio (ej: "La guarida está ocupada")
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw new IllegalStateException(e.getCause());
+        } catch (TimeoutException e) {
+            // Si aún no ha empezado, el carril la descartará al llegar su turno
+            abandonada.set(true);
+            logger.warn("Timeout esperando al carril {} (guarida {}).", carril.numero, guaridaId);
+            throw new IllegalStateException("El sistema de reservas está saturado. Revisa el listado antes de reintentar.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Reserva interrumpida.");
+        }
+    }
+
+    private Carril carrilDe(Long guaridaId) {
+        return carriles[Math.floorMod(Long.hashCode(guaridaId), carriles.length)];
+    }
+
+    private Long idGuarida(Reserva reserva) {
+        return reserva.getGuarida() != null ? reserva.getGuarida().getId() : null;
+    }
+
+    @PreDestroy
+    public void apagar() {
+        for (Carril carril : carriles) {
+            carril.executor.shutdown();
+        }
+    }
+
+    /**
+     * Un carril: ejecutor de un solo hilo virtual + métricas de cola y de espera.
+     */
+    private static final class Carril {
+
+        private final int numero;
+        private final ExecutorService executor;
+        private final AtomicInteger profundidad = new AtomicInteger();
+        private final Timer espera;
+        private final Timer ejecucion;
+
+        Carril(int numero, MeterRegistry registry) {
+            this.numero = numero;
+            this.executor = Executors.newSingleThreadExecutor(
+                    Thread.ofVirtual().name("reserva-carril-" + numero).factory());
+            String etiqueta = String.valueOf(numero);
+            Gauge.builder("reservas.carril.cola", profundidad, AtomicInteger::get)
+                    .description("Reservas pendientes en el carril")
+                    .tag("carril", etiqueta)
+                    .register(registry);
+            this.espera = Timer.builder("reservas.carril.espera")
+                    .description("Tiempo en cola antes de empezar a procesar la reserva")
+                    .tag("carril", etiqueta)
+                    .register(registry);
+            this.ejecucion = Timer.builder("reservas.carril.ejecucion")
+                    .description("Tiempo de la transacción de reserva dentro del carril")
+                    .tag("carril", etiqueta)
+                    .register(registry);
+        }
+
+        <T> Future<T> enviar(Supplier<T> operacion, AtomicBoolean abandonada) {
+            long encolada = System.nanoTime();
+            profundidad.incrementAndGet();
+            try {
+                return executor.submit(() -> {
+                    try {
+                        espera.record(System.nanoTime() - encolada, TimeUnit.NANOSECONDS);
+                        if (abandonada.get()) return null; // El cliente ya no espera la respuesta
+                        return ejecucion.recordCallable(operacion::get);
+                    } finally {
+                        profundidad.decrementAndGet();
+                    }
+                });
+            } catch (RuntimeException e) {
+                profundidad.decrementAndGet();
+                throw e;
+            }
+        }
+    }
+}
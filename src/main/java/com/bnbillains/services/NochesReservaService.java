@@ -0,0 +1,105 @@
+package com.bnbillains.services;
+
+import com.bnbillains.entities.Reserva;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Modo de reservas seguro en cluster.
+ * <p>
+ * Cuando hay varios nodos detrás de un balanceador, ningún cerrojo dentro de la JVM
+ * (ni los carriles de {@link MotorReservasService}) impide que dos nodos inserten reservas
+ * solapadas. En este modo cada reserva ocupa una fila por día en 'reserva_noche', cuya clave
+ * primaria (guarida_id, fecha) hace que la segunda inserción falle dentro de su propia
+ * transacción, que se deshace entera.
+ * <p>
+ * Se activa con {@code bnbillains.reservas.modo-cluster=true}.
+ */
+@Service
+public class NochesReservaService {
+
+    private static final Logger logger = LoggerFactory.getLogger(NochesReservaService.class);
+
+    private static final String INSERTAR =
+            "INSERT INTO reserva_noche (guarida_id, fecha, reserva_id) VALUES (?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean modoCluster;
+
+    public NochesReservaService(JdbcTemplate jdbcTemplate,
+                                @Value("${bnbillains.reservas.modo-cluster:false}") boolean modoCluster) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.modoCluster = modoCluster;
+    }
+
+    public boolean isModoCluster() {
+        return modoCluster;
+    }
+
+    /**
+     * Ocupa los días de la reserva. Debe llamarse dentro de la transacción que guarda la reserva.
+     *
+     * @throws IllegalArgumentException si algún día ya está ocupado por otra reserva (de este u otro nodo).
+     */
+    public void ocupar(Reserva reserva) {
+        Long guaridaId = reserva.getGuarida().getId();
+        List<Object[]> filas = new ArrayList<>();
+        for (LocalDate dia = reserva.getFechaInicio(); !dia.isAfter(reserva.getFechaFin()); dia = dia.plusDays(1)) {
+            filas.add(new Object[]{guaridaId, Date.valueOf(dia), reserva.getId()});
+        }
+        try {
+            jdbcTemplate.batchUpdate(INSERTAR, filas);
+        } catch (DuplicateKeyException e) {
+            logger.warn("Solape detectado por la BD en la guarida {} ({} - {}).",
+                    guaridaId, reserva.getFechaInicio(), reserva.getFechaFin());
+            throw new IllegalArgumentException("¡Imposible! La guarida está ocupada en esas fechas.");
+        }
+    }
+
+    /**
+     * Libera los días de una reserva (al editarla antes de volver a ocupar, o al cancelarla).
+     */
+    public void liberar(Long reservaId) {
+        jdbcTemplate.update("DELETE FROM reserva_noche WHERE reserva_id = ?", reservaId);
+    }
+
+    /**
+     * Al arrancar en modo cluster, genera las filas de las reservas que aún no las tienen
+     * (por ejemplo, las creadas antes de activar el modo). Los solapes históricos se ignoran.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void completarHistorico() {
+        if (!modoCluster) return;
+
+        List<Object[]> filas = new ArrayList<>();
+        jdbcTemplate.query(
+                "SELECT r.id, r.guarida_id, r.fecha_inicio, r.fecha_fin FROM reserva r " +
+                        "WHERE r.guarida_id IS NOT NULL " +
+                        "AND NOT EXISTS (SELECT 1 FROM reserva_noche n WHERE n.reserva_id = r.id)",
+                rs -> {
+                    long reservaId = rs.getLong(1);
+                    long guaridaId = rs.getLong(2);
+                    LocalDate fin = rs.getDate(4).toLocalDate();
+                    for (LocalDate dia = rs.getDate(3).toLocalDate(); !dia.isAfter(fin); dia = dia.plusDays(1)) {
+                        filas.add(new Object[]{guaridaId, Date.valueOf(dia), reservaId});
+                    }
+                });
+
+        if (!filas.isEmpty()) {
+            jdbcTemplate.batchUpdate(
+                    "INSERT IGNORE INTO reserva_noche (guarida_id, fecha, reserva_id) VALUES (?, ?, ?)", filas);
+        }
+        logger.info("Modo cluster activo: {} días de reservas antiguas registrados en reserva_noche.", filas.size());
+    }
+}
@@ -0,0 +1,281 @@
+package com.bnbillains.services;
+
+import com.bnbillains.dto.InformeOcupacion;
+import com.bnbillains.dto.OcupacionMes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Porcentaje de ocupación por guarida y mes, y por ubicación y mes.
+ * <p>
+ * No pasa por JPA: las reservas del rango llegan como tuplas {@code (guarida_id, fecha_inicio, fecha_fin)}
+ * por un cursor de solo avance y se guardan en arrays de enteros (días epoch). Después cada mes se
+ * reparte como una tarea del pool fork-join, que cuenta sus noches en su propia fila de un {@code int[][]}.
+ * <p>
+ * Una reserva ocupa las noches de {@code fecha_inicio} a {@code fecha_fin} sin incluir esta última (el día de
+ * salida no se cobra, igual que en {@link ReservaService}). Los informes se guardan hasta la siguiente
+ * escritura en reservas o en el catálogo de guaridas.
+ */
+@Service
+public class OcupacionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(OcupacionService.class);
+
+    public static final int MAX_MESES = 120;
+
+    // Filas que el driver trae por viaje: el resultado nunca se materializa entero en memoria
+    private static final int FILAS_POR_BLOQUE = 1000;
+
+    // Cada combinación de meses pedida es una entrada; si se piden demasiadas, se empieza de cero
+    private static final int MAX_INFORMES = 64;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final Map<String, InformeOcupacion> informes = new ConcurrentHashMap<>();
+
+    // Cambia con cada escritura: un informe calculado mientras tanto no se guarda (podría estar viejo)
+    private final AtomicLong version = new AtomicLong();
+
+    public OcupacionService(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Informe de ocupación de los meses {@code desde..hasta} (ambos incluidos).
+     */
+    public InformeOcupacion calcular(YearMonth desde, YearMonth hasta) {
+        if (hasta.isBefore(desde)) {
+            throw new IllegalArgumentException("El mes final debe ser igual o posterior al inicial.");
+        }
+        if (ChronoUnit.MONTHS.between(desde, hasta) >= MAX_MESES) {
+            throw new IllegalArgumentException("El informe admite como mucho " + MAX_MESES + " meses.");
+        }
+
+        String clave = desde + ":" + hasta;
+        InformeOcupacion guardado = informes.get(clave);
+        if (guardado != null) return guardado;
+
+        long versionInicial = version.get();
+        long inicio = System.nanoTime();
+        InformeOcupacion informe = calcularDesdeBd(desde, hasta);
+        logger.debug("Ocupación {} calculada en {} ms.", clave, (System.nanoTime() - inicio) / 1_000_000);
+
+        if (version.get() == versionInicial) {
+            if (informes.size() >= MAX_INFORMES) informes.clear();
+            informes.put(clave, informe);
+        }
+        return informe;
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void alCambiarReserva(ReservaCambioEvent evento) {
+        invalidar();
+    }
+
+    // Altas y bajas de guaridas cambian las noches disponibles (y las ubicaciones)
+    @TransactionalEventListener(fallbackExecution = true)
+    public void alCambiarCatalogo(CatalogoCambioEvent evento) {
+        if (evento.catalogo() == OpcionesService.Catalogo.GUARIDAS) invalidar();
+    }
+
+    private void invalidar() {
+        version.incrementAndGet();
+        informes.clear();
+    }
+
+    // ==========================================
+    // CÁLCULO
+    // ==========================================
+
+    private InformeOcupacion calcularDesdeBd(YearMonth desde, YearMonth hasta) {
+        Guaridas guaridas = cargarGuaridas();
+        int meses = (int) ChronoUnit.MONTHS.between(desde, hasta) + 1;
+
+        // Límites de cada mes en días epoch: el mes m va de limites[m] (incluido) a limites[m + 1]
+        int[] limites = new int[meses + 1];
+        for (int m = 0; m <= meses; m++) {
+            limites[m] = (int) desde.plusMonths(m).atDay(1).toEpochDay();
+        }
+
+        Tramos tramos = leerTramos(guaridas, limites[0], limites[meses]);
+        int[][] noches = new int[meses][guaridas.ids.length];
+        ForkJoinPool.commonPool().invoke(new ContarMeses(tramos, limites, noches, 0, meses));
+
+        List<OcupacionMes> porGuarida = new ArrayList<>(meses * guaridas.ids.length);
+        List<OcupacionMes> porUbicacion = new ArrayList<>(meses * guaridas.ubicaciones.size());
+        for (int m = 0; m < meses; m++) {
+            String mes = desde.plusMonths(m).toString();
+            int diasMes = limites[m + 1] - limites[m];
+            int[] nochesUbicacion = new int[guaridas.ubicaciones.size()];
+
+            for (int g = 0; g < guaridas.ids.length; g++) {
+                porGuarida.add(new OcupacionMes(mes, guaridas.ids[g], guaridas.nombres[g],
+                        guaridas.ubicaciones.get(guaridas.ubicacionDe[g]), noches[m][g], diasMes,
+                        porcentaje(noches[m][g], diasMes)));
+                nochesUbicacion[guaridas.ubicacionDe[g]] += noches[m][g];
+            }
+            for (int u = 0; u < nochesUbicacion.length; u++) {
+                int disponibles = diasMes * guaridas.guaridasPorUbicacion[u];
+                porUbicacion.add(new OcupacionMes(mes, null, null, guaridas.ubicaciones.get(u),
+                        nochesUbicacion[u], disponibles, porcentaje(nochesUbicacion[u], disponibles)));
+            }
+        }
+        return new InformeOcupacion(desde.toString(), hasta.toString(), porGuarida, porUbicacion);
+    }
+
+    private static double porcentaje(int noches, int disponibles) {
+        return disponibles == 0 ? 0 : Math.round(noches * 1000.0 / disponibles) / 10.0;
+    }
+
+    /**
+     * Reservas que pisan el rango [desdeDia, hastaDia), leídas con un cursor de solo avance.
+     */
+    private Tramos leerTramos(Guaridas guaridas, int desdeDia, int hastaDia) {
+        Tramos tramos = new Tramos();
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(
+                    "SELECT guarida_id, fecha_inicio, fecha_fin FROM reserva " +
+                            "WHERE guarida_id IS NOT NULL AND fecha_inicio < ? AND fecha_fin > ?",
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(FILAS_POR_BLOQUE);
+            ps.setDate(1, Date.valueOf(LocalDate.ofEpochDay(hastaDia)));
+            ps.setDate(2, Date.valueOf(LocalDate.ofEpochDay(desdeDia)));
+            return ps;
+        }, rs -> {
+            Integer slot = guaridas.slots.get(rs.getLong(1));
+            if (slot == null) return; // guarida creada después de leer el catálogo
+            tramos.anadir(slot,
+                    (int) rs.getDate(2).toLocalDate().toEpochDay(),
+                    (int) rs.getDate(3).toLocalDate().toEpochDay());
+        });
+        return tramos;
+    }
+
+    private Guaridas cargarGuaridas() {
+        List<Long> ids = new ArrayList<>();
+        List<String> nombres = new ArrayList<>();
+        List<String> ubicacionesGuarida = new ArrayList<>();
+        jdbcTemplate.query("SELECT id, nombre, ubicacion FROM guarida ORDER BY id", rs -> {
+            ids.add(rs.getLong(1));
+            nombres.add(rs.getString(2));
+            ubicacionesGuarida.add(rs.getString(3));
+        });
+        return new Guaridas(ids, nombres, ubicacionesGuarida);
+    }
+
+    // ==========================================
+    // ESTRUCTURAS
+    // ==========================================
+
+    /**
+     * Catálogo de guaridas con un número de orden (slot) por guarida y por ubicación.
+     * Las ubicaciones se agrupan sin distinguir mayúsculas ni acentos, como en las facetas.
+     */
+    private static final class Guaridas {
+        final long[] ids;
+        final String[] nombres;
+        final int[] ubicacionDe;
+        final Map<Long, Integer> slots = new HashMap<>();
+        final List<String> ubicaciones = new ArrayList<>();
+        final int[] guaridasPorUbicacion;
+
+        Guaridas(List<Long> listaIds, List<String> listaNombres, List<String> ubicacionesGuarida) {
+            int n = listaIds.size();
+            ids = new long[n];
+            nombres = listaNombres.toArray(new String[0]);
+            ubicacionDe = new int[n];
+            Map<String, Integer> porClave = new LinkedHashMap<>();
+            for (int g = 0; g < n; g++) {
+                ids[g] = listaIds.get(g);
+                slots.put(ids[g], g);
+                String etiqueta = ubicacionesGuarida.get(g) == null ? "" : ubicacionesGuarida.get(g).trim();
+                ubicacionDe[g] = porClave.computeIfAbsent(Tokenizador.normalizar(etiqueta), k -> {
+                    ubicaciones.add(etiqueta);
+                    return ubicaciones.size() - 1;
+                });
+            }
+            guaridasPorUbicacion = new int[ubicaciones.size()];
+            for (int g = 0; g < n; g++) guaridasPorUbicacion[ubicacionDe[g]]++;
+        }
+    }
+
+    /**
+     * Reservas en columnas de enteros (slot de guarida, día de entrada, día de salida).
+     */
+    private static final class Tramos {
+        int[] slot = new int[1024];
+        int[] entrada = new int[1024];
+        int[] salida = new int[1024];
+        int total;
+
+        void anadir(int s, int desde, int hasta) {
+            if (total == slot.length) {
+                int capacidad = total * 2;
+                slot = Arrays.copyOf(slot, capacidad);
+                entrada = Arrays.copyOf(entrada, capacidad);
+                salida = Arrays.copyOf(salida, capacidad);
+            }
+            slot[total] = s;
+            entrada[total] = desde;
+            salida[total] = hasta;
+            total++;
+        }
+    }
+
+    /**
+     * Parte los meses [desde, hasta) por la mitad hasta quedarse con uno, que cuenta sus noches
+     * recorriendo todos los tramos. Cada mes escribe solo en su fila de {@code noches}.
+     */
+    private static final class ContarMeses extends RecursiveAction {
+        private final Tramos tramos;
+        private final int[] limites;
+        private final int[][] noches;
+        private final int desde;
+        private final int hasta;
+
+        ContarMeses(Tramos tramos, int[] limites, int[][] noches, int desde, int hasta) {
+            this.tramos = tramos;
+            this.limites = limites;
+            this.noches = noches;
+            this.desde = desde;
+            this.hasta = hasta;
+        }
+
+        @Override
+        protected void compute() {
+            if (hasta - desde > 1) {
+                int mitad = (desde + hasta) >>> 1;
+                invokeAll(new ContarMeses(tramos, limites, noches, desde, mitad),
+                        new ContarMeses(tramos, limites, noches, mitad, hasta));
+                return;
+            }
+            int inicioMes = limites[desde];
+            int finMes = limites[desde + 1];
+            int[] fila = noches[desde];
+            for (int i = 0; i < tramos.total; i++) {
+                int solape = Math.min(tramos.salida[i], finMes) - Math.max(tramos.entrada[i], inicioMes);
+                if (solape > 0) fila[tramos.slot[i]] += solape;
+            }
+        }
+    }
+}
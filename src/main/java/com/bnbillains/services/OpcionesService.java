@@ -0,0 +1,139 @@
+package com.bnbillains.services;
+
+import com.bnbillains.dto.Opcion;
+import com.bnbillains.repositories.ComodidadRepository;
+import com.bnbillains.repositories.GuaridaRepository;
+import com.bnbillains.repositories.ReservaRepository;
+import com.bnbillains.repositories.VillanoRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Opciones (id, etiqueta) para los {@code <select>} de los formularios.
+ * <p>
+ * Antes cada formulario hacía {@code findAll()} de villanos, guaridas o comodidades, hidratando
+ * entidades completas (con sus relaciones EAGER) solo para pintar un desplegable. Aquí se guardan
+ * las proyecciones compactas en memoria y se descartan cuando el servicio dueño de la tabla escribe
+ * (ver {@link CatalogoCambioEvent}).
+ * <p>
+ * Villanos y guaridas crecen sin límite: el {@code <select>} solo lleva la primera página (y la opción
+ * ya elegida) y el resto lo pide el navegador a {@link #buscar}, que pagina en la BD. Las comodidades,
+ * que son pocas y se marcan con casillas, van enteras.
+ */
+@Service
+public class OpcionesService {
+
+    private static final Logger logger = LoggerFactory.getLogger(OpcionesService.class);
+
+    // Tamaño de página del buscador (typeahead)
+    static final int TAMANO_BUSQUEDA = 20;
+    private static final PageRequest PRIMERA_PAGINA = PageRequest.of(0, TAMANO_BUSQUEDA);
+
+    public enum Catalogo { VILLANOS, GUARIDAS, COMODIDADES }
+
+    private final VillanoRepository villanoRepository;
+    private final GuaridaRepository guaridaRepository;
+    private final ComodidadRepository comodidadRepository;
+    private final ReservaRepository reservaRepository;
+
+    private final Map<Catalogo, List<Opcion>> cache = new ConcurrentHashMap<>();
+
+    public OpcionesService(VillanoRepository villanoRepository,
+                           GuaridaRepository guaridaRepository,
+                           ComodidadRepository comodidadRepository,
+                           ReservaRepository reservaRepository) {
+        this.villanoRepository = villanoRepository;
+        this.guaridaRepository = guaridaRepository;
+        this.comodidadRepository = comodidadRepository;
+        this.reservaRepository = reservaRepository;
+    }
+
+    // ==========================================
+    // DESPLEGABLES (CACHEADOS)
+    // ==========================================
+
+    /**
+     * Primera página de villanos para un desplegable, más el elegido si no está en ella.
+     *
+     * @param seleccionado Villano ya elegido en el formulario (o null).
+     */
+    public List<Opcion> villanos(Long seleccionado) {
+        return conSeleccionada(cargar(Catalogo.VILLANOS), seleccionado, villanoRepository::findOpcion);
+    }
+
+    /**
+     * Primera página de guaridas para un desplegable, más la elegida si no está en ella.
+     */
+    public List<Opcion> guaridas(Long seleccionada) {
+        return conSeleccionada(cargar(Catalogo.GUARIDAS), seleccionada, guaridaRepository::findOpcion);
+    }
+
+    public List<Opcion> comodidades() { return cargar(Catalogo.COMODIDADES); }
+
+    // computeIfAbsent bloquea la clave mientras carga: una sola consulta aunque lleguen muchos formularios a la vez,
+    // y una invalidación que llegue durante la carga espera y la descarta después
+    private List<Opcion> cargar(Catalogo catalogo) {
+        return cache.computeIfAbsent(catalogo, c -> {
+            List<Opcion> opciones = switch (c) {
+                case VILLANOS -> villanoRepository.buscarOpciones("", PRIMERA_PAGINA).getContent();
+                case GUARIDAS -> guaridaRepository.buscarOpciones("", PRIMERA_PAGINA).getContent();
+                case COMODIDADES -> comodidadRepository.findOpciones();
+            };
+            logger.debug("Opciones de {} cargadas: {}", c, opciones.size());
+            return List.copyOf(opciones);
+        });
+    }
+
+    // Sin la elegida, el formulario de edición la perdería al guardar
+    private static List<Opcion> conSeleccionada(List<Opcion> primeras, Long id, Function<Long, Optional<Opcion>> buscar) {
+        if (id == null || primeras.stream().anyMatch(o -> o.id().equals(id))) return primeras;
+        List<Opcion> opciones = new ArrayList<>(primeras.size() + 1);
+        buscar.apply(id).ifPresent(opciones::add);
+        opciones.addAll(primeras);
+        return opciones;
+    }
+
+    /**
+     * Tras el commit de una escritura en la tabla, la próxima petición recarga las opciones.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void alCambiarCatalogo(CatalogoCambioEvent evento) {
+        cache.remove(evento.catalogo());
+    }
+
+    // ==========================================
+    // BUSCADOR PAGINADO (TYPEAHEAD)
+    // ==========================================
+
+    /**
+     * Busca opciones por texto directamente en la BD, de 20 en 20.
+     *
+     * @param tipo "villanos", "guaridas", "comodidades" o "reservas".
+     * @param texto Fragmento a buscar (vacío = todas).
+     * @param pagina Página empezando en 0.
+     * @throws IllegalArgumentException si el tipo no existe.
+     */
+    public Opcion.Pagina buscar(String tipo, String texto, int pagina) {
+        String filtro = texto == null ? "" : texto.trim();
+        PageRequest pageable = PageRequest.of(Math.max(pagina, 0), TAMANO_BUSQUEDA);
+        Slice<Opcion> resultado = switch (tipo) {
+            case "villanos" -> villanoRepository.buscarOpciones(filtro, pageable);
+            case "guaridas" -> guaridaRepository.buscarOpciones(filtro, pageable);
+            case "comodidades" -> comodidadRepository.buscarOpciones(filtro, pageable);
+            case "reservas" -> reservaRepository.buscarOpciones(filtro, pageable);
+            default -> throw new IllegalArgumentException("Tipo de opciones desconocido: " + tipo);
+        };
+        return new Opcion.Pagina(resultado.getContent(), pageable.getPageNumber(), resultado.hasNext());
+    }
+}
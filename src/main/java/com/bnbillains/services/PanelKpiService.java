@@ -0,0 +1,142 @@
+package com.bnbillains.services;
+
+import com.bnbillains.dto.PanelKpi;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Indicadores de la portada (reservas activas, facturas pendientes, ingresos del mes y guaridas
+ * mejor valoradas).
+ * <p>
+ * Se calculan en un hilo aparte, cada cierto tiempo y tras las escrituras que los afectan, y se
+ * publican como una {@link PanelKpi} inmutable: servir la portada no lanza ninguna consulta.
+ * Varias escrituras seguidas se agrupan en un solo recálculo.
+ */
+@Service
+public class PanelKpiService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PanelKpiService.class);
+
+    private static final int MEJOR_VALORADAS = 3;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    // Un único hilo: nunca hay dos recálculos a la vez
+    private final ExecutorService ejecutor = Executors.newSingleThreadExecutor(
+            Thread.ofVirtual().name("panel-kpi").factory());
+
+    // Ya hay un recálculo en cola que recogerá cualquier cambio posterior
+    private final AtomicBoolean enCola = new AtomicBoolean();
+
+    private volatile PanelKpi actual;
+
+    public PanelKpiService(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Última foto calculada (null hasta el primer cálculo).
+     */
+    public PanelKpi actual() {
+        return actual;
+    }
+
+    // ==========================================
+    // DISPARADORES
+    // ==========================================
+
+    // Tras completar los agregados de valoraciones e ingresos (@Order(1))
+    @Order(10)
+    @EventListener(ApplicationReadyEvent.class)
+    public void alArrancar() {
+        solicitarRecalculo();
+    }
+
+    // Red de seguridad para lo que no avisa: el cambio de mes o de día y las escrituras directas en la BD
+    @Scheduled(fixedDelayString = "${bnbillains.kpi.refresco-segundos:60}",
+            initialDelayString = "${bnbillains.kpi.refresco-segundos:60}", timeUnit = TimeUnit.SECONDS)
+    public void refrescoPeriodico() {
+        solicitarRecalculo();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void alCambiarReserva(ReservaCambioEvent evento) {
+        solicitarRecalculo();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void alCambiarFactura(FacturaCambioEvent evento) {
+        solicitarRecalculo();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void alCambiarValoracion(ValoracionCambioEvent evento) {
+        solicitarRecalculo();
+    }
+
+    // El nombre de una guarida destacada puede cambiar (o la guarida desaparecer)
+    @TransactionalEventListener(fallbackExecution = true)
+    public void alCambiarCatalogo(CatalogoCambioEvent evento) {
+        if (evento.catalogo() == OpcionesService.Catalogo.GUARIDAS) solicitarRecalculo();
+    }
+
+    private void solicitarRecalculo() {
+        if (enCola.compareAndSet(false, true)) {
+            ejecutor.execute(() -> {
+                enCola.set(false);
+                recalcular();
+            });
+        }
+    }
+
+    @PreDestroy
+    public void detener() {
+        ejecutor.shutdownNow();
+    }
+
+    // ==========================================
+    // CÁLCULO
+    // ==========================================
+
+    private void recalcular() {
+        try {
+            LocalDate hoy = LocalDate.now();
+            Long activas = jdbcTemplate.queryForObject(
+                    "SELECT COUNT(*) FROM reserva WHERE estado = TRUE AND fecha_fin >= ?", Long.class, Date.valueOf(hoy));
+            Long pendientes = jdbcTemplate.queryForObject(
+                    "SELECT COUNT(*) FROM factura WHERE metodo_pago = 'Pendiente'", Long.class);
+            // Desde el agregado diario (ver IngresosDiariosService), no desde 'factura'
+            Double ingresos = jdbcTemplate.queryForObject(
+                    "SELECT COALESCE(SUM(importe), 0) FROM revenue_daily WHERE fecha BETWEEN ? AND ?", Double.class,
+                    Date.valueOf(hoy.withDayOfMonth(1)), Date.valueOf(hoy.withDayOfMonth(hoy.lengthOfMonth())));
+            List<PanelKpi.GuaridaDestacada> mejores = jdbcTemplate.query(
+                    "SELECT g.id, g.nombre, v.media, v.num_resenas FROM guarida_rating_stats v " +
+                            "JOIN guarida g ON g.id = v.guarida_id WHERE v.num_resenas > 0 " +
+                            "ORDER BY v.media DESC, v.num_resenas DESC, g.id LIMIT " + MEJOR_VALORADAS,
+                    (rs, i) -> new PanelKpi.GuaridaDestacada(rs.getLong(1), rs.getString(2), rs.getDouble(3), rs.getLong(4)));
+
+            actual = new PanelKpi(activas != null ? activas : 0, pendientes != null ? pendientes : 0,
+                    ingresos != null ? ingresos : 0, mejores, LocalDateTime.now());
+        } catch (RuntimeException e) {
+            // Nos quedamos con la foto anterior: la portada no debe fallar por esto
+            logger.error("No se pudieron recalcular los indicadores de la portada", e);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.bnbillains.services;
+
+/**
+ * Aviso de que se ha guardado o borrado una reseña. Lo publica {@link ResenaService} y lo
+ * consume {@link IndiceResenas} tras el commit, para no indexar comentarios que luego se deshacen.
+ *
+ * @param comentario Texto a indexar; no se usa si {@code eliminada}.
+ */
+public record ResenaCambioEvent(Long resenaId, String comentario, boolean eliminada) {
+
+    public static ResenaCambioEvent guardada(Long resenaId, String comentario) {
+        return new ResenaCambioEvent(resenaId, comentario, false);
+    }
+
+    public static ResenaCambioEvent eliminada(Long resenaId) {
+        return new ResenaCambioEvent(resenaId, null, true);
+    }
+}
@@ -1,24 +1,41 @@
 package com.bnbillains.services;
 
+import com.bnbillains.dto.FragmentoTexto;
 import com.bnbillains.entities.Resena;
 import com.bnbillains.repositories.ResenaRepository;
-import org.springframework.data.domain.Sort;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Service
 public class ResenaService {
 
     private final ResenaRepository resenaRepository;
+    private final IndiceResenas indiceResenas;
+    private final ValoracionGuaridaService valoracionService;
+    private final ApplicationEventPublisher eventPublisher;
 
-    public ResenaService(ResenaRepository resenaRepository) {
+    public ResenaService(ResenaRepository resenaRepository, IndiceResenas indiceResenas,
+                         ValoracionGuaridaService valoracionService, ApplicationEventPublisher eventPublisher) {
         this.resenaRepository = resenaRepository;
+        this.indiceResenas = indiceResenas;
+        this.valoracionService = valoracionService;
+        this.eventPublisher = eventPublisher;
     }
 
-    public List<Resena> obtenerTodas(Sort sort) { // Acepta sort
-        return resenaRepository.findAll(sort);
+    public Page<Resena> obtenerTodas(Pageable pageable) { // Acepta página + sort
+        return resenaRepository.findAll(pageable);
     }
 
     // Legacy
@@ -28,33 +45,85 @@ public class ResenaService {
         return resenaRepository.findById(id);
     }
 
+    // La reseña y la valoración agregada de su guarida se guardan juntas (todo o nada);
+    // el índice de comentarios se actualiza después del commit (ver ResenaCambioEvent)
+    @Transactional
     public Resena guardar(Resena resena) {
-        return resenaRepository.save(resena);
+        Resena guardada = resenaRepository.save(resena);
+        valoracionService.sumar(guaridaId(guardada), guardada.getPuntuacion());
+        eventPublisher.publishEvent(ResenaCambioEvent.guardada(guardada.getId(), guardada.getComentario()));
+        return guardada;
     }
 
+    @Transactional
     public Resena actualizar(Long id, Resena resena) {
         return resenaRepository.findById(id)
                 .map(rn -> {
+                    // La puntuación (o la guarida) puede cambiar: se descuenta la antigua y se suma la nueva
+                    valoracionService.restar(guaridaId(rn), rn.getPuntuacion());
                     rn.setComentario(resena.getComentario());
                     rn.setPuntuacion(resena.getPuntuacion());
                     rn.setFechaPublicacion(resena.getFechaPublicacion());
                     rn.setVillano(resena.getVillano());
                     rn.setGuarida(resena.getGuarida());
-                    return resenaRepository.save(rn);
+                    Resena guardada = resenaRepository.save(rn);
+                    valoracionService.sumar(guaridaId(guardada), guardada.getPuntuacion());
+                    eventPublisher.publishEvent(ResenaCambioEvent.guardada(guardada.getId(), guardada.getComentario()));
+                    return guardada;
                 })
                 .orElseThrow(() -> new IllegalArgumentException("Reseña no encontrada"));
     }
 
+    @Transactional
     public void eliminar(Long id) {
+        resenaRepository.findPuntuacionById(id)
+                .ifPresent(p -> valoracionService.restar(p.getGuaridaId(), p.getPuntuacion()));
         resenaRepository.deleteById(id);
+        eventPublisher.publishEvent(ResenaCambioEvent.eliminada(id));
+    }
+
+    private static Long guaridaId(Resena resena) {
+        return resena.getGuarida() != null ? resena.getGuarida().getId() : null;
     }
 
     // --- BÚSQUEDAS PRO ---
-    public List<Resena> buscarPorPuntuacion(Long puntuacion, Sort sort) {
-        return resenaRepository.findByPuntuacion(puntuacion, sort);
+    public Page<Resena> buscarPorPuntuacion(Long puntuacion, Pageable pageable) {
+        return resenaRepository.findByPuntuacion(puntuacion, pageable);
+    }
+
+    /**
+     * Búsqueda de texto en los comentarios (ver {@link IndiceResenas}), siempre por relevancia.
+     * Mientras el índice se construye, se usa el LIKE de la BD.
+     */
+    public Page<Resena> buscarPorComentario(String texto, Pageable pageable) {
+        if (!indiceResenas.estaListo()) {
+            return resenaRepository.findByComentarioContainingIgnoreCase(texto, pageable);
+        }
+        IndiceResenas.Resultado resultado = indiceResenas.buscar(texto, (int) pageable.getOffset(), pageable.getPageSize());
+        Map<Long, Resena> porId = resenaRepository.findAllById(resultado.ids()).stream()
+                .collect(Collectors.toMap(Resena::getId, Function.identity()));
+
+        List<Resena> contenido = new ArrayList<>(resultado.ids().size());
+        for (Long id : resultado.ids()) {
+            Resena resena = porId.get(id);
+            if (resena != null) {
+                contenido.add(resena);
+            } else {
+                // Borrada en cascada con su guarida o su villano: el índice no se enteró
+                eventPublisher.publishEvent(ResenaCambioEvent.eliminada(id));
+            }
+        }
+        return new PageImpl<>(contenido, pageable, resultado.total());
     }
 
-    public List<Resena> buscarPorComentario(String texto, Sort sort) {
-        return resenaRepository.findByComentarioContainingIgnoreCase(texto, sort);
+    /**
+     * Trozo de cada comentario con las palabras buscadas resaltadas, por id de reseña.
+     */
+    public Map<Long, List<FragmentoTexto>> resaltar(List<Resena> resenas, String texto) {
+        Map<Long, List<FragmentoTexto>> fragmentos = new HashMap<>();
+        for (Resena r : resenas) {
+            fragmentos.put(r.getId(), IndiceResenas.resaltar(r.getComentario(), texto));
+        }
+        return fragmentos;
     }
 }
\ No newline at end of file
@@ -0,0 +1,52 @@
+package com.bnbillains.services;
+
+import java.time.LocalDate;
+
+/**
+ * Evento de dominio que se publica cada vez que cambian las reservas de una guarida.
+ * Los componentes que mantienen vistas en memoria (índices, cachés) lo escuchan
+ * tras el commit para mantenerse sincronizados con la tabla 'reserva'.
+ *
+ * @param tipo Qué ha ocurrido.
+ * @param reservaId Reserva afectada (null en invalidaciones).
+ * @param guaridaId Guarida afectada (null en una invalidación global o si se desconoce).
+ * @param guaridaAnteriorId Guarida de la que sale la reserva si una edición la ha movido (si no, null).
+ * @param fechaInicio Nueva fecha de inicio (solo en CREADA / ACTUALIZADA).
+ * @param fechaFin Nueva fecha de fin (solo en CREADA / ACTUALIZADA).
+ */
+public record ReservaCambioEvent(Tipo tipo, Long reservaId, Long guaridaId, Long guaridaAnteriorId,
+                                 LocalDate fechaInicio, LocalDate fechaFin) {
+
+    public enum Tipo {
+        CREADA,
+        ACTUALIZADA,
+        ELIMINADA,
+        // Borrados en cascada (guarida o villano eliminados): hay que recargar desde BD
+        INVALIDACION
+    }
+
+    public static ReservaCambioEvent guardada(Tipo tipo, Long reservaId, Long guaridaId,
+                                              LocalDate fechaInicio, LocalDate fechaFin) {
+        return new ReservaCambioEvent(tipo, reservaId, guaridaId, null, fechaInicio, fechaFin);
+    }
+
+    /**
+     * Edición de una reserva; si ha cambiado de guarida, la anterior también tiene días que liberar.
+     */
+    public static ReservaCambioEvent actualizada(Long reservaId, Long guaridaId, Long guaridaAnteriorId,
+                                                 LocalDate fechaInicio, LocalDate fechaFin) {
+        Long anterior = (guaridaAnteriorId != null && !guaridaAnteriorId.equals(guaridaId)) ? guaridaAnteriorId : null;
+        return new ReservaCambioEvent(Tipo.ACTUALIZADA, reservaId, guaridaId, anterior, fechaInicio, fechaFin);
+    }
+
+    public static ReservaCambioEvent eliminada(Long reservaId, Long guaridaId) {
+        return new ReservaCambioEvent(Tipo.ELIMINADA, reservaId, guaridaId, null, null, null);
+    }
+
+    /**
+     * Invalida las reservas de una guarida concreta o, si guaridaId es null, todas.
+     */
+    public static ReservaCambioEvent invalidacion(Long guaridaId) {
+        return new ReservaCambioEvent(Tipo.INVALIDACION, null, guaridaId, null, null, null);
+    }
+}
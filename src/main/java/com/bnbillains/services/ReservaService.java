@@ -3,10 +3,15 @@ package com.bnbillains.services;
 import com.bnbillains.entities.Factura;
 import com.bnbillains.entities.Guarida;
 import com.bnbillains.entities.Reserva;
-import com.bnbillains.repositories.FacturaRepository;
 import com.bnbillains.repositories.GuaridaRepository;
 import com.bnbillains.repositories.ReservaRepository;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.ScrollPosition;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -19,37 +24,51 @@ import java.util.Optional;
 public class ReservaService {
 
     private final ReservaRepository reservaRepository;
-    private final FacturaRepository facturaRepository;
     private final GuaridaRepository guaridaRepository;
+    private final IndiceDisponibilidad indiceDisponibilidad;
+    private final NochesReservaService nochesReservaService;
+    private final IngresosDiariosService ingresosService;
+    private final FacturacionOutboxService facturacionOutbox;
+    private final ApplicationEventPublisher eventPublisher;
 
     public ReservaService(ReservaRepository reservaRepository,
-                          FacturaRepository facturaRepository,
-                          GuaridaRepository guaridaRepository) {
+                          GuaridaRepository guaridaRepository,
+                          IndiceDisponibilidad indiceDisponibilidad,
+                          NochesReservaService nochesReservaService,
+                          IngresosDiariosService ingresosService,
+                          FacturacionOutboxService facturacionOutbox,
+                          ApplicationEventPublisher eventPublisher) {
         this.reservaRepository = reservaRepository;
-        this.facturaRepository = facturaRepository;
         this.guaridaRepository = guaridaRepository;
+        this.indiceDisponibilidad = indiceDisponibilidad;
+        this.nochesReservaService = nochesReservaService;
+        this.ingresosService = ingresosService;
+        this.facturacionOutbox = facturacionOutbox;
+        this.eventPublisher = eventPublisher;
     }
 
     // --- MÉTODOS DE LECTURA ---
-    public List<Reserva> obtenerTodas(Sort sort) { return reservaRepository.findAll(sort); }
+    public Page<Reserva> obtenerTodas(Pageable pageable) { return reservaRepository.findAll(pageable); }
     public Optional<Reserva> obtenerPorId(Long id) { return reservaRepository.findById(id); }
 
     // --- CREACIÓN DE RESERVA (El corazón del negocio) ---
-    @Transactional // Si falla la factura, se deshace la reserva (todo o nada)
+    @Transactional // Reserva, días ocupados y petición de factura van juntos; la factura llega después
     public Reserva guardar(Reserva reserva) {
         // 1. Validamos que la fecha fin sea posterior al inicio
         validarFechasLogicas(reserva);
 
         // 2. DETECCIÓN DE OVERBOOKING
-        // Preguntamos a la base de datos si hay alguien en esa guarida en esas fechas
-        List<Reserva> conflictos = reservaRepository.encontrarConflictos(
+        // Preguntamos al índice en memoria (o a la BD si aún no está listo)
+        // si hay alguien en esa guarida en esas fechas
+        boolean hayConflicto = hayConflicto(
                 reserva.getGuarida().getId(),
+                null,
                 reserva.getFechaInicio(),
                 reserva.getFechaFin()
         );
 
         // Si hay conflictos, bloqueamos la operación lanzando un error
-        if (!conflictos.isEmpty()) {
+        if (hayConflicto) {
             throw new IllegalArgumentException("¡Imposible! La guarida está ocupada en esas fechas.");
         }
 
@@ -66,9 +85,19 @@ public class ReservaService {
         // 5. Guardamos la reserva en BD
         Reserva reservaGuardada = reservaRepository.save(reserva);
 
+        // 5b. MODO CLUSTER: ocupamos los días en 'reserva_noche'. Si otro nodo se ha adelantado,
+        // la clave única lo detecta aquí y toda la transacción se deshace.
+        if (nochesReservaService.isModoCluster()) {
+            nochesReservaService.ocupar(reservaGuardada);
+        }
+
         // 6. GENERACIÓN AUTOMÁTICA DE FACTURA
-        // Inmediatamente después de reservar, creamos la factura pendiente de cobro
-        crearFacturaAutomatica(reservaGuardada, costeTotal);
+        // Solo se deja la petición en la outbox (misma transacción): la factura pendiente de cobro
+        // la crea el despachador en segundo plano
+        facturacionOutbox.encolar(reservaGuardada.getId());
+
+        // 7. Avisamos a los índices en memoria (se aplica tras el commit)
+        publicarCambio(ReservaCambioEvent.Tipo.CREADA, reservaGuardada);
 
         return reservaGuardada;
     }
@@ -83,14 +112,14 @@ public class ReservaService {
 
                     // 1. Validación de fechas EXCLUYENDO la propia reserva actual
                     // (Para que no choque consigo misma al comprobar disponibilidad)
-                    List<Reserva> conflictos = reservaRepository.encontrarConflictosParaActualizar(
+                    boolean hayConflicto = hayConflicto(
                             reservaDatos.getGuarida().getId(),
                             id,
                             reservaDatos.getFechaInicio(),
                             reservaDatos.getFechaFin()
                     );
 
-                    if (!conflictos.isEmpty()) {
+                    if (hayConflicto) {
                         throw new IllegalArgumentException("Fechas no disponibles. Coinciden con otra reserva.");
                     }
 
@@ -100,10 +129,21 @@ public class ReservaService {
                     reservaExistente.setEstado(reservaDatos.getEstado());
                     reservaExistente.setVillano(reservaDatos.getVillano());
 
-                    // Si cambia la guarida, actualizamos la referencia
+                    // Si cambia la guarida, actualizamos la referencia (la anterior también cambia de ocupación)
+                    Long guaridaAnteriorId = reservaExistente.getGuarida().getId();
                     if (!reservaExistente.getGuarida().getId().equals(reservaDatos.getGuarida().getId())) {
                         Guarida nuevaGuarida = guaridaRepository.findById(reservaDatos.getGuarida().getId()).orElseThrow();
+                        // Los ingresos ya facturados pasan a la nueva guarida (el importe lo ajusta la outbox)
+                        Factura factura = reservaExistente.getFactura();
+                        if (factura != null) ingresosService.restar(IngresosDiariosService.Apunte.de(factura));
                         reservaExistente.setGuarida(nuevaGuarida);
+                        if (factura != null) ingresosService.sumar(IngresosDiariosService.Apunte.de(factura));
+                    }
+
+                    // MODO CLUSTER: soltamos los días antiguos y ocupamos los nuevos en la misma transacción
+                    if (nochesReservaService.isModoCluster()) {
+                        nochesReservaService.liberar(id);
+                        nochesReservaService.ocupar(reservaExistente);
                     }
 
                     // 3. RECALCULAR COSTES (importante si han cambiado las fechas)
@@ -111,20 +151,69 @@ public class ReservaService {
                     Double nuevoCoste = dias * reservaExistente.getGuarida().getPrecioNoche();
                     reservaExistente.setCosteTotal(nuevoCoste);
 
-                    // 4. Sincronizamos la factura con el nuevo precio
-                    actualizarFactura(reservaExistente, nuevoCoste);
+                    // 4. La factura se sincroniza con el nuevo precio en segundo plano (outbox)
+                    facturacionOutbox.encolar(id);
 
-                    return reservaRepository.save(reservaExistente);
+                    Reserva reservaActualizada = reservaRepository.save(reservaExistente);
+                    eventPublisher.publishEvent(ReservaCambioEvent.actualizada(reservaActualizada.getId(),
+                            reservaActualizada.getGuarida().getId(), guaridaAnteriorId,
+                            reservaActualizada.getFechaInicio(), reservaActualizada.getFechaFin()));
+                    return reservaActualizada;
                 })
                 .orElseThrow(() -> new IllegalArgumentException("Reserva no encontrada"));
     }
 
-    public void eliminar(Long id) { reservaRepository.deleteById(id); }
-    public List<Reserva> buscarPorVillano(Long vid, Sort s) { return reservaRepository.findByVillano_Id(vid, s); }
-    public List<Reserva> buscarPorEstado(Boolean e, Sort s) { return reservaRepository.findByEstado(e, s); }
+    @Transactional
+    public void eliminar(Long id) {
+        Optional<Reserva> reserva = reservaRepository.findById(id);
+        Long guaridaId = reserva
+                .map(r -> r.getGuarida() != null ? r.getGuarida().getId() : null)
+                .orElse(null);
+        // La factura se va con la reserva (cascade): descontamos sus ingresos
+        reserva.map(Reserva::getFactura)
+                .map(IngresosDiariosService.Apunte::de)
+                .ifPresent(ingresosService::restar);
+        reservaRepository.deleteById(id);
+        eventPublisher.publishEvent(ReservaCambioEvent.eliminada(id, guaridaId));
+    }
+
+    public Page<Reserva> buscarPorVillano(Long vid, Pageable p) { return reservaRepository.findByVillano_Id(vid, p); }
+    public Page<Reserva> buscarPorEstado(Boolean e, Pageable p) { return reservaRepository.findByEstado(e, p); }
+
+    // Paginación por cursor: continúa desde la última reserva vista (sin OFFSET)
+    public Window<Reserva> obtenerTodas(ScrollPosition pos, Sort s, int tamano) {
+        return reservaRepository.findAllBy(pos, s, Limit.of(tamano));
+    }
+    public Window<Reserva> buscarPorVillano(Long vid, ScrollPosition pos, Sort s, int tamano) {
+        return reservaRepository.findByVillano_Id(vid, pos, s, Limit.of(tamano));
+    }
+    public Window<Reserva> buscarPorEstado(Boolean e, ScrollPosition pos, Sort s, int tamano) {
+        return reservaRepository.findByEstado(e, pos, s, Limit.of(tamano));
+    }
 
     // --- MÉTODOS PRIVADOS (Helpers) ---
 
+    // Comprobación de solapes: primero el índice en memoria; si está frío, la consulta JPQL.
+    // En modo cluster el índice puede no conocer las escrituras de otros nodos, así que se
+    // pregunta siempre a la BD (y la tabla 'reserva_noche' tiene la última palabra).
+    private boolean hayConflicto(Long guaridaId, Long excluirReservaId, LocalDate inicio, LocalDate fin) {
+        Optional<Boolean> enMemoria = nochesReservaService.isModoCluster()
+                ? Optional.empty()
+                : indiceDisponibilidad.hayConflicto(guaridaId, inicio, fin, excluirReservaId);
+        if (enMemoria.isPresent()) {
+            return enMemoria.get();
+        }
+        List<Reserva> conflictos = (excluirReservaId == null)
+                ? reservaRepository.encontrarConflictos(guaridaId, inicio, fin)
+                : reservaRepository.encontrarConflictosParaActualizar(guaridaId, excluirReservaId, inicio, fin);
+        return !conflictos.isEmpty();
+    }
+
+    private void publicarCambio(ReservaCambioEvent.Tipo tipo, Reserva r) {
+        eventPublisher.publishEvent(ReservaCambioEvent.guardada(
+                tipo, r.getId(), r.getGuarida().getId(), r.getFechaInicio(), r.getFechaFin()));
+    }
+
     private void validarFechasLogicas(Reserva r) {
         if (r.getFechaInicio() != null && r.getFechaFin() != null) {
             if (!r.getFechaFin().isAfter(r.getFechaInicio())) {
@@ -138,24 +227,4 @@ public class ReservaService {
         long dias = ChronoUnit.DAYS.between(inicio, fin);
         return dias < 1 ? 1 : dias; // Cobramos mínimo 1 día
     }
-
-    // Crea la factura inicial vinculada a la reserva
-    private void crearFacturaAutomatica(Reserva reserva, Double importe) {
-        Factura f = new Factura();
-        f.setFechaEmision(LocalDate.now());
-        f.setImporte(importe);
-        f.setImpuestosMalignos(importe * 0.21); // 21% de IVA Maligno
-        f.setMetodoPago("Pendiente");
-        f.setReserva(reserva);
-        facturaRepository.save(f);
-    }
-
-    // Actualiza el importe de la factura si la reserva cambia
-    private void actualizarFactura(Reserva reserva, Double nuevoImporte) {
-        facturaRepository.findByReserva_Id(reserva.getId()).ifPresent(f -> {
-            f.setImporte(nuevoImporte);
-            f.setImpuestosMalignos(nuevoImporte * 0.21);
-            facturaRepository.save(f);
-        });
-    }
-}
\ No newline at end of file
+}
@@ -4,7 +4,8 @@ import com.bnbillains.entities.Guarida;
 import com.bnbillains.entities.SalaSecreta;
 import com.bnbillains.repositories.GuaridaRepository;
 import com.bnbillains.repositories.SalaSecretaRepository;
-import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -16,16 +17,23 @@ public class SalaSecretaService {
 
     private final SalaSecretaRepository salaSecretaRepository;
     private final GuaridaRepository guaridaRepository;
+    private final CacheReferencia cacheReferencia;
 
-    public SalaSecretaService(SalaSecretaRepository salaSecretaRepository, GuaridaRepository guaridaRepository) {
+    public SalaSecretaService(SalaSecretaRepository salaSecretaRepository, GuaridaRepository guaridaRepository,
+                              CacheReferencia cacheReferencia) {
         this.salaSecretaRepository = salaSecretaRepository;
         this.guaridaRepository = guaridaRepository;
+        this.cacheReferencia = cacheReferencia;
     }
 
     // Métodos estándar
-    public List<SalaSecreta> obtenerTodasOrdenadas(Sort sort) { return salaSecretaRepository.findAll(sort); }
+    public Page<SalaSecreta> obtenerTodasOrdenadas(Pageable pageable) { return salaSecretaRepository.findAll(pageable); }
     public Optional<SalaSecreta> obtenerPorId(Long id) { return salaSecretaRepository.findById(id); }
-    public SalaSecreta guardar(SalaSecreta s) { return salaSecretaRepository.save(s); }
+    public SalaSecreta guardar(SalaSecreta s) {
+        SalaSecreta guardada = salaSecretaRepository.save(s);
+        cacheReferencia.desalojarSalasSecretas();
+        return guardada;
+    }
 
     public SalaSecreta actualizar(Long id, SalaSecreta salaSecreta) {
         return salaSecretaRepository.findById(id)
@@ -33,7 +41,9 @@ public class SalaSecretaService {
                     s.setCodigoAcceso(salaSecreta.getCodigoAcceso());
                     s.setFuncionPrincipal(salaSecreta.getFuncionPrincipal());
                     s.setSalidaEmergencia(salaSecreta.getSalidaEmergencia());
-                    return salaSecretaRepository.save(s);
+                    SalaSecreta guardada = salaSecretaRepository.save(s);
+                    cacheReferencia.desalojarSalasSecretas();
+                    return guardada;
                 })
                 .orElseThrow(() -> new IllegalArgumentException("Sala Secreta no encontrada"));
     }
@@ -56,10 +66,12 @@ public class SalaSecretaService {
         }
 
         salaSecretaRepository.deleteById(id);
+        // Se ejecuta al confirmar la transacción
+        cacheReferencia.desalojarSalasSecretas();
     }
 
-    public List<SalaSecreta> buscarFlexible(String texto, Sort sort) {
-        return salaSecretaRepository.findByFuncionPrincipalContainingIgnoreCase(texto, sort);
+    public Page<SalaSecreta> buscarFlexible(String texto, Pageable pageable) {
+        return salaSecretaRepository.findByFuncionPrincipalContainingIgnoreCase(texto, pageable);
     }
 
     public boolean existeCodigoAcceso(String codigo) {
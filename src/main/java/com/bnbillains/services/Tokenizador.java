@@ -0,0 +1,65 @@
+package com.bnbillains.services;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Tokenizador compartido por los índices de texto en memoria.
+ * <p>
+ * Pasa el texto a minúsculas, quita tildes y diéresis ("Volcán" y "volcan" dan el mismo término),
+ * lo corta en palabras alfanuméricas y descarta las palabras vacías más comunes del español.
+ */
+public final class Tokenizador {
+
+    private static final Set<String> PALABRAS_VACIAS = Set.of(
+            "a", "al", "con", "de", "del", "el", "en", "es", "la", "las", "lo", "los", "o",
+            "para", "por", "que", "se", "sin", "su", "sus", "un", "una", "unas", "unos", "y");
+
+    private Tokenizador() {
+    }
+
+    /**
+     * Minúsculas y sin marcas diacríticas. La ñ queda como n, igual que al teclear sin ella.
+     */
+    public static String normalizar(String texto) {
+        if (texto == null || texto.isEmpty()) return "";
+        if (esAscii(texto)) return texto.toLowerCase(Locale.ROOT); // Caso habitual: no hay nada que descomponer
+        String descompuesto = Normalizer.normalize(texto.toLowerCase(Locale.ROOT), Normalizer.Form.NFD);
+        StringBuilder sb = new StringBuilder(descompuesto.length());
+        for (int i = 0; i < descompuesto.length(); i++) {
+            char c = descompuesto.charAt(i);
+            if (Character.getType(c) != Character.NON_SPACING_MARK) sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Términos del texto en orden de aparición (con repeticiones, para contar frecuencias).
+     */
+    public static List<String> tokens(String texto) {
+        List<String> tokens = new ArrayList<>();
+        String normalizado = normalizar(texto);
+        int inicio = -1;
+        for (int i = 0; i <= normalizado.length(); i++) {
+            boolean letra = i < normalizado.length() && Character.isLetterOrDigit(normalizado.charAt(i));
+            if (letra && inicio < 0) {
+                inicio = i;
+            } else if (!letra && inicio >= 0) {
+                String token = normalizado.substring(inicio, i);
+                if (!PALABRAS_VACIAS.contains(token)) tokens.add(token);
+                inicio = -1;
+            }
+        }
+        return tokens;
+    }
+
+    private static boolean esAscii(String texto) {
+        for (int i = 0; i < texto.length(); i++) {
+            if (texto.charAt(i) >= 128) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,9 @@
+package com.bnbillains.services;
+
+/**
+ * Aviso de que ha cambiado la valoración agregada de una guarida ('guarida_rating_stats').
+ * Lo publica {@link ValoracionGuaridaService} y lo consume {@link IndiceFacetas} tras el commit.
+ *
+ * @param guaridaId Guarida afectada, o null si pueden ser varias (recarga completa).
+ */
+public record ValoracionCambioEvent(Long guaridaId) {}
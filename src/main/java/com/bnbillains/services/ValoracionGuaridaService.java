@@ -0,0 +1,143 @@
+package com.bnbillains.services;
+
+import com.bnbillains.entities.ValoracionGuarida;
+import com.bnbillains.repositories.ValoracionGuaridaRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Mantiene la tabla 'guarida_rating_stats' (ver {@link ValoracionGuarida}).
+ * <p>
+ * {@link ResenaService} llama a {@link #sumar}/{@link #restar} dentro de la transacción de cada
+ * reseña: son incrementos atómicos en la BD (un upsert), así que dos reseñas simultáneas de la
+ * misma guarida no se pisan y, si la reseña se deshace, el agregado también.
+ * Los borrados en cascada (villano con reseñas) se corrigen recalculando esas guaridas.
+ */
+@Service
+public class ValoracionGuaridaService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ValoracionGuaridaService.class);
+
+    private static final String SUMAR =
+            "INSERT INTO guarida_rating_stats (guarida_id, num_resenas, suma_puntuaciones, media, " +
+                    "estrellas_1, estrellas_2, estrellas_3, estrellas_4, estrellas_5) VALUES (?, ?, ?, 0, ?, ?, ?, ?, ?) " +
+                    "ON DUPLICATE KEY UPDATE num_resenas = num_resenas + VALUES(num_resenas), " +
+                    "suma_puntuaciones = suma_puntuaciones + VALUES(suma_puntuaciones), " +
+                    "estrellas_1 = estrellas_1 + VALUES(estrellas_1), estrellas_2 = estrellas_2 + VALUES(estrellas_2), " +
+                    "estrellas_3 = estrellas_3 + VALUES(estrellas_3), estrellas_4 = estrellas_4 + VALUES(estrellas_4), " +
+                    "estrellas_5 = estrellas_5 + VALUES(estrellas_5)";
+
+    // La media va en una segunda sentencia: el orden de evaluación del ON DUPLICATE KEY UPDATE depende del motor
+    private static final String ACTUALIZAR_MEDIA =
+            "UPDATE guarida_rating_stats SET media = CASE WHEN num_resenas > 0 " +
+                    "THEN suma_puntuaciones * 1.0 / num_resenas ELSE 0 END WHERE guarida_id = ?";
+
+    // Agregado desde cero a partir de 'resena' (solo para recalcular o completar, nunca en cada petición)
+    private static final String AGREGAR_DESDE_RESENAS =
+            "INSERT INTO guarida_rating_stats (guarida_id, num_resenas, suma_puntuaciones, media, " +
+                    "estrellas_1, estrellas_2, estrellas_3, estrellas_4, estrellas_5) " +
+                    "SELECT r.guarida_id, COUNT(*), SUM(r.puntuacion), SUM(r.puntuacion) * 1.0 / COUNT(*), " +
+                    "SUM(CASE WHEN r.puntuacion = 1 THEN 1 ELSE 0 END), SUM(CASE WHEN r.puntuacion = 2 THEN 1 ELSE 0 END), " +
+                    "SUM(CASE WHEN r.puntuacion = 3 THEN 1 ELSE 0 END), SUM(CASE WHEN r.puntuacion = 4 THEN 1 ELSE 0 END), " +
+                    "SUM(CASE WHEN r.puntuacion = 5 THEN 1 ELSE 0 END) FROM resena r ";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ValoracionGuaridaRepository valoracionRepository;
+    private final ApplicationEventPublisher eventPublisher;
+
+    public ValoracionGuaridaService(JdbcTemplate jdbcTemplate, ValoracionGuaridaRepository valoracionRepository,
+                                    ApplicationEventPublisher eventPublisher) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.valoracionRepository = valoracionRepository;
+        this.eventPublisher = eventPublisher;
+    }
+
+    // ==========================================
+    // LECTURA
+    // ==========================================
+
+    public Optional<ValoracionGuarida> deGuarida(Long guaridaId) {
+        return valoracionRepository.findById(guaridaId);
+    }
+
+    /**
+     * Valoraciones de varias guaridas en una consulta (las tarjetas de una página del catálogo).
+     */
+    public Map<Long, ValoracionGuarida> deGuaridas(Collection<Long> guaridaIds) {
+        if (guaridaIds.isEmpty()) return Map.of();
+        return valoracionRepository.findAllById(guaridaIds).stream()
+                .collect(Collectors.toMap(ValoracionGuarida::getGuaridaId, Function.identity()));
+    }
+
+    // ==========================================
+    // ESCRITURA (dentro de la transacción de la reseña)
+    // ==========================================
+
+    public void sumar(Long guaridaId, Long puntuacion) {
+        aplicar(guaridaId, puntuacion, 1);
+    }
+
+    public void restar(Long guaridaId, Long puntuacion) {
+        aplicar(guaridaId, puntuacion, -1);
+    }
+
+    private void aplicar(Long guaridaId, Long puntuacion, int signo) {
+        if (guaridaId == null || puntuacion == null) return;
+        int estrellas = (int) Math.clamp(puntuacion, 1, 5);
+        Object[] args = new Object[8];
+        args[0] = guaridaId;
+        args[1] = signo;
+        args[2] = signo * puntuacion;
+        for (int n = 1; n <= 5; n++) args[2 + n] = (n == estrellas) ? signo : 0;
+
+        jdbcTemplate.update(SUMAR, args);
+        jdbcTemplate.update(ACTUALIZAR_MEDIA, guaridaId);
+        eventPublisher.publishEvent(new ValoracionCambioEvent(guaridaId));
+    }
+
+    /**
+     * Guaridas reseñadas por un villano: hay que recalcularlas después de borrarlo (sus reseñas se van en cascada).
+     */
+    public List<Long> guaridasResenadasPor(Long villanoId) {
+        return jdbcTemplate.queryForList(
+                "SELECT DISTINCT guarida_id FROM resena WHERE villano_id = ? AND guarida_id IS NOT NULL", Long.class, villanoId);
+    }
+
+    /**
+     * Vuelve a calcular desde 'resena' la valoración de estas guaridas.
+     */
+    public void recalcular(Collection<Long> guaridaIds) {
+        for (Long guaridaId : guaridaIds) {
+            jdbcTemplate.update("DELETE FROM guarida_rating_stats WHERE guarida_id = ?", guaridaId);
+            jdbcTemplate.update(AGREGAR_DESDE_RESENAS + "WHERE r.guarida_id = ? GROUP BY r.guarida_id", guaridaId);
+        }
+        if (!guaridaIds.isEmpty()) eventPublisher.publishEvent(new ValoracionCambioEvent(null));
+    }
+
+    /**
+     * Al arrancar, crea la fila de las guaridas con reseñas que aún no la tienen (reseñas anteriores
+     * a esta tabla o cargadas con data.sql). Va antes que los índices que la leen.
+     */
+    @Order(1)
+    @EventListener(ApplicationReadyEvent.class)
+    public void completarHistorico() {
+        int filas = jdbcTemplate.update(AGREGAR_DESDE_RESENAS +
+                "WHERE r.guarida_id IS NOT NULL " +
+                "AND NOT EXISTS (SELECT 1 FROM guarida_rating_stats s WHERE s.guarida_id = r.guarida_id) " +
+                "GROUP BY r.guarida_id");
+        logger.info("Valoraciones agregadas: {} guaridas completadas desde 'resena'.", filas);
+    }
+}
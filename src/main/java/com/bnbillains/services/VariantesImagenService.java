@@ -0,0 +1,254 @@
+package com.bnbillains.services;
+
+import com.bnbillains.entities.Guarida;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Copias reducidas de las fotos de guaridas (tarjeta, detalle y retina) para el atributo 'srcset'.
+ * <p>
+ * Tras guardar una guarida con foto nueva se encarga la generación a un pool pequeño con cola acotada;
+ * la petición no espera. Las copias son JPEG junto al original ({@link Guarida#nombreVariante}) y, al
+ * terminar, sus anchos se apuntan en 'guarida.imagen_variantes': hasta entonces el catálogo sirve el
+ * original. Lo que no entra en la cola, o se pierde en un reinicio, lo recoge el repaso periódico de
+ * las guaridas con la columna a null. Solo usa ImageIO del JDK (JPEG, PNG, GIF y BMP; para el resto,
+ * como WEBP, se deja el original y la columna vacía).
+ */
+@Service
+public class VariantesImagenService {
+
+    private static final Logger logger = LoggerFactory.getLogger(VariantesImagenService.class);
+
+    private static final float CALIDAD_JPEG = 0.85f;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Path carpeta;
+    private final int[] anchos;
+    private final ThreadPoolExecutor ejecutor;
+
+    // Imágenes encargadas o en proceso: evita generar dos veces la misma a la vez
+    private final Set<String> enCurso = ConcurrentHashMap.newKeySet();
+
+    private final Timer generacion;
+
+    public VariantesImagenService(JdbcTemplate jdbcTemplate,
+                                  MeterRegistry meterRegistry,
+                                  @Value("${UPLOAD_PATH}") String uploadPath,
+                                  @Value("${bnbillains.imagenes.anchos:480,960,1920}") List<Integer> anchos,
+                                  @Value("${bnbillains.imagenes.hilos:2}") int hilos,
+                                  @Value("${bnbillains.imagenes.cola:100}") int cola) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.carpeta = Paths.get(uploadPath).toAbsolutePath().normalize();
+        this.anchos = anchos.stream().mapToInt(Integer::intValue).filter(a -> a > 0).sorted().distinct().toArray();
+
+        int n = Math.max(1, hilos);
+        this.ejecutor = new ThreadPoolExecutor(n, n, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, cola)),
+                Thread.ofPlatform().name("variantes-imagen-", 0).daemon().factory(),
+                (tarea, e) -> {
+                    // Cola llena: se suelta la imagen y la recogerá el repaso periódico
+                    if (tarea instanceof Encargo encargo) enCurso.remove(encargo.imagen);
+                    logger.warn("Cola de imágenes llena: la tarea queda para el repaso periódico.");
+                });
+        this.ejecutor.allowCoreThreadTimeOut(true);
+
+        Gauge.builder("imagenes.variantes.cola", ejecutor, e -> e.getQueue().size())
+                .description("Imágenes esperando a que se generen sus copias reducidas")
+                .register(meterRegistry);
+        this.generacion = Timer.builder("imagenes.variantes.generacion")
+                .description("Tiempo en generar las copias de una imagen")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void detener() {
+        ejecutor.shutdownNow();
+    }
+
+    /**
+     * Pide las copias reducidas de una imagen ya guardada. Vuelve enseguida.
+     */
+    public void encargar(String imagen) {
+        if (imagen == null || imagen.isBlank() || !enCurso.add(imagen)) return;
+        ejecutor.execute(new Encargo(imagen));
+    }
+
+    private final class Encargo implements Runnable {
+        private final String imagen;
+
+        Encargo(String imagen) {
+            this.imagen = imagen;
+        }
+
+        @Override
+        public void run() {
+            try {
+                generacion.record(() -> generar(imagen));
+            } finally {
+                enCurso.remove(imagen);
+            }
+        }
+    }
+
+    // Al arrancar y cada cierto tiempo: fotos sin copias (subidas antes de esta versión, cola llena, reinicios)
+    @Order(20)
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelayString = "${bnbillains.imagenes.repaso-minutos:10}",
+            initialDelayString = "${bnbillains.imagenes.repaso-minutos:10}", timeUnit = TimeUnit.MINUTES)
+    public void repasarPendientes() {
+        List<String> pendientes = jdbcTemplate.queryForList(
+                "SELECT DISTINCT imagen FROM guarida WHERE imagen IS NOT NULL AND imagen <> '' AND imagen_variantes IS NULL",
+                String.class);
+        if (!pendientes.isEmpty()) {
+            logger.info("Generando copias reducidas de {} imágenes pendientes.", pendientes.size());
+            pendientes.forEach(this::encargar);
+        }
+    }
+
+    // ==========================================
+    // GENERACIÓN
+    // ==========================================
+
+    private void generar(String imagen) {
+        List<Integer> generadas = new ArrayList<>();
+        try {
+            Path original = carpeta.resolve(imagen).normalize();
+            if (original.startsWith(carpeta) && Files.isRegularFile(original)) {
+                BufferedImage fuente = leer(original);
+                if (fuente != null) {
+                    for (int ancho : anchos) {
+                        if (ancho >= fuente.getWidth()) break; // solo se reduce, nunca se amplía
+                        Path destino = carpeta.resolve(Guarida.nombreVariante(imagen, ancho));
+                        if (!Files.exists(destino)) escribirJpeg(reducir(fuente, ancho), destino);
+                        generadas.add(ancho);
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // La columna queda vacía: el catálogo seguirá usando el original
+            logger.warn("No se pudieron generar las copias de {}: {}", imagen, e.getMessage());
+            generadas.clear();
+        }
+
+        String variantes = generadas.stream().map(String::valueOf).collect(Collectors.joining(","));
+        int filas = jdbcTemplate.update("UPDATE guarida SET imagen_variantes = ? WHERE imagen = ?", variantes, imagen);
+        logger.debug("Copias de {}: [{}] ({} guaridas).", imagen, variantes, filas);
+    }
+
+    /**
+     * Decodifica la imagen saltándose píxeles cuando es mucho más ancha que la copia mayor:
+     * una foto de 8000 px no llega entera a memoria para sacar copias de 1920.
+     */
+    private BufferedImage leer(Path original) throws IOException {
+        try (ImageInputStream entrada = ImageIO.createImageInputStream(original.toFile())) {
+            if (entrada == null) return null;
+            Iterator<ImageReader> lectores = ImageIO.getImageReaders(entrada);
+            if (!lectores.hasNext()) return null; // formato que ImageIO no sabe leer
+            ImageReader lector = lectores.next();
+            try {
+                lector.setInput(entrada, true, true);
+                int ancho = lector.getWidth(0);
+                int salto = anchos.length == 0 ? 1 : Math.max(1, ancho / anchos[anchos.length - 1]);
+                ImageReadParam param = lector.getDefaultReadParam();
+                param.setSourceSubsampling(salto, salto, 0, 0);
+                return lector.read(0, param);
+            } finally {
+                lector.dispose();
+            }
+        }
+    }
+
+    /**
+     * Reduce a la mitad mientras sobre más del doble y termina con un escalado bilineal: con un solo
+     * paso bilineal de mucho factor la copia sale con dientes de sierra. El fondo es blanco (JPEG no
+     * tiene transparencia).
+     */
+    private static BufferedImage reducir(BufferedImage fuente, int anchoFinal) {
+        BufferedImage actual = fuente;
+        int ancho = fuente.getWidth();
+        int alto = fuente.getHeight();
+        do {
+            int siguienteAncho = Math.max(anchoFinal, ancho / 2);
+            int siguienteAlto = Math.max(1, (int) Math.round((double) alto * siguienteAncho / ancho));
+            BufferedImage paso = new BufferedImage(siguienteAncho, siguienteAlto, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = paso.createGraphics();
+            try {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                g.setColor(Color.WHITE);
+                g.fillRect(0, 0, siguienteAncho, siguienteAlto);
+                g.drawImage(actual, 0, 0, siguienteAncho, siguienteAlto, null);
+            } finally {
+                g.dispose();
+            }
+            actual = paso;
+            ancho = siguienteAncho;
+            alto = siguienteAlto;
+        } while (ancho > anchoFinal);
+        return actual;
+    }
+
+    // Se escribe a un temporal y se mueve: nadie sirve nunca una copia a medias
+    private static void escribirJpeg(BufferedImage imagen, Path destino) throws IOException {
+        Path temporal = destino.resolveSibling(".tmp").resolve("variante-" + UUID.randomUUID() + ".part");
+        Files.createDirectories(temporal.getParent());
+        ImageWriter escritor = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try {
+            try (ImageOutputStream salida = ImageIO.createImageOutputStream(temporal.toFile())) {
+                escritor.setOutput(salida);
+                ImageWriteParam param = escritor.getDefaultWriteParam();
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(CALIDAD_JPEG);
+                escritor.write(null, new IIOImage(imagen, null, null), param);
+            }
+            try {
+                Files.move(temporal, destino, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporal, destino);
+            }
+        } finally {
+            escritor.dispose();
+            Files.deleteIfExists(temporal);
+        }
+    }
+}
@@ -1,10 +1,16 @@
 package com.bnbillains.services;
 
+import com.bnbillains.dto.SugerenciaVillano;
 import com.bnbillains.entities.Villano;
 import com.bnbillains.repositories.VillanoRepository;
-import org.springframework.data.domain.Sort;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDate;
 import java.util.List;
 import java.util.Optional;
 
@@ -12,16 +18,26 @@ import java.util.Optional;
 public class VillanoService {
 
     private final VillanoRepository villanoRepository;
-
-    public VillanoService(VillanoRepository villanoRepository) {
+    private final IndiceVillanos indiceVillanos;
+    private final ValoracionGuaridaService valoracionService;
+    private final IngresosDiariosService ingresosService;
+    private final ApplicationEventPublisher eventPublisher;
+
+    public VillanoService(VillanoRepository villanoRepository, IndiceVillanos indiceVillanos,
+                          ValoracionGuaridaService valoracionService, IngresosDiariosService ingresosService,
+                          ApplicationEventPublisher eventPublisher) {
         this.villanoRepository = villanoRepository;
+        this.indiceVillanos = indiceVillanos;
+        this.valoracionService = valoracionService;
+        this.ingresosService = ingresosService;
+        this.eventPublisher = eventPublisher;
     }
 
     // --- MÉTODOS DE LECTURA ---
 
-    // Obtiene todos los villanos permitiendo ordenación (ej: por Alias A-Z)
-    public List<Villano> obtenerTodas(Sort sort) {
-        return villanoRepository.findAll(sort);
+    // Obtiene una página de villanos permitiendo ordenación (ej: por Alias A-Z)
+    public Page<Villano> obtenerTodas(Pageable pageable) {
+        return villanoRepository.findAll(pageable);
     }
 
     public Optional<Villano> obtenerPorId(Long id) {
@@ -31,7 +47,10 @@ public class VillanoService {
     // --- ESCRITURA Y EDICIÓN ---
 
     public Villano guardar(Villano villano) {
-        return villanoRepository.save(villano);
+        Villano guardado = villanoRepository.save(villano);
+        indiceVillanos.indexar(guardado);
+        eventPublisher.publishEvent(new CatalogoCambioEvent(OpcionesService.Catalogo.VILLANOS));
+        return guardado;
     }
 
     public Villano actualizar(Long id, Villano villano) {
@@ -42,21 +61,47 @@ public class VillanoService {
                     v.setAlias(villano.getAlias());
                     v.setCarnetDeVillano(villano.getCarnetDeVillano());
                     v.setEmail(villano.getEmail());
-                    return villanoRepository.save(v);
+                    Villano guardado = villanoRepository.save(v);
+                    indiceVillanos.indexar(guardado);
+                    eventPublisher.publishEvent(new CatalogoCambioEvent(OpcionesService.Catalogo.VILLANOS));
+                    return guardado;
                 })
                 .orElseThrow(() -> new IllegalArgumentException("Villano no encontrado"));
     }
 
+    @Transactional
     public void eliminar(Long id) {
+        List<Long> guaridasResenadas = valoracionService.guaridasResenadasPor(id);
+        List<LocalDate> diasFacturados = ingresosService.diasFacturadosDeVillano(id);
         villanoRepository.deleteById(id);
+        villanoRepository.flush();
+        indiceVillanos.quitar(id);
+        // Sus reseñas se han ido en cascada: se recalcula la valoración de las guaridas que reseñó
+        valoracionService.recalcular(guaridasResenadas);
+        // Y con sus reservas, sus facturas: se recalculan esos días de ingresos
+        ingresosService.recalcular(diasFacturados);
+        // Sus reservas (en varias guaridas) se borran en cascada: recarga completa de los índices
+        eventPublisher.publishEvent(ReservaCambioEvent.invalidacion(null));
+        eventPublisher.publishEvent(new CatalogoCambioEvent(OpcionesService.Catalogo.VILLANOS));
     }
 
     // --- BÚSQUEDAS AVANZADAS ---
 
     // Búsqueda inteligente: El usuario escribe texto y buscamos coincidencia
     // tanto en el nombre real como en el alias criminal.
-    public List<Villano> buscarFlexible(String texto, Sort sort) {
-        return villanoRepository.findByNombreContainingIgnoreCaseOrAliasContainingIgnoreCase(texto, texto, sort);
+    public Page<Villano> buscarFlexible(String texto, Pageable pageable) {
+        return villanoRepository.findByNombreContainingIgnoreCaseOrAliasContainingIgnoreCase(texto, texto, pageable);
+    }
+
+    // Autocompletado del buscador (ver IndiceVillanos). Mientras el índice no está listo, tiramos de la BD.
+    public List<SugerenciaVillano> sugerir(String texto, int k) {
+        int limite = Math.clamp(k, 1, IndiceVillanos.MAX_SUGERENCIAS);
+        if (indiceVillanos.estaListo()) {
+            return indiceVillanos.sugerir(texto, limite);
+        }
+        return villanoRepository.buscarOpciones(texto, PageRequest.of(0, limite)).stream()
+                .map(o -> new SugerenciaVillano(o.id(), o.etiqueta(), o.detalle(), 0))
+                .toList();
     }
 
     // --- VALIDACIONES DE NEGOCIO ---
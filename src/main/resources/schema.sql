@@ -41,6 +41,8 @@ CREATE TABLE IF NOT EXISTS guarida (
      ubicacion VARCHAR(255) NOT NULL,
      precio_noche DECIMAL(10, 2) NOT NULL,
      imagen VARCHAR(255),
+     -- Anchos de las copias reducidas de la imagen (ej: "480,960,1920"); NULL = pendientes de generar
+     imagen_variantes VARCHAR(100),
      sala_secreta_id BIGINT UNIQUE,
      FOREIGN KEY (sala_secreta_id) REFERENCES sala_secreta(id) 
         ON DELETE CASCADE ON UPDATE CASCADE,
@@ -71,6 +73,8 @@ CREATE TABLE IF NOT EXISTS reserva (
      estado BOOLEAN DEFAULT FALSE,
      villano_id BIGINT,
      guarida_id BIGINT,
+     -- Para la paginación por cursor del listado (ORDER BY fecha_inicio, id)
+     INDEX idx_reserva_fecha_inicio (fecha_inicio, id),
      FOREIGN KEY (villano_id) REFERENCES villano(id)
          ON DELETE CASCADE ON UPDATE CASCADE,
      FOREIGN KEY (guarida_id) REFERENCES guarida(id)
@@ -79,6 +83,22 @@ CREATE TABLE IF NOT EXISTS reserva (
      CONSTRAINT chk_coste_positivo CHECK (coste_total >= 0)
 );
 
+-- Tabla de ocupación por días (modo cluster): una fila por guarida y día ocupado.
+-- La clave primaria (guarida_id, fecha) impide a nivel de BD que dos reservas se solapen,
+-- aunque las inserten nodos distintos a la vez. Los días son inclusivos (fecha_inicio..fecha_fin),
+-- igual que la comprobación de conflictos de ReservaRepository.
+CREATE TABLE IF NOT EXISTS reserva_noche (
+     guarida_id BIGINT NOT NULL,
+     fecha DATE NOT NULL,
+     reserva_id BIGINT NOT NULL,
+     PRIMARY KEY (guarida_id, fecha),
+     INDEX idx_reserva_noche_reserva (reserva_id),
+     FOREIGN KEY (guarida_id) REFERENCES guarida(id)
+         ON DELETE CASCADE ON UPDATE CASCADE,
+     FOREIGN KEY (reserva_id) REFERENCES reserva(id)
+         ON DELETE CASCADE ON UPDATE CASCADE
+);
+
 -- Tabla Factura (1:1 con Reserva)
 CREATE TABLE IF NOT EXISTS factura (
      id BIGINT AUTO_INCREMENT PRIMARY KEY,
@@ -87,11 +107,27 @@ CREATE TABLE IF NOT EXISTS factura (
      impuestos_malignos DECIMAL(10, 2) DEFAULT 0.0,
      metodo_pago VARCHAR(255),
      reserva_id BIGINT UNIQUE,
+     -- Para la paginación por cursor del listado (ORDER BY fecha/importe, id)
+     INDEX idx_factura_fecha_emision (fecha_emision, id),
+     INDEX idx_factura_importe (importe, id),
      FOREIGN KEY (reserva_id) REFERENCES reserva(id)
          ON DELETE CASCADE ON UPDATE CASCADE,
      CONSTRAINT chk_importe_positivo CHECK (importe >= 0)
 );
 
+-- Outbox de facturación: peticiones de factura escritas en la transacción de cada reserva.
+-- Las vacía por lotes FacturacionOutboxService (la fila se borra al procesarla).
+CREATE TABLE IF NOT EXISTS factura_outbox (
+     id BIGINT AUTO_INCREMENT PRIMARY KEY,
+     reserva_id BIGINT NOT NULL,
+     creado_en TIMESTAMP(3) NOT NULL,
+     intentos INT NOT NULL DEFAULT 0,
+     ultimo_error VARCHAR(500),
+     INDEX idx_factura_outbox_pendientes (intentos, id),
+     FOREIGN KEY (reserva_id) REFERENCES reserva(id)
+         ON DELETE CASCADE ON UPDATE CASCADE
+);
+
 -- Tabla Reseña (N:1 con Villano y Guarida)
 CREATE TABLE IF NOT EXISTS resena (
     id BIGINT AUTO_INCREMENT PRIMARY KEY,
@@ -107,4 +143,35 @@ CREATE TABLE IF NOT EXISTS resena (
     CONSTRAINT chk_puntuacion_rango CHECK (puntuacion >= 1 AND puntuacion <= 5)
 );
 
+-- Valoración agregada por guarida (modelo de lectura de 'resena'): se actualiza en la misma
+-- transacción que cada reseña, así que media e histograma no necesitan un GROUP BY.
+CREATE TABLE IF NOT EXISTS guarida_rating_stats (
+    guarida_id BIGINT PRIMARY KEY,
+    num_resenas BIGINT NOT NULL DEFAULT 0,
+    suma_puntuaciones BIGINT NOT NULL DEFAULT 0,
+    media DOUBLE NOT NULL DEFAULT 0,
+    estrellas_1 BIGINT NOT NULL DEFAULT 0,
+    estrellas_2 BIGINT NOT NULL DEFAULT 0,
+    estrellas_3 BIGINT NOT NULL DEFAULT 0,
+    estrellas_4 BIGINT NOT NULL DEFAULT 0,
+    estrellas_5 BIGINT NOT NULL DEFAULT 0,
+    -- Para "ordenar por valoración"
+    INDEX idx_rating_media (media, num_resenas),
+    FOREIGN KEY (guarida_id) REFERENCES guarida(id)
+        ON DELETE CASCADE ON UPDATE CASCADE
+);
+
+-- Ingresos por día (modelo de lectura de 'factura' para finanzas): una fila por día de emisión,
+-- guarida y método de pago, actualizada en la misma transacción que cada factura.
+-- Sin FK a guarida: 0 identifica las facturas sin reserva.
+CREATE TABLE IF NOT EXISTS revenue_daily (
+    fecha DATE NOT NULL,
+    guarida_id BIGINT NOT NULL DEFAULT 0,
+    metodo_pago VARCHAR(255) NOT NULL DEFAULT '',
+    importe DECIMAL(14, 2) NOT NULL DEFAULT 0,
+    impuestos DECIMAL(14, 2) NOT NULL DEFAULT 0,
+    num_facturas BIGINT NOT NULL DEFAULT 0,
+    PRIMARY KEY (fecha, guarida_id, metodo_pago)
+);
+
 SET FOREIGN_KEY_CHECKS = 1;
\ No newline at end of file
@@ -0,0 +1,76 @@
+// Autocompletado: los <input data-sugerencias="url" list="id"> rellenan su <datalist> mientras se escribe
+document.addEventListener('DOMContentLoaded', () => {
+    document.querySelectorAll('input[data-sugerencias]').forEach(input => {
+        const lista = document.getElementById(input.getAttribute('list'));
+        let espera;
+        let ultima = '';
+
+        input.addEventListener('input', () => {
+            clearTimeout(espera);
+            const texto = input.value.trim();
+            if (texto.length < 2 || texto === ultima) return;
+
+            // Esperamos a que el usuario haga una pausa para no lanzar una petición por tecla
+            espera = setTimeout(async () => {
+                ultima = texto;
+                const url = input.dataset.sugerencias + '?q=' + encodeURIComponent(texto);
+                const respuesta = await fetch(url);
+                if (!respuesta.ok) return;
+                const sugerencias = await respuesta.json();
+                lista.replaceChildren(...sugerencias.map(s => {
+                    const opcion = document.createElement('option');
+                    opcion.value = s.alias;
+                    opcion.label = s.nombre;
+                    return opcion;
+                }));
+            }, 150);
+        });
+    });
+});
+
+// Desplegables grandes: los <select data-opciones="url"> llegan solo con la primera página de opciones;
+// un buscador encima pide el resto a la API (/api/opciones/{tipo}?q=) mientras se escribe
+document.addEventListener('DOMContentLoaded', () => {
+    document.querySelectorAll('select[data-opciones]').forEach(select => {
+        const buscador = document.createElement('input');
+        buscador.type = 'search';
+        buscador.className = 'form-control form-control-sm mb-1';
+        buscador.placeholder = select.dataset.buscar || '';
+        select.before(buscador);
+
+        // Formato del detalle de cada opción, igual que en la plantilla (ej: " ({})")
+        const formato = select.dataset.detalle || '';
+        let espera;
+        let ultima = '';
+
+        buscador.addEventListener('input', () => {
+            clearTimeout(espera);
+            const texto = buscador.value.trim();
+            if (texto === ultima) return;
+
+            espera = setTimeout(async () => {
+                ultima = texto;
+                const respuesta = await fetch(select.dataset.opciones + '?q=' + encodeURIComponent(texto));
+                if (!respuesta.ok) return;
+                const pagina = await respuesta.json();
+
+                // La opción vacía y la ya elegida se quedan aunque no salgan en la búsqueda
+                const fijas = [...select.options].filter(o => o.value === '' || o.selected);
+                const ids = new Set(fijas.map(o => o.value));
+                const nuevas = pagina.opciones.filter(o => !ids.has(String(o.id))).map(o => {
+                    const opcion = document.createElement('option');
+                    opcion.value = o.id;
+                    opcion.textContent = o.etiqueta + (formato && o.detalle ? formato.replace('{}', o.detalle) : '');
+                    return opcion;
+                });
+                if (pagina.hayMas) {
+                    const mas = document.createElement('option');
+                    mas.disabled = true;
+                    mas.textContent = select.dataset.mas || '...';
+                    nuevas.push(mas);
+                }
+                select.replaceChildren(...fijas, ...nuevas);
+            }, 150);
+        });
+    });
+});
@@ -0,0 +1,96 @@
+package com.bnbillains;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * schema-test.sql es una copia a mano de schema.sql adaptada a H2: este test avisa en cuanto
+ * una tabla, columna o índice de schema.sql no se ha copiado (o sobra en la copia).
+ */
+class EsquemaPruebaTest {
+
+    private static final Pattern TABLA = Pattern.compile(
+            "CREATE TABLE IF NOT EXISTS (\\w+) \\((.*?)\\n\\);", Pattern.DOTALL);
+    private static final Pattern INDICE_EN_TABLA = Pattern.compile("^INDEX (\\w+) \\(([^)]*)\\)");
+    private static final Pattern INDICE_APARTE = Pattern.compile(
+            "CREATE INDEX IF NOT EXISTS (\\w+) ON (\\w+) \\(([^)]*)\\);");
+    // Líneas del cuerpo de un CREATE TABLE que no son columnas
+    private static final Set<String> NO_COLUMNA = Set.of("FOREIGN", "CONSTRAINT", "PRIMARY", "INDEX", "UNIQUE", "ON", "KEY");
+
+    @Test
+    void schemaTestTieneLasMismasTablasColumnasEIndices() throws IOException {
+        String produccion = leer("schema.sql");
+        String prueba = leer("schema-test.sql");
+
+        // Si el patrón dejara de reconocer las tablas, las dos listas vacías coincidirían
+        assertThat(columnas(produccion)).hasSizeGreaterThan(10);
+        assertThat(columnas(prueba)).isEqualTo(columnas(produccion));
+        assertThat(indicesAparte(prueba)).isEqualTo(indicesEnTabla(produccion));
+    }
+
+    private static Map<String, List<String>> columnas(String sql) {
+        Map<String, List<String>> tablas = new TreeMap<>();
+        Matcher tabla = TABLA.matcher(sql);
+        while (tabla.find()) {
+            List<String> columnas = new ArrayList<>();
+            for (String linea : lineas(tabla.group(2))) {
+                String primera = linea.split("\\s+")[0];
+                if (!NO_COLUMNA.contains(primera.toUpperCase())) columnas.add(primera.toLowerCase());
+            }
+            tablas.put(tabla.group(1).toLowerCase(), columnas);
+        }
+        return tablas;
+    }
+
+    // "tabla.indice(columnas)" de los INDEX dentro de cada CREATE TABLE (MariaDB)
+    private static Set<String> indicesEnTabla(String sql) {
+        Set<String> indices = new TreeSet<>();
+        Matcher tabla = TABLA.matcher(sql);
+        while (tabla.find()) {
+            for (String linea : lineas(tabla.group(2))) {
+                Matcher indice = INDICE_EN_TABLA.matcher(linea);
+                if (indice.find()) indices.add(clave(tabla.group(1), indice.group(1), indice.group(2)));
+            }
+        }
+        return indices;
+    }
+
+    // Lo mismo para los CREATE INDEX sueltos de la copia para H2
+    private static Set<String> indicesAparte(String sql) {
+        Set<String> indices = new TreeSet<>();
+        Matcher indice = INDICE_APARTE.matcher(sql);
+        while (indice.find()) indices.add(clave(indice.group(2), indice.group(1), indice.group(3)));
+        return indices;
+    }
+
+    private static String clave(String tabla, String indice, String columnas) {
+        return (tabla + "." + indice + "(" + columnas.replaceAll("\\s+", "") + ")").toLowerCase();
+    }
+
+    // Líneas con contenido, sin comentarios
+    private static List<String> lineas(String cuerpo) {
+        List<String> lineas = new ArrayList<>();
+        for (String linea : cuerpo.split("\\n")) {
+            String limpia = linea.replaceAll("--.*$", "").trim();
+            if (!limpia.isEmpty()) lineas.add(limpia);
+        }
+        return lineas;
+    }
+
+    private static String leer(String recurso) throws IOException {
+        return new ClassPathResource(recurso).getContentAsString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,165 @@
+package com.bnbillains.controllers;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Peticiones por segundo del manejador de recursos de Spring que servía /uploads antes
+ * ({@code ResourceHttpRequestHandler}, montado aquí en /antiguo/**) frente a {@link UploadController},
+ * sobre Tomcat de verdad (con sendfile) y la misma foto: descarga completa y revalidación con 304.
+ * <p>
+ * Tarda bastante, así que solo se ejecuta con {@code -Dbnbillains.benchmark=true}. Las cifras salen
+ * en el log; el test solo comprueba que las dos rutas responden lo esperado.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("test")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@EnabledIfSystemProperty(named = "bnbillains.benchmark", matches = "true")
+class UploadControllerBenchmarkTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadControllerBenchmarkTest.class);
+
+    // Foto "antigua" (sin nombre por contenido): es la que se revalida con cada visita
+    private static final String NOMBRE = "benchmark-guarida.jpg";
+    private static final int TAMANO = 350 * 1024;
+    private static final int CONEXIONES = 16;
+    private static final int DESCARGAS = Integer.getInteger("bnbillains.benchmark.descargas", 2_000);
+    private static final int REVALIDACIONES = Integer.getInteger("bnbillains.benchmark.revalidaciones", 10_000);
+
+    @LocalServerPort
+    private int puerto;
+    @Value("${UPLOAD_PATH}")
+    private String uploadPath;
+
+    private Path fichero;
+    private HttpClient cliente;
+
+    /**
+     * La configuración de WebConfig antes de {@link UploadController} (con la ubicación como URI
+     * {@code file:} bien formada, que la original no generaba en Linux).
+     */
+    @TestConfiguration
+    static class ManejadorAntiguo implements WebMvcConfigurer {
+
+        @Value("${UPLOAD_PATH}")
+        private String uploadPath;
+
+        @Override
+        public void addResourceHandlers(ResourceHandlerRegistry registry) {
+            registry.addResourceHandler("/antiguo/**")
+                    .addResourceLocations(Paths.get(uploadPath).toAbsolutePath().normalize().toUri().toString());
+        }
+    }
+
+    @BeforeAll
+    void preparar() throws Exception {
+        byte[] bytes = new byte[TAMANO];
+        new Random(42).nextBytes(bytes);
+        Path carpeta = Files.createDirectories(Paths.get(uploadPath));
+        fichero = Files.write(carpeta.resolve(NOMBRE), bytes);
+        cliente = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    }
+
+    @AfterAll
+    void limpiar() throws Exception {
+        Files.deleteIfExists(fichero);
+    }
+
+    @Test
+    void descargaCompleta() throws Exception {
+        double antes = medir("descarga completa, antes", DESCARGAS, i -> peticion("/antiguo/" + NOMBRE), 200);
+        double despues = medir("descarga completa, después", DESCARGAS, i -> peticion("/uploads/" + NOMBRE), 200);
+        logger.info("Descarga completa de {} KB: antes {} pet/s ({} MB/s), después {} pet/s ({} MB/s).",
+                TAMANO / 1024, Math.round(antes), Math.round(antes * TAMANO / 1_048_576),
+                Math.round(despues), Math.round(despues * TAMANO / 1_048_576));
+    }
+
+    @Test
+    void revalidacionCon304() throws Exception {
+        // El manejador antiguo solo da Last-Modified; el nuevo, además, ETag
+        HttpResponse<Void> antigua = cliente.send(peticion("/antiguo/" + NOMBRE), HttpResponse.BodyHandlers.discarding());
+        String ultimaModificacion = antigua.headers().firstValue(HttpHeaders.LAST_MODIFIED).orElseThrow();
+        HttpResponse<Void> nueva = cliente.send(peticion("/uploads/" + NOMBRE), HttpResponse.BodyHandlers.discarding());
+        String etag = nueva.headers().firstValue(HttpHeaders.ETAG).orElseThrow();
+
+        double antes = medir("revalidación, antes", REVALIDACIONES, i -> HttpRequest.newBuilder(uri("/antiguo/" + NOMBRE))
+                .header(HttpHeaders.IF_MODIFIED_SINCE, ultimaModificacion).build(), 304);
+        double despues = medir("revalidación, después", REVALIDACIONES, i -> HttpRequest.newBuilder(uri("/uploads/" + NOMBRE))
+                .header(HttpHeaders.IF_NONE_MATCH, etag).build(), 304);
+        logger.info("Revalidación (304): antes {} pet/s (If-Modified-Since), después {} pet/s (If-None-Match).",
+                Math.round(antes), Math.round(despues));
+    }
+
+    /**
+     * Lanza las peticiones repartidas entre {@link #CONEXIONES} hilos (tras un calentamiento de una
+     * décima parte) y devuelve las peticiones por segundo. Todas deben responder con el estado esperado.
+     */
+    private double medir(String nombre, int total, IntFunction<HttpRequest> peticiones, int estadoEsperado) throws Exception {
+        lanzar(total / 10, peticiones, estadoEsperado);
+        long inicio = System.nanoTime();
+        int correctas = lanzar(total, peticiones, estadoEsperado);
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+        assertThat(correctas).as(nombre).isEqualTo(total);
+        return total / segundos;
+    }
+
+    private int lanzar(int total, IntFunction<HttpRequest> peticiones, int estadoEsperado) throws Exception {
+        AtomicInteger siguiente = new AtomicInteger();
+        AtomicInteger correctas = new AtomicInteger();
+        List<Future<?>> hilos = new ArrayList<>();
+        try (ExecutorService ejecutor = Executors.newFixedThreadPool(CONEXIONES)) {
+            for (int h = 0; h < CONEXIONES; h++) {
+                hilos.add(ejecutor.submit(() -> {
+                    for (int i = siguiente.getAndIncrement(); i < total; i = siguiente.getAndIncrement()) {
+                        HttpResponse<Void> respuesta = cliente.send(peticiones.apply(i), HttpResponse.BodyHandlers.discarding());
+                        boolean cuerpoCompleto = estadoEsperado != 200 || respuesta.headers()
+                                .firstValueAsLong(HttpHeaders.CONTENT_LENGTH).orElse(-1) == TAMANO;
+                        if (respuesta.statusCode() == estadoEsperado && cuerpoCompleto) correctas.incrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> hilo : hilos) hilo.get();
+        }
+        return correctas.get();
+    }
+
+    private HttpRequest peticion(String ruta) {
+        return HttpRequest.newBuilder(uri(ruta)).build();
+    }
+
+    private URI uri(String ruta) {
+        return URI.create("http://localhost:" + puerto + ruta);
+    }
+}
@@ -0,0 +1,149 @@
+package com.bnbillains.controllers;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Caché (ETag / 304), peticiones {@code Range} y nombres que no se deben servir.
+ * El controlador se crea sobre una carpeta temporal, sin contexto de Spring.
+ */
+class UploadControllerTest {
+
+    private static final String POR_CONTENIDO = "a".repeat(64) + ".jpg";
+    private static final byte[] BYTES = "0123456789abcdefghij".getBytes(StandardCharsets.US_ASCII);
+
+    @TempDir
+    Path raiz;
+
+    private Path carpeta;
+    private UploadController controller;
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void preparar() throws Exception {
+        carpeta = Files.createDirectory(raiz.resolve("uploads"));
+        Files.write(carpeta.resolve(POR_CONTENIDO), BYTES);
+        Files.write(carpeta.resolve("antigua.png"), BYTES);
+        Files.write(carpeta.resolve(".tmp"), BYTES);
+        Files.write(raiz.resolve("secreto.txt"), BYTES);
+        controller = new UploadController(carpeta.toString());
+        mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+    }
+
+    @Test
+    void nombrePorContenidoEsInmutableYSuEtagEsElHash() throws Exception {
+        mockMvc.perform(get("/uploads/" + POR_CONTENIDO))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"" + "a".repeat(64) + "\""))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "public, max-age=31536000, immutable"))
+                .andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "bytes"))
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, BYTES.length))
+                .andExpect(content().bytes(BYTES));
+    }
+
+    @Test
+    void conElMismoEtagResponde304SinCuerpo() throws Exception {
+        MvcResult primera = mockMvc.perform(get("/uploads/antigua.png"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "public, no-cache"))
+                .andReturn();
+        String etag = primera.getResponse().getHeader(HttpHeaders.ETAG);
+
+        mockMvc.perform(get("/uploads/antigua.png").header(HttpHeaders.IF_NONE_MATCH, "\"otro\", W/" + etag))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, etag))
+                .andExpect(content().bytes(new byte[0]));
+
+        mockMvc.perform(get("/uploads/antigua.png").header(HttpHeaders.IF_NONE_MATCH, "\"otro\""))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void unTramoResponde206ConSuContentRange() throws Exception {
+        mockMvc.perform(get("/uploads/" + POR_CONTENIDO).header(HttpHeaders.RANGE, "bytes=5-9"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 5-9/20"))
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, 5))
+                .andExpect(content().string("56789"));
+
+        // Sufijo y tramo abierto que se pasa del final
+        mockMvc.perform(get("/uploads/" + POR_CONTENIDO).header(HttpHeaders.RANGE, "bytes=-4"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 16-19/20"))
+                .andExpect(content().string("ghij"));
+        mockMvc.perform(get("/uploads/" + POR_CONTENIDO).header(HttpHeaders.RANGE, "bytes=18-100"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 18-19/20"))
+                .andExpect(content().string("ij"));
+    }
+
+    @Test
+    void unTramoFueraDelFicheroResponde416() throws Exception {
+        mockMvc.perform(get("/uploads/" + POR_CONTENIDO).header(HttpHeaders.RANGE, "bytes=20-30"))
+                .andExpect(status().isRequestedRangeNotSatisfiable())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes */20"))
+                .andExpect(content().bytes(new byte[0]));
+    }
+
+    @Test
+    void ifRangeConOtroEtagDevuelveElFicheroEntero() throws Exception {
+        mockMvc.perform(get("/uploads/" + POR_CONTENIDO)
+                        .header(HttpHeaders.RANGE, "bytes=5-9")
+                        .header(HttpHeaders.IF_RANGE, "\"viejo\""))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_RANGE))
+                .andExpect(content().bytes(BYTES));
+    }
+
+    @Test
+    void nadaFueraDeLaCarpetaNiOcultos() throws Exception {
+        assertThat(servirDirecto("../secreto.txt").getStatus()).isEqualTo(404);
+        assertThat(servirDirecto(".tmp").getStatus()).isEqualTo(404);
+        assertThat(servirDirecto("no-existe.jpg").getStatus()).isEqualTo(404);
+
+        mockMvc.perform(get("/uploads/.tmp")).andExpect(status().isNotFound());
+        mockMvc.perform(get("/uploads/{nombre}", "../secreto.txt")).andExpect(status().isNotFound());
+    }
+
+    @Test
+    void conSendfileSoloDejaLosAtributosParaTomcat() throws Exception {
+        byte[] grande = new byte[64 * 1024];
+        Files.write(carpeta.resolve("grande.jpg"), grande);
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/uploads/grande.jpg");
+        request.setAttribute("org.apache.tomcat.sendfile.support", Boolean.TRUE);
+        request.addHeader(HttpHeaders.RANGE, "bytes=1024-");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        controller.servir("grande.jpg", request, response);
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(request.getAttribute("org.apache.tomcat.sendfile.filename"))
+                .isEqualTo(carpeta.resolve("grande.jpg").toString());
+        assertThat(request.getAttribute("org.apache.tomcat.sendfile.start")).isEqualTo(1024L);
+        assertThat(request.getAttribute("org.apache.tomcat.sendfile.end")).isEqualTo((long) grande.length);
+        assertThat(response.getContentAsByteArray()).isEmpty();
+    }
+
+    private MockHttpServletResponse servirDirecto(String nombre) throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        controller.servir(nombre, new MockHttpServletRequest("GET", "/uploads/" + nombre), response);
+        return response;
+    }
+}
@@ -0,0 +1,64 @@
+package com.bnbillains.services;
+
+import com.bnbillains.entities.Guarida;
+import com.bnbillains.entities.Reserva;
+import com.bnbillains.entities.Villano;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Altas mínimas por JDBC para sembrar los tests (sin pasar por los servicios ni sus eventos)
+ * y entidades sin guardar para pasárselas a los servicios.
+ */
+final class DatosPrueba {
+
+    private static final AtomicLong SECUENCIA = new AtomicLong();
+
+    private DatosPrueba() {
+    }
+
+    static long guarida(JdbcTemplate jdbc, String nombre, double precioNoche) {
+        return insertar(jdbc, "INSERT INTO guarida (nombre, ubicacion, precio_noche) VALUES (?, ?, ?)",
+                nombre, "Ubicación secreta", precioNoche);
+    }
+
+    static long villano(JdbcTemplate jdbc, String alias) {
+        long n = SECUENCIA.incrementAndGet();
+        return insertar(jdbc, "INSERT INTO villano (nombre, alias, carne_villano, email) VALUES (?, ?, ?, ?)",
+                "Villano " + n, alias, String.format("%03dT%06d", n % 1000, n), "villano" + n + "@test.com");
+    }
+
+    static long reserva(JdbcTemplate jdbc, long villanoId, long guaridaId, LocalDate inicio, LocalDate fin) {
+        return insertar(jdbc, "INSERT INTO reserva (fecha_inicio, fecha_fin, coste_total, estado, villano_id, guarida_id) " +
+                        "VALUES (?, ?, ?, ?, ?, ?)",
+                Date.valueOf(inicio), Date.valueOf(fin), 100.0, true, villanoId, guaridaId);
+    }
+
+    /**
+     * Reserva sin guardar, con villano y guarida referenciados solo por id (como llegan del formulario).
+     */
+    static Reserva nuevaReserva(long villanoId, long guaridaId, LocalDate inicio, LocalDate fin) {
+        Villano villano = new Villano();
+        villano.setId(villanoId);
+        Guarida guarida = new Guarida();
+        guarida.setId(guaridaId);
+        return new Reserva(inicio, fin, null, true, villano, guarida);
+    }
+
+    private static long insertar(JdbcTemplate jdbc, String sql, Object... args) {
+        KeyHolder clave = new GeneratedKeyHolder();
+        jdbc.update(con -> {
+            PreparedStatement ps = con.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+            for (int i = 0; i < args.length; i++) ps.setObject(i + 1, args[i]);
+            return ps;
+        }, clave);
+        return clave.getKey().longValue();
+    }
+}
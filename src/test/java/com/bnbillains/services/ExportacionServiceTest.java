@@ -0,0 +1,44 @@
+package com.bnbillains.services;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * El CSV exportado no deja que un alias o un nombre de guarida se abra como fórmula en una hoja de cálculo.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+class ExportacionServiceTest {
+
+    @Autowired
+    private ExportacionService exportacionService;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void losTextosQueEmpiezanComoFormulaSalenNeutralizados() {
+        long villanoId = DatosPrueba.villano(jdbcTemplate, "=HYPERLINK(\"http://malvado.example\")");
+        long guaridaId = DatosPrueba.guarida(jdbcTemplate, "@Fortaleza", 100.0);
+        long reservaId = DatosPrueba.reserva(jdbcTemplate, villanoId, guaridaId,
+                LocalDate.of(2031, 3, 1), LocalDate.of(2031, 3, 3));
+
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+        exportacionService.exportarReservas(new ExportacionService.Filtro(null, null, villanoId),
+                ExportacionService.Formato.CSV, salida);
+        String[] lineas = salida.toString(StandardCharsets.UTF_8).split("\r\n");
+
+        assertThat(lineas).hasSize(2);
+        assertThat(lineas[1]).startsWith(reservaId + ",2031-03-01,2031-03-03,100")
+                .contains(",\"'=HYPERLINK(\"\"http://malvado.example\"\")\",")
+                .endsWith(",\"'@Fortaleza\"");
+    }
+}
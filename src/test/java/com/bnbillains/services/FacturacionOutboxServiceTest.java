@@ -0,0 +1,159 @@
+package com.bnbillains.services;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * El despachador reclama sus filas con {@code FOR UPDATE SKIP LOCKED}: lo que tiene otro nodo
+ * se salta sin esperar y cada reserva acaba con una sola factura.
+ */
+// El despachador programado no interviene: las pasadas las lanza el test
+@SpringBootTest(properties = "bnbillains.outbox.intervalo-ms=3600000")
+@ActiveProfiles("test")
+class FacturacionOutboxServiceTest {
+
+    @Autowired
+    private FacturacionOutboxService outbox;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    @Autowired
+    private ReservaService reservaService;
+
+    @Test
+    void lasFilasReclamadasPorOtroNodoSeSaltan() throws Exception {
+        long guarida = DatosPrueba.guarida(jdbcTemplate, "Faro facturado", 70.0);
+        long villano = DatosPrueba.villano(jdbcTemplate, "Contable");
+        long ocupada = DatosPrueba.reserva(jdbcTemplate, villano, guarida, LocalDate.of(2033, 1, 1), LocalDate.of(2033, 1, 3));
+        long libre = DatosPrueba.reserva(jdbcTemplate, villano, guarida, LocalDate.of(2033, 2, 1), LocalDate.of(2033, 2, 3));
+        encolar(ocupada);
+        encolar(libre);
+
+        // "Otro nodo" tiene reclamada la fila de 'ocupada' hasta que se le diga
+        CountDownLatch reclamada = new CountDownLatch(1);
+        CountDownLatch soltar = new CountDownLatch(1);
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        CompletableFuture<Void> otroNodo = CompletableFuture.runAsync(() -> tx.executeWithoutResult(estado -> {
+            jdbcTemplate.queryForList("SELECT id FROM factura_outbox WHERE reserva_id = ? FOR UPDATE", ocupada);
+            reclamada.countDown();
+            try {
+                soltar.await(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        assertThat(reclamada.await(30, TimeUnit.SECONDS)).isTrue();
+
+        outbox.despachar();
+
+        assertThat(facturas(libre)).isEqualTo(1);
+        assertThat(facturas(ocupada)).isZero();
+        assertThat(pendientes(ocupada)).isEqualTo(1);
+
+        soltar.countDown();
+        otroNodo.get(30, TimeUnit.SECONDS);
+        outbox.despachar();
+
+        assertThat(facturas(ocupada)).isEqualTo(1);
+        assertThat(pendientes(ocupada)).isZero();
+    }
+
+    @Test
+    void despachadoresSimultaneosNoDuplicanFacturas() throws Exception {
+        long guarida = DatosPrueba.guarida(jdbcTemplate, "Archivo concurrido", 40.0);
+        long villano = DatosPrueba.villano(jdbcTemplate, "Duplicador");
+        List<Long> reservas = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            LocalDate inicio = LocalDate.of(2034, 1, 1).plusDays(i * 3L);
+            long reserva = DatosPrueba.reserva(jdbcTemplate, villano, guarida, inicio, inicio.plusDays(1));
+            reservas.add(reserva);
+            encolar(reserva);
+            encolar(reserva);
+        }
+
+        CountDownLatch salida = new CountDownLatch(1);
+        List<Future<?>> nodos = new ArrayList<>();
+        try (ExecutorService hilos = Executors.newFixedThreadPool(4)) {
+            for (int i = 0; i < 4; i++) {
+                nodos.add(hilos.submit(() -> {
+                    salida.await();
+                    outbox.despachar();
+                    return null;
+                }));
+            }
+            salida.countDown();
+            for (Future<?> f : nodos) f.get(60, TimeUnit.SECONDS);
+        }
+        outbox.despachar();
+
+        for (Long reserva : reservas) {
+            assertThat(facturas(reserva)).isEqualTo(1);
+            assertThat(pendientes(reserva)).isZero();
+        }
+    }
+
+    @Test
+    void losIngresosSiguenALaFacturaAlCambiarDeImporteYDeGuarida() {
+        long faro = DatosPrueba.guarida(jdbcTemplate, "Faro contable", 70.0);
+        long bunker = DatosPrueba.guarida(jdbcTemplate, "Búnker contable", 90.0);
+        long villano = DatosPrueba.villano(jdbcTemplate, "Auditor");
+        LocalDate inicio = LocalDate.of(2035, 5, 1);
+        long reserva = DatosPrueba.reserva(jdbcTemplate, villano, faro, inicio, inicio.plusDays(2));
+        encolar(reserva);
+        outbox.despachar();
+        assertThat(ingresos(faro)).containsExactly(100.0, 1.0);
+
+        // Cambia el importe: se resta el antiguo y se suma el nuevo
+        jdbcTemplate.update("UPDATE reserva SET coste_total = 140 WHERE id = ?", reserva);
+        encolar(reserva);
+        outbox.despachar();
+        assertThat(ingresos(faro)).containsExactly(140.0, 1.0);
+
+        // Cambia de guarida (2 noches a 90): lo facturado se va con ella y la outbox ajusta el importe
+        reservaService.actualizar(reserva, DatosPrueba.nuevaReserva(villano, bunker, inicio, inicio.plusDays(2)));
+        outbox.despachar();
+        assertThat(ingresos(faro)).isEmpty();
+        assertThat(ingresos(bunker)).containsExactly(180.0, 1.0);
+    }
+
+    // Importe y número de facturas de hoy para la guarida (vacío si no hay fila)
+    private List<Double> ingresos(long guaridaId) {
+        return jdbcTemplate.query("SELECT importe, num_facturas FROM revenue_daily WHERE fecha = ? AND guarida_id = ?",
+                        (rs, i) -> List.of(rs.getDouble(1), rs.getDouble(2)), Date.valueOf(LocalDate.now()), guaridaId)
+                .stream().flatMap(List::stream).toList();
+    }
+
+    private void encolar(long reservaId) {
+        jdbcTemplate.update("INSERT INTO factura_outbox (reserva_id, creado_en, intentos) VALUES (?, ?, 0)",
+                reservaId, Timestamp.from(Instant.now()));
+    }
+
+    private long facturas(long reservaId) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM factura WHERE reserva_id = ?", Long.class, reservaId);
+    }
+
+    private long pendientes(long reservaId) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM factura_outbox WHERE reserva_id = ?", Long.class, reservaId);
+    }
+}
@@ -0,0 +1,54 @@
+package com.bnbillains.services;
+
+import com.bnbillains.entities.Guarida;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Los índices de búsqueda de guaridas solo olvidan una guarida cuando su borrado se confirma.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+class GuaridaServiceTest {
+
+    @Autowired
+    private GuaridaService guaridaService;
+    @Autowired
+    private IndiceTextoGuaridas indiceTexto;
+    @Autowired
+    private IndiceFacetas indiceFacetas;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    void unBorradoDeshechoNoLaQuitaDeLosIndices() {
+        if (!indiceTexto.estaListo()) indiceTexto.construir();
+        if (!indiceFacetas.estaListo()) indiceFacetas.construir();
+        Guarida guarida = guaridaService.guardar(new Guarida("Zigurat escarlata", "Con foso", "Babilonia", 300.0, null, null));
+        long id = guarida.getId();
+        int total = indiceFacetas.total();
+
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        tx.executeWithoutResult(estado -> {
+            guaridaService.eliminar(id);
+            estado.setRollbackOnly();
+        });
+
+        assertThat(indiceTexto.buscar("zigurat")).contains(id);
+        assertThat(indiceFacetas.total()).isEqualTo(total);
+
+        guaridaService.eliminar(id);
+
+        assertThat(indiceTexto.buscar("zigurat")).doesNotContain(id);
+        assertThat(indiceFacetas.total()).isEqualTo(total - 1);
+    }
+}
@@ -0,0 +1,119 @@
+package com.bnbillains.services;
+
+import com.bnbillains.repositories.ReservaRepository;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Latencia de la comprobación de solapes antes (consulta JPQL 'encontrarConflictos') y después
+ * ({@link IndiceDisponibilidad}) sobre el mismo conjunto de reservas y de consultas.
+ * <p>
+ * Las cifras salen en el log; el test solo exige que las dos rutas den la misma respuesta y que el
+ * índice no sea más lento que la BD, para que no dependa de la máquina que lo ejecute.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class IndiceDisponibilidadBenchmarkTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(IndiceDisponibilidadBenchmarkTest.class);
+
+    private static final int GUARIDAS = 40;
+    private static final int RESERVAS_POR_GUARIDA = 100;
+    private static final int CONSULTAS = 2_000;
+    private static final LocalDate HOY = LocalDate.of(2030, 1, 1);
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private ReservaRepository reservaRepository;
+    @Autowired
+    private IndiceDisponibilidad indiceDisponibilidad;
+
+    private final List<Long> guaridas = new ArrayList<>();
+
+    @BeforeAll
+    void sembrar() {
+        long villano = DatosPrueba.villano(jdbcTemplate, "Benchmark");
+        List<Object[]> filas = new ArrayList<>();
+        for (int g = 0; g < GUARIDAS; g++) {
+            long guarida = DatosPrueba.guarida(jdbcTemplate, "Guarida " + g, 100.0);
+            guaridas.add(guarida);
+            // Estancias de 3 días separadas por 1 libre: hay huecos y solapes que encontrar
+            for (int r = 0; r < RESERVAS_POR_GUARIDA; r++) {
+                LocalDate inicio = HOY.plusDays(r * 4L);
+                filas.add(new Object[]{Date.valueOf(inicio), Date.valueOf(inicio.plusDays(2)), 300.0, true, villano, guarida});
+            }
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO reserva (fecha_inicio, fecha_fin, coste_total, estado, villano_id, guarida_id) " +
+                "VALUES (?, ?, ?, ?, ?, ?)", filas);
+        indiceDisponibilidad.calentar();
+        assertThat(indiceDisponibilidad.estaCaliente()).isTrue();
+    }
+
+    @Test
+    void elIndiceRespondeLoMismoQueLaConsultaYMasRapido() {
+        List<Consulta> consultas = consultas(new Random(42));
+
+        // Calentamiento (JIT, caché de sentencias) de las dos rutas
+        for (int i = 0; i < 200; i++) {
+            Consulta c = consultas.get(i);
+            porBaseDeDatos(c);
+            porIndice(c);
+        }
+
+        boolean[] enBaseDeDatos = new boolean[CONSULTAS];
+        long inicio = System.nanoTime();
+        for (int i = 0; i < CONSULTAS; i++) enBaseDeDatos[i] = porBaseDeDatos(consultas.get(i));
+        long nanosBaseDeDatos = System.nanoTime() - inicio;
+
+        boolean[] enIndice = new boolean[CONSULTAS];
+        inicio = System.nanoTime();
+        for (int i = 0; i < CONSULTAS; i++) enIndice[i] = porIndice(consultas.get(i));
+        long nanosIndice = System.nanoTime() - inicio;
+
+        logger.info("Comprobación de solapes ({} reservas, {} consultas): JPQL {} µs/consulta, índice {} µs/consulta (x{}).",
+                GUARIDAS * RESERVAS_POR_GUARIDA, CONSULTAS,
+                String.format("%.2f", nanosBaseDeDatos / 1_000.0 / CONSULTAS),
+                String.format("%.2f", nanosIndice / 1_000.0 / CONSULTAS),
+                String.format("%.0f", (double) nanosBaseDeDatos / Math.max(1, nanosIndice)));
+
+        assertThat(enIndice).isEqualTo(enBaseDeDatos);
+        assertThat(nanosIndice).isLessThan(nanosBaseDeDatos);
+    }
+
+    private boolean porBaseDeDatos(Consulta c) {
+        return !reservaRepository.encontrarConflictos(c.guaridaId(), c.inicio(), c.fin()).isEmpty();
+    }
+
+    private boolean porIndice(Consulta c) {
+        return indiceDisponibilidad.hayConflicto(c.guaridaId(), c.inicio(), c.fin(), null).orElseThrow();
+    }
+
+    private List<Consulta> consultas(Random azar) {
+        List<Consulta> consultas = new ArrayList<>(CONSULTAS);
+        for (int i = 0; i < CONSULTAS; i++) {
+            LocalDate inicio = HOY.plusDays(azar.nextInt(RESERVAS_POR_GUARIDA * 4 + 20) - 10);
+            consultas.add(new Consulta(guaridas.get(azar.nextInt(guaridas.size())),
+                    inicio, inicio.plusDays(azar.nextInt(3))));
+        }
+        return consultas;
+    }
+
+    private record Consulta(Long guaridaId, LocalDate inicio, LocalDate fin) {}
+}
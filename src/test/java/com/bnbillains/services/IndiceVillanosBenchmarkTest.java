@@ -0,0 +1,91 @@
+package com.bnbillains.services;
+
+import com.bnbillains.entities.Villano;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Latencia de {@link IndiceVillanos#sugerir} con un millón de villanos: el autocompletado debe
+ * responder en menos de 5 ms en el percentil 99.
+ * <p>
+ * Nombres y alias salen de combinar sílabas (muchas palabras compartidas, como en la realidad) y las
+ * búsquedas mezclan prefijos a medio escribir con nombres completos con una letra cambiada.
+ * Las cifras salen en el log. El tamaño se puede bajar con {@code -Dbnbillains.benchmark.villanos=...}.
+ */
+class IndiceVillanosBenchmarkTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(IndiceVillanosBenchmarkTest.class);
+
+    private static final int VILLANOS = Integer.getInteger("bnbillains.benchmark.villanos", 1_000_000);
+    private static final int CONSULTAS = 5_000;
+    private static final int CALENTAMIENTO = 10_000;
+    private static final long P99_MAXIMO_NANOS = 5_000_000;
+    private static final String[] SILABAS = {
+            "ma", "lo", "ra", "ne", "zo", "tri", "ka", "vel", "mor", "dan", "gu", "sen", "pi", "tox", "bra",
+            "ul", "fe", "jo", "ker", "sa", "nu", "dra", "go", "li", "qui", "xen", "ba", "ro", "te", "vi"};
+
+    @Test
+    void elPercentil99EstaPorDebajoDe5Ms() {
+        Random azar = new Random(42);
+        IndiceVillanos indice = new IndiceVillanos(null);
+        Villano villano = new Villano();
+        long inicioCarga = System.nanoTime();
+        for (long id = 1; id <= VILLANOS; id++) {
+            villano.setId(id);
+            villano.setNombre(palabra(azar) + " " + palabra(azar));
+            villano.setAlias(palabra(azar));
+            indice.indexar(villano);
+        }
+        long msCarga = (System.nanoTime() - inicioCarga) / 1_000_000;
+
+        String[] consultas = new String[CONSULTAS];
+        for (int i = 0; i < CONSULTAS; i++) consultas[i] = consulta(azar);
+
+        // Calentamiento con otras consultas: con una sola CPU, el JIT compilando a la vez inflaría las medidas
+        for (int i = 0; i < CALENTAMIENTO; i++) indice.sugerir(consulta(azar), IndiceVillanos.MAX_SUGERENCIAS);
+
+        long[] nanos = new long[CONSULTAS];
+        int conResultados = 0;
+        for (int i = 0; i < CONSULTAS; i++) {
+            long inicio = System.nanoTime();
+            boolean hay = !indice.sugerir(consultas[i], IndiceVillanos.MAX_SUGERENCIAS).isEmpty();
+            nanos[i] = System.nanoTime() - inicio;
+            if (hay) conResultados++;
+        }
+        Arrays.sort(nanos);
+        long p50 = nanos[CONSULTAS / 2];
+        long p99 = nanos[(int) (CONSULTAS * 0.99)];
+
+        logger.info("Sugerencias de villanos ({} villanos, carga {} ms, {} consultas): p50 {} µs, p99 {} µs, máx {} µs.",
+                VILLANOS, msCarga, CONSULTAS, p50 / 1_000, p99 / 1_000, nanos[CONSULTAS - 1] / 1_000);
+
+        assertThat(conResultados).isGreaterThan(CONSULTAS * 9 / 10);
+        assertThat(p99).isLessThan(P99_MAXIMO_NANOS);
+    }
+
+    private static String palabra(Random azar) {
+        StringBuilder sb = new StringBuilder();
+        int silabas = 2 + azar.nextInt(3);
+        for (int i = 0; i < silabas; i++) sb.append(SILABAS[azar.nextInt(SILABAS.length)]);
+        sb.setCharAt(0, Character.toUpperCase(sb.charAt(0)));
+        return sb.toString();
+    }
+
+    // Mitad prefijos de 2 a 5 letras, mitad nombre de dos palabras con una letra cambiada
+    private static String consulta(Random azar) {
+        if (azar.nextBoolean()) {
+            String p = palabra(azar).toLowerCase();
+            return p.substring(0, Math.min(p.length(), 2 + azar.nextInt(4)));
+        }
+        char[] texto = (palabra(azar) + " " + palabra(azar)).toLowerCase().toCharArray();
+        int i = azar.nextInt(texto.length);
+        if (texto[i] != ' ') texto[i] = (char) ('a' + azar.nextInt(26));
+        return new String(texto);
+    }
+}
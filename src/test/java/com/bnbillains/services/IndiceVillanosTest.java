@@ -0,0 +1,96 @@
+package com.bnbillains.services;
+
+import com.bnbillains.dto.SugerenciaVillano;
+import com.bnbillains.entities.Villano;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Sugerencias por trigramas (con erratas) y por prefijo, y mantenimiento del índice al editar,
+ * borrar y compactar. Se alimenta con {@code indexar}, sin BD.
+ */
+class IndiceVillanosTest {
+
+    private final IndiceVillanos indice = new IndiceVillanos(null);
+
+    @Test
+    void encuentraConUnaLetraCambiada() {
+        indexar(1L, "Arthur Fleck", "Joker");
+        indexar(2L, "Oswald Cobblepot", "Pingüino");
+        indexar(3L, "Edward Nygma", "Acertijo");
+
+        assertThat(ids(indice.sugerir("jocker", 5))).first().isEqualTo(1L);
+        assertThat(ids(indice.sugerir("pinguino", 5))).first().isEqualTo(2L);
+        assertThat(ids(indice.sugerir("edwrd nigma", 5))).first().isEqualTo(3L);
+    }
+
+    @Test
+    void encuentraLaPalabraAMedioEscribir() {
+        indexar(1L, "Arthur Fleck", "Joker");
+        indexar(2L, "Jonathan Crane", "Espantapájaros");
+        indexar(3L, "Harleen Quinzel", "Harley");
+
+        assertThat(ids(indice.sugerir("jok", 5))).first().isEqualTo(1L);
+        assertThat(ids(indice.sugerir("espan", 5))).first().isEqualTo(2L);
+        // La última palabra cuenta como prefijo; las anteriores, por trigramas
+        assertThat(ids(indice.sugerir("harleen qu", 5))).first().isEqualTo(3L);
+        assertThat(indice.sugerir("zzz", 5)).isEmpty();
+    }
+
+    @Test
+    void unaEdicionSustituyeAlVillanoYUnBorradoLoQuita() {
+        indexar(1L, "Selina Kyle", "Gatúbela");
+        indexar(2L, "Pamela Isley", "Hiedra Venenosa");
+
+        indexar(1L, "Selina Kyle", "Catwoman");
+        assertThat(ids(indice.sugerir("gatubela", 5))).doesNotContain(1L);
+        List<SugerenciaVillano> porAlias = indice.sugerir("catwo", 5);
+        assertThat(ids(porAlias)).containsExactly(1L);
+        assertThat(porAlias.get(0).alias()).isEqualTo("Catwoman");
+
+        indice.quitar(2L);
+        assertThat(ids(indice.sugerir("hiedra", 5))).doesNotContain(2L);
+        assertThat(ids(indice.sugerir("selina", 5))).containsExactly(1L);
+    }
+
+    @Test
+    void lasEdicionesAntiguasNoTapanElPrefijoDelVillano() {
+        // 250 ediciones: 249 huecos muertos con la misma palabra, por debajo del umbral de compactación
+        for (int i = 0; i < 250; i++) indexar(1L, "Victor Fries", "Plateado");
+
+        // Las primeras palabras no casan con nadie: solo el trie (prefijo "pla") lo puede encontrar
+        assertThat(ids(indice.sugerir("xyzw qrst pla", 5))).containsExactly(1L);
+    }
+
+    @Test
+    void compactaCuandoSobranHuecosMuertosYConservaLosVivos() {
+        indexar(1L, "Bane", "Bane");
+        indexar(2L, "Ra's al Ghul", "Cabeza de Demonio");
+        indexar(3L, "Waylon Jones", "Killer Croc");
+        indice.quitar(3L);
+
+        // Más de 1000 muertos y más de la cuarta parte de los huecos: se compacta
+        for (int i = 0; i <= 1000; i++) indexar(1L, "Bane", i % 2 == 0 ? "Bane" : "Venom");
+
+        assertThat(indice.huecosOcupados()).isLessThan(10);
+        assertThat(ids(indice.sugerir("bane", 5))).containsExactly(1L);
+        assertThat(ids(indice.sugerir("ghul", 5))).containsExactly(2L);
+        assertThat(ids(indice.sugerir("killer croc", 5))).isEmpty();
+        assertThat(ids(indice.sugerir("venom", 5))).doesNotContain(1L);
+    }
+
+    private void indexar(Long id, String nombre, String alias) {
+        Villano villano = new Villano();
+        villano.setId(id);
+        villano.setNombre(nombre);
+        villano.setAlias(alias);
+        indice.indexar(villano);
+    }
+
+    private static List<Long> ids(List<SugerenciaVillano> sugerencias) {
+        return sugerencias.stream().map(SugerenciaVillano::id).toList();
+    }
+}
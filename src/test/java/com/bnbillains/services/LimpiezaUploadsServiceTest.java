@@ -0,0 +1,46 @@
+package com.bnbillains.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Al soltar una imagen van a cuarentena el original y sus copias reducidas, y nada más, aunque el
+ * nombre lleve caracteres que en un patrón glob significan otra cosa.
+ */
+class LimpiezaUploadsServiceTest {
+
+    @TempDir
+    Path carpeta;
+
+    @Test
+    void soloSusCopiasAunqueElNombreParezcaUnGlob() throws Exception {
+        for (String nombre : new String[]{"foto[1].png", "foto[1]-w320.jpg", "foto[1]-w1280.jpg",
+                "foto1-w320.jpg", "foto{a,b}.png", "foto{a,b}-w640.jpg"}) {
+            Files.writeString(carpeta.resolve(nombre), nombre);
+        }
+        FileStorageService fileStorageService = mock(FileStorageService.class);
+        when(fileStorageService.referencias(anyString())).thenReturn(0L);
+        LimpiezaUploadsService limpieza = new LimpiezaUploadsService(null, fileStorageService,
+                new SimpleMeterRegistry(), carpeta.toString(), 7);
+
+        limpieza.alLiberarImagen(new ImagenLiberadaEvent("foto[1].png"));
+        limpieza.alLiberarImagen(new ImagenLiberadaEvent("foto{a,b}.png"));
+
+        Path cuarentena = carpeta.resolve(FileStorageService.CARPETA_CUARENTENA);
+        assertThat(cuarentena.resolve("foto[1].png")).exists();
+        assertThat(cuarentena.resolve("foto[1]-w320.jpg")).exists();
+        assertThat(cuarentena.resolve("foto[1]-w1280.jpg")).exists();
+        assertThat(cuarentena.resolve("foto{a,b}-w640.jpg")).exists();
+        // "foto[1]-w[0-9]*.jpg" como glob también casaría con esta, que es de otra imagen
+        assertThat(carpeta.resolve("foto1-w320.jpg")).exists();
+    }
+}
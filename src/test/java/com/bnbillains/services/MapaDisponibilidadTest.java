@@ -0,0 +1,41 @@
+package com.bnbillains.services;
+
+import com.bnbillains.entities.Reserva;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.LocalDate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+@ActiveProfiles("test")
+class MapaDisponibilidadTest {
+
+    @Autowired
+    private ReservaService reservaService;
+    @Autowired
+    private MapaDisponibilidad mapaDisponibilidad;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void moverUnaReservaDeGuaridaLiberaLaDeOrigen() {
+        long origen = DatosPrueba.guarida(jdbcTemplate, "Guarida de origen", 100.0);
+        long destino = DatosPrueba.guarida(jdbcTemplate, "Guarida de destino", 100.0);
+        long villano = DatosPrueba.villano(jdbcTemplate, "Mudanzas");
+        // Dentro del horizonte del mapa de bits (no cae en la consulta de respaldo)
+        LocalDate inicio = LocalDate.now().plusDays(10);
+        LocalDate fin = inicio.plusDays(3);
+
+        Reserva reserva = reservaService.guardar(DatosPrueba.nuevaReserva(villano, origen, inicio, fin));
+        assertThat(mapaDisponibilidad.guaridasOcupadas(inicio, fin)).contains(origen).doesNotContain(destino);
+
+        reservaService.actualizar(reserva.getId(), DatosPrueba.nuevaReserva(villano, destino, inicio, fin));
+
+        assertThat(mapaDisponibilidad.guaridasOcupadas(inicio, fin)).contains(destino).doesNotContain(origen);
+    }
+}
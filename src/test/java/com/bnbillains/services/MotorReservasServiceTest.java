@@ -0,0 +1,95 @@
+package com.bnbillains.services;
+
+import com.bnbillains.entities.Reserva;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Prueba de carga de los carriles: muchas reservas a la vez sobre las mismas fechas de una guarida
+ * y solo una puede salir adelante.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+class MotorReservasServiceTest {
+
+    private static final int PETICIONES = 64;
+
+    @Autowired
+    private MotorReservasService motorReservas;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void reservasSimultaneasSolapadasDejanUnaSola() throws Exception {
+        long guarida = DatosPrueba.guarida(jdbcTemplate, "Volcán concurrido", 100.0);
+        long villano = DatosPrueba.villano(jdbcTemplate, "Impaciente");
+        LocalDate inicio = LocalDate.of(2031, 3, 1);
+
+        // Todas se solapan con todas: comparten al menos el día 'inicio + 3'
+        List<Resultado> resultados = lanzarALaVez(PETICIONES, i ->
+                DatosPrueba.nuevaReserva(villano, guarida, inicio.plusDays(i % 4), inicio.plusDays(3 + i % 5)));
+
+        assertThat(resultados).filteredOn(Resultado::exito).hasSize(1);
+        assertThat(resultados).filteredOn(r -> !r.exito())
+                .allSatisfy(r -> assertThat(r.error()).isInstanceOf(IllegalArgumentException.class));
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM reserva WHERE guarida_id = ?", Long.class, guarida))
+                .isEqualTo(1L);
+    }
+
+    @Test
+    void guaridasDistintasNoSeBloqueanEntreSi() throws Exception {
+        long villano = DatosPrueba.villano(jdbcTemplate, "Coleccionista");
+        List<Long> guaridas = new ArrayList<>();
+        for (int i = 0; i < 16; i++) guaridas.add(DatosPrueba.guarida(jdbcTemplate, "Búnker " + i, 50.0));
+        LocalDate inicio = LocalDate.of(2031, 6, 1);
+
+        List<Resultado> resultados = lanzarALaVez(guaridas.size(), i ->
+                DatosPrueba.nuevaReserva(villano, guaridas.get(i), inicio, inicio.plusDays(2)));
+
+        assertThat(resultados).allMatch(Resultado::exito);
+    }
+
+    // Arranca todas las peticiones a la vez desde hilos distintos y espera a que terminen
+    private List<Resultado> lanzarALaVez(int n, IntFunction<Reserva> reserva) throws Exception {
+        CountDownLatch salida = new CountDownLatch(1);
+        List<Future<Reserva>> futuros = new ArrayList<>();
+        try (ExecutorService hilos = Executors.newFixedThreadPool(n)) {
+            for (int i = 0; i < n; i++) {
+                Reserva r = reserva.apply(i);
+                futuros.add(hilos.submit(() -> {
+                    salida.await();
+                    return motorReservas.reservar(r);
+                }));
+            }
+            salida.countDown();
+            List<Resultado> resultados = new ArrayList<>();
+            for (Future<Reserva> f : futuros) {
+                try {
+                    f.get(60, TimeUnit.SECONDS);
+                    resultados.add(new Resultado(true, null));
+                } catch (ExecutionException e) {
+                    resultados.add(new Resultado(false, e.getCause()));
+                }
+            }
+            return resultados;
+        }
+    }
+
+    private record Resultado(boolean exito, Throwable error) {}
+}
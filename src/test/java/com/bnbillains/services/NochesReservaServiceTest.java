@@ -0,0 +1,152 @@
+package com.bnbillains.services;
+
+import com.bnbillains.BnBillainsApplication;
+import com.bnbillains.entities.Reserva;
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Modo cluster: la clave primaria de 'reserva_noche' es la que impide el solape cuando la comprobación
+ * previa no ve la reserva del otro (transacción sin confirmar, otro nodo con sus propios carriles).
+ */
+@SpringBootTest(properties = {
+        "bnbillains.reservas.modo-cluster=true",
+        // La segunda inserción espera a que la primera transacción termine (por defecto H2 corta a 1 s)
+        "spring.datasource.url=jdbc:h2:mem:bnbillains_${random.uuid};MODE=MySQL;DATABASE_TO_LOWER=TRUE;" +
+                "NON_KEYWORDS=VALUE;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=30000"
+})
+@ActiveProfiles("test")
+class NochesReservaServiceTest {
+
+    @Autowired
+    private ReservaService reservaService;
+    @Autowired
+    private MotorReservasService motorReservas;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    @Autowired
+    private DataSource dataSource;
+
+    @Test
+    void laSegundaTransaccionSolapadaFallaYSeDeshace() throws Exception {
+        long guarida = DatosPrueba.guarida(jdbcTemplate, "Torre disputada", 80.0);
+        long villano = DatosPrueba.villano(jdbcTemplate, "Madrugador");
+        LocalDate inicio = LocalDate.of(2032, 5, 10);
+
+        CountDownLatch ocupado = new CountDownLatch(1);
+        CountDownLatch confirmar = new CountDownLatch(1);
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+
+        // Primera transacción: reserva y ocupa los días, pero no confirma hasta que se le diga
+        CompletableFuture<Long> primera = CompletableFuture.supplyAsync(() -> tx.execute(estado -> {
+            Reserva r = reservaService.guardar(DatosPrueba.nuevaReserva(villano, guarida, inicio, inicio.plusDays(4)));
+            ocupado.countDown();
+            esperar(confirmar);
+            return r.getId();
+        }));
+        assertThat(ocupado.await(30, TimeUnit.SECONDS)).isTrue();
+
+        // Segunda: su comprobación previa no ve la reserva sin confirmar, así que llega a 'ocupar'
+        // y se queda esperando el cerrojo de la fila (guarida, día) hasta que la primera confirma
+        CompletableFuture<Long> segunda = CompletableFuture.supplyAsync(() ->
+                reservaService.guardar(DatosPrueba.nuevaReserva(villano, guarida, inicio.plusDays(2), inicio.plusDays(6))).getId());
+        Thread.sleep(300);
+        confirmar.countDown();
+
+        long idPrimera = primera.get(30, TimeUnit.SECONDS);
+        assertThatThrownBy(() -> segunda.get(30, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(IllegalArgumentException.class);
+
+        // La segunda se ha deshecho entera: ni reserva ni días
+        assertThat(jdbcTemplate.queryForList("SELECT id FROM reserva WHERE guarida_id = ?", Long.class, guarida))
+                .containsExactly(idPrimera);
+        assertThat(jdbcTemplate.queryForList("SELECT DISTINCT reserva_id FROM reserva_noche WHERE guarida_id = ?",
+                Long.class, guarida)).containsExactly(idPrimera);
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM reserva_noche WHERE guarida_id = ?",
+                Long.class, guarida)).isEqualTo(5L);
+    }
+
+    @Test
+    void dosNodosContraLaMismaBaseDeDatosNoSolapan() throws Exception {
+        long guarida = DatosPrueba.guarida(jdbcTemplate, "Búnker compartido", 120.0);
+        long villano = DatosPrueba.villano(jdbcTemplate, "Ubicuo");
+        LocalDate inicio = LocalDate.of(2032, 8, 1);
+
+        // Segundo "nodo": otro contexto completo (sus propios carriles e índices) sobre la misma BD en memoria.
+        // Como argumentos, que mandan sobre application-test.properties (las 'properties' por defecto no).
+        // Sin cache L2: el CacheManager de JCache es único en la JVM y, al cerrar este contexto, Hibernate
+        // lo cerraría también para los demás contextos de test.
+        String url = ((HikariDataSource) dataSource).getJdbcUrl();
+        try (ConfigurableApplicationContext nodo2 = new SpringApplicationBuilder(BnBillainsApplication.class)
+                .profiles("test")
+                .run("--spring.datasource.url=" + url, "--server.port=0", "--bnbillains.reservas.modo-cluster=true",
+                        "--spring.jpa.properties.hibernate.cache.use_second_level_cache=false",
+                        "--spring.jpa.properties.hibernate.cache.use_query_cache=false")) {
+            MotorReservasService motorNodo2 = nodo2.getBean(MotorReservasService.class);
+
+            int peticiones = 32;
+            CountDownLatch salida = new CountDownLatch(1);
+            List<Future<Reserva>> futuros = new ArrayList<>();
+            try (ExecutorService hilos = Executors.newFixedThreadPool(peticiones)) {
+                for (int i = 0; i < peticiones; i++) {
+                    MotorReservasService motor = (i % 2 == 0) ? motorReservas : motorNodo2;
+                    Reserva r = DatosPrueba.nuevaReserva(villano, guarida, inicio.plusDays(i % 3), inicio.plusDays(3 + i % 4));
+                    futuros.add(hilos.submit(() -> {
+                        salida.await();
+                        return motor.reservar(r);
+                    }));
+                }
+                salida.countDown();
+                int exitos = 0;
+                for (Future<Reserva> f : futuros) {
+                    try {
+                        f.get(60, TimeUnit.SECONDS);
+                        exitos++;
+                    } catch (ExecutionException e) {
+                        // Rechazada por solape, no porque el otro nodo no vea la guarida
+                        assertThat(e.getCause()).isInstanceOf(IllegalArgumentException.class)
+                                .hasMessageContaining("ocupada");
+                    }
+                }
+                assertThat(exitos).isEqualTo(1);
+            }
+        }
+
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM reserva WHERE guarida_id = ?", Long.class, guarida))
+                .isEqualTo(1L);
+    }
+
+    private static void esperar(CountDownLatch latch) {
+        try {
+            latch.await(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.bnbillains.services;
+
+import com.bnbillains.entities.Guarida;
+import com.bnbillains.entities.Resena;
+import com.bnbillains.entities.Villano;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * El índice de comentarios solo ve las reseñas confirmadas: lo que se deshace no se indexa.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+class ResenaServiceTest {
+
+    @Autowired
+    private ResenaService resenaService;
+    @Autowired
+    private IndiceResenas indiceResenas;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private long guarida;
+    private long villano;
+
+    @BeforeEach
+    void preparar() {
+        guarida = DatosPrueba.guarida(jdbcTemplate, "Cripta reseñada", 90.0);
+        villano = DatosPrueba.villano(jdbcTemplate, "Crítico");
+        if (!indiceResenas.estaListo()) indiceResenas.construir();
+    }
+
+    @Test
+    void unaResenaDeshechaNoLlegaAlIndice() {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        tx.executeWithoutResult(estado -> {
+            resenaService.guardar(nuevaResena("Sótano con eco fantasmagórico"));
+            assertThat(indiceResenas.buscar("fantasmagórico", 0, 10).total()).isZero();
+            estado.setRollbackOnly();
+        });
+
+        assertThat(indiceResenas.buscar("fantasmagórico", 0, 10).total()).isZero();
+    }
+
+    @Test
+    void elIndiceSeActualizaTrasElCommit() {
+        Resena guardada = resenaService.guardar(nuevaResena("Foso de cocodrilos impecable"));
+        assertThat(indiceResenas.buscar("cocodrilos", 0, 10).ids()).containsExactly(guardada.getId());
+
+        resenaService.eliminar(guardada.getId());
+        assertThat(indiceResenas.buscar("cocodrilos", 0, 10).total()).isZero();
+    }
+
+    private Resena nuevaResena(String comentario) {
+        Villano v = new Villano();
+        v.setId(villano);
+        Guarida g = new Guarida();
+        g.setId(guarida);
+        return new Resena(comentario, 4L, LocalDate.of(2030, 1, 1), v, g);
+    }
+}
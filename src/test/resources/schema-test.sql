@@ -0,0 +1,178 @@
+-- Esquema de schema.sql para los tests (H2 en modo MySQL): sin DROP/USE DATABASE ni SET,
+-- y con los índices como CREATE INDEX aparte, al final.
+-- Cualquier tabla, columna o índice nuevo de schema.sql se copia aquí: EsquemaPruebaTest
+-- comprueba que los dos ficheros tienen las mismas tablas, columnas e índices.
+-- =========================================================
+-- 1. TABLAS INDEPENDIENTES
+-- =========================================================
+
+CREATE TABLE IF NOT EXISTS sala_secreta (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    codigo_acceso VARCHAR(8) NOT NULL,
+    funcion_principal VARCHAR(255) NOT NULL,
+    salida_emergencia BOOLEAN DEFAULT FALSE
+);
+
+CREATE TABLE IF NOT EXISTS comodidad (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    nombre VARCHAR(255) NOT NULL UNIQUE,
+    auto_destruccion BOOLEAN DEFAULT FALSE
+);
+
+CREATE TABLE IF NOT EXISTS villano (
+     id BIGINT AUTO_INCREMENT PRIMARY KEY,
+     nombre VARCHAR(255) NOT NULL,
+     alias VARCHAR(255) NOT NULL,
+     carne_villano VARCHAR(20) NOT NULL UNIQUE,
+     email VARCHAR(255) NOT NULL UNIQUE
+);
+
+-- =========================================================
+-- 2. ENTIDADES PRINCIPALES
+-- =========================================================
+
+-- Tabla Guarida (1:1 con Sala Secreta)
+CREATE TABLE IF NOT EXISTS guarida (
+     id BIGINT AUTO_INCREMENT PRIMARY KEY,
+     nombre VARCHAR(255) NOT NULL,
+     descripcion VARCHAR(1000),
+     ubicacion VARCHAR(255) NOT NULL,
+     precio_noche DECIMAL(10, 2) NOT NULL,
+     imagen VARCHAR(255),
+     -- Anchos de las copias reducidas de la imagen (ej: "480,960,1920"); NULL = pendientes de generar
+     imagen_variantes VARCHAR(100),
+     sala_secreta_id BIGINT UNIQUE,
+     FOREIGN KEY (sala_secreta_id) REFERENCES sala_secreta(id) 
+        ON DELETE CASCADE ON UPDATE CASCADE,
+     CONSTRAINT chk_precio_positivo CHECK (precio_noche > 0)
+);
+
+-- Tabla Intermedia (N:M Guarida-Comodidad)
+CREATE TABLE IF NOT EXISTS guarida_comodidades (
+     guarida_id BIGINT,
+     comodidades_id BIGINT,
+     PRIMARY KEY (guarida_id, comodidades_id),
+     FOREIGN KEY (guarida_id) REFERENCES guarida(id)
+         ON DELETE CASCADE ON UPDATE CASCADE,
+     FOREIGN KEY (comodidades_id) REFERENCES comodidad(id)
+         ON DELETE CASCADE ON UPDATE CASCADE
+);
+
+-- =========================================================
+-- 3. TRANSACCIONES Y NEGOCIO
+-- =========================================================
+
+-- Tabla Reserva (N:1 con Villano y Guarida)
+CREATE TABLE IF NOT EXISTS reserva (
+     id BIGINT AUTO_INCREMENT PRIMARY KEY,
+     fecha_inicio DATE NOT NULL,
+     fecha_fin DATE NOT NULL,
+     coste_total DECIMAL(10, 2) NOT NULL,
+     estado BOOLEAN DEFAULT FALSE,
+     villano_id BIGINT,
+     guarida_id BIGINT,
+     FOREIGN KEY (villano_id) REFERENCES villano(id)
+         ON DELETE CASCADE ON UPDATE CASCADE,
+     FOREIGN KEY (guarida_id) REFERENCES guarida(id)
+         ON DELETE CASCADE ON UPDATE CASCADE,
+     CONSTRAINT chk_fechas_validas CHECK (fecha_inicio < fecha_fin),
+     CONSTRAINT chk_coste_positivo CHECK (coste_total >= 0)
+);
+
+-- Tabla de ocupación por días (modo cluster): una fila por guarida y día ocupado.
+-- La clave primaria (guarida_id, fecha) impide a nivel de BD que dos reservas se solapen,
+-- aunque las inserten nodos distintos a la vez. Los días son inclusivos (fecha_inicio..fecha_fin),
+-- igual que la comprobación de conflictos de ReservaRepository.
+CREATE TABLE IF NOT EXISTS reserva_noche (
+     guarida_id BIGINT NOT NULL,
+     fecha DATE NOT NULL,
+     reserva_id BIGINT NOT NULL,
+     PRIMARY KEY (guarida_id, fecha),
+     FOREIGN KEY (guarida_id) REFERENCES guarida(id)
+         ON DELETE CASCADE ON UPDATE CASCADE,
+     FOREIGN KEY (reserva_id) REFERENCES reserva(id)
+         ON DELETE CASCADE ON UPDATE CASCADE
+);
+
+-- Tabla Factura (1:1 con Reserva)
+CREATE TABLE IF NOT EXISTS factura (
+     id BIGINT AUTO_INCREMENT PRIMARY KEY,
+     fecha_emision DATE NOT NULL,
+     importe DECIMAL(10, 2) NOT NULL,
+     impuestos_malignos DECIMAL(10, 2) DEFAULT 0.0,
+     metodo_pago VARCHAR(255),
+     reserva_id BIGINT UNIQUE,
+     FOREIGN KEY (reserva_id) REFERENCES reserva(id)
+         ON DELETE CASCADE ON UPDATE CASCADE,
+     CONSTRAINT chk_importe_positivo CHECK (importe >= 0)
+);
+
+-- Outbox de facturación: peticiones de factura escritas en la transacción de cada reserva.
+-- Las vacía por lotes FacturacionOutboxService (la fila se borra al procesarla).
+CREATE TABLE IF NOT EXISTS factura_outbox (
+     id BIGINT AUTO_INCREMENT PRIMARY KEY,
+     reserva_id BIGINT NOT NULL,
+     creado_en TIMESTAMP(3) NOT NULL,
+     intentos INT NOT NULL DEFAULT 0,
+     ultimo_error VARCHAR(500),
+     FOREIGN KEY (reserva_id) REFERENCES reserva(id)
+         ON DELETE CASCADE ON UPDATE CASCADE
+);
+
+-- Tabla Reseña (N:1 con Villano y Guarida)
+CREATE TABLE IF NOT EXISTS resena (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    comentario VARCHAR(1000),
+    puntuacion BIGINT NOT NULL,
+    fecha_publicacion DATE,
+    villano_id BIGINT,
+    guarida_id BIGINT,
+    FOREIGN KEY (villano_id) REFERENCES villano(id)
+        ON DELETE CASCADE ON UPDATE CASCADE,
+    FOREIGN KEY (guarida_id) REFERENCES guarida(id)
+        ON DELETE CASCADE ON UPDATE CASCADE,
+    CONSTRAINT chk_puntuacion_rango CHECK (puntuacion >= 1 AND puntuacion <= 5)
+);
+
+-- Valoración agregada por guarida (modelo de lectura de 'resena'): se actualiza en la misma
+-- transacción que cada reseña, así que media e histograma no necesitan un GROUP BY.
+CREATE TABLE IF NOT EXISTS guarida_rating_stats (
+    guarida_id BIGINT PRIMARY KEY,
+    num_resenas BIGINT NOT NULL DEFAULT 0,
+    suma_puntuaciones BIGINT NOT NULL DEFAULT 0,
+    media DOUBLE NOT NULL DEFAULT 0,
+    estrellas_1 BIGINT NOT NULL DEFAULT 0,
+    estrellas_2 BIGINT NOT NULL DEFAULT 0,
+    estrellas_3 BIGINT NOT NULL DEFAULT 0,
+    estrellas_4 BIGINT NOT NULL DEFAULT 0,
+    estrellas_5 BIGINT NOT NULL DEFAULT 0,
+    FOREIGN KEY (guarida_id) REFERENCES guarida(id)
+        ON DELETE CASCADE ON UPDATE CASCADE
+);
+
+-- Ingresos por día (modelo de lectura de 'factura' para finanzas): una fila por día de emisión,
+-- guarida y método de pago, actualizada en la misma transacción que cada factura.
+-- Sin FK a guarida: 0 identifica las facturas sin reserva.
+CREATE TABLE IF NOT EXISTS revenue_daily (
+    fecha DATE NOT NULL,
+    guarida_id BIGINT NOT NULL DEFAULT 0,
+    metodo_pago VARCHAR(255) NOT NULL DEFAULT '',
+    importe DECIMAL(14, 2) NOT NULL DEFAULT 0,
+    impuestos DECIMAL(14, 2) NOT NULL DEFAULT 0,
+    num_facturas BIGINT NOT NULL DEFAULT 0,
+    PRIMARY KEY (fecha, guarida_id, metodo_pago)
+);
+
+-- =========================================================
+-- ÍNDICES (en schema.sql van dentro de cada CREATE TABLE)
+-- =========================================================
+
+-- Para la paginación por cursor del listado (ORDER BY fecha_inicio, id)
+CREATE INDEX IF NOT EXISTS idx_reserva_fecha_inicio ON reserva (fecha_inicio, id);
+CREATE INDEX IF NOT EXISTS idx_reserva_noche_reserva ON reserva_noche (reserva_id);
+-- Para la paginación por cursor del listado (ORDER BY fecha/importe, id)
+CREATE INDEX IF NOT EXISTS idx_factura_fecha_emision ON factura (fecha_emision, id);
+CREATE INDEX IF NOT EXISTS idx_factura_importe ON factura (importe, id);
+CREATE INDEX IF NOT EXISTS idx_factura_outbox_pendientes ON factura_outbox (intentos, id);
+-- Para "ordenar por valoración"
+CREATE INDEX IF NOT EXISTS idx_rating_media ON guarida_rating_stats (media, num_resenas);